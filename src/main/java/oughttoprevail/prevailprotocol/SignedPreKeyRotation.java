@@ -0,0 +1,348 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import oughttoprevail.prevailprotocol.keys.SignedPreKey;
+import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.util.Consumer;
+
+/**
+ * A {@link SignedPreKeyRotation} changes the signed pre keys of many {@link User}s when they expire.
+ * Instead of every user scheduling it's own task, the expiration times of all the users are kept in a priority queue and a single task is
+ * scheduled for the earliest expiration time. When it runs all the expired signed pre keys are collected in a single batch and every change (the
+ * key generation and storage flush) is executed by the worker executor, after a change the user is queued again with the expiration time of it's
+ * new signed pre key.
+ * A user is added to {@link Settings#getSignedPreKeyRotation()} by {@link User#startSignedPreKeyRotation()} (which the public constructors of
+ * {@link User} and {@link UserManager} invoke once the user is constructed) and is removed when it's closed or deleted.
+ */
+public class SignedPreKeyRotation
+{
+	/**
+	 * Milliseconds to wait before changing a signed pre key again after the change failed
+	 */
+	static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+	
+	/**
+	 * Scheduler of the task which collects the expired signed pre keys
+	 */
+	private final ScheduledExecutorService scheduler;
+	/**
+	 * Executor of the signed pre key changes
+	 */
+	private final Executor executor;
+	/**
+	 * Current time in milliseconds, the expiration times are compared to it
+	 */
+	private final LongSupplier clock;
+	/**
+	 * Invoked with the exceptions thrown while changing signed pre keys
+	 */
+	private final Consumer<Throwable> exceptionCatcher;
+	/**
+	 * Rotations ordered by expiration time, removed rotations stay in the queue (without their user) until they are polled or purged (once they
+	 * are more than half of the queue)
+	 */
+	private final PriorityQueue<Rotation> queue;
+	/**
+	 * Map of user to it's rotation, a rotation whose signed pre key is being changed is in this map but not in the {@link #queue}
+	 */
+	private final Map<User, Rotation> rotations;
+	/**
+	 * Lock for changes in the {@link #queue}, {@link #rotations} and scheduled task
+	 */
+	private final Object lock = new Object();
+	/**
+	 * Amount of removed rotations in the {@link #queue}
+	 */
+	private int removedRotations;
+	/**
+	 * The scheduled task or {@code null} if a task isn't scheduled
+	 */
+	private ScheduledFuture<?> scheduledRotation;
+	/**
+	 * The time the {@link #scheduledRotation} runs at in milliseconds
+	 */
+	private long scheduledRotationTime;
+	
+	/**
+	 * Constructs a new {@link SignedPreKeyRotation} which prints the exceptions thrown while changing signed pre keys.
+	 *
+	 * @param scheduler to schedule the collection of expired signed pre keys with
+	 * @param executor to execute the signed pre key changes with
+	 */
+	public SignedPreKeyRotation(ScheduledExecutorService scheduler, Executor executor)
+	{
+		this(scheduler, executor, Throwable::printStackTrace);
+	}
+	
+	/**
+	 * Constructs a new {@link SignedPreKeyRotation}.
+	 *
+	 * @param scheduler to schedule the collection of expired signed pre keys with
+	 * @param executor to execute the signed pre key changes with
+	 * @param exceptionCatcher to invoke with the exceptions thrown while changing signed pre keys, a failed change is retried after
+	 * {@link #RETRY_DELAY} milliseconds
+	 */
+	public SignedPreKeyRotation(ScheduledExecutorService scheduler, Executor executor, Consumer<Throwable> exceptionCatcher)
+	{
+		this(scheduler, executor, exceptionCatcher, System::currentTimeMillis);
+	}
+	
+	/**
+	 * Constructs a new {@link SignedPreKeyRotation} with the specified clock.
+	 *
+	 * @param scheduler to schedule the collection of expired signed pre keys with
+	 * @param executor to execute the signed pre key changes with
+	 * @param exceptionCatcher to invoke with the exceptions thrown while changing signed pre keys
+	 * @param clock of the current time in milliseconds
+	 */
+	SignedPreKeyRotation(ScheduledExecutorService scheduler, Executor executor, Consumer<Throwable> exceptionCatcher, LongSupplier clock)
+	{
+		this.scheduler = scheduler;
+		this.executor = executor;
+		this.exceptionCatcher = exceptionCatcher;
+		this.clock = clock;
+		this.queue = new PriorityQueue<>((rotation, otherRotation) -> Long.compare(rotation.expirationTime, otherRotation.expirationTime));
+		this.rotations = new HashMap<>();
+	}
+	
+	/**
+	 * Queues the specified user to have it's signed pre key changed when it expires, if the user is already queued this does nothing.
+	 *
+	 * @param user to queue
+	 */
+	void add(User user)
+	{
+		synchronized(lock)
+		{
+			if(rotations.containsKey(user))
+			{
+				return;
+			}
+			Rotation rotation = new Rotation(user, user.getSignedPreKeyExpirationTime());
+			rotations.put(user, rotation);
+			enqueue(rotation);
+		}
+	}
+	
+	/**
+	 * Removes the specified user from the queue, a change which is already in progress is finished but the user isn't queued again.
+	 *
+	 * @param user to remove
+	 */
+	void remove(User user)
+	{
+		synchronized(lock)
+		{
+			Rotation rotation = rotations.remove(user);
+			if(rotation == null)
+			{
+				return;
+			}
+			//the rotation is left in the queue since removing it is linear, it's user is cleared so the user can be collected
+			rotation.user = null;
+			if(!rotation.queued)
+			{
+				return;
+			}
+			removedRotations++;
+			if(removedRotations > queue.size() / 2)
+			{
+				queue.removeIf(queuedRotation -> queuedRotation.user == null);
+				removedRotations = 0;
+			}
+		}
+	}
+	
+	/**
+	 * @return the amount of users whose signed pre keys are changed by this rotation
+	 */
+	public int size()
+	{
+		synchronized(lock)
+		{
+			return rotations.size();
+		}
+	}
+	
+	/**
+	 * Adds the specified rotation to the queue and schedules the collection of the expired signed pre keys if needed.
+	 * Must be invoked while holding the {@link #lock}.
+	 *
+	 * @param rotation to add
+	 */
+	private void enqueue(Rotation rotation)
+	{
+		rotation.queued = true;
+		queue.add(rotation);
+		schedule();
+	}
+	
+	/**
+	 * Schedules the collection of the expired signed pre keys at the earliest expiration time in the queue if it isn't already scheduled before it.
+	 * Must be invoked while holding the {@link #lock}.
+	 */
+	private void schedule()
+	{
+		Rotation earliest;
+		while((earliest = queue.peek()) != null && earliest.user == null)
+		{
+			queue.poll().queued = false;
+			removedRotations--;
+		}
+		if(earliest == null || scheduledRotation != null && scheduledRotationTime <= earliest.expirationTime)
+		{
+			return;
+		}
+		if(scheduledRotation != null)
+		{
+			scheduledRotation.cancel(false);
+		}
+		scheduledRotationTime = earliest.expirationTime;
+		scheduledRotation = scheduler.schedule(this::rotateExpired,
+				scheduledRotationTime - clock.getAsLong(),
+				TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Polls all the rotations whose signed pre keys have expired, executes their changes in the {@link #executor} and schedules the next
+	 * collection.
+	 */
+	void rotateExpired()
+	{
+		List<Rotation> expired = new ArrayList<>();
+		synchronized(lock)
+		{
+			scheduledRotation = null;
+			long now = clock.getAsLong();
+			Rotation rotation;
+			while((rotation = queue.peek()) != null && rotation.expirationTime <= now)
+			{
+				queue.poll().queued = false;
+				if(rotation.user == null)
+				{
+					removedRotations--;
+				} else
+				{
+					expired.add(rotation);
+				}
+			}
+			schedule();
+		}
+		for(Rotation rotation : expired)
+		{
+			executor.execute(() -> rotate(rotation));
+		}
+	}
+	
+	/**
+	 * Changes the signed pre key of the specified rotation's user and queues the rotation again with the expiration time of the new signed pre key.
+	 * If the user's dataBundle wasn't published yet the user is removed, it's added again once the dataBundle is published.
+	 * If the change throws, the exception is passed to the {@link #exceptionCatcher} and the change is retried after {@link #RETRY_DELAY}
+	 * milliseconds.
+	 *
+	 * @param rotation to change the signed pre key of
+	 */
+	private void rotate(Rotation rotation)
+	{
+		User user;
+		synchronized(lock)
+		{
+			user = rotation.user;
+		}
+		if(user == null)
+		{
+			return;
+		}
+		SignedPreKey newSignedPreKey;
+		try
+		{
+			newSignedPreKey = user.changeSignedPreKey();
+		} catch(RuntimeException e)
+		{
+			exceptionCatcher.accept(e);
+			synchronized(lock)
+			{
+				//the user stays in the rotations so it must be queued again, otherwise it would never be changed
+				if(rotations.get(user) == rotation)
+				{
+					rotation.expirationTime = clock.getAsLong() + RETRY_DELAY;
+					enqueue(rotation);
+				}
+			}
+			return;
+		}
+		synchronized(lock)
+		{
+			//the user was removed while it's signed pre key was changed
+			if(rotations.get(user) != rotation)
+			{
+				return;
+			}
+			if(newSignedPreKey == null)
+			{
+				rotations.remove(user);
+				return;
+			}
+			rotation.expirationTime = newSignedPreKey.getExpirationTime();
+			enqueue(rotation);
+		}
+	}
+	
+	/**
+	 * A queued {@link User} and the expiration time of it's signed pre key
+	 */
+	private static class Rotation
+	{
+		/**
+		 * The user whose signed pre key is changed or {@code null} if the user was removed
+		 */
+		private User user;
+		/**
+		 * The expiration time of the user's signed pre key in milliseconds
+		 */
+		private long expirationTime;
+		/**
+		 * Whether this rotation is in the {@link SignedPreKeyRotation#queue}
+		 */
+		private boolean queued;
+		
+		/**
+		 * Constructs a new {@link Rotation}.
+		 *
+		 * @param user whose signed pre key is changed
+		 * @param expirationTime of the user's signed pre key in milliseconds
+		 */
+		private Rotation(User user, long expirationTime)
+		{
+			this.user = user;
+			this.expirationTime = expirationTime;
+		}
+	}
+}
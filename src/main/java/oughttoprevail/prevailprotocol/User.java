@@ -25,14 +25,18 @@ import java.nio.ByteBuffer;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.security.Provider;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import oughttoprevail.prevailprotocol.cipher.MessengerCipher;
 import oughttoprevail.prevailprotocol.doubleratchet.SymmetricKeyRatchet;
@@ -40,6 +44,7 @@ import oughttoprevail.prevailprotocol.exception.TooManyDevicesException;
 import oughttoprevail.prevailprotocol.exception.VerificationFailedException;
 import oughttoprevail.prevailprotocol.fingerprint.FingerprintHandler;
 import oughttoprevail.prevailprotocol.group.Group;
+import oughttoprevail.prevailprotocol.group.TreeGroup;
 import oughttoprevail.prevailprotocol.kdf.KDF;
 import oughttoprevail.prevailprotocol.kdf.SimpleKDF;
 import oughttoprevail.prevailprotocol.keys.DataBundle;
@@ -56,6 +61,7 @@ import oughttoprevail.prevailprotocol.session.Session;
 import oughttoprevail.prevailprotocol.session.SessionsManager;
 import oughttoprevail.prevailprotocol.settings.Settings;
 import oughttoprevail.prevailprotocol.storage.Directory;
+import oughttoprevail.prevailprotocol.storage.SkippedKeysStorage;
 import oughttoprevail.prevailprotocol.storage.UserStorage;
 import oughttoprevail.prevailprotocol.uid.RecipientUser;
 import oughttoprevail.prevailprotocol.uid.UID;
@@ -106,9 +112,9 @@ public class User
 	 */
 	private SavedDataBundle savedDataBundle;
 	/**
-	 * The Mac object of this user, it will be used when authentication is required to generate a message authentication code (MAC)
+	 * The crypto primitives of this user, the mac will be used when authentication is required to generate a message authentication code (MAC)
 	 */
-	private final Mac mac;
+	private final UserResources resources;
 	/**
 	 * The KDF for this user, will be used to derive new keys and add future secrecy
 	 */
@@ -130,6 +136,15 @@ public class User
 	 * A map of group identifier to group
 	 */
 	private final Map<UID, Group> groups;
+	/**
+	 * A map of group identifier to tree group
+	 */
+	private final Map<UID, TreeGroup> treeGroups;
+	/**
+	 * The skipped keys storage all the groups shared before every group had it's own, it's opened once a group is loaded so the group can move
+	 * it's skipped keys out of it ({@code null} if it wasn't opened yet or skipped keys aren't stored)
+	 */
+	private SkippedKeysStorage legacyGroupSkippedKeysStorage;
 	/**
 	 * A boolean defining whether this is a loaded from storage device or a new device. If {@code true} it means this is a new device if {@code false}
 	 * it means this device was loaded from storage
@@ -139,15 +154,29 @@ public class User
 	 * A list of {@link Consumer}s to be executed when a signed pre key changes. All runnable will be executed every time a signed pre key changes
 	 * with the new signed pre key value
 	 */
-	private final List<Consumer<SignedPreKey>> onSignedPreKeyChange = new ArrayList<>();
+	private final List<Consumer<SignedPreKey>> onSignedPreKeyChange = new CopyOnWriteArrayList<>();
 	/**
 	 * The fingerprint handler of this user, this may be {@code null}
 	 */
 	private FingerprintHandler fingerprintHandler;
+	/**
+	 * The periodic snapshots of {@link #userDirectory} or {@code null} if {@link Settings#getSnapshotInterval()} is {@code 0}
+	 */
+	private ScheduledFuture<?> snapshots;
+	/**
+	 * Whether the signed pre key of this user is changed by {@link Settings#getSignedPreKeyRotation()} when it expires (see
+	 * {@link #startSignedPreKeyRotation()})
+	 */
+	private volatile boolean signedPreKeyRotated;
+	/**
+	 * Whether this user was closed (see {@link #close()})
+	 */
+	private volatile boolean closed;
 	
 	/**
 	 * Constructs a new user with the specified userId, {@link Settings#getDefaultSettings()} as the settings and {@link MessengerCipher} as the
 	 * cipher.
+	 * The signed pre key of the user is changed when it expires (see {@link #startSignedPreKeyRotation()}).
 	 *
 	 * @param userId is the identifier of this user, it must be unique per user
 	 */
@@ -158,13 +187,42 @@ public class User
 	
 	/**
 	 * Constructs a new user with the specified userId, specified settings and specified cipher.
+	 * The signed pre key of the user is changed when it expires (see {@link #startSignedPreKeyRotation()}).
 	 *
 	 * @param userId is the identifier of this user, it must be unique per user
 	 */
 	public User(UID userId, Settings settings) throws NoSuchAlgorithmException, NoSuchPaddingException
+	{
+		this(userId, settings, new UserResources(settings));
+	}
+	
+	/**
+	 * Constructs a new user with the specified userId, specified settings and specified resources.
+	 * The signed pre key of the user is changed when it expires (see {@link #startSignedPreKeyRotation()}).
+	 *
+	 * @param userId is the identifier of this user, it must be unique per user
+	 * @param resources crypto primitives to use, they can be shared with other users who use the same settings
+	 */
+	public User(UID userId, Settings settings, UserResources resources)
+	{
+		this(userId, settings, resources, true);
+		//the user is fully constructed by the constructor above so it can be added to the rotation
+		startSignedPreKeyRotation();
+	}
+	
+	/**
+	 * Constructs a new user with the specified userId, specified settings and specified resources.
+	 *
+	 * @param userId is the identifier of this user, it must be unique per user
+	 * @param resources crypto primitives to use, they can be shared with other users who use the same settings
+	 * @param scheduleSnapshots whether this user schedules it's own snapshots, if {@code false} a snapshot is only written when the user is closed
+	 */
+	User(UID userId, Settings settings, UserResources resources, boolean scheduleSnapshots)
 	{
 		//create user directory
 		userDirectory = settings.getInitialDirectory().directory(USERS_DIRECTORY).directory(userId.toString());
+		//read the storages of this user from the last snapshot (if there is one) instead of one by one
+		userDirectory.loadSnapshot();
 		//create storage
 		this.userStorage = new UserStorage(userDirectory, settings);
 		//define whether skipped keys will be stored
@@ -194,75 +252,127 @@ public class User
 			dataBundle = userStorage.getDataBundle();
 			savedDataBundle = userStorage.getSavedDataBundle();
 		}
-		//create a new mac
-		String macAlgorithm = settings.getMacAlgorithm();
-		Provider provider = settings.getProvider();
-		this.mac = provider == null ? Mac.getInstance(macAlgorithm) : Mac.getInstance(macAlgorithm, provider);
-		//create a new kdf's
-		this.kdf = settings.getKDFFactory().newKDF(mac, settings);
-		this.simpleKDF = new SimpleKDF(mac, settings);
-		//create a cipher
-		this.cipher = new MessengerCipher(settings);
+		this.resources = resources;
+		this.kdf = resources.getKDF();
+		this.simpleKDF = resources.getSimpleKDF();
+		this.cipher = resources.getCipher();
 		//create maps
 		this.sessions = new HashMap<>();
 		this.groups = new HashMap<>();
-		//get recipient users
-		List<RecipientUser> recipientUsers = userStorage.getRecipientUsers();
-		//loop through all recipient users and their devices and add the session if they have a key agreement
-		for(RecipientUser userField : recipientUsers)
-		{
-			UID recipientUserId = userField.getUserId();
-			List<UID> deviceIds = userField.getDeviceIds();
-			for(UID recipientDeviceId : deviceIds)
-			{
-				SessionsManager sessionsManager = getOrCreateSessionsList(recipientUserId);
-				Session session = createSession(sessionsManager, new UserDeviceUID(recipientUserId, recipientDeviceId), true);
-				sessionsManager.addSession(session);
-			}
+		this.treeGroups = new HashMap<>();
+		//restore the sessions of all recipient users and their devices
+		restoreSessions(userStorage.getRecipientUsers());
+		if(!scheduleSnapshots)
+		{
+			return;
+		}
+		long snapshotInterval = settings.getSnapshotInterval();
+		if(snapshotInterval > 0)
+		{
+			snapshots = settings.getScheduler()
+								.scheduleWithFixedDelay(userDirectory::writeSnapshot, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
 		}
-		scheduleSignedPreKeys();
 	}
 	
 	/**
-	 * Schedules signedPreKeys to be changed after a certain amount of time
+	 * Restores the sessions of all the devices of the specified recipientUsers.
+	 * Every session opens it's own storages and schedules the expiration of it's skipped keys so the sessions are created in parallel if
+	 * {@link Settings#getExecutor()} is a {@link ForkJoinPool}, the created sessions are then added to their {@link SessionsManager} by the
+	 * current thread.
+	 *
+	 * @param recipientUsers who's sessions to restore
 	 */
-	private void scheduleSignedPreKeys()
+	private void restoreSessions(List<RecipientUser> recipientUsers)
 	{
-		SignedPreKey signedPreKey = dataBundle == null ? savedDataBundle.getSignedPreKey() : dataBundle.getSignedPreKey();
-		ScheduledExecutorService scheduler = settings.getScheduler();
-		long timeLeft = calculateTimeLeft(signedPreKey);
-		//schedule the signed pre keys change, if the timeLeft is negative or 0, it will be executed immediately
-		scheduler.schedule(new Runnable()
+		List<SessionsManager> sessionsManagers = new ArrayList<>();
+		List<UserDeviceUID> recipientUserDeviceUIDs = new ArrayList<>();
+		for(RecipientUser recipientUser : recipientUsers)
+		{
+			UID recipientUserId = recipientUser.getUserId();
+			SessionsManager sessionsManager = getOrCreateSessionsList(recipientUserId);
+			for(UID recipientDeviceId : recipientUser.getDeviceIds())
+			{
+				sessionsManagers.add(sessionsManager);
+				recipientUserDeviceUIDs.add(new UserDeviceUID(recipientUserId, recipientDeviceId));
+			}
+		}
+		int totalSessions = recipientUserDeviceUIDs.size();
+		Session[] restoredSessions = new Session[totalSessions];
+		IntConsumer restore = i -> restoredSessions[i] = createSession(sessionsManagers.get(i), recipientUserDeviceUIDs.get(i), true);
+		Executor executor = settings.getExecutor();
+		if(executor instanceof ForkJoinPool && totalSessions > 1)
+		{
+			//a parallel stream runs in the pool it was started from
+			((ForkJoinPool) executor).submit(() -> IntStream.range(0, totalSessions).parallel().forEach(restore)).join();
+		} else
 		{
-			@Override
-			public void run()
+			for(int i = 0; i < totalSessions; i++)
 			{
-				//generate new signed pre key and change it in storage
-				SignedPreKey newSignedPreKey = DataBundle.generateSignedPreKey(dataBundle == null
-																			   ? savedDataBundle.getIdentityKey()
-																			   : dataBundle.getIdentityKeys(), settings);
-				savedDataBundle.changeSignedPreKey(newSignedPreKey);
-				//invoke onSignedPreKeyChange consumers
-				for(Consumer<SignedPreKey> signedPreKeyConsumer : onSignedPreKeyChange)
-				{
-					signedPreKeyConsumer.accept(newSignedPreKey);
-				}
-				//re-schedule for a new change
-				scheduler.schedule(this, calculateTimeLeft(signedPreKey), TimeUnit.MILLISECONDS);
+				restore.accept(i);
 			}
-		}, timeLeft, TimeUnit.MILLISECONDS);
+		}
+		for(int i = 0; i < totalSessions; i++)
+		{
+			sessionsManagers.get(i).addSession(restoredSessions[i]);
+		}
+	}
+	
+	/**
+	 * Adds this user to {@link Settings#getSignedPreKeyRotation()} so it's signed pre key is changed when it expires, if it already expired it's
+	 * changed as soon as possible.
+	 * The public constructors invoke this once the user is constructed, {@link UserManager} invokes it after the onUserLoad consumers were invoked
+	 * so they can add their onSignedPreKeyChange consumers before the signed pre key can be changed. Invoking it again does nothing.
+	 */
+	public void startSignedPreKeyRotation()
+	{
+		signedPreKeyRotated = true;
+		settings.getSignedPreKeyRotation().add(this);
+	}
+	
+	/**
+	 * Removes this user from {@link Settings#getSignedPreKeyRotation()} if it was added.
+	 */
+	private void stopSignedPreKeyRotation()
+	{
+		if(signedPreKeyRotated)
+		{
+			signedPreKeyRotated = false;
+			settings.getSignedPreKeyRotation().remove(this);
+		}
+	}
+	
+	/**
+	 * @return the expiration time of the current signed pre key in milliseconds
+	 */
+	long getSignedPreKeyExpirationTime()
+	{
+		DataBundle dataBundle = this.dataBundle;
+		SignedPreKey signedPreKey = dataBundle == null ? savedDataBundle.getSignedPreKey() : dataBundle.getSignedPreKey();
+		return signedPreKey.getExpirationTime();
 	}
 	
 	/**
-	 * Calculates and returns the time left for the signedPreKey based on the current time and end time
+	 * Generates a new signed pre key, changes it in storage and invokes the onSignedPreKeyChange consumers.
+	 * This is invoked by {@link Settings#getSignedPreKeyRotation()} when the current signed pre key expires.
 	 *
-	 * @param signedPreKey to calculate the time left for
-	 * @return how much time in millis is left until a signed pre key should change
+	 * @return the new signed pre key or {@code null} if the dataBundle wasn't published yet ({@link #removeTempDataBundle()} wasn't invoked)
 	 */
-	private long calculateTimeLeft(SignedPreKey signedPreKey)
+	SignedPreKey changeSignedPreKey()
 	{
-		//subtract the time it ends to to the current time to result in the time left
-		return signedPreKey.getExpirationTime() - System.currentTimeMillis();
+		SavedDataBundle savedDataBundle = this.savedDataBundle;
+		if(savedDataBundle == null)
+		{
+			return null;
+		}
+		//generate new signed pre key and change it in storage
+		SignedPreKey newSignedPreKey = DataBundle.generateSignedPreKey(savedDataBundle.getIdentityKey(), settings);
+		savedDataBundle.changeSignedPreKey(newSignedPreKey);
+		//invoke onSignedPreKeyChange consumers
+		for(Consumer<SignedPreKey> signedPreKeyConsumer : onSignedPreKeyChange)
+		{
+			signedPreKeyConsumer.accept(newSignedPreKey);
+		}
+		return newSignedPreKey;
 	}
 	
 	/**
@@ -285,6 +395,7 @@ public class User
 	 */
 	public byte[] signNonce(byte[] nonce)
 	{
+		ensureOpen();
 		if(nonce.length != settings.getNonceSize())
 		{
 			return null;
@@ -314,11 +425,12 @@ public class User
 								 byte[] preKeySignature,
 								 IdentifiableKey oneTimePreKey) throws InvalidKeyException, TooManyDevicesException, VerificationFailedException
 	{
+		ensureOpen();
 		SessionsManager sessionsManager = getOrCreateSessionsList(bobUserDeviceUID.getUserId());
 		sessionsManager.ensureCanAddDevice(settings);
 		Session session = createSession(sessionsManager, bobUserDeviceUID, false);
 		
-		KeyPair ephemeralKeyPair = settings.getAsymmetricCryptography().generateKeyPair();
+		KeyPair ephemeralKeyPair = settings.getKeyPairPool().take();
 		X3DHKeyExchange.aliceKeyAgreement(session,
 				getIdentityPrivateKey(),
 				ephemeralKeyPair,
@@ -397,6 +509,7 @@ public class User
 	public Session bobRegister(UserDeviceUID aliceUserDeviceUID, byte[] identityKey, byte[] ephemeralKey, UID signedPreKeyUID, UID oneTimePreKeyUID)
 			throws TooManyDevicesException, InvalidKeyException
 	{
+		ensureOpen();
 		SessionsManager sessionsManager = getOrCreateSessionsList(aliceUserDeviceUID.getUserId());
 		sessionsManager.ensureCanAddDevice(settings);
 		IdentifiableKeyPair signedPreKey = savedDataBundle.findSignedPreKey(signedPreKeyUID);
@@ -489,6 +602,7 @@ public class User
 	public EncryptedMessage[] encryptMessage(UID userId, byte[] message, boolean addMyDevices)
 			throws InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, IllegalBlockSizeException
 	{
+		ensureOpen();
 		//get session
 		SessionsManager recipientSessionsManager = sessions.get(userId);
 		if(recipientSessionsManager == null)
@@ -564,6 +678,7 @@ public class User
 	 */
 	public Messenger getMessenger(UserDeviceUID userDeviceUID)
 	{
+		ensureOpen();
 		Session session = getSession(userDeviceUID);
 		return session == null ? new Messenger(this, userDeviceUID, settings) : session.getMessenger();
 	}
@@ -576,6 +691,7 @@ public class User
 	 */
 	public boolean deleteSession(UserDeviceUID userDeviceUID)
 	{
+		ensureOpen();
 		SessionsManager sessionsManager = sessions.get(userDeviceUID.getUserId());
 		if(sessionsManager != null)
 		{
@@ -592,6 +708,7 @@ public class User
 	 */
 	public boolean deleteRecipient(UID userId)
 	{
+		ensureOpen();
 		SessionsManager sessionsManager = sessions.remove(userId);
 		if(sessionsManager != null)
 		{
@@ -606,9 +723,64 @@ public class User
 	 */
 	public void deleteUser()
 	{
+		if(snapshots != null)
+		{
+			snapshots.cancel(false);
+		}
+		stopSignedPreKeyRotation();
 		userStorage.delete();
 	}
 	
+	/**
+	 * Closes this user without deleting any of it's data, the user can later be constructed again with the same userId.
+	 * The scheduled tasks of this user, it's sessions and it's groups are cancelled, a snapshot is written if {@link Settings#getSnapshotInterval()} isn't
+	 * {@code 0} and the storages of this user are closed after their pending flushes.
+	 * This user mustn't be used after it was closed, using it throws an {@link IllegalStateException} since whatever it would store is lost.
+	 */
+	public void close()
+	{
+		closed = true;
+		if(snapshots != null)
+		{
+			snapshots.cancel(false);
+		}
+		stopSignedPreKeyRotation();
+		for(SessionsManager sessionsManager : sessions.values())
+		{
+			sessionsManager.close();
+		}
+		for(Group group : groups.values())
+		{
+			group.close();
+		}
+		for(TreeGroup treeGroup : treeGroups.values())
+		{
+			treeGroup.close();
+		}
+		if(legacyGroupSkippedKeysStorage != null)
+		{
+			legacyGroupSkippedKeysStorage.cancelExpirations();
+		}
+		if(settings.getSnapshotInterval() > 0)
+		{
+			userDirectory.writeSnapshot();
+		}
+		userDirectory.close();
+	}
+	
+	/**
+	 * Makes sure this user wasn't closed, a closed user's storages are closed so a change made by it would be lost.
+	 *
+	 * @throws IllegalStateException if this user was closed
+	 */
+	public void ensureOpen()
+	{
+		if(closed)
+		{
+			throw new IllegalStateException(String.format("User %s was closed!", userDeviceUID));
+		}
+	}
+	
 	/**
 	 * @return a new or already created {@link FingerprintHandler} of this user
 	 */
@@ -627,15 +799,44 @@ public class User
 	 */
 	public Group getOrCreateGroup(UID groupId)
 	{
+		ensureOpen();
 		Group group;
 		if((group = groups.get(groupId)) != null)
 		{
 			return group;
 		}
-		groups.put(groupId, group = new Group(this, kdf, simpleKDF, userDirectory, groupId, settings));
+		groups.put(groupId, group = new Group(this, kdf, simpleKDF, userDirectory, groupId, getLegacyGroupSkippedKeysStorage(), settings));
 		return group;
 	}
 	
+	/**
+	 * @return the {@link #legacyGroupSkippedKeysStorage}, it's opened if it wasn't opened yet
+	 */
+	private SkippedKeysStorage getLegacyGroupSkippedKeysStorage()
+	{
+		if(legacyGroupSkippedKeysStorage == null && storeSkippedKeys)
+		{
+			legacyGroupSkippedKeysStorage = new SkippedKeysStorage(userDirectory, settings);
+		}
+		return legacyGroupSkippedKeysStorage;
+	}
+	
+	/**
+	 * @param groupId to get/create {@link TreeGroup} for
+	 * @return a new or already created {@link TreeGroup} with the specified groupId
+	 */
+	public TreeGroup getOrCreateTreeGroup(UID groupId)
+	{
+		ensureOpen();
+		TreeGroup treeGroup;
+		if((treeGroup = treeGroups.get(groupId)) != null)
+		{
+			return treeGroup;
+		}
+		treeGroups.put(groupId, treeGroup = new TreeGroup(this, kdf, userDirectory, groupId, settings));
+		return treeGroup;
+	}
+	
 	public UserDeviceUID getUserDeviceUID()
 	{
 		return userDeviceUID;
@@ -664,9 +865,41 @@ public class User
 	 */
 	public void removeTempDataBundle()
 	{
+		ensureOpen();
 		userStorage.finishedWithDataBundle();
 		savedDataBundle = userStorage.getSavedDataBundle();
 		dataBundle = null;
+		//if the signed pre key expired before the dataBundle was published it's changed now
+		if(signedPreKeyRotated)
+		{
+			settings.getSignedPreKeyRotation().add(this);
+		}
+	}
+	
+	/**
+	 * Generates the specified amount of new one time pre keys and saves their private keys so sessions can be created with them.
+	 * The returned public keys should be published to the server (see {@link oughttoprevail.prevailprotocol.server.Server#addOneTimePreKeys}).
+	 *
+	 * @param amount of one time pre keys to generate
+	 * @return the public keys of the generated one time pre keys
+	 * @throws IllegalStateException if the dataBundle wasn't published yet ({@link #removeTempDataBundle()} wasn't invoked)
+	 */
+	public List<IdentifiableKey> generateOneTimePreKeys(int amount)
+	{
+		ensureOpen();
+		SavedDataBundle savedDataBundle = this.savedDataBundle;
+		if(savedDataBundle == null)
+		{
+			throw new IllegalStateException("The dataBundle must be published before generating more one time pre keys!");
+		}
+		IdentifiableKeyPair[] oneTimePreKeyPairs = DataBundle.generateOneTimePreKeys(amount, settings);
+		savedDataBundle.addOneTimePreKeys(oneTimePreKeyPairs);
+		List<IdentifiableKey> oneTimePreKeys = new ArrayList<>(oneTimePreKeyPairs.length);
+		for(IdentifiableKeyPair oneTimePreKey : oneTimePreKeyPairs)
+		{
+			oneTimePreKeys.add(new IdentifiableKey(oneTimePreKey.getUID(), oneTimePreKey.getPublicKey()));
+		}
+		return oneTimePreKeys;
 	}
 	
 	/**
@@ -686,11 +919,11 @@ public class User
 	}
 	
 	/**
-	 * @return the mac used by this user
+	 * @return the mac used by this user in the current thread
 	 */
 	public Mac getMac()
 	{
-		return mac;
+		return resources.getMac();
 	}
 	
 	/**
@@ -0,0 +1,337 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol;
+
+import javax.crypto.NoSuchPaddingException;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.uid.UID;
+import oughttoprevail.prevailprotocol.util.Consumer;
+
+/**
+ * A {@link UserManager} hosts many {@link User}s in a single process.
+ * Users are constructed lazily by {@link #getUser(UID)} and share a single {@link UserResources} and the
+ * {@link Settings#getSignedPreKeyRotation()}, instead of every user scheduling it's own snapshots the manager schedules a single sweep every
+ * {@link Settings#getUserSweepInterval()} milliseconds which closes users who weren't used for {@link Settings#getUserIdleTimeout()}
+ * milliseconds (see {@link User#close()}, a closed user writes a snapshot).
+ * A user which is used for more than a single call should be leased with {@link #acquire(UID)}, a leased user isn't closed by sweeps or
+ * {@link #evict(UID)} until all of it's leases are released. A user returned by {@link #getUser(UID)} isn't leased so it shouldn't be kept, it
+ * should be requested again for every use. Using a user after it was closed throws an {@link IllegalStateException}.
+ */
+public class UserManager
+{
+	/**
+	 * Settings of all the users
+	 */
+	private final Settings settings;
+	/**
+	 * Crypto primitives shared by all the users
+	 */
+	private final UserResources resources;
+	/**
+	 * Map of user identifier to loaded user
+	 */
+	private final Map<UID, ManagedUser> users;
+	/**
+	 * Consumers invoked with every user who is loaded
+	 */
+	private final List<Consumer<User>> onUserLoad;
+	/**
+	 * The scheduled sweeps
+	 */
+	private final ScheduledFuture<?> sweeps;
+	/**
+	 * Whether this manager was closed, once closed leased users are closed when their last lease is released
+	 */
+	private volatile boolean closed;
+	
+	/**
+	 * Constructs a new {@link UserManager} and schedules it's sweeps.
+	 *
+	 * @param settings of all the users
+	 */
+	public UserManager(Settings settings) throws NoSuchAlgorithmException, NoSuchPaddingException
+	{
+		this.settings = settings;
+		this.resources = new UserResources(settings);
+		this.users = new ConcurrentHashMap<>();
+		this.onUserLoad = new CopyOnWriteArrayList<>();
+		long sweepInterval = settings.getUserSweepInterval();
+		this.sweeps = settings.getScheduler().scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Adds the specified consumer to a onUserLoad list. Every consumer in the list will be invoked in the order it was added with every user who is
+	 * loaded, since users are closed when idle this is where per user consumers (such as {@link User#onSignedPreKeyChange}) should be added.
+	 *
+	 * @param onUserLoad consumer to be invoked when a user is loaded
+	 */
+	public void onUserLoad(Consumer<User> onUserLoad)
+	{
+		this.onUserLoad.add(onUserLoad);
+	}
+	
+	/**
+	 * Returns the loaded user with the specified userId, if the user isn't loaded it's constructed (loading it's data if it has any).
+	 *
+	 * @param userId of the user
+	 * @return the user with the specified userId
+	 */
+	public User getUser(UID userId)
+	{
+		return use(userId, false).user;
+	}
+	
+	/**
+	 * Returns a lease of the loaded user with the specified userId, if the user isn't loaded it's constructed (loading it's data if it has any).
+	 * The user isn't closed until the lease is released (see {@link Lease#close()}).
+	 *
+	 * @param userId of the user
+	 * @return a lease of the user with the specified userId
+	 * @throws IllegalStateException if this manager was closed
+	 */
+	public Lease acquire(UID userId)
+	{
+		if(closed)
+		{
+			throw new IllegalStateException("UserManager was closed!");
+		}
+		return new Lease(userId, use(userId, true));
+	}
+	
+	/**
+	 * Returns the loaded user with the specified userId and marks it as used, if the user isn't loaded it's constructed.
+	 * The last use is set (and the lease is taken) while the user's mapping is locked so a sweep can't close the user in between.
+	 *
+	 * @param userId of the user
+	 * @param lease whether to lease the user
+	 * @return the managed user with the specified userId
+	 */
+	private ManagedUser use(UID userId, boolean lease)
+	{
+		return users.compute(userId, (loadedUserId, managedUser) ->
+		{
+			if(managedUser == null)
+			{
+				User user = new User(loadedUserId, settings, resources, false);
+				for(Consumer<User> userConsumer : onUserLoad)
+				{
+					userConsumer.accept(user);
+				}
+				//the consumers are added before the first signed pre key change
+				user.startSignedPreKeyRotation();
+				managedUser = new ManagedUser(user);
+			}
+			if(lease)
+			{
+				managedUser.leases++;
+			}
+			managedUser.lastUsed = System.currentTimeMillis();
+			return managedUser;
+		});
+	}
+	
+	/**
+	 * Releases a lease of the specified managedUser, if this manager was closed and this was the last lease the user is closed.
+	 *
+	 * @param userId of the user
+	 * @param managedUser whose lease to release
+	 */
+	private void release(UID userId, ManagedUser managedUser)
+	{
+		users.computeIfPresent(userId, (loadedUserId, currentManagedUser) ->
+		{
+			if(currentManagedUser != managedUser)
+			{
+				return currentManagedUser;
+			}
+			managedUser.leases--;
+			managedUser.lastUsed = System.currentTimeMillis();
+			if(closed && managedUser.leases == 0)
+			{
+				managedUser.user.close();
+				return null;
+			}
+			return managedUser;
+		});
+	}
+	
+	/**
+	 * Closes and removes the user with the specified userId if it's loaded and not leased.
+	 *
+	 * @param userId of the user to evict
+	 * @return whether the user was closed, {@code false} if it isn't loaded or it's leased
+	 */
+	public boolean evict(UID userId)
+	{
+		boolean[] evicted = new boolean[1];
+		users.computeIfPresent(userId, (loadedUserId, managedUser) ->
+		{
+			if(managedUser.leases > 0)
+			{
+				return managedUser;
+			}
+			managedUser.user.close();
+			evicted[0] = true;
+			return null;
+		});
+		return evicted[0];
+	}
+	
+	/**
+	 * Evicts the users who weren't used for {@link Settings#getUserIdleTimeout()} milliseconds.
+	 */
+	private void sweep()
+	{
+		long idleBefore = System.currentTimeMillis() - settings.getUserIdleTimeout();
+		for(Map.Entry<UID, ManagedUser> entry : users.entrySet())
+		{
+			ManagedUser managedUser = entry.getValue();
+			if(managedUser.lastUsed >= idleBefore)
+			{
+				continue;
+			}
+			//the user is only closed if it wasn't used since it was checked
+			users.computeIfPresent(entry.getKey(), (userId, currentManagedUser) ->
+			{
+				if(currentManagedUser != managedUser || managedUser.lastUsed >= idleBefore || managedUser.leases > 0)
+				{
+					return currentManagedUser;
+				}
+				managedUser.user.close();
+				return null;
+			});
+		}
+	}
+	
+	/**
+	 * @return the amount of loaded users
+	 */
+	public int size()
+	{
+		return users.size();
+	}
+	
+	/**
+	 * Stops the sweeps and closes all the loaded users, leased users are closed once their last lease is released.
+	 */
+	public void close()
+	{
+		closed = true;
+		sweeps.cancel(false);
+		for(UID userId : users.keySet())
+		{
+			evict(userId);
+		}
+	}
+	
+	/**
+	 * A lease of a {@link User}, the user isn't closed by it's {@link UserManager} until the lease is closed
+	 */
+	public class Lease implements AutoCloseable
+	{
+		/**
+		 * Identifier of the leased user
+		 */
+		private final UID userId;
+		/**
+		 * The leased user
+		 */
+		private final ManagedUser managedUser;
+		/**
+		 * Whether this lease was released
+		 */
+		private final AtomicBoolean released;
+		
+		/**
+		 * Constructs a new {@link Lease}.
+		 *
+		 * @param userId of the leased user
+		 * @param managedUser the leased user
+		 */
+		private Lease(UID userId, ManagedUser managedUser)
+		{
+			this.userId = userId;
+			this.managedUser = managedUser;
+			this.released = new AtomicBoolean();
+		}
+		
+		/**
+		 * @return the leased user
+		 * @throws IllegalStateException if this lease was released
+		 */
+		public User getUser()
+		{
+			if(released.get())
+			{
+				throw new IllegalStateException("Lease was released!");
+			}
+			return managedUser.user;
+		}
+		
+		/**
+		 * Releases this lease, releasing it again does nothing.
+		 */
+		@Override
+		public void close()
+		{
+			if(released.compareAndSet(false, true))
+			{
+				release(userId, managedUser);
+			}
+		}
+	}
+	
+	/**
+	 * A loaded {@link User} and when it was last used
+	 */
+	private static class ManagedUser
+	{
+		/**
+		 * The loaded user
+		 */
+		private final User user;
+		/**
+		 * When the user was last returned or it's lease was last released in milliseconds
+		 */
+		private volatile long lastUsed;
+		/**
+		 * Amount of leases of the user which weren't released, only changed while the user's mapping is locked
+		 */
+		private volatile int leases;
+		
+		/**
+		 * Constructs a new {@link ManagedUser}.
+		 *
+		 * @param user the loaded user
+		 */
+		private ManagedUser(User user)
+		{
+			this.user = user;
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol;
+
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+
+import oughttoprevail.prevailprotocol.cipher.MessengerCipher;
+import oughttoprevail.prevailprotocol.kdf.KDF;
+import oughttoprevail.prevailprotocol.kdf.SimpleKDF;
+import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.util.ThreadLocalMac;
+
+/**
+ * The crypto primitives a {@link User} uses: a {@link Mac}, a {@link KDF}, a {@link SimpleKDF} and a {@link MessengerCipher}.
+ * None of them keep state between operations and every thread gets it's own copy of the underlying JCA objects, so a single {@link UserResources}
+ * can be shared by all the users with the same {@link Settings} instead of every user creating it's own (see {@link UserManager}).
+ */
+public class UserResources
+{
+	/**
+	 * The Mac, every thread has it's own copy of the Mac so messages can be encrypted and decrypted by multiple threads
+	 */
+	private final ThreadLocalMac mac;
+	/**
+	 * The KDF used to derive new keys and add future secrecy
+	 */
+	private final KDF kdf;
+	/**
+	 * The simpleKDF assists the {@link oughttoprevail.prevailprotocol.doubleratchet.SymmetricKeyRatchet} to derive keys
+	 */
+	private final SimpleKDF simpleKDF;
+	/**
+	 * The cipher used to encrypt and decrypt messages
+	 */
+	private final MessengerCipher cipher;
+	
+	/**
+	 * Constructs new {@link UserResources} based on the specified settings.
+	 *
+	 * @param settings to use
+	 */
+	public UserResources(Settings settings) throws NoSuchAlgorithmException, NoSuchPaddingException
+	{
+		//create a new mac
+		String macAlgorithm = settings.getMacAlgorithm();
+		Provider provider = settings.getProvider();
+		Mac mac = provider == null ? Mac.getInstance(macAlgorithm) : Mac.getInstance(macAlgorithm, provider);
+		this.mac = new ThreadLocalMac(mac);
+		//create a new kdf's
+		this.kdf = settings.getKDFFactory().newKDF(mac, settings);
+		this.simpleKDF = new SimpleKDF(mac, settings);
+		//create a cipher
+		this.cipher = new MessengerCipher(settings);
+	}
+	
+	/**
+	 * @return the mac in the current thread
+	 */
+	public Mac getMac()
+	{
+		return mac.get();
+	}
+	
+	public KDF getKDF()
+	{
+		return kdf;
+	}
+	
+	public SimpleKDF getSimpleKDF()
+	{
+		return simpleKDF;
+	}
+	
+	public MessengerCipher getCipher()
+	{
+		return cipher;
+	}
+}
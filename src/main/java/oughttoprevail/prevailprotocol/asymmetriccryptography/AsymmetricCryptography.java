@@ -17,6 +17,8 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 */
 package oughttoprevail.prevailprotocol.asymmetriccryptography;
 
+import java.util.List;
+
 import oughttoprevail.prevailprotocol.keys.KeyPair;
 
 /**
@@ -31,6 +33,18 @@ public interface AsymmetricCryptography
 	 */
 	KeyPair generateKeyPair();
 	
+	/**
+	 * Generates a {@link KeyPair} from the specified seed, the same seed always results in the same {@link KeyPair}.
+	 *
+	 * @param seed to generate the {@link KeyPair} from, the seed is {@link #getSeedSize()} bytes long
+	 * @return a new {@link KeyPair} generated from the specified seed
+	 * @throws UnsupportedOperationException if this implementation can't generate key pairs from a seed
+	 */
+	default KeyPair generateKeyPair(byte[] seed)
+	{
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " can't generate a key pair from a seed!");
+	}
+	
 	/**
 	 * Establishes a shared secret based on the specified publicKey and
 	 * specified privateKey.
@@ -64,6 +78,24 @@ public interface AsymmetricCryptography
 	 */
 	boolean verify(byte[] signature, byte[] message, byte[] publicKey);
 	
+	/**
+	 * Verifies all the specified signedMessages (see {@link #verify(byte[], byte[], byte[])}).
+	 * The default implementation verifies the signed messages one by one, implementations may verify them in parallel.
+	 *
+	 * @param signedMessages to verify
+	 * @return for every signed message in the specified signedMessages whether the verification was successful
+	 */
+	default boolean[] verifyBatch(List<SignedMessage> signedMessages)
+	{
+		boolean[] verified = new boolean[signedMessages.size()];
+		for(int i = 0; i < verified.length; i++)
+		{
+			SignedMessage signedMessage = signedMessages.get(i);
+			verified[i] = verify(signedMessage.getSignature(), signedMessage.getMessage(), signedMessage.getPublicKey());
+		}
+		return verified;
+	}
+	
 	/**
 	 * @return the size of a public key in bytes
 	 */
@@ -73,4 +105,13 @@ public interface AsymmetricCryptography
 	 * @return the signature (result of {@link #sign(byte[], byte[])}) size in bytes
 	 */
 	int getSignatureSize();
+	
+	/**
+	 * @return the size of a seed (the parameter of {@link #generateKeyPair(byte[])}) in bytes
+	 * @throws UnsupportedOperationException if this implementation can't generate key pairs from a seed
+	 */
+	default int getSeedSize()
+	{
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " can't generate a key pair from a seed!");
+	}
 }
\ No newline at end of file
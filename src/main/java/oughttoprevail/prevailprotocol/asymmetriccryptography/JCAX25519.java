@@ -0,0 +1,142 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.asymmetriccryptography;
+
+import javax.crypto.KeyAgreement;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+import oughttoprevail.prevailprotocol.util.Util;
+
+/**
+ * A {@link X25519} which performs key exchanges with the JDK's built in XDH implementation (available since JDK 11).
+ * Which implementation is faster depends on the JDK and on whether the JNI library of {@link X25519} is available, run
+ * {@code AsymmetricCryptographyBenchmark} to choose.
+ * Key generation, signing and verification are still done by {@link X25519} (XEdDSA) since the same key pairs are used for both key exchanges
+ * and signatures, the JDK's Ed25519 requires Ed25519 key pairs which can't be used for key exchanges.
+ * Keys are fully compatible with {@link X25519} so users of both implementations can communicate.
+ *
+ * @see #isAvailable()
+ */
+public class JCAX25519 extends X25519
+{
+	/**
+	 * Name of the algorithm in the JDK
+	 */
+	private static final String ALGORITHM = "X25519";
+	/**
+	 * DER prefix of an X.509 encoded X25519 public key, followed by the raw public key
+	 */
+	private static final byte[] PUBLIC_KEY_PREFIX = {0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x6e, 0x03, 0x21, 0x00};
+	/**
+	 * DER prefix of a PKCS #8 encoded X25519 private key, followed by the raw private key
+	 */
+	private static final byte[] PRIVATE_KEY_PREFIX = {0x30, 0x2e, 0x02, 0x01, 0x00, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x6e, 0x04, 0x22, 0x04, 0x20};
+	
+	/**
+	 * @return whether the JDK supports X25519 (JDK 11+)
+	 */
+	public static boolean isAvailable()
+	{
+		try
+		{
+			KeyAgreement.getInstance(ALGORITHM);
+			return true;
+		} catch(NoSuchAlgorithmException e)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Key agreement for every thread, a {@link KeyAgreement} isn't thread safe but is reusable after generating a secret
+	 */
+	private final ThreadLocal<KeyAgreement> keyAgreement = ThreadLocal.withInitial(() -> newInstance(KeyAgreement::getInstance));
+	/**
+	 * Key factory for every thread
+	 */
+	private final ThreadLocal<KeyFactory> keyFactory = ThreadLocal.withInitial(() -> newInstance(KeyFactory::getInstance));
+	
+	/**
+	 * Constructs a new {@link JCAX25519}.
+	 *
+	 * @throws IllegalStateException if the JDK doesn't support X25519 (see {@link #isAvailable()})
+	 */
+	public JCAX25519()
+	{
+		if(!isAvailable())
+		{
+			throw new IllegalStateException("X25519 isn't supported by this JDK!");
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] keyExchange(byte[] publicKey, byte[] privateKey)
+	{
+		try
+		{
+			KeyFactory keyFactory = this.keyFactory.get();
+			KeyAgreement keyAgreement = this.keyAgreement.get();
+			keyAgreement.init(keyFactory.generatePrivate(new PKCS8EncodedKeySpec(Util.combine(PRIVATE_KEY_PREFIX, privateKey))));
+			keyAgreement.doPhase(keyFactory.generatePublic(new X509EncodedKeySpec(Util.combine(PUBLIC_KEY_PREFIX, publicKey))), true);
+			return keyAgreement.generateSecret();
+		} catch(GeneralSecurityException e)
+		{
+			throw new IllegalArgumentException("Key exchange failed!", e);
+		}
+	}
+	
+	/**
+	 * Creates a new instance of the specified factory for {@link #ALGORITHM}.
+	 *
+	 * @param factory to create the instance with
+	 * @param <T> type of the instance
+	 * @return the new instance
+	 */
+	private static <T> T newInstance(InstanceFactory<T> factory)
+	{
+		try
+		{
+			return factory.getInstance(ALGORITHM);
+		} catch(NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("X25519 isn't supported by this JDK!", e);
+		}
+	}
+	
+	/**
+	 * A factory of JCA instances such as {@link KeyAgreement#getInstance(String)}.
+	 *
+	 * @param <T> type of the instance
+	 */
+	private interface InstanceFactory<T>
+	{
+		/**
+		 * @param algorithm of the instance
+		 * @return a new instance of the specified algorithm
+		 * @throws NoSuchAlgorithmException if the algorithm isn't supported
+		 */
+		T getInstance(String algorithm) throws NoSuchAlgorithmException;
+	}
+}
@@ -0,0 +1,140 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.asymmetriccryptography;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import oughttoprevail.prevailprotocol.keys.KeyPair;
+import oughttoprevail.prevailprotocol.settings.Settings;
+
+/**
+ * A {@link KeyPairPool} keeps key pairs which were generated in the background so generating a key pair on a latency sensitive path (such as a
+ * DH ratchet step when receiving a message) doesn't cost a scalar multiplication.
+ * Once the pool has less than {@link Settings#getKeyPairPoolLowWaterMark()} key pairs it's refilled up to twice the low water mark using
+ * {@link Settings#getExecutor()}, the key pairs are generated from seeds of {@link Settings#getRandom()} when the
+ * {@link AsymmetricCryptography} supports it.
+ * The pool doesn't keep anything about a key pair which was handed out, the handed out private key is a copy and the pooled one is erased.
+ */
+public class KeyPairPool
+{
+	/**
+	 * Settings to use
+	 */
+	private final Settings settings;
+	/**
+	 * Pooled key pairs
+	 */
+	private final Queue<KeyPair> keyPairs;
+	/**
+	 * Amount of pooled key pairs, {@link Queue#size()} of {@link ConcurrentLinkedQueue} isn't constant time
+	 */
+	private final AtomicInteger size;
+	/**
+	 * Whether a refill is in progress
+	 */
+	private final AtomicBoolean refilling;
+	
+	/**
+	 * Constructs a new {@link KeyPairPool} and starts filling it if {@link Settings#getKeyPairPoolLowWaterMark()} is positive.
+	 *
+	 * @param settings to use
+	 */
+	public KeyPairPool(Settings settings)
+	{
+		this.settings = settings;
+		this.keyPairs = new ConcurrentLinkedQueue<>();
+		this.size = new AtomicInteger();
+		this.refilling = new AtomicBoolean();
+		refillIfNeeded();
+	}
+	
+	/**
+	 * Takes a key pair from the pool, if the pool is empty a key pair is generated.
+	 *
+	 * @return a new key pair
+	 */
+	public KeyPair take()
+	{
+		KeyPair pooled = keyPairs.poll();
+		if(pooled == null)
+		{
+			refillIfNeeded();
+			return generate();
+		}
+		size.decrementAndGet();
+		refillIfNeeded();
+		KeyPair keyPair = new KeyPair(pooled.getPrivateKey().clone(), pooled.getPublicKey());
+		Arrays.fill(pooled.getPrivateKey(), (byte) 0);
+		return keyPair;
+	}
+	
+	/**
+	 * @return the amount of pooled key pairs
+	 */
+	public int size()
+	{
+		return size.get();
+	}
+	
+	/**
+	 * Submits a refill to {@link Settings#getExecutor()} if the pool has less than {@link Settings#getKeyPairPoolLowWaterMark()} key pairs and
+	 * a refill isn't already in progress.
+	 */
+	private void refillIfNeeded()
+	{
+		int lowWaterMark = settings.getKeyPairPoolLowWaterMark();
+		if(size.get() >= lowWaterMark || !refilling.compareAndSet(false, true))
+		{
+			return;
+		}
+		settings.getExecutor().execute(() ->
+		{
+			try
+			{
+				int capacity = lowWaterMark * 2;
+				while(size.get() < capacity)
+				{
+					keyPairs.add(generate());
+					size.incrementAndGet();
+				}
+			} finally
+			{
+				refilling.set(false);
+			}
+		});
+	}
+	
+	/**
+	 * @return a new generated key pair
+	 */
+	private KeyPair generate()
+	{
+		AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
+		try
+		{
+			return asymmetricCryptography.generateKeyPair(settings.getRandom().nextBytes(asymmetricCryptography.getSeedSize()));
+		} catch(UnsupportedOperationException e)
+		{
+			return asymmetricCryptography.generateKeyPair();
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.asymmetriccryptography;
+
+/**
+ * A message with it's signature and the public key of the signer, used for verifying many signatures at once
+ * (see {@link AsymmetricCryptography#verifyBatch(java.util.List)}).
+ */
+public class SignedMessage
+{
+	/**
+	 * Signature of the message
+	 */
+	private final byte[] signature;
+	/**
+	 * The message which was signed
+	 */
+	private final byte[] message;
+	/**
+	 * Public key of the signer
+	 */
+	private final byte[] publicKey;
+	
+	/**
+	 * Constructs a new {@link SignedMessage}.
+	 *
+	 * @param signature of the specified message
+	 * @param message which was signed
+	 * @param publicKey of the signer
+	 */
+	public SignedMessage(byte[] signature, byte[] message, byte[] publicKey)
+	{
+		this.signature = signature;
+		this.message = message;
+		this.publicKey = publicKey;
+	}
+	
+	/**
+	 * @return signature of the message
+	 */
+	public byte[] getSignature()
+	{
+		return signature;
+	}
+	
+	/**
+	 * @return the message which was signed
+	 */
+	public byte[] getMessage()
+	{
+		return message;
+	}
+	
+	/**
+	 * @return public key of the signer
+	 */
+	public byte[] getPublicKey()
+	{
+		return publicKey;
+	}
+}
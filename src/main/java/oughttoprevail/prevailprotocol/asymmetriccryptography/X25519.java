@@ -19,6 +19,10 @@ package oughttoprevail.prevailprotocol.asymmetriccryptography;
 
 import org.whispersystems.curve25519.Curve25519;
 import org.whispersystems.curve25519.Curve25519KeyPair;
+import org.whispersystems.curve25519.SecureRandomProvider;
+
+import java.util.List;
+import java.util.stream.IntStream;
 
 import oughttoprevail.prevailprotocol.keys.KeyPair;
 
@@ -35,10 +39,19 @@ public class X25519 implements AsymmetricCryptography
 	 * Size of an Ed25519 public key in bytes
 	 */
 	private static final int PUBLIC_KEY_SIZE = 32;
+	/**
+	 * Size of a seed in bytes, the private key is generated from it so it's the size of a private key
+	 */
+	private static final int SEED_SIZE = 32;
 	/**
 	 * Size of a signature
 	 */
 	private static final int SIGNATURE_SIZE = 64;
+	/**
+	 * Minimum amount of signed messages for {@link #verifyBatch(List)} to verify in parallel, smaller batches aren't worth the overhead of
+	 * splitting the work
+	 */
+	private static final int PARALLEL_BATCH_SIZE = 8;
 	
 	/**
 	 * Curve to use
@@ -55,6 +68,35 @@ public class X25519 implements AsymmetricCryptography
 		return new KeyPair(curve25519KeyPair.getPrivateKey(), curve25519KeyPair.getPublicKey());
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public KeyPair generateKeyPair(byte[] seed)
+	{
+		if(seed.length != SEED_SIZE)
+		{
+			throw new IllegalArgumentException("Seed must be " + SEED_SIZE + " bytes!");
+		}
+		//the curve generates the private key from the random bytes it's given so giving it the seed makes the key pair deterministic
+		Curve25519 seededCurve = Curve25519.getInstance(Curve25519.BEST, new SecureRandomProvider()
+		{
+			@Override
+			public void nextBytes(byte[] output)
+			{
+				System.arraycopy(seed, 0, output, 0, Math.min(seed.length, output.length));
+			}
+			
+			@Override
+			public int nextInt(int maxValue)
+			{
+				throw new UnsupportedOperationException();
+			}
+		});
+		Curve25519KeyPair curve25519KeyPair = seededCurve.generateKeyPair();
+		return new KeyPair(curve25519KeyPair.getPrivateKey(), curve25519KeyPair.getPublicKey());
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -82,6 +124,26 @@ public class X25519 implements AsymmetricCryptography
 		return curve.verifySignature(publicKey, message, signature);
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 * Batches of at least {@link #PARALLEL_BATCH_SIZE} signed messages are verified in parallel across all cores.
+	 */
+	@Override
+	public boolean[] verifyBatch(List<SignedMessage> signedMessages)
+	{
+		if(signedMessages.size() < PARALLEL_BATCH_SIZE)
+		{
+			return AsymmetricCryptography.super.verifyBatch(signedMessages);
+		}
+		boolean[] verified = new boolean[signedMessages.size()];
+		IntStream.range(0, verified.length).parallel().forEach(i ->
+		{
+			SignedMessage signedMessage = signedMessages.get(i);
+			verified[i] = verify(signedMessage.getSignature(), signedMessage.getMessage(), signedMessage.getPublicKey());
+		});
+		return verified;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -96,4 +158,13 @@ public class X25519 implements AsymmetricCryptography
 	{
 		return SIGNATURE_SIZE;
 	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getSeedSize()
+	{
+		return SEED_SIZE;
+	}
 }
\ No newline at end of file
@@ -38,9 +38,9 @@ import oughttoprevail.prevailprotocol.util.KeySpec;
 public class MessengerCipher
 {
 	/**
-	 * Cipher to encrypt and decrypt with
+	 * Cipher to encrypt and decrypt with, a {@link Cipher} isn't thread-safe so every thread has it's own
 	 */
-	private final Cipher cipher;
+	private final ThreadLocal<Cipher> cipher;
 	
 	/**
 	 * Constructs a new {@link MessengerCipher} with the specified settings.
@@ -53,7 +53,40 @@ public class MessengerCipher
 	{
 		String cipherAlgorithm = settings.getCipherAlgorithm();
 		Provider provider = settings.getProvider();
-		cipher = provider == null ? Cipher.getInstance(cipherAlgorithm) : Cipher.getInstance(cipherAlgorithm, provider);
+		//create the first cipher here so an invalid algorithm is reported by the constructor
+		Cipher initialCipher = newCipher(cipherAlgorithm, provider);
+		cipher = new ThreadLocal<Cipher>()
+		{
+			private boolean initialCipherUsed;
+			
+			@Override
+			protected synchronized Cipher initialValue()
+			{
+				if(!initialCipherUsed)
+				{
+					initialCipherUsed = true;
+					return initialCipher;
+				}
+				try
+				{
+					return newCipher(cipherAlgorithm, provider);
+				} catch(NoSuchPaddingException | NoSuchAlgorithmException impossible)
+				{
+					//the initial cipher was created with the same algorithm and provider
+					throw new IllegalStateException(impossible);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * @param cipherAlgorithm of the cipher
+	 * @param provider of the cipher or {@code null} if any provider can be used
+	 * @return a new {@link Cipher} with the specified cipherAlgorithm and provider
+	 */
+	private static Cipher newCipher(String cipherAlgorithm, Provider provider) throws NoSuchPaddingException, NoSuchAlgorithmException
+	{
+		return provider == null ? Cipher.getInstance(cipherAlgorithm) : Cipher.getInstance(cipherAlgorithm, provider);
 	}
 	
 	/**
@@ -118,6 +151,7 @@ public class MessengerCipher
 	private byte[] doFinal(int mode, KeySpec key, IvSpec iv, byte[] bytes, byte[]... aad)
 			throws InvalidAlgorithmParameterException, InvalidKeyException, BadPaddingException, IllegalBlockSizeException
 	{
+		Cipher cipher = this.cipher.get();
 		//set the specified mode, key and iv
 		cipher.init(mode, key, iv);
 		//if the aad isn't null, update it with the cipher
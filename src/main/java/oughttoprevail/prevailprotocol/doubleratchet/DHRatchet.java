@@ -103,7 +103,7 @@ public class DHRatchet
 	public void step(byte[] receivedRatchetKey) throws InvalidKeyException
 	{
 		changeChainKey(session.getReceivingRatchet(), session.getReceivingHeaderRatchet(), receivedRatchetKey);
-		session.setRatchetKeyPair(settings.getAsymmetricCryptography().generateKeyPair());
+		session.setRatchetKeyPair(settings.getKeyPairPool().take());
 		changeChainKey(session.getSendingRatchet(), session.getSendingHeaderRatchet(), receivedRatchetKey);
 		session.dhRatchetChange(receivedRatchetKey);
 	}
@@ -18,6 +18,7 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 package oughttoprevail.prevailprotocol.doubleratchet;
 
 import java.security.InvalidKeyException;
+import java.util.Arrays;
 
 import oughttoprevail.prevailprotocol.kdf.KDF;
 import oughttoprevail.prevailprotocol.kdf.SimpleKDF;
@@ -37,6 +38,11 @@ import oughttoprevail.prevailprotocol.util.Util;
  */
 public class SymmetricKeyRatchet
 {
+	/**
+	 * Buffer of every thread which the keys of a step are derived into before they're copied into the {@link MessageKeys}
+	 */
+	private static final ThreadLocal<byte[]> DERIVED_KEYS = ThreadLocal.withInitial(() -> new byte[0]);
+	
 	/**
 	 * Will be used to derive new keys
 	 */
@@ -80,6 +86,18 @@ public class SymmetricKeyRatchet
 		this.counter = new CounterField(storage);
 	}
 	
+	/**
+	 * @param settings to use
+	 * @return the maximum amount of bytes the fields of a {@link SymmetricKeyRatchet} take in a storage
+	 */
+	public static int getStorageSize(Settings settings)
+	{
+		//a chain key is either a random key or the output of the simple KDF
+		int chainKeySize = Math.max(settings.getSymmetricKeySize(), settings.getOutputHashSize());
+		//every field starts with a boolean which says whether it has a value
+		return Util.BYTE_BYTES + Util.INT_BYTES + chainKeySize + Util.BYTE_BYTES + Util.INT_BYTES;
+	}
+	
 	/**
 	 * @return the current chainKey bytes
 	 */
@@ -138,16 +156,22 @@ public class SymmetricKeyRatchet
 		int ivSize = settings.getIVSize();
 		int macKeySize = generateMacKey ? settings.getMacKeySize() : 0;
 		int outputSize = symmetricKeySize + ivSize + macKeySize;
-		byte[] derivedKeys = kdf.deriveKey(inputKeyMaterial, settings.getSymmetricRatchetInfo(), outputSize);
+		byte[] derivedKeys = DERIVED_KEYS.get();
+		if(derivedKeys.length < outputSize)
+		{
+			DERIVED_KEYS.set(derivedKeys = new byte[outputSize]);
+		}
+		kdf.deriveKey(inputKeyMaterial, settings.getSymmetricRatchetInfo(), derivedKeys, 0, outputSize);
 		//split the derivedKeys into a message key an iv and if isUseUpdateAAD is false, then a macKey
-		byte[][] split = Util.splitLengths(derivedKeys, symmetricKeySize, ivSize, macKeySize);
-		byte[] messageKey = split[0];
-		byte[] iv = split[1];
+		byte[] messageKey = Arrays.copyOfRange(derivedKeys, 0, symmetricKeySize);
+		byte[] iv = Arrays.copyOfRange(derivedKeys, symmetricKeySize, symmetricKeySize + ivSize);
 		byte[] macKey = null;
 		if(generateMacKey)
 		{
-			macKey = split[2];
+			macKey = Arrays.copyOfRange(derivedKeys, symmetricKeySize + ivSize, outputSize);
 		}
+		//the buffer is reused so the keys shouldn't stay in it
+		Arrays.fill(derivedKeys, 0, outputSize, (byte) 0);
 		//update the chainKey
 		chainKey.set(deriveKey(settings.getChainKeySeed()));
 		//increment the counter
@@ -20,15 +20,35 @@ package oughttoprevail.prevailprotocol.group;
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import java.security.InvalidAlgorithmParameterException;
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 import oughttoprevail.prevailprotocol.User;
 import oughttoprevail.prevailprotocol.asymmetriccryptography.AsymmetricCryptography;
+import oughttoprevail.prevailprotocol.asymmetriccryptography.SignedMessage;
 import oughttoprevail.prevailprotocol.exception.CounterTooLargeException;
 import oughttoprevail.prevailprotocol.kdf.KDF;
 import oughttoprevail.prevailprotocol.kdf.SimpleKDF;
@@ -37,15 +57,19 @@ import oughttoprevail.prevailprotocol.messenger.ConsumerReader;
 import oughttoprevail.prevailprotocol.messenger.EncryptedMessage;
 import oughttoprevail.prevailprotocol.messenger.MessageKeys;
 import oughttoprevail.prevailprotocol.messenger.Reader;
+import oughttoprevail.prevailprotocol.session.Session;
 import oughttoprevail.prevailprotocol.settings.Settings;
 import oughttoprevail.prevailprotocol.storage.Directory;
 import oughttoprevail.prevailprotocol.storage.SkippedKeysStorage;
 import oughttoprevail.prevailprotocol.storage.Storage;
 import oughttoprevail.prevailprotocol.storage.fields.CounterField;
+import oughttoprevail.prevailprotocol.storage.fields.Field;
+import oughttoprevail.prevailprotocol.storage.fields.JavaSerDes;
 import oughttoprevail.prevailprotocol.uid.RecipientUser;
 import oughttoprevail.prevailprotocol.uid.UID;
 import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
 import oughttoprevail.prevailprotocol.util.Consumer;
+import oughttoprevail.prevailprotocol.util.Util;
 
 /**
  * A {@link Group} allows for a conversation with lots of recipients with better performance then having lots of pairwise conversations which use
@@ -68,13 +92,35 @@ public class Group
 	 * Group session storage name
 	 */
 	private static final String SESSION_DIRECTORY = "Session";
+	/**
+	 * Group expiry storage name
+	 */
+	private static final String EXPIRY_STORAGE = "Expiry";
+	/**
+	 * Directory name for the skipped keys of every sender
+	 */
+	private static final String SENDER_SKIPPED_KEYS_DIRECTORY = "SenderSkippedKeys";
 	
 	/**
-	 * List of group sessions, at first, there is a single {@link GroupSession} and whenever a member leaves a new {@link GroupSession} is initiated.
+	 * Map from epoch to group session, at first, there is a single {@link GroupSession} and whenever a member leaves a new {@link GroupSession}
+	 * is initiated.
 	 * A new {@link GroupSession} is initiated whenever a member leaves so a member cannot decrypt a new message with the ciphertext and the sender
 	 * key.
 	 */
-	private final List<GroupSession> sessions;
+	private final ConcurrentNavigableMap<Integer, GroupSession> sessions;
+	/**
+	 * The newest session, new messages are encrypted with this session and new members join this session
+	 */
+	private volatile GroupSession newestSession;
+	/**
+	 * Map from a sender and the epoch of the sender's session to the {@link SignatureNRatchet} used to decrypt the sender's messages
+	 */
+	private final Map<SenderEpoch, SignatureNRatchet> senderRatchets;
+	/**
+	 * Lock for the sessions, encryption and decryption hold the read lock while membership changes and session expiration hold the write lock
+	 * so a session isn't changed or deleted while it's in use
+	 */
+	private final ReadWriteLock sessionsLock;
 	/**
 	 * Group storage
 	 */
@@ -108,9 +154,29 @@ public class Group
 	 */
 	private final List<RecipientUser> members;
 	/**
-	 * Storage for skipped keys
+	 * Map from sender to the storage of the sender's skipped keys.
+	 * Every sender has it's own storage so a lookup or a flush only touches the keys of one sender, and a sender who skips many keys only evicts
+	 * it's own skipped keys. A sender's storage is opened when a message of the sender is first decrypted (expired skipped keys are removed then)
+	 */
+	private final Map<UserDeviceUID, SkippedKeysStorage> skippedKeysStorages;
+	/**
+	 * Storage for {@link #firstEpoch}
 	 */
-	private final SkippedKeysStorage skippedKeysStorage;
+	private final Storage expiryStorage;
+	/**
+	 * Epoch of the oldest session which hasn't expired yet ({@code null} if no session has expired)
+	 */
+	private final Field<Integer> firstEpoch;
+	/**
+	 * Whether members have left since the newest session was created, if so a new session has to be created before the next message is sent
+	 * ({@code null} or {@code false} if there is no pending rekey)
+	 */
+	private final Field<Boolean> rekeyPending;
+	/**
+	 * Future of the pending rekey which will be completed with the new sender key messages once the new session is created and it's sender key
+	 * was encrypted ({@code null} if there is no pending rekey)
+	 */
+	private volatile CompletableFuture<EncryptedMessage[]> pendingRekey;
 	
 	/**
 	 * Constructs a new {@link Group}.
@@ -120,38 +186,134 @@ public class Group
 	 * @param simpleKDF for {@link oughttoprevail.prevailprotocol.doubleratchet.SymmetricKeyRatchet}
 	 * @param userDirectory is the directory of the specified user
 	 * @param groupId is the identifier of this group
+	 * @param legacySkippedKeysStorage the skipped keys storage all the groups of the specified user shared before every group had it's own, the
+	 * skipped keys of this group are moved out of it ({@code null} if skipped keys aren't stored)
 	 * @param settings to use
 	 */
-	public Group(User user, KDF kdf, SimpleKDF simpleKDF, Directory userDirectory, UID groupId, Settings settings)
+	public Group(User user,
+				 KDF kdf,
+				 SimpleKDF simpleKDF,
+				 Directory userDirectory,
+				 UID groupId,
+				 SkippedKeysStorage legacySkippedKeysStorage,
+				 Settings settings)
 	{
 		this.user = user;
 		this.kdf = kdf;
 		this.simpleKDF = simpleKDF;
 		this.settings = settings;
-		this.sessions = new ArrayList<>();
+		this.sessions = new ConcurrentSkipListMap<>();
+		this.senderRatchets = new ConcurrentHashMap<>();
+		this.sessionsLock = new ReentrantReadWriteLock();
 		this.groupDirectory = userDirectory.directory(GROUPS_DIRECTORY).directory(groupId.toString());
 		this.storage = groupDirectory.storage(GROUP_STORAGE);
 		this.totalGroupSessions = new CounterField(storage);
 		this.members = storage.getFieldList(RecipientUser.SER_DES);
-		this.skippedKeysStorage = settings.getMaxSkipKeys() == 0 ? null : new SkippedKeysStorage(userDirectory, settings);
+		this.expiryStorage = groupDirectory.storage(EXPIRY_STORAGE);
+		this.firstEpoch = expiryStorage.getField(JavaSerDes.INTEGER_SER_DES);
+		this.rekeyPending = expiryStorage.getField(JavaSerDes.BOOLEAN_SER_DES);
+		this.skippedKeysStorages = new ConcurrentHashMap<>();
 		int size = totalGroupSessions.get();
 		if(size == 0)
 		{
 			//if size is 0 then this is a new group
-			addSession(true);
+			addSession(0, true);
+			return;
+		}
+		//hold the write lock so an expiration that is already due doesn't run before all the sessions are loaded
+		Lock lock = sessionsLock.writeLock();
+		lock.lock();
+		try
+		{
+			Integer first = firstEpoch.get();
+			//add all sessions which haven't expired
+			for(int epoch = first == null ? 0 : first; epoch < size; epoch++)
+			{
+				GroupSession session = addSession(epoch, false);
+				Long expirationDate = session.getExpirationDate();
+				//schedule for removal if there is an expiration date
+				if(expirationDate != null)
+				{
+					scheduleExpiration(session, expirationDate);
+				} else if(epoch != size - 1)
+				{
+					//only the newest session has no expiration date, so this session has already expired after a newer one
+					removeSession(session);
+				}
+			}
+			//members left before the pending rekey was done so it's done before the next message
+			if(Boolean.TRUE.equals(rekeyPending.get()))
+			{
+				pendingRekey = new CompletableFuture<>();
+			}
+			if(settings.getMaxSkipKeys() != 0)
+			{
+				moveLegacySkippedKeys(legacySkippedKeysStorage);
+			}
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Moves the skipped keys of this group's senders into the storages of the senders (see {@link #getSkippedKeysStorage(UserDeviceUID)}) out of
+	 * the specified legacySkippedKeysStorage and out of the storage this group shared by all it's senders before every sender had it's own.
+	 * The skipped keys of a group are identified by the signature keys of it's senders.
+	 *
+	 * @param legacySkippedKeysStorage to move the skipped keys out of ({@code null} if skipped keys aren't stored)
+	 */
+	private void moveLegacySkippedKeys(SkippedKeysStorage legacySkippedKeysStorage)
+	{
+		Map<ByteBuffer, UserDeviceUID> senders = new HashMap<>();
+		for(GroupSession session : sessions.values())
+		{
+			for(UserDeviceUID member : session.getKnownMembers())
+			{
+				byte[] signatureKey = session.getSignatureNRatchet(member).getSignatureKey();
+				if(signatureKey != null)
+				{
+					senders.put(ByteBuffer.wrap(signatureKey), member);
+				}
+			}
+		}
+		if(senders.isEmpty())
+		{
 			return;
 		}
-		//add all sessions
-		for(int i = size; i > 0; i--)
+		SkippedKeysStorage groupSkippedKeysStorage = new SkippedKeysStorage(groupDirectory, settings.getMaxStoredGroupSkippedKeys(), settings);
+		for(UserDeviceUID sender : new HashSet<>(senders.values()))
 		{
-			GroupSession session = addSession(false);
-			Long expirationDate = session.getExpirationDate();
-			//schedule for removal if there is an expiration date
-			if(expirationDate != null)
+			Predicate<byte[]> keyFilter = key -> sender.equals(senders.get(ByteBuffer.wrap(key)));
+			SkippedKeysStorage senderSkippedKeysStorage = getSkippedKeysStorage(sender);
+			groupSkippedKeysStorage.moveTo(senderSkippedKeysStorage, keyFilter);
+			if(legacySkippedKeysStorage != null)
 			{
-				settings.getScheduler().schedule(() -> sessions.remove(session), expirationDate, TimeUnit.MILLISECONDS);
+				legacySkippedKeysStorage.moveTo(senderSkippedKeysStorage, keyFilter);
 			}
 		}
+		groupSkippedKeysStorage.cancelExpirations();
+	}
+	
+	/**
+	 * Returns the storage of the specified sender's skipped keys, the storage is opened if it wasn't opened yet.
+	 *
+	 * @param sender whose skipped keys storage to get
+	 * @return the specified sender's skipped keys storage or {@code null} if skipped keys aren't stored
+	 */
+	private SkippedKeysStorage getSkippedKeysStorage(UserDeviceUID sender)
+	{
+		if(settings.getMaxSkipKeys() == 0)
+		{
+			return null;
+		}
+		return skippedKeysStorages.computeIfAbsent(sender, key ->
+		{
+			Directory senderDirectory = groupDirectory.directory(SENDER_SKIPPED_KEYS_DIRECTORY)
+													  .directory(key.getUserId().toString())
+													  .directory(key.getDeviceId().toString());
+			return new SkippedKeysStorage(senderDirectory, settings.getMaxStoredGroupSkippedKeys(), settings);
+		});
 	}
 	
 	/**
@@ -163,7 +325,7 @@ public class Group
 	public EncryptedMessage[] encryptSenderKey(UID userId)
 			throws IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException, InvalidKeyException
 	{
-		return user.encryptMessage(userId, getNewestSession().createSenderKey(), false);
+		return user.encryptMessage(userId, newestSession.createSenderKey(), false);
 	}
 	
 	/**
@@ -175,7 +337,7 @@ public class Group
 	public byte[] encryptSenderKey(UserDeviceUID userDeviceUID)
 			throws InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, IllegalBlockSizeException
 	{
-		return user.getMessenger(userDeviceUID).encryptMessage(getNewestSession().createSenderKey());
+		return user.getMessenger(userDeviceUID).encryptMessage(newestSession.createSenderKey());
 	}
 	
 	/**
@@ -186,25 +348,272 @@ public class Group
 	 */
 	public void memberJoined(UserDeviceUID userDeviceUID, byte[] senderKey)
 	{
-		RecipientUser.add(storage, members, userDeviceUID);
-		getNewestSession().memberJoined(userDeviceUID, senderKey);
+		user.ensureOpen();
+		Lock lock = sessionsLock.writeLock();
+		lock.lock();
+		try
+		{
+			RecipientUser.add(storage, members, userDeviceUID);
+			GroupSession newestSession = this.newestSession;
+			SignatureNRatchet previousSignatureNRatchet = newestSession.getSignatureNRatchet(userDeviceUID);
+			//the ratchet is reused for the new sender key so it's previous epoch shouldn't point to it anymore
+			if(previousSignatureNRatchet != null)
+			{
+				removeSenderRatchet(userDeviceUID, previousSignatureNRatchet);
+			}
+			putSenderRatchet(userDeviceUID, newestSession.memberJoined(userDeviceUID, senderKey));
+		} finally
+		{
+			lock.unlock();
+		}
 	}
 	
 	/**
 	 * Leaves the specified userDeviceUID from this group.
+	 * Invokes {@link #memberLeft(UserDeviceUID, Consumer)} and waits for all the new sender keys to be encrypted.
 	 *
 	 * @param userDeviceUID who is leaving
-	 * @return an array of {@link EncryptedMessage} to be sent to all current group members with the new values of the new session
+	 * @return an array of {@link EncryptedMessage} to be sent to all current group members with the new values of the new session or
+	 * {@code null} if the specified userDeviceUID isn't in the group
 	 */
 	public EncryptedMessage[] memberLeft(UserDeviceUID userDeviceUID)
 			throws IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException, InvalidKeyException
 	{
-		//if the newest session can't find the member then he isn't in the group
-		GroupSession newestSession = getNewestSession();
-		if(newestSession.memberLeft(userDeviceUID))
+		user.ensureOpen();
+		Queue<EncryptedMessage> messages = new ConcurrentLinkedQueue<>();
+		CompletableFuture<Void> future = memberLeft(userDeviceUID, messages::add);
+		if(future == null)
+		{
+			return null;
+		}
+		try
+		{
+			future.join();
+		} catch(CompletionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof IllegalBlockSizeException)
+			{
+				throw (IllegalBlockSizeException) cause;
+			}
+			if(cause instanceof BadPaddingException)
+			{
+				throw (BadPaddingException) cause;
+			}
+			if(cause instanceof InvalidAlgorithmParameterException)
+			{
+				throw (InvalidAlgorithmParameterException) cause;
+			}
+			if(cause instanceof InvalidKeyException)
+			{
+				throw (InvalidKeyException) cause;
+			}
+			throw e;
+		}
+		return messages.toArray(new EncryptedMessage[0]);
+	}
+	
+	/**
+	 * Leaves the specified userDeviceUID from this group.
+	 * The new sender key is encrypted to all current group members in parallel and every encrypted sender key is passed to the specified
+	 * messageConsumer as soon as it's encrypted so it can be sent without waiting for the rest, the specified messageConsumer may be invoked by
+	 * multiple threads at once.
+	 *
+	 * @param userDeviceUID who is leaving
+	 * @param messageConsumer to invoke with every {@link EncryptedMessage} with the new values of the new session
+	 * @return a future which is completed once all the new sender keys were passed to the specified messageConsumer or {@code null} if the
+	 * specified userDeviceUID isn't in the group
+	 */
+	public CompletableFuture<Void> memberLeft(UserDeviceUID userDeviceUID, Consumer<EncryptedMessage> messageConsumer)
+	{
+		user.ensureOpen();
+		GroupSession newSession;
+		List<UserDeviceUID> recipients;
+		CompletableFuture<EncryptedMessage[]> pendingRekey;
+		Lock lock = sessionsLock.writeLock();
+		lock.lock();
+		try
+		{
+			if(!removeMember(userDeviceUID))
+			{
+				return null;
+			}
+			newSession = rekey();
+			recipients = getMemberDevices();
+			//the new session also removes the members who left before with a pending rekey
+			pendingRekey = this.pendingRekey;
+			this.pendingRekey = null;
+		} finally
+		{
+			lock.unlock();
+		}
+		//send the new sender key
+		return distributeSenderKey(newSession, recipients, messageConsumer, pendingRekey);
+	}
+	
+	/**
+	 * Leaves the specified userDeviceUID from this group without creating a new session right away.
+	 * The new session is created by the thread who encrypts the next message (see {@link #encryptMessage(byte[])}) or by
+	 * {@link #flushPendingRekey()}, so all members who leave before that are removed with a single new session and a single sender key
+	 * distribution, and a member who left can't decrypt new messages.
+	 * The new sender key is encrypted on the pairwise sessions by the threads of {@link Settings#getExecutor()}, each pairwise session is used
+	 * while holding its {@link Session#getLock()} so the application may use the same sessions at the same time.
+	 *
+	 * @param userDeviceUID who is leaving
+	 * @return a future which is completed with an array of {@link EncryptedMessage} to be sent to all current group members with the new values
+	 * of the new session or {@code null} if the specified userDeviceUID isn't in the group, all members who leave before the new session is
+	 * created share the same future so the messages need to be sent only once
+	 */
+	public CompletableFuture<EncryptedMessage[]> memberLeftCoalesced(UserDeviceUID userDeviceUID)
+	{
+		user.ensureOpen();
+		Lock lock = sessionsLock.writeLock();
+		lock.lock();
+		try
+		{
+			if(!removeMember(userDeviceUID))
+			{
+				return null;
+			}
+			CompletableFuture<EncryptedMessage[]> pendingRekey = this.pendingRekey;
+			if(pendingRekey == null)
+			{
+				rekeyPending.set(true);
+				expiryStorage.flush();
+				this.pendingRekey = pendingRekey = new CompletableFuture<>();
+			}
+			return pendingRekey;
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the future of the pending rekey or {@code null} if there is no pending rekey, a rekey is pending when members left using
+	 * {@link #memberLeftCoalesced(UserDeviceUID)} (including before this group was loaded) and the new session wasn't created yet
+	 */
+	public CompletableFuture<EncryptedMessage[]> getPendingRekey()
+	{
+		return pendingRekey;
+	}
+	
+	/**
+	 * Does the pending rekey on the current thread if there is one, the new session is created and the new sender key is encrypted to all
+	 * current group members, this returns once the pending rekey's future is completed.
+	 *
+	 * @return the future of the rekey which was pending or {@code null} if there was no pending rekey
+	 */
+	public CompletableFuture<EncryptedMessage[]> flushPendingRekey()
+	{
+		if(pendingRekey == null)
 		{
 			return null;
 		}
+		CompletableFuture<EncryptedMessage[]> pendingRekey;
+		GroupSession newSession;
+		List<UserDeviceUID> recipients;
+		Lock lock = sessionsLock.writeLock();
+		lock.lock();
+		try
+		{
+			pendingRekey = this.pendingRekey;
+			if(pendingRekey == null)
+			{
+				return null;
+			}
+			newSession = rekey();
+			recipients = getMemberDevices();
+			this.pendingRekey = null;
+		} finally
+		{
+			lock.unlock();
+		}
+		awaitSenderKey(newSession, recipients, pendingRekey);
+		return pendingRekey;
+	}
+	
+	/**
+	 * Encrypts the sender key of the specified newSession to the specified recipients and waits until the specified pendingRekey is completed.
+	 *
+	 * @param newSession whose sender key to encrypt
+	 * @param recipients to encrypt the sender key to
+	 * @param pendingRekey to complete with the encrypted sender keys
+	 */
+	private void awaitSenderKey(GroupSession newSession, List<UserDeviceUID> recipients, CompletableFuture<EncryptedMessage[]> pendingRekey)
+	{
+		try
+		{
+			distributeSenderKey(newSession, recipients, null, pendingRekey);
+		} catch(RuntimeException e)
+		{
+			pendingRekey.completeExceptionally(e);
+		}
+		//the failure is reported by the pending rekey's future
+		pendingRekey.handle((messages, throwable) -> null).join();
+	}
+	
+	/**
+	 * Encrypts the sender key of the specified newSession to the specified recipients.
+	 *
+	 * @param newSession whose sender key to encrypt
+	 * @param recipients to encrypt the sender key to
+	 * @param messageConsumer to invoke with every encrypted sender key or {@code null} if there is none
+	 * @param pendingRekey to complete with all the encrypted sender keys or {@code null} if there is none
+	 * @return a future which is completed once all the sender keys were encrypted
+	 */
+	private CompletableFuture<Void> distributeSenderKey(GroupSession newSession,
+														List<UserDeviceUID> recipients,
+														Consumer<EncryptedMessage> messageConsumer,
+														CompletableFuture<EncryptedMessage[]> pendingRekey)
+	{
+		if(pendingRekey == null)
+		{
+			return newSession.encryptSenderKeyToAll(recipients, messageConsumer);
+		}
+		Queue<EncryptedMessage> messages = new ConcurrentLinkedQueue<>();
+		CompletableFuture<Void> future;
+		try
+		{
+			future = newSession.encryptSenderKeyToAll(recipients, message ->
+			{
+				messages.add(message);
+				if(messageConsumer != null)
+				{
+					messageConsumer.accept(message);
+				}
+			});
+		} catch(RuntimeException e)
+		{
+			pendingRekey.completeExceptionally(e);
+			throw e;
+		}
+		return future.whenComplete((ignored, throwable) ->
+		{
+			if(throwable == null)
+			{
+				pendingRekey.complete(messages.toArray(new EncryptedMessage[0]));
+			} else
+			{
+				pendingRekey.completeExceptionally(throwable);
+			}
+		});
+	}
+	
+	/**
+	 * Removes the specified userDeviceUID from the {@link #members} and from all the sessions.
+	 * Must be invoked while holding the write lock.
+	 *
+	 * @param userDeviceUID who is leaving
+	 * @return whether the specified userDeviceUID was removed ({@code false} if it isn't in the group)
+	 */
+	private boolean removeMember(UserDeviceUID userDeviceUID)
+	{
+		//if the newest session can't find the member then he isn't in the group
+		if(newestSession.getSignatureNRatchet(userDeviceUID) == null)
+		{
+			return false;
+		}
 		Iterator<RecipientUser> iterator = members.iterator();
 		//remove him from members list
 		while(iterator.hasNext())
@@ -212,43 +621,68 @@ public class Group
 			RecipientUser recipientUser = iterator.next();
 			if(recipientUser.getUserId().equals(userDeviceUID.getUserId()) && recipientUser.getDeviceIds().remove(userDeviceUID.getDeviceId()))
 			{
-				iterator.remove();
+				if(recipientUser.getDeviceIds().isEmpty())
+				{
+					iterator.remove();
+				}
 				storage.flush();
 			}
 		}
-		//schedule it for deletion
-		long groupSessionDeletionKeepAlive = settings.getGroupSessionDeletionKeepAlive();
-		newestSession.setExpirationDate(System.currentTimeMillis() + groupSessionDeletionKeepAlive);
-		settings.getScheduler().schedule(() -> sessions.remove(newestSession), groupSessionDeletionKeepAlive, TimeUnit.MILLISECONDS);
-		for(GroupSession session : sessions)
+		for(GroupSession session : sessions.values())
 		{
-			//if a session says it couldn't find the member the next session shouldn't have the member as well so we should stop
-			if(session.memberLeft(userDeviceUID))
+			SignatureNRatchet signatureNRatchet = session.memberLeft(userDeviceUID);
+			if(signatureNRatchet != null)
 			{
-				break;
+				removeSenderRatchet(userDeviceUID, signatureNRatchet);
 			}
 		}
-		//create a new session and send new sender key
-		GroupSession session = addSession(true);
-		return session.encryptSenderKeyToAll();
+		return true;
+	}
+	
+	/**
+	 * Schedules the newest session for deletion then creates a new session which is unknown to members who left.
+	 * Must be invoked while holding the write lock.
+	 *
+	 * @return the new session
+	 */
+	private GroupSession rekey()
+	{
+		GroupSession newestSession = this.newestSession;
+		//schedule it for deletion
+		long expirationDate = System.currentTimeMillis() + settings.getGroupSessionDeletionKeepAlive();
+		newestSession.setExpirationDate(expirationDate);
+		scheduleExpiration(newestSession, expirationDate);
+		if(Boolean.TRUE.equals(rekeyPending.get()))
+		{
+			rekeyPending.set(false);
+			expiryStorage.flush();
+		}
+		//create a new session
+		return addSession(totalGroupSessions.get(), true);
 	}
 	
 	/**
 	 * Creates a new {@link GroupSession} then adds it to the {@link #sessions}.
 	 *
+	 * @param epoch of the session, the epoch is also used to name the session's directory
 	 * @param newSession whether this is a new session or a loaded one ({@code true} for new session and {@code false} for loaded)
 	 * @return the created and added {@link GroupSession}
 	 */
-	private GroupSession addSession(boolean newSession)
+	private GroupSession addSession(int epoch, boolean newSession)
 	{
 		GroupSession session = new GroupSession(user,
 				kdf,
 				simpleKDF,
-				groupDirectory.directory(SESSION_DIRECTORY + sessions.size()),
-				skippedKeysStorage,
+				groupDirectory.directory(SESSION_DIRECTORY + epoch),
+				epoch,
 				members,
 				settings);
-		sessions.add(session);
+		sessions.put(epoch, session);
+		for(UserDeviceUID member : session.getKnownMembers())
+		{
+			putSenderRatchet(member, session.getSignatureNRatchet(member));
+		}
+		newestSession = session;
 		if(newSession)
 		{
 			totalGroupSessions.increment();
@@ -257,6 +691,124 @@ public class Group
 		return session;
 	}
 	
+	/**
+	 * Schedules the specified session to expire at the specified expirationDate.
+	 *
+	 * @param session to expire
+	 * @param expirationDate when the session should expire
+	 */
+	private void scheduleExpiration(GroupSession session, long expirationDate)
+	{
+		long delay = Math.max(0, expirationDate - System.currentTimeMillis());
+		session.setExpiration(settings.getScheduler().schedule(() -> expire(session), delay, TimeUnit.MILLISECONDS));
+	}
+	
+	/**
+	 * Closes this group without deleting any of it's data, the scheduled session expirations and skipped keys expirations are cancelled.
+	 * Operations in progress are finished first so their flushes come before the storages are closed.
+	 * This group mustn't be used after it was closed.
+	 */
+	public void close()
+	{
+		Lock lock = sessionsLock.writeLock();
+		lock.lock();
+		try
+		{
+			for(GroupSession session : sessions.values())
+			{
+				session.close();
+			}
+			for(SkippedKeysStorage skippedKeysStorage : skippedKeysStorages.values())
+			{
+				skippedKeysStorage.cancelExpirations();
+			}
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Expires the specified session, the session is removed and the {@link #firstEpoch} is moved past all the expired sessions.
+	 *
+	 * @param session to expire
+	 */
+	private void expire(GroupSession session)
+	{
+		Lock lock = sessionsLock.writeLock();
+		lock.lock();
+		try
+		{
+			if(!removeSession(session))
+			{
+				return;
+			}
+			//move the first epoch past all the expired sessions so they aren't loaded again
+			Integer first = firstEpoch.get();
+			int newFirstEpoch = first == null ? 0 : first;
+			int newestEpoch = newestSession.getEpoch();
+			while(newFirstEpoch < newestEpoch && !sessions.containsKey(newFirstEpoch))
+			{
+				newFirstEpoch++;
+			}
+			firstEpoch.set(newFirstEpoch);
+			expiryStorage.flush();
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes the specified session from {@link #sessions} and {@link #senderRatchets} then deletes it's directory.
+	 *
+	 * @param session to remove
+	 * @return whether the specified session was removed ({@code false} if it was already removed)
+	 */
+	private boolean removeSession(GroupSession session)
+	{
+		if(!sessions.remove(session.getEpoch(), session))
+		{
+			return false;
+		}
+		for(UserDeviceUID member : session.getKnownMembers())
+		{
+			removeSenderRatchet(member, session.getSignatureNRatchet(member));
+		}
+		session.delete();
+		return true;
+	}
+	
+	/**
+	 * Puts the specified signatureNRatchet in {@link #senderRatchets} if it has an epoch.
+	 *
+	 * @param sender who owns the specified signatureNRatchet
+	 * @param signatureNRatchet to put
+	 */
+	private void putSenderRatchet(UserDeviceUID sender, SignatureNRatchet signatureNRatchet)
+	{
+		Integer epoch = signatureNRatchet.getEpoch();
+		if(epoch != null)
+		{
+			senderRatchets.put(new SenderEpoch(sender, epoch), signatureNRatchet);
+		}
+	}
+	
+	/**
+	 * Removes the specified signatureNRatchet from {@link #senderRatchets} if it's mapped to it's epoch.
+	 *
+	 * @param sender who owns the specified signatureNRatchet
+	 * @param signatureNRatchet to remove
+	 */
+	private void removeSenderRatchet(UserDeviceUID sender, SignatureNRatchet signatureNRatchet)
+	{
+		Integer epoch = signatureNRatchet.getEpoch();
+		if(epoch != null)
+		{
+			senderRatchets.remove(new SenderEpoch(sender, epoch), signatureNRatchet);
+		}
+	}
+	
 	/**
 	 * Encrypts the specified message for all the current known group.
 	 *
@@ -266,10 +818,47 @@ public class Group
 	public EncryptedGroupMessage encryptMessage(byte[] message)
 			throws IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException, InvalidKeyException
 	{
-		GroupSession groupSession = getNewestSession();
-		GroupMessenger messenger = groupSession.getMessenger();
-		byte[] ciphertext = messenger.encryptMessage(message);
-		return new EncryptedGroupMessage(groupSession.getKnownMembers(), ciphertext);
+		user.ensureOpen();
+		Lock lock = sessionsLock.readLock();
+		lock.lock();
+		//new messages must not be readable by members who left, so a pending rekey is done first on this thread
+		if(pendingRekey != null)
+		{
+			lock.unlock();
+			CompletableFuture<EncryptedMessage[]> pendingRekey = null;
+			GroupSession newSession = null;
+			List<UserDeviceUID> recipients = null;
+			Lock writeLock = sessionsLock.writeLock();
+			writeLock.lock();
+			try
+			{
+				if((pendingRekey = this.pendingRekey) != null)
+				{
+					newSession = rekey();
+					recipients = getMemberDevices();
+					this.pendingRekey = null;
+				}
+				//downgrade to the read lock so no member can leave before the message is encrypted
+				lock.lock();
+			} finally
+			{
+				writeLock.unlock();
+			}
+			if(newSession != null)
+			{
+				awaitSenderKey(newSession, recipients, pendingRekey);
+			}
+		}
+		try
+		{
+			GroupSession groupSession = newestSession;
+			GroupMessenger messenger = groupSession.getMessenger();
+			byte[] ciphertext = messenger.encryptMessage(message);
+			return new EncryptedGroupMessage(getMemberDevices(), ciphertext);
+		} finally
+		{
+			lock.unlock();
+		}
 	}
 	
 	/**
@@ -295,11 +884,44 @@ public class Group
 	public byte[] decryptMessage(UserDeviceUID userDeviceUID, Reader reader)
 			throws InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, IllegalBlockSizeException, CounterTooLargeException
 	{
-		int receivedCounter = reader.readInt();
+		byte format = reader.readBytes(Util.BYTE_BYTES)[0];
+		int receivedCounter = readCounter(reader, format);
+		Integer epoch = format == GroupMessenger.EPOCH_FORMAT ? reader.readInt() : null;
 		byte[] signature = reader.readBytes(settings.getAsymmetricCryptography().getSignatureSize());
 		int ciphertextLength = reader.readInt();
 		byte[] ciphertext = reader.readBytes(ciphertextLength);
-		return decryptMessage(userDeviceUID, receivedCounter, signature, ciphertext);
+		return decryptParsedMessage(userDeviceUID, receivedCounter, epoch, signature, ciphertext);
+	}
+	
+	/**
+	 * Reads the counter of a message which started with the specified format.
+	 * A message without an epoch has no format byte, so the format is the first byte of it's counter.
+	 *
+	 * @param reader to read the counter with
+	 * @param format the first byte of the message
+	 * @return the counter of the message
+	 */
+	private static int readCounter(Reader reader, byte format)
+	{
+		if(format == GroupMessenger.EPOCH_FORMAT)
+		{
+			return reader.readInt();
+		}
+		return Util.bytesToInt(Util.combine(new byte[]{format}, reader.readBytes(Util.INT_BYTES - Util.BYTE_BYTES)));
+	}
+	
+	/**
+	 * Decrypts a parsed message using {@link #decryptMessage(UserDeviceUID, int, int, byte[], byte[])} if it has an epoch, else using
+	 * {@link #decryptMessage(UserDeviceUID, int, byte[], byte[])}.
+	 */
+	private byte[] decryptParsedMessage(UserDeviceUID userDeviceUID, int receivedCounter, Integer epoch, byte[] signature, byte[] ciphertext)
+			throws IllegalBlockSizeException, InvalidAlgorithmParameterException, BadPaddingException, CounterTooLargeException, InvalidKeyException
+	{
+		if(epoch == null)
+		{
+			return decryptMessage(userDeviceUID, receivedCounter, signature, ciphertext);
+		}
+		return decryptMessage(userDeviceUID, receivedCounter, epoch, signature, ciphertext);
 	}
 	
 	/**
@@ -315,58 +937,379 @@ public class Group
 							   Consumer<byte[]> decryptionConsumer,
 							   Consumer<Throwable> exceptionCatcher)
 	{
-		reader.readInt(receivedCounter -> reader.readBytes(signature -> reader.readInt(ciphertextLength -> reader.readBytes(ciphertext ->
+		reader.readBytes(format ->
+		{
+			if(format[0] == GroupMessenger.EPOCH_FORMAT)
+			{
+				reader.readInt(receivedCounter -> reader.readInt(epoch -> decryptMessage(userDeviceUID,
+						receivedCounter,
+						epoch,
+						reader,
+						decryptionConsumer,
+						exceptionCatcher)));
+			} else
+			{
+				//a message without an epoch has no format byte, so the format is the first byte of it's counter
+				reader.readBytes(counterBytes -> decryptMessage(userDeviceUID,
+						Util.bytesToInt(Util.combine(format, counterBytes)),
+						null,
+						reader,
+						decryptionConsumer,
+						exceptionCatcher), Util.INT_BYTES - Util.BYTE_BYTES);
+			}
+		}, Util.BYTE_BYTES);
+	}
+	
+	/**
+	 * Reads the rest of a message after it's counter and epoch using the specified reader then invokes the specified decryptionConsumer with the
+	 * decrypted message.
+	 *
+	 * @param userDeviceUID is the sender of the message
+	 * @param receivedCounter the counter of the message
+	 * @param epoch the epoch of the message or {@code null} if the message doesn't have one
+	 * @param reader to read the message with
+	 * @param decryptionConsumer to invoke with the decrypted message
+	 * @param exceptionCatcher to invoke with exceptions if any occur
+	 */
+	private void decryptMessage(UserDeviceUID userDeviceUID,
+								int receivedCounter,
+								Integer epoch,
+								ConsumerReader reader,
+								Consumer<byte[]> decryptionConsumer,
+								Consumer<Throwable> exceptionCatcher)
+	{
+		reader.readBytes(signature -> reader.readInt(ciphertextLength -> reader.readBytes(ciphertext ->
 		{
 			try
 			{
-				decryptionConsumer.accept(decryptMessage(userDeviceUID, receivedCounter, signature, ciphertext));
+				decryptionConsumer.accept(decryptParsedMessage(userDeviceUID, receivedCounter, epoch, signature, ciphertext));
 			} catch(IllegalBlockSizeException | InvalidAlgorithmParameterException | BadPaddingException | CounterTooLargeException | InvalidKeyException e)
 			{
 				exceptionCatcher.accept(e);
 			}
-		}, ciphertextLength)), settings.getAsymmetricCryptography().getSignatureSize()));
+		}, ciphertextLength)), settings.getAsymmetricCryptography().getSignatureSize());
+	}
+	
+	/**
+	 * Decrypts the specified messages which were all sent by the specified userDeviceUID.
+	 * All the messages are parsed and their signatures are verified before any of them is decrypted, the messages are then decrypted in the
+	 * order they are in the specified list.
+	 *
+	 * @param userDeviceUID is the sender of the messages
+	 * @param messages to decrypt, in the order they were sent
+	 * @return the decrypted (plaintext) messages in the same order as the specified messages, a message which couldn't be verified is {@code null}
+	 * @throws RuntimeException if a message couldn't be parsed, the rest of the messages are still decrypted
+	 */
+	public List<byte[]> decryptMessages(UserDeviceUID userDeviceUID, List<byte[]> messages)
+			throws IllegalBlockSizeException, InvalidAlgorithmParameterException, BadPaddingException, CounterTooLargeException, InvalidKeyException
+	{
+		user.ensureOpen();
+		byte[][] plaintexts = new byte[messages.size()][];
+		Exception[] exceptions = new Exception[messages.size()];
+		Lock lock = sessionsLock.readLock();
+		lock.lock();
+		try
+		{
+			decryptMessages(userDeviceUID, messages, plaintexts, exceptions);
+		} finally
+		{
+			lock.unlock();
+		}
+		for(Exception exception : exceptions)
+		{
+			if(exception != null)
+			{
+				throwDecryptionException(exception);
+			}
+		}
+		return new ArrayList<>(Arrays.asList(plaintexts));
+	}
+	
+	/**
+	 * Throws the specified exception which was thrown while parsing or decrypting a message.
+	 *
+	 * @param exception to throw
+	 */
+	private static void throwDecryptionException(Exception exception)
+			throws IllegalBlockSizeException, InvalidAlgorithmParameterException, BadPaddingException, CounterTooLargeException, InvalidKeyException
+	{
+		if(exception instanceof IllegalBlockSizeException)
+		{
+			throw (IllegalBlockSizeException) exception;
+		}
+		if(exception instanceof InvalidAlgorithmParameterException)
+		{
+			throw (InvalidAlgorithmParameterException) exception;
+		}
+		if(exception instanceof BadPaddingException)
+		{
+			throw (BadPaddingException) exception;
+		}
+		if(exception instanceof CounterTooLargeException)
+		{
+			throw (CounterTooLargeException) exception;
+		}
+		if(exception instanceof InvalidKeyException)
+		{
+			throw (InvalidKeyException) exception;
+		}
+		throw (RuntimeException) exception;
+	}
+	
+	/**
+	 * Decrypts the specified messages which were all sent by the specified userDeviceUID, must be invoked while holding the read lock of
+	 * {@link #sessionsLock}.
+	 * All the messages are parsed and their signatures are verified before any of them is decrypted, the messages are then decrypted in the
+	 * order they are in the specified list.
+	 * A message which couldn't be parsed or decrypted doesn't stop the rest of the messages from being decrypted.
+	 *
+	 * @param userDeviceUID is the sender of the messages
+	 * @param messages to decrypt, in the order they were sent
+	 * @param plaintexts to set with the decrypted (plaintext) message of every message, a message which couldn't be verified is {@code null}
+	 * @param exceptions to set with the exception of every message which couldn't be parsed or decrypted
+	 */
+	private void decryptMessages(UserDeviceUID userDeviceUID, List<byte[]> messages, byte[][] plaintexts, Exception[] exceptions)
+	{
+		int size = messages.size();
+		int signatureSize = settings.getAsymmetricCryptography().getSignatureSize();
+		int[] receivedCounters = new int[size];
+		byte[][] signatures = new byte[size][];
+		byte[][] ciphertexts = new byte[size][];
+		SignatureNRatchet[] signatureNRatchets = new SignatureNRatchet[size];
+		for(int i = 0; i < size; i++)
+		{
+			try
+			{
+				ByteArrayReader reader = new ByteArrayReader(messages.get(i));
+				byte format = reader.readBytes(Util.BYTE_BYTES)[0];
+				receivedCounters[i] = readCounter(reader, format);
+				//a message without an epoch has no ratchet so it's decrypted like a message whose sender key had no epoch
+				signatureNRatchets[i] = format == GroupMessenger.EPOCH_FORMAT ? senderRatchets.get(new SenderEpoch(userDeviceUID, reader.readInt())) : null;
+				signatures[i] = reader.readBytes(signatureSize);
+				ciphertexts[i] = reader.readBytes(reader.readInt());
+			} catch(RuntimeException e)
+			{
+				//a malformed message is reported and isn't verified nor decrypted
+				signatureNRatchets[i] = null;
+				exceptions[i] = e;
+			}
+		}
+		boolean[] verified = verify(signatureNRatchets, signatures, ciphertexts);
+		for(int i = 0; i < size; i++)
+		{
+			if(exceptions[i] != null)
+			{
+				continue;
+			}
+			try
+			{
+				SignatureNRatchet signatureNRatchet = signatureNRatchets[i];
+				if(signatureNRatchet == null)
+				{
+					plaintexts[i] = decryptMessage(userDeviceUID, receivedCounters[i], signatures[i], ciphertexts[i]);
+				} else if(verified[i])
+				{
+					plaintexts[i] = signatureNRatchet.getSession()
+													 .getMessenger()
+													 .decryptMessage(receivedCounters[i], ciphertexts[i], signatureNRatchet, getSkippedKeysStorage(userDeviceUID));
+				}
+			} catch(IllegalBlockSizeException | InvalidAlgorithmParameterException | BadPaddingException | CounterTooLargeException | InvalidKeyException | RuntimeException e)
+			{
+				exceptions[i] = e;
+			}
+		}
+	}
+	
+	/**
+	 * Decrypts the specified messages which may be from many different senders.
+	 * The messages are partitioned by their sender and every partition is decrypted in parallel using {@link Settings#getExecutor()}, since the
+	 * receiving ratchets of different senders are independent.
+	 * The messages of every sender are decrypted in the order they are in the specified list, but the specified consumers may be invoked
+	 * concurrently for messages of different senders.
+	 * The specified consumers aren't invoked while holding the lock of this group, so they may change this group.
+	 *
+	 * @param messages to decrypt, in the order they were received
+	 * @param decryptionConsumer to invoke with every message and it's decrypted (plaintext) message, the plaintext is {@code null} if the message
+	 * couldn't be verified
+	 * @param exceptionCatcher to invoke with every message that failed to be parsed or decrypted and the exception
+	 * @return a future which is completed once all the messages were decrypted
+	 */
+	public CompletableFuture<Void> decryptMessages(List<GroupMessage> messages,
+												   BiConsumer<GroupMessage, byte[]> decryptionConsumer,
+												   BiConsumer<GroupMessage, Throwable> exceptionCatcher)
+	{
+		user.ensureOpen();
+		Map<UserDeviceUID, List<GroupMessage>> partitions = new LinkedHashMap<>();
+		for(GroupMessage message : messages)
+		{
+			partitions.computeIfAbsent(message.getSender(), sender -> new ArrayList<>()).add(message);
+		}
+		Executor executor = settings.getExecutor();
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[partitions.size()];
+		int i = 0;
+		for(List<GroupMessage> partition : partitions.values())
+		{
+			futures[i++] = CompletableFuture.runAsync(() -> decryptPartition(partition, decryptionConsumer, exceptionCatcher), executor);
+		}
+		return CompletableFuture.allOf(futures);
+	}
+	
+	/**
+	 * Decrypts the specified partition which are all messages from the same sender.
+	 * All the messages are parsed and their signatures are verified before any of them is decrypted.
+	 * The specified consumers are invoked after the lock of this group is released, so they may change this group (e.g. with
+	 * {@link #memberLeft(UserDeviceUID)}).
+	 *
+	 * @param partition to decrypt, in the order they were sent
+	 * @param decryptionConsumer to invoke with every message and it's decrypted (plaintext) message
+	 * @param exceptionCatcher to invoke with every message that failed to be parsed or decrypted and the exception
+	 */
+	private void decryptPartition(List<GroupMessage> partition,
+								  BiConsumer<GroupMessage, byte[]> decryptionConsumer,
+								  BiConsumer<GroupMessage, Throwable> exceptionCatcher)
+	{
+		int size = partition.size();
+		List<byte[]> messages = new ArrayList<>(size);
+		for(GroupMessage message : partition)
+		{
+			messages.add(message.getMessage());
+		}
+		byte[][] plaintexts = new byte[size][];
+		Exception[] exceptions = new Exception[size];
+		Lock lock = sessionsLock.readLock();
+		lock.lock();
+		try
+		{
+			decryptMessages(partition.get(0).getSender(), messages, plaintexts, exceptions);
+		} finally
+		{
+			lock.unlock();
+		}
+		for(int i = 0; i < size; i++)
+		{
+			GroupMessage message = partition.get(i);
+			if(exceptions[i] != null)
+			{
+				exceptionCatcher.accept(message, exceptions[i]);
+			} else
+			{
+				decryptionConsumer.accept(message, plaintexts[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Verifies the specified signatures of the specified ciphertexts with the signature keys of the specified signatureNRatchets.
+	 *
+	 * @param signatureNRatchets the {@link SignatureNRatchet} of each ciphertext, a ciphertext with a {@code null} {@link SignatureNRatchet} isn't
+	 * verified
+	 * @param signatures of the ciphertexts
+	 * @param ciphertexts to verify
+	 * @return for each ciphertext whether it was verified
+	 */
+	private boolean[] verify(SignatureNRatchet[] signatureNRatchets, byte[][] signatures, byte[][] ciphertexts)
+	{
+		List<SignedMessage> signedMessages = new ArrayList<>(signatureNRatchets.length);
+		for(int i = 0; i < signatureNRatchets.length; i++)
+		{
+			SignatureNRatchet signatureNRatchet = signatureNRatchets[i];
+			if(signatureNRatchet != null)
+			{
+				signedMessages.add(new SignedMessage(signatures[i], ciphertexts[i], signatureNRatchet.getSignatureKey()));
+			}
+		}
+		boolean[] batchVerified = settings.getAsymmetricCryptography().verifyBatch(signedMessages);
+		boolean[] verified = new boolean[signatureNRatchets.length];
+		for(int i = 0, batchIndex = 0; i < signatureNRatchets.length; i++)
+		{
+			verified[i] = signatureNRatchets[i] != null && batchVerified[batchIndex++];
+		}
+		return verified;
 	}
 	
 	/**
 	 * Decrypts the specified ciphertext using the specified parameters.
+	 * The {@link SignatureNRatchet} is found using the specified epoch so the signature is verified only once.
 	 *
+	 * @param userDeviceUID is the sender of the message
 	 * @param receivedCounter is the sender's counter of the symmetric ratchet before the {@link MessageKeys} used to encrypt the specified ciphertext
 	 * were generated
+	 * @param epoch of the sender's session
 	 * @param signature the ciphertext signature
 	 * @param ciphertext to decrypt
 	 * @return the decrypted (plaintext) message
 	 */
-	public byte[] decryptMessage(UserDeviceUID userDeviceUID, int receivedCounter, byte[] signature, byte[] ciphertext)
+	public byte[] decryptMessage(UserDeviceUID userDeviceUID, int receivedCounter, int epoch, byte[] signature, byte[] ciphertext)
 			throws IllegalBlockSizeException, InvalidAlgorithmParameterException, BadPaddingException, CounterTooLargeException, InvalidKeyException
 	{
-		AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
-		for(GroupSession groupSession : sessions)
+		user.ensureOpen();
+		Lock lock = sessionsLock.readLock();
+		lock.lock();
+		try
 		{
-			SignatureNRatchet signatureNRatchet;
-			/*
-			if SignatureNRatchet are null, it means at the current session (groupSession) is from before the member joined or if it is the first
-			session then the member never joined
-			 */
-			if((signatureNRatchet = groupSession.getSignatureNRatchet(userDeviceUID)) == null)
+			SignatureNRatchet signatureNRatchet = senderRatchets.get(new SenderEpoch(userDeviceUID, epoch));
+			if(signatureNRatchet == null)
 			{
-				break;
+				//the sender key might have been received before epochs were added to it
+				return decryptMessage(userDeviceUID, receivedCounter, signature, ciphertext);
 			}
-			byte[] signatureKey = signatureNRatchet.getSignatureKey();
-			if(!asymmetricCryptography.verify(signature, ciphertext, signatureKey))
+			if(!settings.getAsymmetricCryptography().verify(signature, ciphertext, signatureNRatchet.getSignatureKey()))
 			{
-				continue;
+				return null;
 			}
-			return groupSession.getMessenger().decryptMessage(receivedCounter, ciphertext, signatureNRatchet);
+			return signatureNRatchet.getSession()
+									.getMessenger()
+									.decryptMessage(receivedCounter, ciphertext, signatureNRatchet, getSkippedKeysStorage(userDeviceUID));
+		} finally
+		{
+			lock.unlock();
 		}
-		return null;
 	}
 	
 	/**
-	 * @return the newest session
+	 * Decrypts the specified ciphertext using the specified parameters.
+	 * Since there is no epoch, the signature is verified with every sender key of the specified userDeviceUID which has no epoch.
+	 *
+	 * @param userDeviceUID is the sender of the message
+	 * @param receivedCounter is the sender's counter of the symmetric ratchet before the {@link MessageKeys} used to encrypt the specified ciphertext
+	 * were generated
+	 * @param signature the ciphertext signature
+	 * @param ciphertext to decrypt
+	 * @return the decrypted (plaintext) message
 	 */
-	private GroupSession getNewestSession()
+	public byte[] decryptMessage(UserDeviceUID userDeviceUID, int receivedCounter, byte[] signature, byte[] ciphertext)
+			throws IllegalBlockSizeException, InvalidAlgorithmParameterException, BadPaddingException, CounterTooLargeException, InvalidKeyException
 	{
-		return sessions.get(sessions.size() - 1);
+		user.ensureOpen();
+		AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
+		Lock lock = sessionsLock.readLock();
+		lock.lock();
+		try
+		{
+			for(GroupSession groupSession : sessions.values())
+			{
+				SignatureNRatchet signatureNRatchet;
+				/*
+				if SignatureNRatchet are null, it means at the current session (groupSession) is from before the member joined or if it is the first
+				session then the member never joined
+				 */
+				if((signatureNRatchet = groupSession.getSignatureNRatchet(userDeviceUID)) == null)
+				{
+					continue;
+				}
+				byte[] signatureKey = signatureNRatchet.getSignatureKey();
+				//a sender key with an epoch would have been found by the epoch
+				if(signatureKey == null || signatureNRatchet.getEpoch() != null || !asymmetricCryptography.verify(signature, ciphertext, signatureKey))
+				{
+					continue;
+				}
+				return groupSession.getMessenger().decryptMessage(receivedCounter, ciphertext, signatureNRatchet, getSkippedKeysStorage(userDeviceUID));
+			}
+			return null;
+		} finally
+		{
+			lock.unlock();
+		}
 	}
 	
 	/**
@@ -374,8 +1317,35 @@ public class Group
 	 */
 	public Collection<UserDeviceUID> getMembers()
 	{
-		//instead of using the members list we have here we use the one from the newest session, because the member list we have isn't UserDeviceUID
-		return getNewestSession().getKnownMembers();
+		//the newest session doesn't know the members until they send their sender keys, so after a rekey only the members list is complete
+		Lock lock = sessionsLock.readLock();
+		lock.lock();
+		try
+		{
+			return getMemberDevices();
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Should be invoked while holding a lock of {@link #sessionsLock}.
+	 *
+	 * @return the {@link UserDeviceUID} of every device in {@link #members}
+	 */
+	private List<UserDeviceUID> getMemberDevices()
+	{
+		List<UserDeviceUID> memberDevices = new ArrayList<>();
+		for(RecipientUser member : members)
+		{
+			UID userId = member.getUserId();
+			for(UID deviceId : member.getDeviceIds())
+			{
+				memberDevices.add(new UserDeviceUID(userId, deviceId));
+			}
+		}
+		return memberDevices;
 	}
 	
 	/**
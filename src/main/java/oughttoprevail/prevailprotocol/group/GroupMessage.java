@@ -0,0 +1,63 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.group;
+
+import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
+
+/**
+ * A received {@link Group} message with it's sender, used when decrypting many messages from different senders at once.
+ */
+public class GroupMessage
+{
+	/**
+	 * Sender of the message
+	 */
+	private final UserDeviceUID sender;
+	/**
+	 * The encrypted message (see {@link EncryptedGroupMessage#getCiphertext()})
+	 */
+	private final byte[] message;
+	
+	/**
+	 * Constructs a new {@link GroupMessage}.
+	 *
+	 * @param sender of the message
+	 * @param message is the encrypted message
+	 */
+	public GroupMessage(UserDeviceUID sender, byte[] message)
+	{
+		this.sender = sender;
+		this.message = message;
+	}
+	
+	/**
+	 * @return sender of the message
+	 */
+	public UserDeviceUID getSender()
+	{
+		return sender;
+	}
+	
+	/**
+	 * @return the encrypted message
+	 */
+	public byte[] getMessage()
+	{
+		return message;
+	}
+}
@@ -37,6 +37,12 @@ import oughttoprevail.prevailprotocol.util.Util;
  */
 class GroupMessenger
 {
+	/**
+	 * First byte of every message, messages from before the epoch was added start with their counter instead, since the first byte of a counter
+	 * is this only after more than a billion messages, a message which doesn't start with this is read as a message without an epoch
+	 */
+	static final byte EPOCH_FORMAT = 0x45;
+	
 	/**
 	 * Cipher used for encryption
 	 */
@@ -45,10 +51,6 @@ class GroupMessenger
 	 * Session who created this messenger
 	 */
 	private final GroupSession session;
-	/**
-	 * Storage for skipped keys
-	 */
-	private final SkippedKeysStorage skippedKeysStorage;
 	/**
 	 * Settings to use
 	 */
@@ -59,14 +61,12 @@ class GroupMessenger
 	 *
 	 * @param user who created the {@link Group}
 	 * @param session who is creating this
-	 * @param skippedKeysStorage to store skipped keys in
 	 * @param settings to use
 	 */
-	GroupMessenger(User user, GroupSession session, SkippedKeysStorage skippedKeysStorage, Settings settings)
+	GroupMessenger(User user, GroupSession session, Settings settings)
 	{
 		this.session = session;
 		this.cipher = user.getCipher();
-		this.skippedKeysStorage = skippedKeysStorage;
 		this.settings = settings;
 	}
 	
@@ -75,8 +75,11 @@ class GroupMessenger
 	 *
 	 * The encrypted message format is:
 	 * <ul>
+	 *     <li>{@link Util#BYTE_BYTES} bytes - byte - {@link #EPOCH_FORMAT}</li>
 	 *     <li>{@link Util#INT_BYTES} bytes - int - counter of sending {@link SymmetricKeyRatchet} before the step in
 	 *     this encryption</li>
+	 *     <li>{@link Util#INT_BYTES} bytes - int - epoch of the sender's session, this lets the receiver find the session without trying to
+	 *     verify the signature with every session</li>
 	 *     <li>{@link AsymmetricCryptography#getSignatureSize()} bytes - byte[] - ciphertext signature</li>
 	 *     <li>{@link Util#INT_BYTES} bytes - int - ciphertext length</li>
 	 *     <li>ciphertext length - byte[] - ciphertext</li>
@@ -93,7 +96,7 @@ class GroupMessenger
 		MessageKeys messageKeys = sendingRatchet.step(false);
 		byte[] ciphertext = cipher.encrypt(messageKeys.getMessageKey(), messageKeys.getIV(), message);
 		byte[] signature = settings.getAsymmetricCryptography().sign(ciphertext, session.getSignatureKeyPair().getPrivateKey());
-		return Util.combine(counterBytes, signature, Util.intToBytes(ciphertext.length), ciphertext);
+		return Util.combine(new byte[]{EPOCH_FORMAT}, counterBytes, Util.intToBytes(session.getEpoch()), signature, Util.intToBytes(ciphertext.length), ciphertext);
 	}
 	
 	/**
@@ -103,9 +106,10 @@ class GroupMessenger
 	 * were generated
 	 * @param ciphertext to decrypt
 	 * @param senderSignatureNRatchet the sender's {@link SignatureNRatchet}
+	 * @param skippedKeysStorage the sender's skipped keys storage or {@code null} if skipped keys aren't stored
 	 * @return the decrypted (plaintext) message
 	 */
-	byte[] decryptMessage(int receivedCounter, byte[] ciphertext, SignatureNRatchet senderSignatureNRatchet)
+	byte[] decryptMessage(int receivedCounter, byte[] ciphertext, SignatureNRatchet senderSignatureNRatchet, SkippedKeysStorage skippedKeysStorage)
 			throws CounterTooLargeException, InvalidKeyException, InvalidAlgorithmParameterException, BadPaddingException, IllegalBlockSizeException
 	{
 		MessageKeys messageKeys = null;
@@ -117,7 +121,7 @@ class GroupMessenger
 		if(messageKeys == null)
 		{
 			SymmetricKeyRatchet receivingRatchet = senderSignatureNRatchet.getReceivingRatchet();
-			skipKeys(signatureKey, receivedCounter, receivingRatchet);
+			skipKeys(signatureKey, receivedCounter, receivingRatchet, skippedKeysStorage);
 			messageKeys = receivingRatchet.step(false);
 		}
 		return cipher.decrypt(messageKeys.getMessageKey(), messageKeys.getIV(), ciphertext);
@@ -129,8 +133,9 @@ class GroupMessenger
 	 * @param publicSignatureKey to be the key identifier of the skipped key
 	 * @param receivedCounter to skip to
 	 * @param receivingRatchet to skip keys in
+	 * @param skippedKeysStorage to store the skipped keys in or {@code null} if skipped keys aren't stored
 	 */
-	private void skipKeys(byte[] publicSignatureKey, int receivedCounter, SymmetricKeyRatchet receivingRatchet)
+	private void skipKeys(byte[] publicSignatureKey, int receivedCounter, SymmetricKeyRatchet receivingRatchet, SkippedKeysStorage skippedKeysStorage)
 			throws CounterTooLargeException, InvalidKeyException
 	{
 		int myCounter = receivingRatchet.getCounter();
@@ -17,14 +17,17 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 */
 package oughttoprevail.prevailprotocol.group;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.IllegalBlockSizeException;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
 
 import oughttoprevail.prevailprotocol.User;
 import oughttoprevail.prevailprotocol.doubleratchet.SymmetricKeyRatchet;
@@ -35,13 +38,16 @@ import oughttoprevail.prevailprotocol.messenger.EncryptedMessage;
 import oughttoprevail.prevailprotocol.session.Session;
 import oughttoprevail.prevailprotocol.settings.Settings;
 import oughttoprevail.prevailprotocol.storage.Directory;
-import oughttoprevail.prevailprotocol.storage.SkippedKeysStorage;
+import oughttoprevail.prevailprotocol.storage.FlushBatch;
+import oughttoprevail.prevailprotocol.storage.PackedStorage;
 import oughttoprevail.prevailprotocol.storage.Storage;
 import oughttoprevail.prevailprotocol.storage.fields.Field;
 import oughttoprevail.prevailprotocol.storage.fields.JavaSerDes;
+import oughttoprevail.prevailprotocol.storage.fields.LongField;
 import oughttoprevail.prevailprotocol.uid.RecipientUser;
 import oughttoprevail.prevailprotocol.uid.UID;
 import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
+import oughttoprevail.prevailprotocol.util.Consumer;
 import oughttoprevail.prevailprotocol.util.Util;
 
 /**
@@ -53,6 +59,10 @@ class GroupSession
 	 * Group session storage name
 	 */
 	private static final String GROUP_SESSION_STORAGE = "GroupSession";
+	/**
+	 * Packed storage name of the members' receiving ratchets
+	 */
+	private static final String RECEIVING_RATCHETS_STORAGE = "ReceivingRatchets";
 	
 	/**
 	 * User who created this session
@@ -74,6 +84,14 @@ class GroupSession
 	 * Settings to use
 	 */
 	private final Settings settings;
+	/**
+	 * Epoch of this session, the epoch is the index of this session among all the sessions that were created for the group
+	 */
+	private final int epoch;
+	/**
+	 * Storage of this session
+	 */
+	private final Storage storage;
 	/**
 	 * Sending ratchet to use for {@link oughttoprevail.prevailprotocol.messenger.MessageKeys} derivation
 	 */
@@ -86,7 +104,28 @@ class GroupSession
 	 * When this session expires (when a session expires it should be removed).
 	 * Session expiration starts when a member has left
 	 */
-	private final Field<Long> expirationDate;
+	private final LongField expirationDate;
+	/**
+	 * The scheduled removal of this session at the {@link #expirationDate} ({@code null} if it isn't scheduled)
+	 */
+	private volatile ScheduledFuture<?> expiration;
+	/**
+	 * Whether the receiving ratchets are stored in {@link #receivingRatchetsStorage}, sessions created before the packed storage was added store
+	 * every receiving ratchet in it's own storage ({@code null} for those sessions)
+	 */
+	private final Field<Boolean> packed;
+	/**
+	 * List of members by the index of their receiving ratchet's record in {@link #receivingRatchetsStorage}
+	 */
+	private final List<UserDeviceUID> recordMembers;
+	/**
+	 * Map from {@link UserDeviceUID} to the index of it's record in {@link #receivingRatchetsStorage}
+	 */
+	private final Map<UserDeviceUID, Integer> recordIndexes;
+	/**
+	 * Packed storage of all the receiving ratchets ({@code null} if this session stores every receiving ratchet in it's own storage)
+	 */
+	private final PackedStorage receivingRatchetsStorage;
 	/**
 	 * Map from {@link UserDeviceUID} (user and device identifiers) to {@link SignatureNRatchet}
 	 */
@@ -103,7 +142,7 @@ class GroupSession
 	 * @param kdf for {@link SymmetricKeyRatchet}
 	 * @param simpleKDF for {@link SymmetricKeyRatchet}
 	 * @param sessionDirectory this session's personal directory
-	 * @param skippedKeysStorage to store skipped keys in
+	 * @param epoch of this session
 	 * @param members list of members
 	 * @param settings to use
 	 */
@@ -111,7 +150,7 @@ class GroupSession
 				 KDF kdf,
 				 SimpleKDF simpleKDF,
 				 Directory sessionDirectory,
-				 SkippedKeysStorage skippedKeysStorage,
+				 int epoch,
 				 List<RecipientUser> members,
 				 Settings settings)
 	{
@@ -120,29 +159,90 @@ class GroupSession
 		this.simpleKDF = simpleKDF;
 		this.settings = settings;
 		this.directory = sessionDirectory;
-		Storage storage = directory.storage(GROUP_SESSION_STORAGE);
+		this.epoch = epoch;
+		this.storage = directory.storage(GROUP_SESSION_STORAGE);
 		this.sendingRatchet = new SymmetricKeyRatchet(kdf, simpleKDF, storage, settings);
 		this.signatureKeyPair = storage.getField(KeyPair.SER_DES);
-		this.expirationDate = storage.getField(JavaSerDes.LONG_SER_DES);
-		this.receivingRatchets = new HashMap<>();
-		this.messenger = new GroupMessenger(user, this, skippedKeysStorage, settings);
+		this.expirationDate = storage.getLongField();
+		this.packed = storage.getField(JavaSerDes.BOOLEAN_SER_DES);
+		this.recordMembers = storage.getFieldList(UserDeviceUID.SER_DES);
+		this.recordIndexes = new ConcurrentHashMap<>();
+		this.receivingRatchets = new ConcurrentHashMap<>();
+		this.messenger = new GroupMessenger(user, this, settings);
 		if(signatureKeyPair.get() == null)
 		{
 			signatureKeyPair.set(settings.getAsymmetricCryptography().generateKeyPair());
 			sendingRatchet.chainKeyChanged(settings.getRandom().nextBytes(settings.getSymmetricKeySize()));
+			packed.set(true);
 			storage.flush();
 		}
-		for(RecipientUser member : members)
+		if(Boolean.TRUE.equals(packed.get()))
 		{
-			UID userId = member.getUserId();
-			Directory memberDirectory = directory.directory(userId.toString());
-			for(UID deviceId : member.getDeviceIds())
+			this.receivingRatchetsStorage = directory.packedStorage(RECEIVING_RATCHETS_STORAGE, SignatureNRatchet.getStorageSize(settings));
+			for(int index = 0; index < recordMembers.size(); index++)
+			{
+				recordIndexes.put(recordMembers.get(index), index);
+			}
+			for(RecipientUser member : members)
 			{
-				Storage deviceStorage = memberDirectory.storage(deviceId.toString());
-				receivingRatchets.put(new UserDeviceUID(userId, deviceId),
-						new SignatureNRatchet(new SymmetricKeyRatchet(kdf, simpleKDF, deviceStorage, settings), null, deviceStorage));
+				UID userId = member.getUserId();
+				for(UID deviceId : member.getDeviceIds())
+				{
+					UserDeviceUID userDeviceUID = new UserDeviceUID(userId, deviceId);
+					Integer index = recordIndexes.get(userDeviceUID);
+					//members who joined the group after this session was replaced have no record in this session
+					if(index != null)
+					{
+						receivingRatchets.put(userDeviceUID, createSignatureNRatchet(receivingRatchetsStorage.record(index)));
+					}
+				}
 			}
+		} else
+		{
+			this.receivingRatchetsStorage = null;
+			for(RecipientUser member : members)
+			{
+				UID userId = member.getUserId();
+				Directory memberDirectory = directory.directory(userId.toString());
+				for(UID deviceId : member.getDeviceIds())
+				{
+					receivingRatchets.put(new UserDeviceUID(userId, deviceId), createSignatureNRatchet(memberDirectory.storage(deviceId.toString())));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param storage to store the ratchet in
+	 * @return a new {@link SignatureNRatchet} stored in the specified storage
+	 */
+	private SignatureNRatchet createSignatureNRatchet(Storage storage)
+	{
+		return new SignatureNRatchet(this, new SymmetricKeyRatchet(kdf, simpleKDF, storage, settings), storage);
+	}
+	
+	/**
+	 * Returns the storage of the specified userDeviceUID's receiving ratchet, if this session uses a {@link #receivingRatchetsStorage} and the
+	 * specified userDeviceUID has no record yet a new record is added for it.
+	 *
+	 * @param userDeviceUID to get storage for
+	 * @return the storage for the specified userDeviceUID's receiving ratchet
+	 */
+	private Storage getMemberStorage(UserDeviceUID userDeviceUID)
+	{
+		if(receivingRatchetsStorage == null)
+		{
+			return directory.directory(userDeviceUID.getUserId().toString()).storage(userDeviceUID.getDeviceId().toString());
+		}
+		Integer index = recordIndexes.get(userDeviceUID);
+		if(index == null)
+		{
+			index = recordMembers.size();
+			recordMembers.add(userDeviceUID);
+			recordIndexes.put(userDeviceUID, index);
+			storage.flush();
 		}
+		return receivingRatchetsStorage.record(index);
 	}
 	
 	/**
@@ -150,53 +250,90 @@ class GroupSession
 	 *
 	 * @param userDeviceUID of the member who is joining
 	 * @param senderKey of the member who is joining
+	 * @return the {@link SignatureNRatchet} of the joined member
 	 */
-	void memberJoined(UserDeviceUID userDeviceUID, byte[] senderKey)
+	SignatureNRatchet memberJoined(UserDeviceUID userDeviceUID, byte[] senderKey)
 	{
-		byte[][] keys = Util.splitLengths(senderKey, settings.getSymmetricKeySize(), settings.getAsymmetricCryptography().getPublicKeySize());
-		byte[] signatureKey = keys[0];
-		byte[] chainKey = keys[1];
-		Storage storage = directory.directory(userDeviceUID.getUserId().toString()).storage(userDeviceUID.getDeviceId().toString());
-		SignatureNRatchet signatureNRatchet = new SignatureNRatchet(new SymmetricKeyRatchet(kdf, simpleKDF, storage, settings),
-				signatureKey,
-				storage);
-		receivingRatchets.put(userDeviceUID, signatureNRatchet);
-		signatureNRatchet.getReceivingRatchet().chainKeyChanged(chainKey);
-		storage.flush();
+		int publicKeySize = settings.getAsymmetricCryptography().getPublicKeySize();
+		int symmetricKeySize = settings.getSymmetricKeySize();
+		byte[] signatureKey = Util.range(senderKey, 0, publicKeySize);
+		byte[] chainKey = Util.range(senderKey, publicKeySize, symmetricKeySize);
+		//sender keys created before epochs were added don't have an epoch
+		Integer senderEpoch = senderKey.length >= publicKeySize + symmetricKeySize + Util.INT_BYTES ? Util.bytesToInt(Util.range(senderKey,
+				publicKeySize + symmetricKeySize,
+				Util.INT_BYTES)) : null;
+		//reuse the existing ratchet since it's fields were already created in the storage
+		SignatureNRatchet signatureNRatchet = receivingRatchets.get(userDeviceUID);
+		if(signatureNRatchet == null)
+		{
+			signatureNRatchet = createSignatureNRatchet(getMemberStorage(userDeviceUID));
+			receivingRatchets.put(userDeviceUID, signatureNRatchet);
+		}
+		signatureNRatchet.senderKeyChanged(signatureKey, senderEpoch, chainKey);
+		return signatureNRatchet;
 	}
 	
 	/**
 	 * Leaves the specified userDeviceUID from this session.
 	 *
 	 * @param userDeviceUID who is leaving
-	 * @return whether he was actually in the session ({@code true} if he was or {@code false} if he wasn't)
+	 * @return the removed {@link SignatureNRatchet} of the member or {@code null} if he wasn't in the session
 	 */
-	boolean memberLeft(UserDeviceUID userDeviceUID)
+	SignatureNRatchet memberLeft(UserDeviceUID userDeviceUID)
 	{
-		return receivingRatchets.remove(userDeviceUID) != null;
+		return receivingRatchets.remove(userDeviceUID);
 	}
 	
 	/**
-	 * Encrypts the sender key to all current known members.
+	 * Encrypts the sender key to all the specified recipients.
+	 * A new session doesn't know the sender keys of the members yet, so the recipients are the group's members and not this session's known
+	 * members.
+	 * Every member's sender key is encrypted in parallel using {@link Settings#getExecutor()} and passed to the specified messageConsumer as soon
+	 * as it's encrypted, the specified messageConsumer may be invoked by multiple threads at once.
+	 * Each session is encrypted with while holding its {@link Session#getLock()}, so a session used by the application at the same time isn't
+	 * stepped by two threads at once.
+	 * The ratchets of all the sessions are stepped in a single {@link FlushBatch} so they are written by a single flush once all the sender keys
+	 * were encrypted.
 	 *
-	 * @return an array of encrypted sender key (each with it's destination)
+	 * @param recipients to encrypt the sender key to
+	 * @param messageConsumer to invoke with every encrypted sender key (each with it's destination)
+	 * @return a future which is completed once all the sender keys were encrypted and the single flush was submitted (the flush is written
+	 * asynchronously by the storage executor), if any encryption fails the future is completed with the exception
 	 */
-	EncryptedMessage[] encryptSenderKeyToAll()
-			throws InvalidKeyException, BadPaddingException, InvalidAlgorithmParameterException, IllegalBlockSizeException
+	CompletableFuture<Void> encryptSenderKeyToAll(Collection<UserDeviceUID> recipients, Consumer<EncryptedMessage> messageConsumer)
 	{
 		byte[] senderKey = createSenderKey();
-		EncryptedMessage[] messages = new EncryptedMessage[receivingRatchets.size()];
-		int index = 0;
-		for(UserDeviceUID identifier : receivingRatchets.keySet())
+		Executor executor = settings.getExecutor();
+		FlushBatch batch = new FlushBatch();
+		//find all the sessions first so a missing session fails before any of the batch's flushes are collected
+		Map<UserDeviceUID, Session> sessions = new HashMap<>();
+		for(UserDeviceUID identifier : recipients)
 		{
 			Session session = user.getSession(identifier);
 			if(session == null)
 			{
 				throw new IllegalStateException(identifier + " session's is missing!");
 			}
-			messages[index++] = new EncryptedMessage(identifier, session.getMessenger().encryptMessage(senderKey));
+			sessions.put(identifier, session);
 		}
-		return messages;
+		List<CompletableFuture<Void>> futures = new ArrayList<>(sessions.size());
+		for(Map.Entry<UserDeviceUID, Session> entry : sessions.entrySet())
+		{
+			UserDeviceUID identifier = entry.getKey();
+			Session session = entry.getValue();
+			//every session has it's own storage so sessions can be encrypted with in parallel
+			futures.add(CompletableFuture.runAsync(() -> batch.run(() ->
+			{
+				try
+				{
+					messageConsumer.accept(new EncryptedMessage(identifier, session.getMessenger().encryptMessage(senderKey)));
+				} catch(GeneralSecurityException e)
+				{
+					throw new CompletionException(e);
+				}
+			}), executor));
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, throwable) -> batch.commit());
 	}
 	
 	/**
@@ -208,11 +345,27 @@ class GroupSession
 	}
 	
 	/**
+	 * The sender key format is:
+	 * <ul>
+	 *     <li>{@link oughttoprevail.prevailprotocol.asymmetriccryptography.AsymmetricCryptography#getPublicKeySize()} bytes - byte[] - public
+	 *     signature key</li>
+	 *     <li>{@link Settings#getSymmetricKeySize()} bytes - byte[] - chain key of the sending ratchet</li>
+	 *     <li>{@link Util#INT_BYTES} bytes - int - epoch of this session</li>
+	 * </ul>
+	 *
 	 * @return the sender key
 	 */
 	byte[] createSenderKey()
 	{
-		return Util.combine(signatureKeyPair.get().getPublicKey(), sendingRatchet.getChainKey());
+		return Util.combine(signatureKeyPair.get().getPublicKey(), sendingRatchet.getChainKey(), Util.intToBytes(epoch));
+	}
+	
+	/**
+	 * @return the epoch of this session
+	 */
+	int getEpoch()
+	{
+		return epoch;
 	}
 	
 	/**
@@ -233,6 +386,37 @@ class GroupSession
 	void setExpirationDate(long expirationDate)
 	{
 		this.expirationDate.set(expirationDate);
+		storage.flush();
+	}
+	
+	/**
+	 * Sets the scheduled removal of this session, it's cancelled when this session is closed.
+	 *
+	 * @param expiration the scheduled removal of this session
+	 */
+	void setExpiration(ScheduledFuture<?> expiration)
+	{
+		this.expiration = expiration;
+	}
+	
+	/**
+	 * Deletes this session's directory.
+	 */
+	void delete()
+	{
+		directory.delete();
+	}
+	
+	/**
+	 * Cancels the scheduled removal of this session, the session's data stays stored so it's scheduled again when it's loaded
+	 */
+	void close()
+	{
+		ScheduledFuture<?> expiration = this.expiration;
+		if(expiration != null)
+		{
+			expiration.cancel(false);
+		}
 	}
 	
 	/**
@@ -240,7 +424,7 @@ class GroupSession
 	 */
 	Long getExpirationDate()
 	{
-		return expirationDate.get();
+		return expirationDate.isPresent() ? expirationDate.get() : null;
 	}
 	
 	SymmetricKeyRatchet getSendingRatchet()
@@ -253,6 +437,14 @@ class GroupSession
 		return signatureKeyPair.get();
 	}
 	
+	/**
+	 * @return a collection of the {@link SignatureNRatchet}s of all known members in this session
+	 */
+	Collection<SignatureNRatchet> getSignatureNRatchets()
+	{
+		return receivingRatchets.values();
+	}
+	
 	/**
 	 * @return a collection of known members associated with this session
 	 */
@@ -0,0 +1,336 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.group;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import oughttoprevail.prevailprotocol.storage.fields.FieldInputStream;
+import oughttoprevail.prevailprotocol.storage.fields.FieldOutputStream;
+import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
+
+/**
+ * A complete binary tree of {@link TreeNode}s used by {@link TreeGroup}.
+ * Nodes are stored in an array where leaves are at the even indices and a parent is between it's children, a node's level is the amount of
+ * trailing one bits in it's index (leaves are level 0).
+ * The amount of leaves is always a power of 2 so extending the tree never changes the index of an existing node, blank nodes are {@code null}.
+ *
+ * @see <a href="https://www.rfc-editor.org/rfc/rfc9420.html#appendix-C">Array-Based Trees</a>
+ */
+class RatchetTree
+{
+	/**
+	 * @param node index
+	 * @return the level of the specified node (0 for leaves)
+	 */
+	static int level(int node)
+	{
+		return Integer.numberOfTrailingZeros(~node);
+	}
+	
+	/**
+	 * @param leaf index of the leaf among the leaves
+	 * @return the node index of the specified leaf
+	 */
+	static int leafNode(int leaf)
+	{
+		return leaf * 2;
+	}
+	
+	/**
+	 * @param node index of a parent node
+	 * @return the index of the left child of the specified node
+	 */
+	static int left(int node)
+	{
+		return node ^ (1 << (level(node) - 1));
+	}
+	
+	/**
+	 * @param node index of a parent node
+	 * @return the index of the right child of the specified node
+	 */
+	static int right(int node)
+	{
+		return node ^ (3 << (level(node) - 1));
+	}
+	
+	/**
+	 * @param node index of a node which isn't the root
+	 * @return the index of the parent of the specified node
+	 */
+	static int parent(int node)
+	{
+		int level = level(node);
+		int b = (node >> (level + 1)) & 1;
+		return (node | (1 << level)) ^ (b << (level + 1));
+	}
+	
+	/**
+	 * @param node index of a node which isn't the root
+	 * @return the index of the other child of the specified node's parent
+	 */
+	static int sibling(int node)
+	{
+		int parent = parent(node);
+		return node < parent ? right(parent) : left(parent);
+	}
+	
+	/**
+	 * @param node index of a node
+	 * @param ancestor index of a node
+	 * @return whether the specified node is the specified ancestor or under it
+	 */
+	static boolean inSubtree(int node, int ancestor)
+	{
+		int span = (1 << level(ancestor)) - 1;
+		return node >= ancestor - span && node <= ancestor + span;
+	}
+	
+	/**
+	 * Reads nodes written by {@link #write(FieldOutputStream)}.
+	 *
+	 * @param in to read from
+	 * @return the read nodes
+	 */
+	static List<TreeNode> read(FieldInputStream in)
+	{
+		int size = in.readInt();
+		List<TreeNode> nodes = new ArrayList<>(size);
+		for(int i = 0; i < size; i++)
+		{
+			nodes.add(in.readBoolean() ? in.readObject(TreeNode.SER_DES) : null);
+		}
+		return nodes;
+	}
+	
+	/**
+	 * Nodes of the tree by their index
+	 */
+	private final List<TreeNode> nodes;
+	
+	/**
+	 * Constructs a new {@link RatchetTree}.
+	 *
+	 * @param nodes of the tree by their index, an empty list means an empty tree
+	 */
+	RatchetTree(List<TreeNode> nodes)
+	{
+		this.nodes = nodes;
+	}
+	
+	/**
+	 * @return the amount of leaves (including blank leaves)
+	 */
+	int getLeafCount()
+	{
+		return (nodes.size() + 1) / 2;
+	}
+	
+	/**
+	 * @return the index of the root node
+	 */
+	int getRoot()
+	{
+		return getLeafCount() - 1;
+	}
+	
+	/**
+	 * @param node index
+	 * @return the node at the specified index or {@code null} if it's blank
+	 */
+	TreeNode get(int node)
+	{
+		return nodes.get(node);
+	}
+	
+	/**
+	 * @param node index
+	 * @param treeNode to set or {@code null} to blank the node
+	 */
+	void set(int node, TreeNode treeNode)
+	{
+		nodes.set(node, treeNode);
+	}
+	
+	/**
+	 * Replaces all nodes of this tree with the specified nodes.
+	 *
+	 * @param nodes the new nodes
+	 */
+	void setAll(List<TreeNode> nodes)
+	{
+		this.nodes.clear();
+		this.nodes.addAll(nodes);
+	}
+	
+	/**
+	 * Replaces all nodes of this tree with the nodes of the specified tree.
+	 *
+	 * @param tree whose nodes to copy
+	 */
+	void setAll(RatchetTree tree)
+	{
+		setAll(tree.nodes);
+	}
+	
+	/**
+	 * @return a copy of this tree which can be changed without changing this tree
+	 */
+	RatchetTree copy()
+	{
+		return new RatchetTree(new ArrayList<>(nodes));
+	}
+	
+	/**
+	 * @param node index
+	 * @return the indexes of the ancestors of the specified node from it's parent up to the root
+	 */
+	List<Integer> getDirectPath(int node)
+	{
+		List<Integer> directPath = new ArrayList<>();
+		int root = getRoot();
+		while(node != root)
+		{
+			node = parent(node);
+			directPath.add(node);
+		}
+		return directPath;
+	}
+	
+	/**
+	 * The resolution of a node is the smallest list of non-blank nodes which cover all the non-blank leaves under the node.
+	 *
+	 * @param node index
+	 * @return the resolution of the specified node
+	 */
+	List<Integer> getResolution(int node)
+	{
+		List<Integer> resolution = new ArrayList<>();
+		addResolution(node, resolution);
+		return resolution;
+	}
+	
+	/**
+	 * Adds the resolution of the specified node to the specified resolution.
+	 *
+	 * @param node index
+	 * @param resolution to add to
+	 */
+	private void addResolution(int node, List<Integer> resolution)
+	{
+		if(nodes.get(node) != null)
+		{
+			resolution.add(node);
+		} else if(level(node) != 0)
+		{
+			addResolution(left(node), resolution);
+			addResolution(right(node), resolution);
+		}
+	}
+	
+	/**
+	 * @param member to find
+	 * @return the leaf index of the specified member or {@code -1} if the member isn't in the tree
+	 */
+	int findLeaf(UserDeviceUID member)
+	{
+		for(int node = 0; node < nodes.size(); node += 2)
+		{
+			TreeNode treeNode = nodes.get(node);
+			if(treeNode != null && member.equals(treeNode.getMember()))
+			{
+				return node / 2;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Sets the specified leaf at the first blank leaf, if there is no blank leaf the tree is extended.
+	 *
+	 * @param leaf to add
+	 * @return the leaf index of the added leaf
+	 */
+	int addLeaf(TreeNode leaf)
+	{
+		if(nodes.isEmpty())
+		{
+			nodes.add(leaf);
+			return 0;
+		}
+		for(int node = 0; node < nodes.size(); node += 2)
+		{
+			if(nodes.get(node) == null)
+			{
+				nodes.set(node, leaf);
+				return node / 2;
+			}
+		}
+		int leafIndex = getLeafCount();
+		extend();
+		nodes.set(leafNode(leafIndex), leaf);
+		return leafIndex;
+	}
+	
+	/**
+	 * Doubles the amount of leaves in this tree, the new nodes are blank.
+	 */
+	void extend()
+	{
+		for(int i = nodes.size(); i >= 0; i--)
+		{
+			nodes.add(null);
+		}
+	}
+	
+	/**
+	 * @return all the members of this tree
+	 */
+	List<UserDeviceUID> getMembers()
+	{
+		List<UserDeviceUID> members = new ArrayList<>();
+		for(int node = 0; node < nodes.size(); node += 2)
+		{
+			TreeNode treeNode = nodes.get(node);
+			if(treeNode != null)
+			{
+				members.add(treeNode.getMember());
+			}
+		}
+		return members;
+	}
+	
+	/**
+	 * Writes all the nodes of this tree to the specified out.
+	 *
+	 * @param out to write to
+	 */
+	void write(FieldOutputStream out)
+	{
+		out.writeInt(nodes.size());
+		for(TreeNode treeNode : nodes)
+		{
+			out.writeBoolean(treeNode != null);
+			if(treeNode != null)
+			{
+				out.writeObject(treeNode, TreeNode.SER_DES);
+			}
+		}
+	}
+}
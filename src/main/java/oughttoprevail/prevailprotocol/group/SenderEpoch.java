@@ -0,0 +1,76 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.group;
+
+import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
+import oughttoprevail.prevailprotocol.util.Util;
+
+/**
+ * A sender and the epoch of the sender's session, used as a key to find the {@link SignatureNRatchet} of a group message.
+ */
+class SenderEpoch
+{
+	/**
+	 * Sender of the messages
+	 */
+	private final UserDeviceUID sender;
+	/**
+	 * Epoch of the sender's session
+	 */
+	private final int epoch;
+	
+	/**
+	 * Constructs a new {@link SenderEpoch}.
+	 *
+	 * @param sender to be the sender value
+	 * @param epoch to be the epoch value
+	 */
+	SenderEpoch(UserDeviceUID sender, int epoch)
+	{
+		this.sender = sender;
+		this.epoch = epoch;
+	}
+	
+	/**
+	 * @param obj to compare to this object
+	 * @return if the specified obj is a {@link SenderEpoch} with the same sender and epoch
+	 */
+	@Override
+	public boolean equals(Object obj)
+	{
+		if(!(obj instanceof SenderEpoch))
+		{
+			return false;
+		}
+		if(obj == this)
+		{
+			return true;
+		}
+		SenderEpoch other = (SenderEpoch) obj;
+		return other.epoch == epoch && other.sender.equals(sender);
+	}
+	
+	/**
+	 * @return the hashCode of the sender and epoch
+	 */
+	@Override
+	public int hashCode()
+	{
+		return Util.hashCode(sender, epoch);
+	}
+}
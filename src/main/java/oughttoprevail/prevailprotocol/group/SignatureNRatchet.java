@@ -18,19 +18,45 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 package oughttoprevail.prevailprotocol.group;
 
 import oughttoprevail.prevailprotocol.doubleratchet.SymmetricKeyRatchet;
+import oughttoprevail.prevailprotocol.settings.Settings;
 import oughttoprevail.prevailprotocol.storage.Storage;
 import oughttoprevail.prevailprotocol.storage.fields.Field;
+import oughttoprevail.prevailprotocol.storage.fields.IntField;
 import oughttoprevail.prevailprotocol.storage.fields.JavaSerDes;
+import oughttoprevail.prevailprotocol.util.Util;
 
 /**
  * A storage for signature public key for verification and a {@link SymmetricKeyRatchet} which will act as a receiving ratchet.
  */
 class SignatureNRatchet
 {
+	/**
+	 * @param settings to use
+	 * @return the maximum amount of bytes the fields of a {@link SignatureNRatchet} and it's receiving ratchet take in a storage
+	 */
+	static int getStorageSize(Settings settings)
+	{
+		int signatureKeySize = Util.BYTE_BYTES + Util.INT_BYTES + settings.getAsymmetricCryptography().getPublicKeySize();
+		int epochSize = Util.BYTE_BYTES + Util.INT_BYTES;
+		return SymmetricKeyRatchet.getStorageSize(settings) + signatureKeySize + epochSize;
+	}
+	
+	/**
+	 * Storage of this ratchet
+	 */
+	private final Storage storage;
 	/**
 	 * Signature key for message verification
 	 */
 	private final Field<byte[]> signatureKey;
+	/**
+	 * Epoch of the sender's session this ratchet belongs to or {@code null} if the sender key didn't contain an epoch
+	 */
+	private final IntField epoch;
+	/**
+	 * Session this ratchet is stored in
+	 */
+	private final GroupSession session;
 	/**
 	 * Receiving ratchet for {@link oughttoprevail.prevailprotocol.messenger.MessageKeys} derivation
 	 */
@@ -39,18 +65,38 @@ class SignatureNRatchet
 	/**
 	 * Constructs a new {@link SignatureNRatchet}.
 	 *
+	 * @param session this ratchet is stored in
 	 * @param receivingRatchet to be the receiving ratchet
-	 * @param signatureKey initial value of the signature key or {@code null} if the value shouldn't be updated
-	 * @param storage to store signature key in
+	 * @param storage to store signature key and epoch in
 	 */
-	SignatureNRatchet(SymmetricKeyRatchet receivingRatchet, byte[] signatureKey, Storage storage)
+	SignatureNRatchet(GroupSession session, SymmetricKeyRatchet receivingRatchet, Storage storage)
 	{
+		this.session = session;
+		this.storage = storage;
 		this.signatureKey = storage.getField(JavaSerDes.BYTE_ARRAY_SER_DES);
-		if(signatureKey != null)
+		this.epoch = storage.getIntField();
+		this.receivingRatchet = receivingRatchet;
+	}
+	
+	/**
+	 * Changes the sender key of this {@link SignatureNRatchet}.
+	 *
+	 * @param signatureKey the new signature key
+	 * @param epoch the new epoch or {@code null} if the sender key didn't contain an epoch
+	 * @param chainKey the new chain key of the receiving ratchet
+	 */
+	void senderKeyChanged(byte[] signatureKey, Integer epoch, byte[] chainKey)
+	{
+		this.signatureKey.set(signatureKey);
+		if(epoch == null)
+		{
+			this.epoch.clear();
+		} else
 		{
-			this.signatureKey.set(signatureKey);
+			this.epoch.set(epoch);
 		}
-		this.receivingRatchet = receivingRatchet;
+		receivingRatchet.chainKeyChanged(chainKey);
+		storage.flush();
 	}
 	
 	byte[] getSignatureKey()
@@ -58,6 +104,22 @@ class SignatureNRatchet
 		return signatureKey.get();
 	}
 	
+	/**
+	 * @return the epoch of the sender's session or {@code null} if it's unknown
+	 */
+	Integer getEpoch()
+	{
+		return epoch.isPresent() ? epoch.get() : null;
+	}
+	
+	/**
+	 * @return the session this ratchet is stored in
+	 */
+	GroupSession getSession()
+	{
+		return session;
+	}
+	
 	SymmetricKeyRatchet getReceivingRatchet()
 	{
 		return receivingRatchet;
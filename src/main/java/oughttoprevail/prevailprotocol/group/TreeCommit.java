@@ -0,0 +1,62 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.group;
+
+/**
+ * The result of adding a member to a {@link TreeGroup}.
+ */
+public class TreeCommit
+{
+	/**
+	 * Commit to be sent to all the other group members
+	 */
+	private final byte[] commit;
+	/**
+	 * Welcome encrypted for the added member
+	 */
+	private final byte[] welcome;
+	
+	/**
+	 * Constructs a new {@link TreeCommit}.
+	 *
+	 * @param commit to be sent to all the other group members
+	 * @param welcome encrypted for the added member
+	 */
+	TreeCommit(byte[] commit, byte[] welcome)
+	{
+		this.commit = commit;
+		this.welcome = welcome;
+	}
+	
+	/**
+	 * @return the commit to be sent to all the other group members, they should process it using {@link TreeGroup#processCommit(byte[])}
+	 */
+	public byte[] getCommit()
+	{
+		return commit;
+	}
+	
+	/**
+	 * @return the welcome encrypted for the added member, the added member should decrypt it using it's
+	 * {@link oughttoprevail.prevailprotocol.messenger.Messenger} and join with {@link TreeGroup#join(byte[])}
+	 */
+	public byte[] getWelcome()
+	{
+		return welcome;
+	}
+}
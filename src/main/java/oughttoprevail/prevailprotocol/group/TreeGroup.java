@@ -0,0 +1,1141 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.group;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import oughttoprevail.prevailprotocol.User;
+import oughttoprevail.prevailprotocol.asymmetriccryptography.AsymmetricCryptography;
+import oughttoprevail.prevailprotocol.cipher.MessengerCipher;
+import oughttoprevail.prevailprotocol.exception.VerificationFailedException;
+import oughttoprevail.prevailprotocol.kdf.KDF;
+import oughttoprevail.prevailprotocol.keys.KeyPair;
+import oughttoprevail.prevailprotocol.messenger.ByteArrayReader;
+import oughttoprevail.prevailprotocol.rw.ByteArrayOutput;
+import oughttoprevail.prevailprotocol.rw.FixedByteBufferInput;
+import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.storage.Directory;
+import oughttoprevail.prevailprotocol.storage.Storage;
+import oughttoprevail.prevailprotocol.storage.fields.CounterField;
+import oughttoprevail.prevailprotocol.storage.fields.Field;
+import oughttoprevail.prevailprotocol.storage.fields.JavaSerDes;
+import oughttoprevail.prevailprotocol.uid.UID;
+import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
+import oughttoprevail.prevailprotocol.util.Util;
+
+/**
+ * A {@link TreeGroup} is a group which agrees on a group secret using a {@link RatchetTree} (based on
+ * <a href="https://www.rfc-editor.org/rfc/rfc9420.html">TreeKEM</a>) instead of sending a sender key to every member like {@link Group}.
+ * Every member knows the private keys of the nodes between it's leaf and the root, so when a member is added, removed or updates it's keys the
+ * committer only encrypts the new path secrets to the resolutions of the nodes next to it's path which is O(log n) encryptions for n members
+ * (when the tree has few blank nodes).
+ * Every membership change creates a new epoch with a new epoch secret, messages are encrypted with keys derived from the epoch secret and signed
+ * by the sender so a member can't impersonate another member.
+ * {@link TreeGroup} comes with downsides compared to {@link Group}:
+ * 1. Commits must be processed by all members in the same order, a member can only decrypt messages of it's current epoch.
+ * 2. Message keys are derived from the epoch secret so there is no forward secrecy between messages of the same epoch, members should
+ * {@link #update()} regularly.
+ */
+public class TreeGroup
+{
+	/**
+	 * Directory name for tree groups
+	 */
+	private static final String TREE_GROUPS_DIRECTORY = "TreeGroups";
+	/**
+	 * Tree group storage name
+	 */
+	private static final String TREE_GROUP_STORAGE = "TreeGroup";
+	/**
+	 * Tree storage name
+	 */
+	private static final String TREE_STORAGE = "Tree";
+	/**
+	 * Path keys storage name
+	 */
+	private static final String PATH_KEYS_STORAGE = "PathKeys";
+	/**
+	 * Received counters storage name
+	 */
+	private static final String RECEIVED_COUNTERS_STORAGE = "ReceivedCounters";
+	/**
+	 * Amount of counters below a sender's highest received counter which are remembered, older messages are rejected
+	 */
+	private static final int REPLAY_WINDOW = Long.SIZE;
+	/**
+	 * Info for deriving the path secret of a parent from the path secret of it's child
+	 */
+	private static final byte[] PATH_INFO = "TreeKEMPath".getBytes(StandardCharsets.UTF_8);
+	/**
+	 * Info for deriving the key pair of a node from it's path secret
+	 */
+	private static final byte[] NODE_INFO = "TreeKEMNode".getBytes(StandardCharsets.UTF_8);
+	/**
+	 * Info for deriving the epoch secret from the root's path secret
+	 */
+	private static final byte[] EPOCH_INFO = "TreeKEMEpoch".getBytes(StandardCharsets.UTF_8);
+	/**
+	 * Info for deriving the keys which encrypt a path secret to a node
+	 */
+	private static final byte[] ENCRYPTION_INFO = "TreeKEMEncryption".getBytes(StandardCharsets.UTF_8);
+	/**
+	 * Info for deriving message keys from the epoch secret
+	 */
+	private static final byte[] MESSAGE_INFO = "TreeKEMMessage".getBytes(StandardCharsets.UTF_8);
+	/**
+	 * Commit type of a member updating it's path
+	 */
+	private static final byte UPDATE = 0;
+	/**
+	 * Commit type of a member adding a new member
+	 */
+	private static final byte ADD = 1;
+	/**
+	 * Commit type of a member removing a member
+	 */
+	private static final byte REMOVE = 2;
+	
+	/**
+	 * User who created this group
+	 */
+	private final User user;
+	/**
+	 * For deriving path secrets, node keys, epoch secrets and message keys
+	 */
+	private final KDF kdf;
+	/**
+	 * Settings to use
+	 */
+	private final Settings settings;
+	/**
+	 * Storage of the group state
+	 */
+	private final Storage storage;
+	/**
+	 * The current epoch ({@code null} if this user isn't a member)
+	 */
+	private final Field<Integer> epoch;
+	/**
+	 * Index of this user's leaf ({@code null} if this user isn't a member)
+	 */
+	private final Field<Integer> ownLeaf;
+	/**
+	 * Secret of the current epoch, message keys are derived from it ({@code null} if this user isn't a member)
+	 */
+	private final Field<byte[]> epochSecret;
+	/**
+	 * Signature key pair of this user's leaf
+	 */
+	private final Field<KeyPair> signatureKeyPair;
+	/**
+	 * Leaf key pair sent in a key package, the key pair is used once this user joins ({@code null} if there is no pending key package)
+	 */
+	private final Field<KeyPair> pendingLeafKeyPair;
+	/**
+	 * Counter of messages sent in the current epoch
+	 */
+	private final CounterField sendingCounter;
+	/**
+	 * Storage of the {@link #tree}
+	 */
+	private final Storage treeStorage;
+	/**
+	 * The public tree shared by all members
+	 */
+	private final RatchetTree tree;
+	/**
+	 * Storage of the {@link #pathKeys}
+	 */
+	private final Storage pathKeysStorage;
+	/**
+	 * Private keys of the nodes from this user's leaf to the root by the node's level ({@code null} if the node is blank)
+	 */
+	private final List<byte[]> pathKeys;
+	/**
+	 * Storage of the {@link #receivedCounters}
+	 */
+	private final Storage receivedCountersStorage;
+	/**
+	 * Counters received in the current epoch, for every sender leaf there are 2 values: it's highest received counter plus 1 ({@code 0} if none
+	 * was received) and a bitmap of the {@link #REPLAY_WINDOW} counters up to the highest where bit i says whether highest - i was received
+	 */
+	private final List<Long> receivedCounters;
+	/**
+	 * Lock for the group state, decryption holds the read lock while everything else holds the write lock
+	 */
+	private final ReadWriteLock lock;
+	
+	/**
+	 * Constructs a new {@link TreeGroup}.
+	 *
+	 * @param user who created this group
+	 * @param kdf for deriving keys
+	 * @param userDirectory is the directory of the specified user
+	 * @param groupId is the identifier of this group
+	 * @param settings to use
+	 */
+	public TreeGroup(User user, KDF kdf, Directory userDirectory, UID groupId, Settings settings)
+	{
+		this.user = user;
+		this.kdf = kdf;
+		this.settings = settings;
+		Directory groupDirectory = userDirectory.directory(TREE_GROUPS_DIRECTORY).directory(groupId.toString());
+		this.storage = groupDirectory.storage(TREE_GROUP_STORAGE);
+		this.epoch = storage.getField(JavaSerDes.INTEGER_SER_DES);
+		this.ownLeaf = storage.getField(JavaSerDes.INTEGER_SER_DES);
+		this.epochSecret = storage.getField(JavaSerDes.BYTE_ARRAY_SER_DES);
+		this.signatureKeyPair = storage.getField(KeyPair.SER_DES);
+		this.pendingLeafKeyPair = storage.getField(KeyPair.SER_DES);
+		this.sendingCounter = new CounterField(storage);
+		this.treeStorage = groupDirectory.storage(TREE_STORAGE);
+		this.tree = new RatchetTree(treeStorage.getFieldList(TreeNode.SER_DES));
+		this.pathKeysStorage = groupDirectory.storage(PATH_KEYS_STORAGE);
+		this.pathKeys = pathKeysStorage.getFieldList(JavaSerDes.BYTE_ARRAY_SER_DES);
+		this.receivedCountersStorage = groupDirectory.storage(RECEIVED_COUNTERS_STORAGE);
+		this.receivedCounters = receivedCountersStorage.getFieldList(JavaSerDes.LONG_SER_DES);
+		this.lock = new ReentrantReadWriteLock();
+	}
+	
+	/**
+	 * Creates this group with this user as it's only member.
+	 *
+	 * @throws IllegalStateException if this user is already a member
+	 */
+	public void create()
+	{
+		user.ensureOpen();
+		Lock lock = this.lock.writeLock();
+		lock.lock();
+		try
+		{
+			ensureNotMember();
+			AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
+			KeyPair leafKeyPair = asymmetricCryptography.generateKeyPair();
+			KeyPair signatureKeyPair = asymmetricCryptography.generateKeyPair();
+			this.signatureKeyPair.set(signatureKeyPair);
+			int leaf = tree.addLeaf(new TreeNode(leafKeyPair.getPublicKey(), user.getUserDeviceUID(), signatureKeyPair.getPublicKey()));
+			setPathKey(pathKeys, 0, leafKeyPair.getPrivateKey());
+			ownLeaf.set(leaf);
+			epoch.set(0);
+			epochSecret.set(settings.getRandom().nextBytes(settings.getSymmetricKeySize()));
+			sendingCounter.reset();
+			receivedCounters.clear();
+			flush();
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Creates a key package which lets the specified userDeviceUID add this user to the group, the key package is encrypted for the specified
+	 * userDeviceUID so it can't be forged by someone else.
+	 *
+	 * @param userDeviceUID is the member who will add this user
+	 * @return the encrypted key package
+	 * @throws IllegalStateException if this user is already a member
+	 */
+	public byte[] encryptKeyPackage(UserDeviceUID userDeviceUID)
+			throws IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException, InvalidKeyException
+	{
+		user.ensureOpen();
+		byte[] keyPackage;
+		Lock lock = this.lock.writeLock();
+		lock.lock();
+		try
+		{
+			ensureNotMember();
+			KeyPair leafKeyPair = pendingLeafKeyPair.get();
+			if(leafKeyPair == null)
+			{
+				AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
+				leafKeyPair = asymmetricCryptography.generateKeyPair();
+				pendingLeafKeyPair.set(leafKeyPair);
+				signatureKeyPair.set(asymmetricCryptography.generateKeyPair());
+				storage.flush();
+			}
+			keyPackage = Util.combine(leafKeyPair.getPublicKey(), signatureKeyPair.get().getPublicKey());
+		} finally
+		{
+			lock.unlock();
+		}
+		return user.getMessenger(userDeviceUID).encryptMessage(keyPackage);
+	}
+	
+	/**
+	 * Adds the specified userDeviceUID to this group.
+	 *
+	 * @param userDeviceUID is the member who is being added
+	 * @param keyPackage is the decrypted key package of the added member (see {@link #encryptKeyPackage(UserDeviceUID)})
+	 * @return the commit for all the other members and the welcome for the added member or {@code null} if the specified userDeviceUID is
+	 * already a member
+	 */
+	public TreeCommit add(UserDeviceUID userDeviceUID, byte[] keyPackage)
+			throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
+	{
+		user.ensureOpen();
+		int publicKeySize = settings.getAsymmetricCryptography().getPublicKeySize();
+		byte[] leafKey = Util.range(keyPackage, 0, publicKeySize);
+		byte[] signatureKey = Util.range(keyPackage, publicKeySize, publicKeySize);
+		byte[] commit;
+		byte[] welcome;
+		Lock lock = this.lock.writeLock();
+		lock.lock();
+		try
+		{
+			ensureMember();
+			if(tree.findLeaf(userDeviceUID) != -1)
+			{
+				return null;
+			}
+			RatchetTree newTree = tree.copy();
+			List<byte[]> newPathKeys = new ArrayList<>(pathKeys);
+			int addedLeaf = newTree.addLeaf(new TreeNode(leafKey, userDeviceUID, signatureKey));
+			blankDirectPath(newTree, newPathKeys, addedLeaf);
+			ByteArrayOutput out = newOutput();
+			writeCommitHeader(out, ADD);
+			out.writeInt(addedLeaf);
+			out.writeObject(userDeviceUID, UserDeviceUID.SER_DES);
+			out.writeBytes(leafKey);
+			out.writeBytes(signatureKey);
+			byte[][] pathSecrets = commitPath(out, newTree, newPathKeys);
+			commit = sign(out);
+			nextEpoch(newTree, newPathKeys, pathSecrets[pathSecrets.length - 1]);
+			//the added member can derive the path secrets from where it's path meets this user's path
+			int addedLeafNode = RatchetTree.leafNode(addedLeaf);
+			int commonAncestor = RatchetTree.leafNode(ownLeaf.get());
+			while(!RatchetTree.inSubtree(addedLeafNode, commonAncestor))
+			{
+				commonAncestor = RatchetTree.parent(commonAncestor);
+			}
+			ByteArrayOutput welcomeOut = newOutput();
+			welcomeOut.writeInt(epoch.get());
+			welcomeOut.writeInt(addedLeaf);
+			welcomeOut.writeInt(commonAncestor);
+			welcomeOut.writeBytes(pathSecrets[RatchetTree.level(commonAncestor)]);
+			tree.write(welcomeOut);
+			//the epoch secret is chained from the previous epoch secret which the added member doesn't know
+			welcomeOut.writeBytes(epochSecret.get());
+			welcome = welcomeOut.toByteArray();
+		} finally
+		{
+			lock.unlock();
+		}
+		return new TreeCommit(commit, user.getMessenger(userDeviceUID).encryptMessage(welcome));
+	}
+	
+	/**
+	 * Removes the specified userDeviceUID from this group.
+	 *
+	 * @param userDeviceUID is the member who is being removed
+	 * @return the commit for all the other members or {@code null} if the specified userDeviceUID isn't a member
+	 * @throws IllegalArgumentException if the specified userDeviceUID is this user
+	 */
+	public byte[] remove(UserDeviceUID userDeviceUID)
+			throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
+	{
+		user.ensureOpen();
+		Lock lock = this.lock.writeLock();
+		lock.lock();
+		try
+		{
+			ensureMember();
+			int removedLeaf = tree.findLeaf(userDeviceUID);
+			if(removedLeaf == -1)
+			{
+				return null;
+			}
+			if(removedLeaf == ownLeaf.get())
+			{
+				throw new IllegalArgumentException("Can't remove yourself!");
+			}
+			RatchetTree newTree = tree.copy();
+			List<byte[]> newPathKeys = new ArrayList<>(pathKeys);
+			newTree.set(RatchetTree.leafNode(removedLeaf), null);
+			blankDirectPath(newTree, newPathKeys, removedLeaf);
+			ByteArrayOutput out = newOutput();
+			writeCommitHeader(out, REMOVE);
+			out.writeInt(removedLeaf);
+			byte[][] pathSecrets = commitPath(out, newTree, newPathKeys);
+			byte[] commit = sign(out);
+			nextEpoch(newTree, newPathKeys, pathSecrets[pathSecrets.length - 1]);
+			return commit;
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Replaces the keys of this user's path, this should be done regularly so a leaked epoch secret or path key doesn't reveal future messages.
+	 *
+	 * @return the commit for all the other members
+	 */
+	public byte[] update() throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
+	{
+		user.ensureOpen();
+		Lock lock = this.lock.writeLock();
+		lock.lock();
+		try
+		{
+			ensureMember();
+			ByteArrayOutput out = newOutput();
+			writeCommitHeader(out, UPDATE);
+			RatchetTree newTree = tree.copy();
+			List<byte[]> newPathKeys = new ArrayList<>(pathKeys);
+			byte[][] pathSecrets = commitPath(out, newTree, newPathKeys);
+			byte[] commit = sign(out);
+			nextEpoch(newTree, newPathKeys, pathSecrets[pathSecrets.length - 1]);
+			return commit;
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Processes a commit created by another member and moves to the next epoch.
+	 * If the commit removed this user then this user is no longer a member.
+	 * The commit is processed on a copy of the tree and path keys which replaces them only once the whole commit was verified, so an invalid
+	 * commit doesn't change the group state.
+	 *
+	 * @param commit to process
+	 * @throws VerificationFailedException if the commit isn't for the current epoch, it's signature is invalid, it adds or removes an invalid
+	 * leaf or it's path doesn't match
+	 */
+	public void processCommit(byte[] commit)
+			throws VerificationFailedException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException,
+				   InvalidAlgorithmParameterException
+	{
+		user.ensureOpen();
+		AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
+		int contentLength = commit.length - asymmetricCryptography.getSignatureSize();
+		byte[] content = Util.range(commit, 0, contentLength);
+		byte[] signature = Util.range(commit, contentLength, asymmetricCryptography.getSignatureSize());
+		FixedByteBufferInput in = new FixedByteBufferInput(ByteBuffer.wrap(content), settings);
+		Lock lock = this.lock.writeLock();
+		lock.lock();
+		try
+		{
+			ensureMember();
+			int commitEpoch = in.readInt();
+			if(commitEpoch != epoch.get())
+			{
+				throw new VerificationFailedException("Commit is for epoch " + commitEpoch + " but the current epoch is " + epoch.get() + "!");
+			}
+			int committer = in.readInt();
+			int committerLeafNode = RatchetTree.leafNode(committer);
+			TreeNode committerLeaf = committer >= 0 && committer < tree.getLeafCount() && committer != ownLeaf.get() ? tree.get(committerLeafNode)
+					: null;
+			if(committerLeaf == null || !asymmetricCryptography.verify(signature, content, committerLeaf.getSignatureKey()))
+			{
+				throw new VerificationFailedException("Commit verification failed!");
+			}
+			RatchetTree newTree = tree.copy();
+			List<byte[]> newPathKeys = new ArrayList<>(pathKeys);
+			byte type = in.readByte();
+			if(type == ADD)
+			{
+				int addedLeaf = in.readInt();
+				UserDeviceUID addedMember = in.readObject(UserDeviceUID.SER_DES);
+				byte[] leafKey = in.readBytes();
+				byte[] signatureKey = in.readBytes();
+				//the committer adds the member at the first blank leaf or extends the tree once if there is none, so any other leaf is invalid
+				if(newTree.findLeaf(addedMember) != -1 || newTree.addLeaf(new TreeNode(leafKey, addedMember, signatureKey)) != addedLeaf)
+				{
+					throw new VerificationFailedException("Commit adds " + addedMember + " at an invalid leaf " + addedLeaf + "!");
+				}
+				blankDirectPath(newTree, newPathKeys, addedLeaf);
+			} else if(type == REMOVE)
+			{
+				int removedLeaf = in.readInt();
+				if(removedLeaf < 0 || removedLeaf >= newTree.getLeafCount() || removedLeaf == committer || newTree.get(RatchetTree.leafNode(
+						removedLeaf)) == null)
+				{
+					throw new VerificationFailedException("Commit removes an invalid leaf " + removedLeaf + "!");
+				}
+				if(removedLeaf == ownLeaf.get())
+				{
+					leave();
+					return;
+				}
+				newTree.set(RatchetTree.leafNode(removedLeaf), null);
+				blankDirectPath(newTree, newPathKeys, removedLeaf);
+			} else if(type != UPDATE)
+			{
+				throw new VerificationFailedException("Unknown commit type " + type + "!");
+			}
+			nextEpoch(newTree, newPathKeys, processPath(in, committerLeafNode, newTree, newPathKeys));
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Joins this group using a welcome created by the member who added this user.
+	 *
+	 * @param welcome is the decrypted welcome (see {@link TreeCommit#getWelcome()})
+	 * @throws VerificationFailedException if the welcome doesn't match the key package of this user
+	 * @throws IllegalStateException if this user is already a member or never created a key package
+	 */
+	public void join(byte[] welcome) throws VerificationFailedException, InvalidKeyException
+	{
+		user.ensureOpen();
+		FixedByteBufferInput in = new FixedByteBufferInput(ByteBuffer.wrap(welcome), settings);
+		Lock lock = this.lock.writeLock();
+		lock.lock();
+		try
+		{
+			ensureNotMember();
+			KeyPair leafKeyPair = pendingLeafKeyPair.get();
+			if(leafKeyPair == null)
+			{
+				throw new IllegalStateException("No key package was created!");
+			}
+			int newEpoch = in.readInt();
+			int leaf = in.readInt();
+			int commonAncestor = in.readInt();
+			byte[] pathSecret = in.readBytes();
+			RatchetTree newTree = new RatchetTree(RatchetTree.read(in));
+			byte[] newEpochSecret = in.readBytes();
+			int leafNode = RatchetTree.leafNode(leaf);
+			TreeNode leafTreeNode = leaf >= 0 && leaf < newTree.getLeafCount() ? newTree.get(leafNode) : null;
+			if(leafTreeNode == null || !user.getUserDeviceUID().equals(leafTreeNode.getMember()) || !Arrays.equals(leafTreeNode.getPublicKey(),
+					leafKeyPair.getPublicKey()) || commonAncestor < 0 || commonAncestor > newTree.getRoot() * 2 || !RatchetTree.inSubtree(leafNode,
+					commonAncestor))
+			{
+				throw new VerificationFailedException("Welcome doesn't match the key package!");
+			}
+			List<byte[]> newPathKeys = new ArrayList<>();
+			setPathKey(newPathKeys, 0, leafKeyPair.getPrivateKey());
+			int node = commonAncestor;
+			while(true)
+			{
+				setPathKey(newPathKeys, RatchetTree.level(node), deriveNodeKeyPair(pathSecret, newTree.get(node)));
+				if(node == newTree.getRoot())
+				{
+					break;
+				}
+				node = RatchetTree.parent(node);
+				pathSecret = kdf.deriveKey(pathSecret, PATH_INFO, settings.getSymmetricKeySize());
+			}
+			tree.setAll(newTree);
+			pathKeys.clear();
+			pathKeys.addAll(newPathKeys);
+			pendingLeafKeyPair.set(null);
+			ownLeaf.set(leaf);
+			epoch.set(newEpoch);
+			epochSecret.set(newEpochSecret);
+			sendingCounter.reset();
+			receivedCounters.clear();
+			flush();
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Encrypts the specified message for all the current members.
+	 *
+	 * The encrypted message format is:
+	 * <ul>
+	 *     <li>{@link Util#INT_BYTES} bytes - int - epoch of the message</li>
+	 *     <li>{@link Util#INT_BYTES} bytes - int - leaf of the sender</li>
+	 *     <li>{@link Util#INT_BYTES} bytes - int - counter of the message in the epoch</li>
+	 *     <li>{@link AsymmetricCryptography#getSignatureSize()} bytes - byte[] - signature of the above and the ciphertext</li>
+	 *     <li>{@link Util#INT_BYTES} bytes - int - ciphertext length</li>
+	 *     <li>ciphertext length - byte[] - ciphertext</li>
+	 * </ul>
+	 *
+	 * @param message to encrypt
+	 * @return the encrypted message
+	 */
+	public byte[] encryptMessage(byte[] message)
+			throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
+	{
+		user.ensureOpen();
+		Lock lock = this.lock.writeLock();
+		lock.lock();
+		try
+		{
+			ensureMember();
+			int counter = sendingCounter.get();
+			sendingCounter.increment();
+			storage.flush();
+			byte[] header = Util.combine(Util.intToBytes(epoch.get()), Util.intToBytes(ownLeaf.get()), Util.intToBytes(counter));
+			byte[] ciphertext = messageCipher(header, message, true);
+			byte[] signature = settings.getAsymmetricCryptography().sign(Util.combine(header, ciphertext), signatureKeyPair.get().getPrivateKey());
+			return Util.combine(header, signature, Util.intToBytes(ciphertext.length), ciphertext);
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Decrypts the specified message.
+	 *
+	 * @param message to decrypt
+	 * @return the decrypted (plaintext) message or {@code null} if the message isn't from the current epoch, the sender isn't a member, the
+	 * signature is invalid or the message was already decrypted (or it's counter is too old to tell)
+	 */
+	public byte[] decryptMessage(byte[] message)
+			throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
+	{
+		user.ensureOpen();
+		AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
+		ByteArrayReader reader = new ByteArrayReader(message);
+		byte[] header = reader.readBytes(Util.INT_BYTES * 3);
+		byte[] signature = reader.readBytes(asymmetricCryptography.getSignatureSize());
+		byte[] ciphertext = reader.readBytes(reader.readInt());
+		Lock lock = this.lock.readLock();
+		lock.lock();
+		try
+		{
+			TreeNode sender = getSenderLeaf(header);
+			if(sender == null || !asymmetricCryptography.verify(signature, Util.combine(header, ciphertext), sender.getSignatureKey()))
+			{
+				return null;
+			}
+			byte[] decrypted = messageCipher(header, ciphertext, false);
+			//message keys only depend on the header so a replayed message would decrypt again
+			if(!markReceived(Util.bytesToInt(Util.range(header, Util.INT_BYTES, Util.INT_BYTES)),
+					Util.bytesToInt(Util.range(header, Util.INT_BYTES * 2, Util.INT_BYTES))))
+			{
+				return null;
+			}
+			return decrypted;
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @param message encrypted by {@link #encryptMessage(byte[])}
+	 * @return the sender of the specified message or {@code null} if the message isn't from the current epoch or the sender isn't a member
+	 */
+	public UserDeviceUID getSender(byte[] message)
+	{
+		Lock lock = this.lock.readLock();
+		lock.lock();
+		try
+		{
+			TreeNode sender = getSenderLeaf(Util.range(message, 0, Util.INT_BYTES * 3));
+			return sender == null ? null : sender.getMember();
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return whether this user is a member of this group
+	 */
+	public boolean isMember()
+	{
+		return ownLeaf.get() != null;
+	}
+	
+	/**
+	 * @param userDeviceUID to check
+	 * @return whether the specified userDeviceUID is a member of this group
+	 */
+	public boolean hasMember(UserDeviceUID userDeviceUID)
+	{
+		Lock lock = this.lock.readLock();
+		lock.lock();
+		try
+		{
+			return tree.findLeaf(userDeviceUID) != -1;
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return all the members of this group
+	 */
+	public List<UserDeviceUID> getMembers()
+	{
+		Lock lock = this.lock.readLock();
+		lock.lock();
+		try
+		{
+			return tree.getMembers();
+		} finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return the current epoch or {@code null} if this user isn't a member
+	 */
+	public Integer getEpoch()
+	{
+		return epoch.get();
+	}
+	
+	/**
+	 * Closes this group without deleting any of it's data, a tree group has no scheduled tasks so this only waits for the operations in progress
+	 * to finish so their flushes come before the storages are closed.
+	 * This group mustn't be used after it was closed.
+	 */
+	public void close()
+	{
+		Lock lock = this.lock.writeLock();
+		lock.lock();
+		lock.unlock();
+	}
+	
+	/**
+	 * @param header of a message
+	 * @return the leaf of the specified header's sender or {@code null} if the header isn't from the current epoch or the sender isn't a member
+	 */
+	private TreeNode getSenderLeaf(byte[] header)
+	{
+		Integer epoch = this.epoch.get();
+		if(epoch == null || Util.bytesToInt(Util.range(header, 0, Util.INT_BYTES)) != epoch)
+		{
+			return null;
+		}
+		int senderLeaf = Util.bytesToInt(Util.range(header, Util.INT_BYTES, Util.INT_BYTES));
+		return senderLeaf >= 0 && senderLeaf < tree.getLeafCount() ? tree.get(RatchetTree.leafNode(senderLeaf)) : null;
+	}
+	
+	/**
+	 * Marks the specified counter of the specified sender as received.
+	 *
+	 * @param senderLeaf leaf of the sender
+	 * @param counter of the message
+	 * @return whether the specified counter wasn't received before ({@code false} if it was received or it's older than the
+	 * {@link #REPLAY_WINDOW})
+	 */
+	private boolean markReceived(int senderLeaf, int counter)
+	{
+		if(counter < 0)
+		{
+			return false;
+		}
+		//decryption only holds the read lock
+		synchronized(receivedCounters)
+		{
+			int index = senderLeaf * 2;
+			while(receivedCounters.size() <= index + 1)
+			{
+				receivedCounters.add(0L);
+			}
+			long highest = receivedCounters.get(index) - 1;
+			long window = receivedCounters.get(index + 1);
+			if(counter > highest)
+			{
+				long shift = counter - highest;
+				window = shift >= REPLAY_WINDOW ? 1 : window << shift | 1;
+				highest = counter;
+			} else
+			{
+				long age = highest - counter;
+				if(age >= REPLAY_WINDOW || (window & 1L << age) != 0)
+				{
+					return false;
+				}
+				window |= 1L << age;
+			}
+			receivedCounters.set(index, highest + 1);
+			receivedCounters.set(index + 1, window);
+			receivedCountersStorage.flush();
+			return true;
+		}
+	}
+	
+	/**
+	 * Encrypts or decrypts the specified input with the message keys of the specified header.
+	 *
+	 * @param header of the message, the message keys are derived from the epoch secret and the header
+	 * @param input to encrypt or decrypt
+	 * @param encrypt whether to encrypt ({@code true}) or decrypt ({@code false})
+	 * @return the output
+	 */
+	private byte[] messageCipher(byte[] header, byte[] input, boolean encrypt)
+			throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
+	{
+		int symmetricKeySize = settings.getSymmetricKeySize();
+		byte[] keys = kdf.deriveKey(epochSecret.get(), Util.combine(MESSAGE_INFO, header), symmetricKeySize + settings.getIVSize());
+		byte[][] split = Util.splitLengths(keys, symmetricKeySize, settings.getIVSize());
+		MessengerCipher cipher = user.getCipher();
+		return encrypt ? cipher.encrypt(Util.newSymmetricKey(split[0], settings), Util.newIV(split[1], settings), input) : cipher.decrypt(
+				Util.newSymmetricKey(split[0], settings),
+				Util.newIV(split[1], settings),
+				input);
+	}
+	
+	/**
+	 * Writes the start of a commit.
+	 *
+	 * @param out to write to
+	 * @param type of the commit
+	 */
+	private void writeCommitHeader(ByteArrayOutput out, byte type)
+	{
+		out.writeInt(epoch.get());
+		out.writeInt(ownLeaf.get());
+		out.writeByte(type);
+	}
+	
+	/**
+	 * Replaces the keys of this user's path in the specified tree and pathKeys with keys derived from a new path secret and writes the new public
+	 * keys and the path secrets encrypted to the resolution of every node next to the path.
+	 *
+	 * @param out to write the path to
+	 * @param tree to replace the path's public keys in
+	 * @param pathKeys to replace the path's private keys in
+	 * @return the path secrets by the level of their node, the last is the root's path secret
+	 */
+	private byte[][] commitPath(ByteArrayOutput out, RatchetTree tree, List<byte[]> pathKeys)
+			throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
+	{
+		AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
+		int secretSize = settings.getSymmetricKeySize();
+		int leafNode = RatchetTree.leafNode(ownLeaf.get());
+		List<Integer> directPath = tree.getDirectPath(leafNode);
+		byte[][] pathSecrets = new byte[directPath.size() + 1][];
+		byte[] pathSecret = settings.getRandom().nextBytes(secretSize);
+		pathSecrets[0] = pathSecret;
+		KeyPair leafKeyPair = deriveNodeKeyPair(pathSecret);
+		tree.set(leafNode, tree.get(leafNode).withPublicKey(leafKeyPair.getPublicKey()));
+		setPathKey(pathKeys, 0, leafKeyPair.getPrivateKey());
+		out.writeBytes(leafKeyPair.getPublicKey());
+		out.writeInt(directPath.size());
+		int child = leafNode;
+		for(int i = 0; i < directPath.size(); i++)
+		{
+			int node = directPath.get(i);
+			pathSecret = kdf.deriveKey(pathSecret, PATH_INFO, secretSize);
+			pathSecrets[i + 1] = pathSecret;
+			KeyPair nodeKeyPair = deriveNodeKeyPair(pathSecret);
+			//every member under the other child of the node gets the path secret through the resolution of the other child
+			List<Integer> resolution = tree.getResolution(RatchetTree.sibling(child));
+			KeyPair ephemeralKeyPair = asymmetricCryptography.generateKeyPair();
+			out.writeBytes(nodeKeyPair.getPublicKey());
+			out.writeBytes(ephemeralKeyPair.getPublicKey());
+			out.writeInt(resolution.size());
+			for(int resolutionNode : resolution)
+			{
+				out.writeBytes(encryptPathSecret(pathSecret, tree.get(resolutionNode).getPublicKey(), ephemeralKeyPair.getPrivateKey()));
+			}
+			tree.set(node, new TreeNode(nodeKeyPair.getPublicKey(), null, null));
+			setPathKey(pathKeys, RatchetTree.level(node), nodeKeyPair.getPrivateKey());
+			child = node;
+		}
+		return pathSecrets;
+	}
+	
+	/**
+	 * Reads the path written by {@link #commitPath(ByteArrayOutput, RatchetTree, List)} into the specified tree and decrypts the path secret of
+	 * the lowest node which is also on this user's path.
+	 *
+	 * @param in to read the path from
+	 * @param committerLeafNode node index of the committer's leaf
+	 * @param tree to set the path's public keys in
+	 * @param pathKeys to set the private keys of the nodes on this user's path in
+	 * @return the root's path secret
+	 * @throws VerificationFailedException if the path doesn't match the tree
+	 */
+	private byte[] processPath(FixedByteBufferInput in, int committerLeafNode, RatchetTree tree, List<byte[]> pathKeys)
+			throws VerificationFailedException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException,
+				   InvalidAlgorithmParameterException
+	{
+		int secretSize = settings.getSymmetricKeySize();
+		int leafNode = RatchetTree.leafNode(ownLeaf.get());
+		List<Integer> directPath = tree.getDirectPath(committerLeafNode);
+		tree.set(committerLeafNode, tree.get(committerLeafNode).withPublicKey(in.readBytes()));
+		if(in.readInt() != directPath.size())
+		{
+			throw new VerificationFailedException("Commit path doesn't match the tree!");
+		}
+		byte[] pathSecret = null;
+		int child = committerLeafNode;
+		for(int node : directPath)
+		{
+			byte[] publicKey = in.readBytes();
+			byte[] ephemeralKey = in.readBytes();
+			byte[][] encryptedPathSecrets = new byte[in.readInt()][];
+			for(int i = 0; i < encryptedPathSecrets.length; i++)
+			{
+				encryptedPathSecrets[i] = in.readBytes();
+			}
+			if(pathSecret != null)
+			{
+				pathSecret = kdf.deriveKey(pathSecret, PATH_INFO, secretSize);
+			} else
+			{
+				int copathNode = RatchetTree.sibling(child);
+				if(RatchetTree.inSubtree(leafNode, copathNode))
+				{
+					pathSecret = decryptPathSecret(tree.getResolution(copathNode), pathKeys, encryptedPathSecrets, ephemeralKey);
+				}
+			}
+			TreeNode treeNode = new TreeNode(publicKey, null, null);
+			if(pathSecret != null)
+			{
+				setPathKey(pathKeys, RatchetTree.level(node), deriveNodeKeyPair(pathSecret, treeNode));
+			}
+			tree.set(node, treeNode);
+			child = node;
+		}
+		if(pathSecret == null)
+		{
+			throw new VerificationFailedException("Commit path doesn't reach this member!");
+		}
+		return pathSecret;
+	}
+	
+	/**
+	 * Decrypts the path secret encrypted to the node in the specified resolution which is on this user's path.
+	 *
+	 * @param resolution of the node next to the committer's path which is above this user's leaf
+	 * @param pathKeys private keys of the nodes on this user's path
+	 * @param encryptedPathSecrets path secrets encrypted to every node in the specified resolution
+	 * @param ephemeralKey of the committer which encrypted the path secrets
+	 * @return the decrypted path secret
+	 * @throws VerificationFailedException if there is no matching encrypted path secret
+	 */
+	private byte[] decryptPathSecret(List<Integer> resolution, List<byte[]> pathKeys, byte[][] encryptedPathSecrets, byte[] ephemeralKey)
+			throws VerificationFailedException, InvalidKeyException, IllegalBlockSizeException, BadPaddingException,
+				   InvalidAlgorithmParameterException
+	{
+		if(resolution.size() != encryptedPathSecrets.length)
+		{
+			throw new VerificationFailedException("Commit path doesn't match the tree!");
+		}
+		int leafNode = RatchetTree.leafNode(ownLeaf.get());
+		for(int i = 0; i < encryptedPathSecrets.length; i++)
+		{
+			int resolutionNode = resolution.get(i);
+			byte[] privateKey;
+			//only one node of the resolution covers this user's leaf
+			if(RatchetTree.inSubtree(leafNode, resolutionNode) && (privateKey = getPathKey(pathKeys, RatchetTree.level(resolutionNode))) != null)
+			{
+				byte[] keys = deriveEncryptionKeys(settings.getAsymmetricCryptography().keyExchange(ephemeralKey, privateKey));
+				int symmetricKeySize = settings.getSymmetricKeySize();
+				return user.getCipher().decrypt(Util.newSymmetricKey(Util.range(keys, 0, symmetricKeySize), settings),
+						Util.newIV(Util.range(keys, symmetricKeySize, settings.getIVSize()), settings),
+						encryptedPathSecrets[i]);
+			}
+		}
+		throw new VerificationFailedException("No key to decrypt the commit path!");
+	}
+	
+	/**
+	 * @param pathSecret to encrypt
+	 * @param publicKey of the node to encrypt to
+	 * @param ephemeralPrivateKey private key of the committer's ephemeral key pair
+	 * @return the encrypted path secret
+	 */
+	private byte[] encryptPathSecret(byte[] pathSecret, byte[] publicKey, byte[] ephemeralPrivateKey)
+			throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException
+	{
+		byte[] keys = deriveEncryptionKeys(settings.getAsymmetricCryptography().keyExchange(publicKey, ephemeralPrivateKey));
+		int symmetricKeySize = settings.getSymmetricKeySize();
+		return user.getCipher().encrypt(Util.newSymmetricKey(Util.range(keys, 0, symmetricKeySize), settings),
+				Util.newIV(Util.range(keys, symmetricKeySize, settings.getIVSize()), settings),
+				pathSecret);
+	}
+	
+	/**
+	 * @param sharedSecret between the committer and a node
+	 * @return a symmetric key followed by an iv
+	 */
+	private byte[] deriveEncryptionKeys(byte[] sharedSecret) throws InvalidKeyException
+	{
+		return kdf.deriveKey(sharedSecret, ENCRYPTION_INFO, settings.getSymmetricKeySize() + settings.getIVSize());
+	}
+	
+	/**
+	 * @param pathSecret of a node
+	 * @return the key pair of the node
+	 */
+	private KeyPair deriveNodeKeyPair(byte[] pathSecret) throws InvalidKeyException
+	{
+		AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
+		return asymmetricCryptography.generateKeyPair(kdf.deriveKey(pathSecret, NODE_INFO, asymmetricCryptography.getPublicKeySize()));
+	}
+	
+	/**
+	 * @param pathSecret of the specified node
+	 * @param node which the specified path secret belongs to
+	 * @return the private key of the specified node
+	 * @throws VerificationFailedException if the key pair derived from the specified pathSecret doesn't match the specified node's public key
+	 */
+	private byte[] deriveNodeKeyPair(byte[] pathSecret, TreeNode node) throws VerificationFailedException, InvalidKeyException
+	{
+		KeyPair keyPair = deriveNodeKeyPair(pathSecret);
+		if(node == null || !Arrays.equals(keyPair.getPublicKey(), node.getPublicKey()))
+		{
+			throw new VerificationFailedException("Path secret doesn't match the node's public key!");
+		}
+		return keyPair.getPrivateKey();
+	}
+	
+	/**
+	 * Replaces the tree and path keys with the specified newTree and newPathKeys then moves to the next epoch.
+	 * The new epoch secret is derived from the root's path secret with the previous epoch secret as salt, so a member who only learns the new
+	 * root's path secret can't derive the epoch secret without the previous epoch secret.
+	 *
+	 * @param newTree the tree of the new epoch
+	 * @param newPathKeys the path keys of the new epoch
+	 * @param rootPathSecret path secret of the root of the new epoch
+	 */
+	private void nextEpoch(RatchetTree newTree, List<byte[]> newPathKeys, byte[] rootPathSecret) throws InvalidKeyException
+	{
+		byte[] newEpochSecret = kdf.deriveKey(epochSecret.get(), rootPathSecret, EPOCH_INFO, settings.getSymmetricKeySize());
+		tree.setAll(newTree);
+		pathKeys.clear();
+		pathKeys.addAll(newPathKeys);
+		epochSecret.set(newEpochSecret);
+		epoch.set(epoch.get() + 1);
+		sendingCounter.reset();
+		receivedCounters.clear();
+		flush();
+	}
+	
+	/**
+	 * Blanks the ancestors of the specified leaf in the specified tree, this user forgets the private keys of the blanked nodes.
+	 *
+	 * @param tree to blank the nodes in
+	 * @param pathKeys to forget the private keys in
+	 * @param leaf index of the leaf
+	 */
+	private void blankDirectPath(RatchetTree tree, List<byte[]> pathKeys, int leaf)
+	{
+		int leafNode = RatchetTree.leafNode(ownLeaf.get());
+		for(int node : tree.getDirectPath(RatchetTree.leafNode(leaf)))
+		{
+			tree.set(node, null);
+			if(RatchetTree.inSubtree(leafNode, node))
+			{
+				setPathKey(pathKeys, RatchetTree.level(node), null);
+			}
+		}
+	}
+	
+	/**
+	 * @param pathKeys private keys of the nodes on this user's path
+	 * @param level of a node on this user's path
+	 * @return the private key of the node or {@code null} if it's unknown
+	 */
+	private static byte[] getPathKey(List<byte[]> pathKeys, int level)
+	{
+		return level < pathKeys.size() ? pathKeys.get(level) : null;
+	}
+	
+	/**
+	 * @param pathKeys private keys of the nodes on this user's path
+	 * @param level of a node on this user's path
+	 * @param privateKey of the node or {@code null} if it's unknown
+	 */
+	private static void setPathKey(List<byte[]> pathKeys, int level, byte[] privateKey)
+	{
+		while(pathKeys.size() <= level)
+		{
+			pathKeys.add(null);
+		}
+		pathKeys.set(level, privateKey);
+	}
+	
+	/**
+	 * Clears the group state after this user was removed.
+	 */
+	private void leave()
+	{
+		tree.setAll(Collections.emptyList());
+		pathKeys.clear();
+		ownLeaf.set(null);
+		epoch.set(null);
+		epochSecret.set(null);
+		receivedCounters.clear();
+		flush();
+	}
+	
+	/**
+	 * @return a new output for commits and welcomes
+	 */
+	private ByteArrayOutput newOutput()
+	{
+		return new ByteArrayOutput(ByteBuffer.allocate(1024), settings);
+	}
+	
+	/**
+	 * @param out containing a commit
+	 * @return the commit followed by it's signature
+	 */
+	private byte[] sign(ByteArrayOutput out)
+	{
+		byte[] content = out.toByteArray();
+		return Util.combine(content, settings.getAsymmetricCryptography().sign(content, signatureKeyPair.get().getPrivateKey()));
+	}
+	
+	/**
+	 * @throws IllegalStateException if this user isn't a member
+	 */
+	private void ensureMember()
+	{
+		if(ownLeaf.get() == null)
+		{
+			throw new IllegalStateException("Not a member of this group!");
+		}
+	}
+	
+	/**
+	 * @throws IllegalStateException if this user is a member
+	 */
+	private void ensureNotMember()
+	{
+		if(ownLeaf.get() != null)
+		{
+			throw new IllegalStateException("Already a member of this group!");
+		}
+	}
+	
+	/**
+	 * Flushes all storages of this group.
+	 */
+	private void flush()
+	{
+		storage.flush();
+		treeStorage.flush();
+		pathKeysStorage.flush();
+		receivedCountersStorage.flush();
+	}
+}
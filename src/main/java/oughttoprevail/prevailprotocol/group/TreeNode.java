@@ -0,0 +1,120 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.group;
+
+import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.storage.fields.FieldInputStream;
+import oughttoprevail.prevailprotocol.storage.fields.FieldOutputStream;
+import oughttoprevail.prevailprotocol.storage.fields.SerDes;
+import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
+
+/**
+ * A non-blank node of a {@link RatchetTree}.
+ * Every node has a public key, leaves also have the member who owns the leaf and the member's signature key.
+ */
+class TreeNode
+{
+	static final SerDes<TreeNode> SER_DES = new SerDes<TreeNode>()
+	{
+		@Override
+		public void serialize(TreeNode treeNode, FieldOutputStream out, Settings settings)
+		{
+			out.writeBytes(treeNode.getPublicKey());
+			UserDeviceUID member = treeNode.getMember();
+			out.writeBoolean(member != null);
+			if(member != null)
+			{
+				out.writeObject(member, UserDeviceUID.SER_DES);
+				out.writeBytes(treeNode.getSignatureKey());
+			}
+		}
+		
+		@Override
+		public TreeNode deserialize(FieldInputStream in, Settings settings)
+		{
+			byte[] publicKey = in.readBytes();
+			if(!in.readBoolean())
+			{
+				return new TreeNode(publicKey, null, null);
+			}
+			UserDeviceUID member = in.readObject(UserDeviceUID.SER_DES);
+			byte[] signatureKey = in.readBytes();
+			return new TreeNode(publicKey, member, signatureKey);
+		}
+	};
+	
+	/**
+	 * Public key of this node, messages to this node's subtree are encrypted to this key
+	 */
+	private final byte[] publicKey;
+	/**
+	 * Member who owns this leaf ({@code null} if this isn't a leaf)
+	 */
+	private final UserDeviceUID member;
+	/**
+	 * Signature key of the member who owns this leaf ({@code null} if this isn't a leaf)
+	 */
+	private final byte[] signatureKey;
+	
+	/**
+	 * Constructs a new {@link TreeNode}.
+	 *
+	 * @param publicKey of the node
+	 * @param member who owns the leaf ({@code null} if this isn't a leaf)
+	 * @param signatureKey of the member who owns the leaf ({@code null} if this isn't a leaf)
+	 */
+	TreeNode(byte[] publicKey, UserDeviceUID member, byte[] signatureKey)
+	{
+		this.publicKey = publicKey;
+		this.member = member;
+		this.signatureKey = signatureKey;
+	}
+	
+	/**
+	 * @param publicKey the new public key
+	 * @return a copy of this node with the specified publicKey
+	 */
+	TreeNode withPublicKey(byte[] publicKey)
+	{
+		return new TreeNode(publicKey, member, signatureKey);
+	}
+	
+	/**
+	 * @return the public key of this node
+	 */
+	byte[] getPublicKey()
+	{
+		return publicKey;
+	}
+	
+	/**
+	 * @return the member who owns this leaf or {@code null} if this isn't a leaf
+	 */
+	UserDeviceUID getMember()
+	{
+		return member;
+	}
+	
+	/**
+	 * @return the signature key of the member who owns this leaf or {@code null} if this isn't a leaf
+	 */
+	byte[] getSignatureKey()
+	{
+		return signatureKey;
+	}
+}
@@ -18,10 +18,13 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 package oughttoprevail.prevailprotocol.kdf;
 
 import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.InvalidKeyException;
+import java.util.Arrays;
 
 import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.util.ThreadLocalMac;
 import oughttoprevail.prevailprotocol.util.Util;
 
 /**
@@ -38,9 +41,9 @@ public class HKDF implements KDF
 	private static final byte[] DEFAULT_ZERO_SALT = new byte[Settings.getDefaultSettings().getOutputHashSize()];
 	
 	/**
-	 * Will be used to derive the keys
+	 * Will be used to derive the keys, every thread has it's own copy so keys can be derived by multiple threads
 	 */
-	private final Mac mac;
+	private final ThreadLocalMac mac;
 	/**
 	 * Defines necessary variables
 	 */
@@ -49,6 +52,11 @@ public class HKDF implements KDF
 	 * Defines an empty (full with zero) {@code byte[]} which is used when a salt is not provided.
 	 */
 	private final byte[] zeroSalt;
+	/**
+	 * Buffer for the mac output of every thread, reused by every derivation and zeroed once a derivation is finished since it holds the extracted
+	 * key and the last block of the output
+	 */
+	private final ThreadLocal<byte[]> hash;
 	
 	/**
 	 * Constructs a new {@link HKDF} with the specified mac and specified settings.
@@ -59,9 +67,10 @@ public class HKDF implements KDF
 	HKDF(Mac mac, Settings settings)
 	{
 		this.settings = settings;
-		this.mac = mac;
+		this.mac = new ThreadLocalMac(mac);
 		//set zeroSalt to DEFAULT_ZERO_SALT if available, else create a new byte[] matching the Settings.getOutputHashSize()
 		this.zeroSalt = settings.getOutputHashSize() == DEFAULT_ZERO_SALT.length ? DEFAULT_ZERO_SALT : new byte[settings.getOutputHashSize()];
+		this.hash = ThreadLocal.withInitial(() -> new byte[settings.getOutputHashSize()]);
 	}
 	
 	/**
@@ -80,54 +89,105 @@ public class HKDF implements KDF
 	 */
 	public byte[] deriveKey(byte[] salt, byte[] inputKey, byte[] info, int outputSize) throws InvalidKeyException
 	{
-		byte[] generatedKey = extract(salt, inputKey);
-		return expand(generatedKey, info, outputSize);
+		byte[] result = new byte[outputSize];
+		deriveKey(salt, inputKey, info, result, 0, outputSize);
+		return result;
+	}
+	
+	/**
+	 * Invokes {@link #deriveKey(byte[], byte[], byte[], byte[], int, int)} with the salt as {@link #zeroSalt}.
+	 */
+	@Override
+	public void deriveKey(byte[] inputKey, byte[] info, byte[] out, int offset, int length) throws InvalidKeyException
+	{
+		deriveKey(zeroSalt, inputKey, info, out, offset, length);
+	}
+	
+	/**
+	 * Derives a new key using the specified parameters directly into the specified out.
+	 * Deriving will use extract and expand strategy, both steps write the mac output into a buffer of the current thread so no arrays are
+	 * allocated, the buffer is zeroed after the derivation so no key material is left in it.
+	 *
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void deriveKey(byte[] salt, byte[] inputKey, byte[] info, byte[] out, int offset, int length) throws InvalidKeyException
+	{
+		Mac mac = this.mac.get();
+		byte[] hash = this.hash.get();
+		try
+		{
+			extract(mac, salt, inputKey, hash);
+			expand(mac, hash, info, out, offset, length);
+		} finally
+		{
+			Arrays.fill(hash, (byte) 0);
+		}
 	}
 	
 	/**
-	 * Returns an extracted new key which was generated
-	 * with the specified salt and input.
-	 * The salt will be a {@link SecretKeySpec} and the inputKey
-	 * will be the data passed into the mac.
+	 * Extracts a new key which is generated with the specified salt and input into the specified hash.
+	 * The salt will be the key for the mac and the inputKey will be the data passed into the mac.
 	 *
+	 * @param mac to extract with
 	 * @param salt is the key for the mac
 	 * @param inputKey the input key for the mac
-	 * @return a new derived key generated using the specified parameters
+	 * @param hash to write the extracted key to
 	 */
-	private byte[] extract(byte[] salt, byte[] inputKey) throws InvalidKeyException
+	private void extract(Mac mac, byte[] salt, byte[] inputKey, byte[] hash) throws InvalidKeyException
 	{
 		mac.init(Util.newMacKey(salt, settings));
-		return mac.doFinal(inputKey);
+		mac.update(inputKey);
+		doFinal(mac, hash);
 	}
 	
 	/**
-	 * Expands the specified key into the specified outputLength.
+	 * Expands the specified key into the specified length and writes it to the specified out.
 	 * The specified info will be used when hashing to add distinction between keys.
-	 * Returns the new expanded key.
 	 *
-	 * @param key to expand
+	 * @param mac to expand with
+	 * @param hash contains the key to expand, it's overwritten by every iteration
 	 * @param info is used for distinction between keys
-	 * @param outputLength the requested length for the output key
-	 * @return a new expanded key
+	 * @param out to write the expanded key to
+	 * @param offset in the specified out to start writing at
+	 * @param length the requested length for the output key
 	 */
-	private byte[] expand(byte[] key, byte[] info, int outputLength) throws InvalidKeyException
+	private void expand(Mac mac, byte[] hash, byte[] info, byte[] out, int offset, int length) throws InvalidKeyException
 	{
-		mac.init(Util.newMacKey(key, settings));
-		int iterations = (int) Math.ceil((double) outputLength / settings.getOutputHashSize());
-		byte[] lastHash = null;
-		byte[] result = new byte[outputLength];
-		int resultIndex = 0;
+		mac.init(new SecretKeySpec(hash, settings.getMacAlgorithm()));
+		int hashSize = hash.length;
+		int iterations = (length + hashSize - 1) / hashSize;
+		int written = 0;
 		for(int i = 0; i < iterations; i++)
 		{
-			mac.update(lastHash);
+			//the first iteration has no previous hash
+			if(i > 0)
+			{
+				mac.update(hash);
+			}
 			mac.update(info);
 			mac.update((byte) i);
-			byte[] newHash = mac.doFinal();
-			int length = newHash.length;
-			System.arraycopy(newHash, 0, result, resultIndex, Math.min(length, outputLength - resultIndex));
-			resultIndex += length;
-			lastHash = newHash;
+			doFinal(mac, hash);
+			int copy = Math.min(hashSize, length - written);
+			System.arraycopy(hash, 0, out, offset + written, copy);
+			written += copy;
+		}
+	}
+	
+	/**
+	 * Finishes the specified mac into the specified hash.
+	 *
+	 * @param mac to finish
+	 * @param hash to write the mac output to
+	 */
+	private static void doFinal(Mac mac, byte[] hash)
+	{
+		try
+		{
+			mac.doFinal(hash, 0);
+		} catch(ShortBufferException e)
+		{
+			throw new IllegalStateException("Mac output is larger than the output hash size!", e);
 		}
-		return result;
 	}
-}
\ No newline at end of file
+}
@@ -46,4 +46,39 @@ public interface KDF
 	 * @throws InvalidKeyException if a key used in the process is invalid
 	 */
 	byte[] deriveKey(byte[] salt, byte[] inputKey, byte[] info, int outputSize) throws InvalidKeyException;
+	
+	/**
+	 * Derives a new key with the specified length based on the specified inputKey and specified info into the specified out.
+	 * The default implementation copies the result of {@link #deriveKey(byte[], byte[], int)}, implementations should derive directly into the
+	 * specified out.
+	 *
+	 * @param inputKey to input
+	 * @param info is used for distinction between derived keys
+	 * @param out to write the new derived key to
+	 * @param offset in the specified out to start writing at
+	 * @param length of the new derived key
+	 * @throws InvalidKeyException if a key used in the process is invalid
+	 */
+	default void deriveKey(byte[] inputKey, byte[] info, byte[] out, int offset, int length) throws InvalidKeyException
+	{
+		System.arraycopy(deriveKey(inputKey, info, length), 0, out, offset, length);
+	}
+	
+	/**
+	 * Derives a new key with the specified length based on the specified salt, inputKey and specified info into the specified out.
+	 * The default implementation copies the result of {@link #deriveKey(byte[], byte[], byte[], int)}, implementations should derive directly
+	 * into the specified out.
+	 *
+	 * @param salt to add to the derivation process
+	 * @param inputKey to input
+	 * @param info is used for distinction between derived keys
+	 * @param out to write the new derived key to
+	 * @param offset in the specified out to start writing at
+	 * @param length of the new derived key
+	 * @throws InvalidKeyException if a key used in the process is invalid
+	 */
+	default void deriveKey(byte[] salt, byte[] inputKey, byte[] info, byte[] out, int offset, int length) throws InvalidKeyException
+	{
+		System.arraycopy(deriveKey(salt, inputKey, info, length), 0, out, offset, length);
+	}
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ import javax.crypto.Mac;
 import java.security.InvalidKeyException;
 
 import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.util.ThreadLocalMac;
 import oughttoprevail.prevailprotocol.util.Util;
 
 /**
@@ -29,9 +30,9 @@ import oughttoprevail.prevailprotocol.util.Util;
 public class SimpleKDF
 {
 	/**
-	 * Mac to derive with
+	 * Mac to derive with, every thread has it's own copy so keys can be derived by multiple threads
 	 */
-	private final Mac mac;
+	private final ThreadLocalMac mac;
 	/**
 	 * Settings to use
 	 */
@@ -46,7 +47,7 @@ public class SimpleKDF
 	public SimpleKDF(Mac mac, Settings settings)
 	{
 		this.settings = settings;
-		this.mac = mac;
+		this.mac = new ThreadLocalMac(mac);
 	}
 	
 	/**
@@ -58,6 +59,7 @@ public class SimpleKDF
 	 */
 	public byte[] deriveKey(byte[] key, byte[] seed) throws InvalidKeyException
 	{
+		Mac mac = this.mac.get();
 		mac.init(Util.newMacKey(key, settings));
 		return mac.doFinal(seed);
 	}
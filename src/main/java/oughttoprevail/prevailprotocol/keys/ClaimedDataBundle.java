@@ -0,0 +1,89 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.keys;
+
+import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
+
+/**
+ * A {@link ClaimedDataBundle} is a snapshot of a {@link ServerDataBundle} along with the one time pre key which was claimed from it, this contains
+ * everything needed for {@link oughttoprevail.prevailprotocol.User#aliceRegister(UserDeviceUID, byte[], IdentifiableKey, byte[], IdentifiableKey)}.
+ */
+public class ClaimedDataBundle
+{
+	/**
+	 * Identifier of the device who owns the data bundle
+	 */
+	private final UserDeviceUID userDeviceUID;
+	/**
+	 * Public identity key
+	 */
+	private final byte[] identityKey;
+	/**
+	 * Public signed pre key
+	 */
+	private final IdentifiableKey signedPreKey;
+	/**
+	 * Signature of the signed pre key
+	 */
+	private final byte[] preKeySignature;
+	/**
+	 * The claimed one time pre key or {@code null} if the device had none left
+	 */
+	private final IdentifiableKey oneTimePreKey;
+	
+	/**
+	 * Constructs a new {@link ClaimedDataBundle}.
+	 */
+	public ClaimedDataBundle(UserDeviceUID userDeviceUID,
+							 byte[] identityKey,
+							 IdentifiableKey signedPreKey,
+							 byte[] preKeySignature,
+							 IdentifiableKey oneTimePreKey)
+	{
+		this.userDeviceUID = userDeviceUID;
+		this.identityKey = identityKey;
+		this.signedPreKey = signedPreKey;
+		this.preKeySignature = preKeySignature;
+		this.oneTimePreKey = oneTimePreKey;
+	}
+	
+	public UserDeviceUID getUserDeviceUID()
+	{
+		return userDeviceUID;
+	}
+	
+	public byte[] getIdentityKey()
+	{
+		return identityKey;
+	}
+	
+	public IdentifiableKey getSignedPreKey()
+	{
+		return signedPreKey;
+	}
+	
+	public byte[] getPreKeySignature()
+	{
+		return preKeySignature;
+	}
+	
+	public IdentifiableKey getOneTimePreKey()
+	{
+		return oneTimePreKey;
+	}
+}
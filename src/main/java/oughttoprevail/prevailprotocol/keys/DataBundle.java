@@ -17,7 +17,12 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 */
 package oughttoprevail.prevailprotocol.keys;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
 import oughttoprevail.prevailprotocol.asymmetriccryptography.AsymmetricCryptography;
+import oughttoprevail.prevailprotocol.asymmetriccryptography.KeyPairPool;
 import oughttoprevail.prevailprotocol.settings.Settings;
 import oughttoprevail.prevailprotocol.storage.fields.FieldInputStream;
 import oughttoprevail.prevailprotocol.storage.fields.FieldOutputStream;
@@ -38,6 +43,7 @@ public class DataBundle
 			out.writeObject(dataBundle.getIdentityKeys(), IdentifiableKeyPair.SER_DES);
 			out.writeObject(dataBundle.getSignedPreKey(), SignedPreKey.SER_DES);
 			IdentifiableKeyPair[] oneTimePreKeys = dataBundle.getOneTimePreKeys();
+			out.writeInt(oneTimePreKeys.length);
 			for(IdentifiableKeyPair oneTimePreKey : oneTimePreKeys)
 			{
 				out.writeObject(oneTimePreKey, IdentifiableKeyPair.SER_DES);
@@ -49,9 +55,38 @@ public class DataBundle
 		{
 			IdentifiableKeyPair identityKeys = in.readObject(IdentifiableKeyPair.SER_DES);
 			SignedPreKey signedPreKey = in.readObject(SignedPreKey.SER_DES);
-			int defaultTotalOneTimePreKeys = settings.getDefaultTotalOneTimePreKeys();
-			IdentifiableKeyPair[] oneTimePreKeys = new IdentifiableKeyPair[defaultTotalOneTimePreKeys];
-			for(int i = 0; i < defaultTotalOneTimePreKeys; i++)
+			IdentifiableKeyPair[] oneTimePreKeys = new IdentifiableKeyPair[in.readInt()];
+			for(int i = 0; i < oneTimePreKeys.length; i++)
+			{
+				oneTimePreKeys[i] = in.readObject(IdentifiableKeyPair.SER_DES);
+			}
+			return new DataBundle(identityKeys, signedPreKey, oneTimePreKeys);
+		}
+	};
+	/**
+	 * Serializer of data bundles stored before the one time pre key count was written, those always have
+	 * {@link Settings#getDefaultTotalOneTimePreKeys()} one time pre keys
+	 */
+	public static final SerDes<DataBundle> LEGACY_SER_DES = new SerDes<DataBundle>()
+	{
+		@Override
+		public void serialize(DataBundle dataBundle, FieldOutputStream out, Settings settings)
+		{
+			out.writeObject(dataBundle.getIdentityKeys(), IdentifiableKeyPair.SER_DES);
+			out.writeObject(dataBundle.getSignedPreKey(), SignedPreKey.SER_DES);
+			for(IdentifiableKeyPair oneTimePreKey : dataBundle.getOneTimePreKeys())
+			{
+				out.writeObject(oneTimePreKey, IdentifiableKeyPair.SER_DES);
+			}
+		}
+		
+		@Override
+		public DataBundle deserialize(FieldInputStream in, Settings settings)
+		{
+			IdentifiableKeyPair identityKeys = in.readObject(IdentifiableKeyPair.SER_DES);
+			SignedPreKey signedPreKey = in.readObject(SignedPreKey.SER_DES);
+			IdentifiableKeyPair[] oneTimePreKeys = new IdentifiableKeyPair[settings.getDefaultTotalOneTimePreKeys()];
+			for(int i = 0; i < oneTimePreKeys.length; i++)
 			{
 				oneTimePreKeys[i] = in.readObject(IdentifiableKeyPair.SER_DES);
 			}
@@ -86,24 +121,59 @@ public class DataBundle
 	}
 	
 	/**
+	 * Creates a new {@link DataBundle} with {@link Settings#getInitialOneTimePreKeys()} one time pre keys (at most
+	 * {@link Settings#getDefaultTotalOneTimePreKeys()}) so the bundle can be published quickly, the rest of the one time pre keys can be
+	 * published later (see {@link OneTimePreKeyReplenisher}).
+	 *
 	 * @param settings to use
 	 * @return a new random {@link DataBundle} based on the specified settings
 	 */
 	public static DataBundle newBundle(Settings settings)
 	{
+		KeyPair identityKeys = settings.getKeyPairPool().take();
+		UID identityKeysUID = settings.getUIDFactory().generateUID();
+		int totalOneTimePreKeys = Math.min(settings.getInitialOneTimePreKeys(), settings.getDefaultTotalOneTimePreKeys());
+		return new DataBundle(new IdentifiableKeyPair(identityKeysUID, identityKeys),
+				generateSignedPreKey(identityKeys, settings),
+				generateOneTimePreKeys(totalOneTimePreKeys, settings));
+	}
+	
+	/**
+	 * Generates the specified amount of one time pre keys.
+	 * The key pairs are taken from {@link Settings#getKeyPairPool()}, key pairs which aren't pooled yet are generated in parallel if
+	 * {@link Settings#getExecutor()} is a {@link ForkJoinPool}, else they're generated by the current thread.
+	 *
+	 * @param amount of one time pre keys to generate
+	 * @param settings to use
+	 * @return the generated one time pre keys
+	 */
+	public static IdentifiableKeyPair[] generateOneTimePreKeys(int amount, Settings settings)
+	{
+		//UIDFactory isn't required to be thread safe so only the key pairs are generated in parallel
 		UIDFactory uidFactory = settings.getUIDFactory();
-		AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
-		KeyPair identityKeys = asymmetricCryptography.generateKeyPair();
-		UID identityKeysUID = uidFactory.generateUID();
-		int defaultTotalOneTimePreKeys = settings.getDefaultTotalOneTimePreKeys();
-		IdentifiableKeyPair[] oneTimePreKeyPairs = new IdentifiableKeyPair[defaultTotalOneTimePreKeys];
-		for(int i = 0; i < defaultTotalOneTimePreKeys; i++)
+		UID[] uids = new UID[amount];
+		for(int i = 0; i < amount; i++)
 		{
-			oneTimePreKeyPairs[i] = new IdentifiableKeyPair(uidFactory.generateUID(), asymmetricCryptography.generateKeyPair());
+			uids[i] = uidFactory.generateUID();
 		}
-		return new DataBundle(new IdentifiableKeyPair(identityKeysUID, identityKeys),
-				generateSignedPreKey(identityKeys, settings),
-				oneTimePreKeyPairs);
+		IdentifiableKeyPair[] oneTimePreKeys = new IdentifiableKeyPair[amount];
+		KeyPairPool keyPairPool = settings.getKeyPairPool();
+		Runnable generate = () -> IntStream.range(0, amount)
+										   .parallel()
+										   .forEach(i -> oneTimePreKeys[i] = new IdentifiableKeyPair(uids[i], keyPairPool.take()));
+		Executor executor = settings.getExecutor();
+		if(executor instanceof ForkJoinPool)
+		{
+			//a parallel stream runs in the pool it was started from
+			((ForkJoinPool) executor).submit(generate).join();
+		} else
+		{
+			for(int i = 0; i < amount; i++)
+			{
+				oneTimePreKeys[i] = new IdentifiableKeyPair(uids[i], keyPairPool.take());
+			}
+		}
+		return oneTimePreKeys;
 	}
 	
 	/**
@@ -114,7 +184,7 @@ public class DataBundle
 	public static SignedPreKey generateSignedPreKey(KeyPair identityKeys, Settings settings)
 	{
 		AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
-		KeyPair signedPreKeys = asymmetricCryptography.generateKeyPair();
+		KeyPair signedPreKeys = settings.getKeyPairPool().take();
 		UID signedPreKeysUID = settings.getUIDFactory().generateUID();
 		byte[] preKeySignature = asymmetricCryptography.sign(signedPreKeys.getPublicKey(), identityKeys.getPrivateKey());
 		return new SignedPreKey(signedPreKeysUID, signedPreKeys, preKeySignature, System.currentTimeMillis() + settings.getSignedPreKeyKeepAlive());
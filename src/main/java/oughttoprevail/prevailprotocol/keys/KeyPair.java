@@ -33,13 +33,13 @@ public class KeyPair
 		public void serialize(KeyPair keyPair, FieldOutputStream out, Settings settings)
 		{
 			out.writeBytes(keyPair.getPrivateKey());
-			out.writeBytes(keyPair.getPublicKey());
+			out.writeFixedBytes(keyPair.getPublicKey());
 		}
 		
 		@Override
 		public KeyPair deserialize(FieldInputStream in, Settings settings)
 		{
-			return new KeyPair(in.readBytes(), in.readBytes());
+			return new KeyPair(in.readBytes(), in.readFixedBytes(settings.getAsymmetricCryptography().getPublicKeySize()));
 		}
 	};
 	
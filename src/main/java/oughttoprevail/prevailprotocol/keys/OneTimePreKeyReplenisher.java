@@ -0,0 +1,136 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.keys;
+
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+
+import oughttoprevail.prevailprotocol.User;
+import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.util.Consumer;
+
+/**
+ * A {@link OneTimePreKeyReplenisher} keeps the amount of one time pre keys the server has for a {@link User} above
+ * {@link Settings#getOneTimePreKeyReplenishThreshold()}.
+ * Every {@link Settings#getOneTimePreKeyReplenishInterval()} milliseconds the needed one time pre keys are checked (see
+ * {@link oughttoprevail.prevailprotocol.server.Server#getNeededOneTimePreKeys}) and if the server has less than the threshold all the needed one
+ * time pre keys are generated (see {@link User#generateOneTimePreKeys(int)}) on {@link Settings#getExecutor()} and published.
+ */
+public class OneTimePreKeyReplenisher
+{
+	/**
+	 * User who's one time pre keys are replenished
+	 */
+	private final User user;
+	/**
+	 * Supplier of the amount of one time pre keys the server needs to have a full list of one time pre keys
+	 */
+	private final IntSupplier neededOneTimePreKeys;
+	/**
+	 * Publisher of new one time pre keys to the server
+	 */
+	private final Consumer<List<IdentifiableKey>> publisher;
+	/**
+	 * Settings to use
+	 */
+	private final Settings settings;
+	/**
+	 * Whether a check is in progress
+	 */
+	private final AtomicBoolean checking;
+	/**
+	 * The scheduled checks or {@code null} if this replenisher isn't started
+	 */
+	private ScheduledFuture<?> scheduledChecks;
+	
+	/**
+	 * Constructs a new {@link OneTimePreKeyReplenisher}.
+	 *
+	 * @param user who's one time pre keys are replenished, the user's dataBundle must already be published
+	 * @param neededOneTimePreKeys supplier of the amount of one time pre keys the server needs to have a full list of one time pre keys
+	 * @param publisher to publish new one time pre keys to the server
+	 * @param settings to use
+	 */
+	public OneTimePreKeyReplenisher(User user,
+									IntSupplier neededOneTimePreKeys,
+									Consumer<List<IdentifiableKey>> publisher,
+									Settings settings)
+	{
+		this.user = user;
+		this.neededOneTimePreKeys = neededOneTimePreKeys;
+		this.publisher = publisher;
+		this.settings = settings;
+		this.checking = new AtomicBoolean();
+	}
+	
+	/**
+	 * Starts checking the needed one time pre keys every {@link Settings#getOneTimePreKeyReplenishInterval()} milliseconds, the first check
+	 * happens immediately.
+	 */
+	public synchronized void start()
+	{
+		if(scheduledChecks != null)
+		{
+			return;
+		}
+		long interval = settings.getOneTimePreKeyReplenishInterval();
+		scheduledChecks = settings.getScheduler().scheduleWithFixedDelay(this::check, 0, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops checking the needed one time pre keys, a check which is already in progress is finished.
+	 */
+	public synchronized void stop()
+	{
+		if(scheduledChecks != null)
+		{
+			scheduledChecks.cancel(false);
+			scheduledChecks = null;
+		}
+	}
+	
+	/**
+	 * Submits a check to {@link Settings#getExecutor()} if a check isn't already in progress.
+	 * The check generates and publishes all the needed one time pre keys if the server has less than
+	 * {@link Settings#getOneTimePreKeyReplenishThreshold()} one time pre keys.
+	 */
+	public void check()
+	{
+		if(!checking.compareAndSet(false, true))
+		{
+			return;
+		}
+		settings.getExecutor().execute(() ->
+		{
+			try
+			{
+				int needed = neededOneTimePreKeys.getAsInt();
+				if(needed > 0 && settings.getDefaultTotalOneTimePreKeys() - needed < settings.getOneTimePreKeyReplenishThreshold())
+				{
+					publisher.accept(user.generateOneTimePreKeys(needed));
+				}
+			} finally
+			{
+				checking.set(false);
+			}
+		});
+	}
+}
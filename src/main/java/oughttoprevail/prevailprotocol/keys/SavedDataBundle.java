@@ -35,6 +35,7 @@ public class SavedDataBundle
 	private final Object signedPreKeyLock = new Object();
 	private final Field<SignedPreKey> signedPreKey;
 	private final Field<IdentifiableKeyPair> oldSignedPreKey;
+	private final Object oneTimePreKeysLock = new Object();
 	private final List<IdentifiableKey> oneTimePreKeys;
 	
 	public SavedDataBundle(Storage storage)
@@ -95,17 +96,32 @@ public class SavedDataBundle
 		return null;
 	}
 	
+	public void addOneTimePreKeys(IdentifiableKeyPair[] oneTimePreKeyPairs)
+	{
+		synchronized(oneTimePreKeysLock)
+		{
+			for(IdentifiableKeyPair oneTimePreKey : oneTimePreKeyPairs)
+			{
+				oneTimePreKeys.add(new IdentifiableKey(oneTimePreKey.getUID(), oneTimePreKey.getPrivateKey()));
+			}
+			storage.flush();
+		}
+	}
+	
 	public IdentifiableKey removeOneTimePreKey(UID oneTimePreKeyUID)
 	{
-		Iterator<IdentifiableKey> iterator = oneTimePreKeys.iterator();
-		while(iterator.hasNext())
+		synchronized(oneTimePreKeysLock)
 		{
-			IdentifiableKey identifiableKey = iterator.next();
-			if(identifiableKey.getUID().equals(oneTimePreKeyUID))
+			Iterator<IdentifiableKey> iterator = oneTimePreKeys.iterator();
+			while(iterator.hasNext())
 			{
-				iterator.remove();
-				storage.flush();
-				return identifiableKey;
+				IdentifiableKey identifiableKey = iterator.next();
+				if(identifiableKey.getUID().equals(oneTimePreKeyUID))
+				{
+					iterator.remove();
+					storage.flush();
+					return identifiableKey;
+				}
 			}
 		}
 		return null;
@@ -24,9 +24,11 @@ import java.util.Queue;
 import oughttoprevail.prevailprotocol.storage.Storage;
 import oughttoprevail.prevailprotocol.storage.fields.Field;
 import oughttoprevail.prevailprotocol.uid.UID;
+import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
 
 /**
  * A {@link ServerDataBundle} contains all public information of user's {@link DataBundle}.
+ * Operations changing the bundle are {@code synchronized} so a bundle can be claimed by multiple threads.
  */
 public class ServerDataBundle
 {
@@ -52,7 +54,7 @@ public class ServerDataBundle
 		this.deviceStorage = deviceStorage;
 	}
 	
-	public void init(byte[] identityKey, IdentifiableKey signedPreKey, byte[] preKeySignature, IdentifiableKey[] oneTimePreKeys)
+	public synchronized void init(byte[] identityKey, IdentifiableKey signedPreKey, byte[] preKeySignature, IdentifiableKey[] oneTimePreKeys)
 	{
 		this.identityKey.set(identityKey);
 		this.signedPreKey.set(signedPreKey);
@@ -81,20 +83,20 @@ public class ServerDataBundle
 		return preKeySignature.get();
 	}
 	
-	public void changeSignedPreKey(byte[] signedPreKey, UID signedPreKeyUID, byte[] preKeySignature)
+	public synchronized void changeSignedPreKey(byte[] signedPreKey, UID signedPreKeyUID, byte[] preKeySignature)
 	{
 		this.signedPreKey.set(new IdentifiableKey(signedPreKeyUID, signedPreKey));
 		this.preKeySignature.set(preKeySignature);
 		deviceStorage.flush();
 	}
 	
-	public void addOneTimePreKeys(List<IdentifiableKey> oneTimePreKeys)
+	public synchronized void addOneTimePreKeys(List<IdentifiableKey> oneTimePreKeys)
 	{
 		this.oneTimePreKeys.addAll(oneTimePreKeys);
 		deviceStorage.flush();
 	}
 	
-	public IdentifiableKey pickOneTimePreKey()
+	public synchronized IdentifiableKey pickOneTimePreKey()
 	{
 		if(oneTimePreKeys.isEmpty())
 		{
@@ -105,7 +107,27 @@ public class ServerDataBundle
 		return identifiableKey;
 	}
 	
-	public int getTotalOneTimePreKeys()
+	/**
+	 * Atomically takes a one time pre key (if there is one) and takes a snapshot of the public information, the storage is flushed at most once.
+	 *
+	 * @param userId of the user who owns this bundle
+	 * @return the claimed snapshot
+	 */
+	public synchronized ClaimedDataBundle claim(UID userId)
+	{
+		IdentifiableKey oneTimePreKey = oneTimePreKeys.poll();
+		if(oneTimePreKey != null)
+		{
+			deviceStorage.flush();
+		}
+		return new ClaimedDataBundle(new UserDeviceUID(userId, deviceId),
+				identityKey.get(),
+				signedPreKey.get(),
+				preKeySignature.get(),
+				oneTimePreKey);
+	}
+	
+	public synchronized int getTotalOneTimePreKeys()
 	{
 		return oneTimePreKeys.size();
 	}
@@ -44,12 +44,12 @@ public class SkippedKey
 			}
 			out.writeLong(storedMessageKeys.getExpirationTime());
 			MessageKeys messageKeys = storedMessageKeys.messageKeys;
-			out.writeBytes(messageKeys.getMessageKey().getKey());
-			out.writeBytes(messageKeys.getIV().getIV());
+			out.writeFixedBytes(messageKeys.getMessageKey().getKey());
+			out.writeFixedBytes(messageKeys.getIV().getIV());
 			out.writeBoolean(messageKeys.getMacKey() != null);
 			if(messageKeys.getMacKey() != null)
 			{
-				out.writeBytes(messageKeys.getMacKey().getKey());
+				out.writeFixedBytes(messageKeys.getMacKey().getKey());
 			}
 		}
 		
@@ -60,7 +60,10 @@ public class SkippedKey
 					in.readBytes(),
 					in.readBoolean() ? in.readBytes() : null,
 					in.readLong(),
-					new MessageKeys(settings, in.readBytes(), in.readBytes(), in.readBoolean() ? in.readBytes() : null));
+					new MessageKeys(settings,
+							in.readFixedBytes(settings.getSymmetricKeySize()),
+							in.readFixedBytes(settings.getIVSize()),
+							in.readBoolean() ? in.readFixedBytes(settings.getMacKeySize()) : null));
 		}
 	};
 	
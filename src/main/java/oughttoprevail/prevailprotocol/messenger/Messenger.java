@@ -62,10 +62,6 @@ public class Messenger
 	 * To encrypt and decrypt messages with
 	 */
 	private final MessengerCipher cipher;
-	/**
-	 * To authenticate messages
-	 */
-	private final Mac mac;
 	/**
 	 * The identifiers of the recipient
 	 */
@@ -122,7 +118,6 @@ public class Messenger
 		this.user = user;
 		this.userDeviceUID = userDeviceUID;
 		this.cipher = user.getCipher();
-		this.mac = user.getMac();
 		this.nonceGenerator = settings.isUseHeaderEncryption() ? new RatchetNonceGenerator(settings)
 		{
 			protected Session getSession()
@@ -189,13 +184,29 @@ public class Messenger
 	public byte[] encryptMessage(byte[] message)
 			throws IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException, InvalidKeyException
 	{
+		user.ensureOpen();
 		//make sure a session exists
 		if(session == null)
 		{
 			throw new NullPointerException(
 					"Can't encrypt when there is no session! To create a session for this messenger decrypt a message with a registerMessage.");
 		}
-		
+		//the session can be used by another thread at the same time (e.g. a sender key fan-out of a group)
+		synchronized(session.getLock())
+		{
+			return encryptWithSession(message);
+		}
+	}
+	
+	/**
+	 * Encrypts the specified message with the session, must be invoked while holding the {@link Session#getLock()}.
+	 *
+	 * @param message to encrypt
+	 * @return a header and the encrypted message (ciphertext)
+	 */
+	private byte[] encryptWithSession(byte[] message)
+			throws IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException, InvalidKeyException
+	{
 		//get all the variables
 		byte[] senderRatchetKey = session.getRatchetKeyPair().getPublicKey();
 		byte[] identityPublicKey = user.getIdentityPublicKey();
@@ -454,7 +465,28 @@ public class Messenger
 			throws MissingMatchingHeaderKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException,
 				   InvalidKeyException, MissingSkippedKeyException, CounterTooLargeException, TooManyDevicesException, VerificationFailedException
 	{
+		user.ensureOpen();
 		updateSession(registerMessage);
+		synchronized(session.getLock())
+		{
+			return decryptWithEncryptedHeader(encryptedHeaderMac, iv, encryptedHeader, ciphertext);
+		}
+	}
+	
+	/**
+	 * Decrypts the specified message with the session, must be invoked while holding the {@link Session#getLock()}.
+	 *
+	 * @param encryptedHeaderMac is used to verify the specified encryptedHeader and specified iv, should be {@code null} if
+	 * {@link Settings#isUseUpdateAAD()} is {@code true}
+	 * @param iv which was used to encrypt the specified encryptedHeader
+	 * @param encryptedHeader is the encrypted version of the header containing required information to decrypt the specified ciphertext
+	 * @param ciphertext to decrypt
+	 * @return the decrypted message (plaintext message)
+	 */
+	private byte[] decryptWithEncryptedHeader(byte[] encryptedHeaderMac, byte[] iv, byte[] encryptedHeader, byte[] ciphertext)
+			throws MissingMatchingHeaderKeyException, IllegalBlockSizeException, BadPaddingException, InvalidAlgorithmParameterException,
+				   InvalidKeyException, MissingSkippedKeyException, CounterTooLargeException, TooManyDevicesException, VerificationFailedException
+	{
 		IvSpec ivObject = Util.newIV(iv, settings);
 		boolean validateMac = !settings.isUseUpdateAAD();
 		byte[] decryptedHeader = null;
@@ -490,7 +522,7 @@ public class Messenger
 					continue;
 				}
 				messageKeys = skippedKey.cancelThenGetMessageKeys();
-				skippedKeys.remove();
+				skippedKeysStorage.remove(skippedKey);
 				break;
 			}
 		}
@@ -578,7 +610,29 @@ public class Messenger
 			throws InvalidKeyException, InvalidAlgorithmParameterException, BadPaddingException, IllegalBlockSizeException, CounterTooLargeException,
 				   MissingSkippedKeyException, TooManyDevicesException, VerificationFailedException
 	{
+		user.ensureOpen();
 		updateSession(registerMessage);
+		synchronized(session.getLock())
+		{
+			return decryptWithSession(receivedCounter, previousRatchetCounter, receivedRatchetKey, messageMac, ciphertext);
+		}
+	}
+	
+	/**
+	 * Decrypts the specified message with the session, must be invoked while holding the {@link Session#getLock()}.
+	 *
+	 * @param receivedCounter is the sender's counter of the symmetric ratchet before the {@link MessageKeys} used to encrypt the specified ciphertext
+	 * were generated
+	 * @param previousRatchetCounter is the sender's counter of the symmetric ratchet before the last DH ratchet step
+	 * @param receivedRatchetKey is the sender's ratchet public key of the current ratchet key pair
+	 * @param messageMac is the mac of the message, {@code null} if {@link Settings#isUseUpdateAAD()} is {@code true}
+	 * @param ciphertext to decrypt
+	 * @return the decrypted message (plaintext message)
+	 */
+	private byte[] decryptWithSession(int receivedCounter, int previousRatchetCounter, byte[] receivedRatchetKey, byte[] messageMac, byte[] ciphertext)
+			throws InvalidKeyException, InvalidAlgorithmParameterException, BadPaddingException, IllegalBlockSizeException, CounterTooLargeException,
+				   MissingSkippedKeyException, VerificationFailedException
+	{
 		SkippedKeysStorage skippedKeyStorage = session.getSkippedKeysStorage();
 		SymmetricKeyRatchet receivingRatchet = session.getReceivingRatchet();
 		byte[] currentReceivedRatchetKey = session.getReceivedRatchetKey();
@@ -730,6 +784,7 @@ public class Messenger
 							 byte[] counter,
 							 byte[] ciphertext) throws InvalidKeyException
 	{
+		Mac mac = user.getMac();
 		mac.init(macKey);
 		mac.update(senderIdentityKey);
 		mac.update(receiverIdentityKey);
@@ -772,6 +827,7 @@ public class Messenger
 	 */
 	private byte[] createHeaderMac(byte[] macKey, byte[] ciphertext, byte[] iv) throws InvalidKeyException
 	{
+		Mac mac = user.getMac();
 		mac.init(Util.newMacKey(macKey, settings));
 		mac.update(ciphertext);
 		mac.update(iv);
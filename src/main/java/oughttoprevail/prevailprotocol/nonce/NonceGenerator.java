@@ -75,8 +75,10 @@ public abstract class NonceGenerator
 	 */
 	public byte[] generateNonce()
 	{
-		byte[] random = randomBytesGenerator.nextBytes(randomSize);
-		return Util.combine(random, getCounterBytes());
+		byte[] nonce = new byte[randomSize + Util.INT_BYTES];
+		randomBytesGenerator.nextBytes(nonce, 0, randomSize);
+		System.arraycopy(getCounterBytes(), 0, nonce, randomSize, Util.INT_BYTES);
+		return nonce;
 	}
 	
 	/**
@@ -39,9 +39,20 @@ public class ServerNonceGenerator extends NonceGenerator
 	 * @param settings to use
 	 */
 	public ServerNonceGenerator(Storage storage, Settings settings)
+	{
+		this(new CounterField(storage), settings);
+	}
+	
+	/**
+	 * Constructs a new {@link ServerNonceGenerator} with the specified nonce counter and specified settings.
+	 *
+	 * @param nonceCounter to count the generated nonces with
+	 * @param settings to use
+	 */
+	public ServerNonceGenerator(CounterField nonceCounter, Settings settings)
 	{
 		super(settings, settings.getNonceSize(), "nonceSize");
-		nonceCounter = new CounterField(storage);
+		this.nonceCounter = nonceCounter;
 	}
 	
 	/**
@@ -0,0 +1,222 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.random;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * A high throughput {@link RandomBytesGenerator}.
+ * Every thread has it's own {@link SecureRandom} (a {@code DRBG} if the runtime has one, else the default {@link SecureRandom}) so threads never
+ * contend on a shared generator.
+ * Small requests are served from a per thread buffer which is filled in bulk, served bytes are erased from the buffer.
+ * Every thread generator is seeded from a shared {@link SecureRandom} when it's created and reseeded from it after every
+ * {@link #reseedInterval} generated bytes.
+ */
+public class BufferedRandomBytesGenerator implements RandomBytesGenerator
+{
+	/**
+	 * Default size of every thread's buffer
+	 */
+	private static final int DEFAULT_BUFFER_SIZE = 256;
+	/**
+	 * Default amount of bytes a thread generator generates before it's reseeded
+	 */
+	private static final long DEFAULT_RESEED_INTERVAL = 1 << 20;
+	/**
+	 * Size of the seeds given to the thread generators
+	 */
+	private static final int SEED_SIZE = 32;
+	
+	/**
+	 * Source of the seeds given to the thread generators
+	 */
+	private final SecureRandom seedSource;
+	/**
+	 * Size of every thread's buffer, requests larger than this are generated directly into the destination
+	 */
+	private final int bufferSize;
+	/**
+	 * Amount of bytes a thread generator generates before it's reseeded
+	 */
+	private final long reseedInterval;
+	/**
+	 * The generator of the current thread
+	 */
+	private final ThreadLocal<ThreadGenerator> threadGenerator;
+	
+	/**
+	 * Constructs a new {@link BufferedRandomBytesGenerator} with a buffer size of {@value #DEFAULT_BUFFER_SIZE} bytes and a reseed interval of
+	 * {@value #DEFAULT_RESEED_INTERVAL} bytes.
+	 */
+	public BufferedRandomBytesGenerator()
+	{
+		this(DEFAULT_BUFFER_SIZE, DEFAULT_RESEED_INTERVAL);
+	}
+	
+	/**
+	 * Constructs a new {@link BufferedRandomBytesGenerator} with the specified bufferSize and the specified reseedInterval.
+	 *
+	 * @param bufferSize size of every thread's buffer
+	 * @param reseedInterval amount of bytes a thread generator generates before it's reseeded
+	 */
+	public BufferedRandomBytesGenerator(int bufferSize, long reseedInterval)
+	{
+		if(bufferSize <= 0 || reseedInterval <= 0)
+		{
+			throw new IllegalArgumentException("Buffer size and reseed interval must be positive!");
+		}
+		this.seedSource = new SecureRandom();
+		this.bufferSize = bufferSize;
+		this.reseedInterval = reseedInterval;
+		this.threadGenerator = ThreadLocal.withInitial(ThreadGenerator::new);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] nextBytes(int length)
+	{
+		byte[] bytes = new byte[length];
+		nextBytes(bytes, 0, length);
+		return bytes;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void nextBytes(byte[] destination, int offset, int length)
+	{
+		threadGenerator.get().nextBytes(destination, offset, length);
+	}
+	
+	/**
+	 * @return a seed from {@link #seedSource}
+	 */
+	private byte[] nextSeed()
+	{
+		byte[] seed = new byte[SEED_SIZE];
+		//the seed source is shared but it's only used once every reseed interval
+		synchronized(seedSource)
+		{
+			seedSource.nextBytes(seed);
+		}
+		return seed;
+	}
+	
+	/**
+	 * The generator and buffer of a single thread.
+	 */
+	private class ThreadGenerator
+	{
+		/**
+		 * Generator of this thread
+		 */
+		private final SecureRandom random;
+		/**
+		 * Buffered random bytes, bytes before {@link #position} were already served and erased
+		 */
+		private final byte[] buffer;
+		/**
+		 * Position of the next byte to serve in {@link #buffer}
+		 */
+		private int position;
+		/**
+		 * Amount of bytes generated since the last reseed
+		 */
+		private long generated;
+		
+		/**
+		 * Constructs a new {@link ThreadGenerator} with an empty buffer.
+		 */
+		private ThreadGenerator()
+		{
+			this.random = newSecureRandom();
+			this.random.setSeed(nextSeed());
+			this.buffer = new byte[bufferSize];
+			this.position = bufferSize;
+		}
+		
+		/**
+		 * Fills the specified length of bytes from the specified offset in the specified destination with random bytes.
+		 *
+		 * @param destination to fill
+		 * @param offset of the first byte to fill in the specified destination
+		 * @param length amount of bytes to fill
+		 */
+		private void nextBytes(byte[] destination, int offset, int length)
+		{
+			if(length > bufferSize)
+			{
+				byte[] bytes = new byte[length];
+				generate(bytes);
+				System.arraycopy(bytes, 0, destination, offset, length);
+				Arrays.fill(bytes, (byte) 0);
+				return;
+			}
+			int available = bufferSize - position;
+			if(available < length)
+			{
+				//serve what's left and refill for the rest
+				System.arraycopy(buffer, position, destination, offset, available);
+				offset += available;
+				length -= available;
+				generate(buffer);
+				position = 0;
+			}
+			System.arraycopy(buffer, position, destination, offset, length);
+			Arrays.fill(buffer, position, position + length, (byte) 0);
+			position += length;
+		}
+		
+		/**
+		 * Fills the specified bytes with random bytes, reseeding first if the reseed interval passed.
+		 *
+		 * @param bytes to fill
+		 */
+		private void generate(byte[] bytes)
+		{
+			if(generated >= reseedInterval)
+			{
+				//setSeed adds to the existing seed and never replaces it
+				random.setSeed(nextSeed());
+				generated = 0;
+			}
+			random.nextBytes(bytes);
+			generated += bytes.length;
+		}
+	}
+	
+	/**
+	 * @return a new {@code DRBG} {@link SecureRandom} if the runtime has one, else a new default {@link SecureRandom}
+	 */
+	private static SecureRandom newSecureRandom()
+	{
+		try
+		{
+			return SecureRandom.getInstance("DRBG");
+		} catch(NoSuchAlgorithmException e)
+		{
+			//DRBG was added in Java 9
+			return new SecureRandom();
+		}
+	}
+}
@@ -30,4 +30,18 @@ public interface RandomBytesGenerator
 	 * @return a random {@code byte[]}.
 	 */
 	byte[] nextBytes(int length);
+	
+	/**
+	 * Fills the specified length of bytes from the specified offset in the specified destination with random bytes.
+	 * The default implementation copies the result of {@link #nextBytes(int)}, implementations should override this if they can write into the
+	 * destination directly.
+	 *
+	 * @param destination to fill
+	 * @param offset of the first byte to fill in the specified destination
+	 * @param length amount of bytes to fill
+	 */
+	default void nextBytes(byte[] destination, int offset, int length)
+	{
+		System.arraycopy(nextBytes(length), 0, destination, offset, length);
+	}
 }
\ No newline at end of file
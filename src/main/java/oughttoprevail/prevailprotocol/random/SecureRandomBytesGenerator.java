@@ -39,4 +39,19 @@ public class SecureRandomBytesGenerator implements RandomBytesGenerator
 		secureRandom.nextBytes(bytes);
 		return bytes;
 	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void nextBytes(byte[] destination, int offset, int length)
+	{
+		if(offset == 0 && length == destination.length)
+		{
+			secureRandom.nextBytes(destination);
+		} else
+		{
+			RandomBytesGenerator.super.nextBytes(destination, offset, length);
+		}
+	}
 }
\ No newline at end of file
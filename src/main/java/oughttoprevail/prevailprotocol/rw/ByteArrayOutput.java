@@ -65,14 +65,16 @@ public class ByteArrayOutput extends ByteBufferOutput
 	}
 	
 	/**
-	 * Updates the {@link #result} to contain the {@code byte[]} specified in the {@link #getWriteByteBuffer()}
+	 * Appends the {@code byte[]} specified in the {@link #getWriteByteBuffer()} to the {@link #result}
 	 */
 	private void updateResult()
 	{
 		ByteBuffer byteBuffer = getWriteByteBuffer();
 		try
 		{
-			result = Util.range(byteBuffer.array(), 0, byteBuffer.position());
+			byte[] written = Util.range(byteBuffer.array(), 0, byteBuffer.position());
+			//keep what was written before the buffer ran out of space
+			result = result == null ? written : Util.combine(result, written);
 		} finally
 		{
 			byteBuffer.clear();
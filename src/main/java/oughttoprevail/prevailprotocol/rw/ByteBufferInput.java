@@ -92,7 +92,17 @@ public abstract class ByteBufferInput implements FieldInputStream
 	@Override
 	public byte[] readBytes()
 	{
-		int length = readInt();
+		return readRawBytes(readInt());
+	}
+	
+	/**
+	 * Reads the specified length of bytes without a length prefix.
+	 *
+	 * @param length amount of bytes to read
+	 * @return read bytes
+	 */
+	protected final byte[] readRawBytes(int length)
+	{
 		int position = 0;
 		int capacity = byteBuffer.capacity();
 		byte[] bytes = new byte[length];
@@ -145,6 +155,14 @@ public abstract class ByteBufferInput implements FieldInputStream
 		return serDes.deserialize(this, settings);
 	}
 	
+	/**
+	 * @return the {@link ByteBuffer} input is read with
+	 */
+	protected ByteBuffer getReadByteBuffer()
+	{
+		return byteBuffer;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
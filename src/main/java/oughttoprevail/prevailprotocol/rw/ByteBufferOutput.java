@@ -65,9 +65,19 @@ public abstract class ByteBufferOutput implements FieldOutputStream
 	 */
 	@Override
 	public void writeBytes(byte[] b)
+	{
+		writeInt(b.length);
+		writeRawBytes(b);
+	}
+	
+	/**
+	 * Writes the specified bytes without a length prefix.
+	 *
+	 * @param b to write
+	 */
+	protected final void writeRawBytes(byte[] b)
 	{
 		int length = b.length;
-		writeInt(length);
 		int position = 0;
 		int capacity = writeByteBuffer.capacity();
 		while(position < length)
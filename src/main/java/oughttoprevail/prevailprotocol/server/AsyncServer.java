@@ -0,0 +1,390 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import oughttoprevail.prevailprotocol.keys.ClaimedDataBundle;
+import oughttoprevail.prevailprotocol.keys.IdentifiableKey;
+import oughttoprevail.prevailprotocol.keys.ServerDataBundle;
+import oughttoprevail.prevailprotocol.storage.MailboxMessage;
+import oughttoprevail.prevailprotocol.uid.UID;
+import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
+
+/**
+ * A non-blocking facade of {@link Server}, every operation is dispatched to an executor and a {@link CompletableFuture} of the result is returned.
+ * Operations of the same user are executed serially in the order they were invoked while operations of different users run in parallel.
+ */
+public class AsyncServer
+{
+	/**
+	 * The server operations are delegated to
+	 */
+	private final Server server;
+	/**
+	 * Serial executors, a user is always mapped to the same serial executor
+	 */
+	private final SerialExecutor[] serialExecutors;
+	/**
+	 * Executor for operations which don't belong to a single user
+	 */
+	private final Executor executor;
+	
+	/**
+	 * Constructs a new {@link AsyncServer} with a serial executor per available processor times 4.
+	 *
+	 * @param server to delegate operations to, must be multithreaded
+	 * @param executor to execute operations with
+	 * @throws IllegalArgumentException if the specified server isn't multithreaded
+	 */
+	public AsyncServer(Server server, Executor executor)
+	{
+		this(server, executor, Runtime.getRuntime().availableProcessors() * 4);
+	}
+	
+	/**
+	 * Constructs a new {@link AsyncServer}.
+	 *
+	 * @param server to delegate operations to, must be multithreaded
+	 * @param executor to execute operations with
+	 * @param serialExecutors amount of serial executors users are spread across, this limits how many users can be served in parallel
+	 * @throws IllegalArgumentException if the specified server isn't multithreaded
+	 */
+	public AsyncServer(Server server, Executor executor, int serialExecutors)
+	{
+		if(!server.isMultithreaded())
+		{
+			throw new IllegalArgumentException("Server must be multithreaded!");
+		}
+		this.server = server;
+		this.executor = executor;
+		this.serialExecutors = new SerialExecutor[serialExecutors];
+		for(int i = 0; i < serialExecutors; i++)
+		{
+			this.serialExecutors[i] = new SerialExecutor(executor);
+		}
+	}
+	
+	/**
+	 * @see Server#registerUserDevice(UserDeviceUID, byte[], IdentifiableKey, byte[], IdentifiableKey[])
+	 */
+	public CompletableFuture<Boolean> registerUserDevice(UserDeviceUID userDeviceUID,
+														 byte[] identityKey,
+														 IdentifiableKey signedPreKey,
+														 byte[] preKeySignature,
+														 IdentifiableKey[] oneTimePreKeys)
+	{
+		return submit(userDeviceUID.getUserId(),
+				() -> server.registerUserDevice(userDeviceUID, identityKey, signedPreKey, preKeySignature, oneTimePreKeys));
+	}
+	
+	/**
+	 * @see Server#getDataBundles(UID)
+	 */
+	public CompletableFuture<List<ServerDataBundle>> getDataBundles(UID userId)
+	{
+		return submit(userId, () -> server.getDataBundles(userId));
+	}
+	
+	/**
+	 * The claims aren't ordered with other operations of the specified users since they span multiple users.
+	 *
+	 * @see Server#getDataBundles(Collection)
+	 */
+	public CompletableFuture<List<ClaimedDataBundle>> getDataBundles(Collection<UID> userIds)
+	{
+		return CompletableFuture.supplyAsync(() -> server.getDataBundles(userIds), executor);
+	}
+	
+	/**
+	 * @see Server#hasDataBundle(UserDeviceUID)
+	 */
+	public CompletableFuture<Boolean> hasDataBundle(UserDeviceUID userDeviceUID)
+	{
+		return submit(userDeviceUID.getUserId(), () -> server.hasDataBundle(userDeviceUID));
+	}
+	
+	/**
+	 * @see Server#changeSignedPreKey(UserDeviceUID, byte[], UID, byte[])
+	 */
+	public CompletableFuture<Boolean> changeSignedPreKey(UserDeviceUID userDeviceUID,
+														 byte[] signedPreKey,
+														 UID signedPreKeyUID,
+														 byte[] preKeySignature)
+	{
+		return submit(userDeviceUID.getUserId(),
+				() -> server.changeSignedPreKey(userDeviceUID, signedPreKey, signedPreKeyUID, preKeySignature));
+	}
+	
+	/**
+	 * @see Server#addOneTimePreKeys(UserDeviceUID, List)
+	 */
+	public CompletableFuture<Void> addOneTimePreKeys(UserDeviceUID userDeviceUID, List<IdentifiableKey> oneTimePreKeys)
+	{
+		return submit(userDeviceUID.getUserId(), () ->
+		{
+			server.addOneTimePreKeys(userDeviceUID, oneTimePreKeys);
+			return null;
+		});
+	}
+	
+	/**
+	 * @see Server#getNeededOneTimePreKeys(UserDeviceUID)
+	 */
+	public CompletableFuture<Integer> getNeededOneTimePreKeys(UserDeviceUID userDeviceUID)
+	{
+		return submit(userDeviceUID.getUserId(), () -> server.getNeededOneTimePreKeys(userDeviceUID));
+	}
+	
+	/**
+	 * @see Server#addMessage(UserDeviceUID, byte[])
+	 */
+	public CompletableFuture<Long> addMessage(UserDeviceUID userDeviceUID, byte[] message)
+	{
+		return submit(userDeviceUID.getUserId(), () -> server.addMessage(userDeviceUID, message));
+	}
+	
+	/**
+	 * @see Server#retrieveMessages(UserDeviceUID)
+	 */
+	public CompletableFuture<List<byte[]>> retrieveMessages(UserDeviceUID userDeviceUID)
+	{
+		return submit(userDeviceUID.getUserId(), () -> server.retrieveMessages(userDeviceUID));
+	}
+	
+	/**
+	 * @see Server#retrieveMessages(UserDeviceUID, long, int, int)
+	 */
+	public CompletableFuture<List<MailboxMessage>> retrieveMessages(UserDeviceUID userDeviceUID, long afterId, int maxCount, int maxBytes)
+	{
+		return submit(userDeviceUID.getUserId(), () -> server.retrieveMessages(userDeviceUID, afterId, maxCount, maxBytes));
+	}
+	
+	/**
+	 * @see Server#acknowledgeMessage(UserDeviceUID, long)
+	 */
+	public CompletableFuture<Boolean> acknowledgeMessage(UserDeviceUID userDeviceUID, long id)
+	{
+		return submit(userDeviceUID.getUserId(), () -> server.acknowledgeMessage(userDeviceUID, id));
+	}
+	
+	/**
+	 * @see Server#ackUpTo(UserDeviceUID, long)
+	 */
+	public CompletableFuture<Void> ackUpTo(UserDeviceUID userDeviceUID, long id)
+	{
+		return submit(userDeviceUID.getUserId(), () ->
+		{
+			server.ackUpTo(userDeviceUID, id);
+			return null;
+		});
+	}
+	
+	/**
+	 * @see Server#getOrCreateNonce(UserDeviceUID)
+	 */
+	public CompletableFuture<byte[]> getOrCreateNonce(UserDeviceUID userDeviceUID)
+	{
+		return submit(userDeviceUID.getUserId(), () -> server.getOrCreateNonce(userDeviceUID));
+	}
+	
+	/**
+	 * @see Server#verifyNonceSignature(UserDeviceUID, byte[])
+	 */
+	public CompletableFuture<Boolean> verifyNonceSignature(UserDeviceUID userDeviceUID, byte[] nonceSignature)
+	{
+		return submit(userDeviceUID.getUserId(), () -> server.verifyNonceSignature(userDeviceUID, nonceSignature));
+	}
+	
+	/**
+	 * @return the underlying server
+	 */
+	public Server getServer()
+	{
+		return server;
+	}
+	
+	/**
+	 * Submits the specified task to the serial executor of the specified userId.
+	 *
+	 * @param userId who the task belongs to
+	 * @param task to submit
+	 * @param <T> type of the task result
+	 * @return a future which is completed with the task result, or completed exceptionally if the task has thrown or the executor rejected it
+	 */
+	private <T> CompletableFuture<T> submit(UID userId, Supplier<T> task)
+	{
+		//spread the hash so users with similar hashes don't end up in the same executor
+		int hash = userId.hashCode();
+		hash ^= hash >>> 16;
+		return serialExecutors[(hash & Integer.MAX_VALUE) % serialExecutors.length].submit(task);
+	}
+	
+	/**
+	 * Executes tasks one after the other on an underlying executor.
+	 */
+	private static class SerialExecutor
+	{
+		/**
+		 * Tasks which have yet to be executed
+		 */
+		private final Queue<SerialTask> tasks;
+		/**
+		 * The underlying executor
+		 */
+		private final Executor executor;
+		/**
+		 * The task which is currently executing or {@code null} if none is executing
+		 */
+		private SerialTask active;
+		
+		/**
+		 * Constructs a new {@link SerialExecutor}.
+		 *
+		 * @param executor to execute tasks with
+		 */
+		private SerialExecutor(Executor executor)
+		{
+			this.tasks = new ArrayDeque<>();
+			this.executor = executor;
+		}
+		
+		/**
+		 * Submits the specified task to be executed after all the tasks submitted before it.
+		 *
+		 * @param task to submit
+		 * @param <T> type of the task result
+		 * @return a future which is completed with the task result, or completed exceptionally if the task has thrown or the executor rejected it
+		 */
+		private <T> CompletableFuture<T> submit(Supplier<T> task)
+		{
+			CompletableFuture<T> future = new CompletableFuture<>();
+			boolean schedule;
+			synchronized(this)
+			{
+				tasks.add(new SerialTask(() ->
+				{
+					try
+					{
+						future.complete(task.get());
+					} catch(Throwable throwable)
+					{
+						future.completeExceptionally(throwable);
+					}
+				}, future));
+				schedule = active == null;
+			}
+			if(schedule)
+			{
+				scheduleNext(null);
+			}
+			return future;
+		}
+		
+		/**
+		 * Executes the next task if there is one.
+		 * A task the executor rejects is completed with the rejection and the task after it is executed instead, so a rejection never leaves an
+		 * active task which will never finish.
+		 * The rejected futures are completed outside of the lock since completing them runs their dependent actions.
+		 *
+		 * @param finished the task which has finished executing or {@code null} if this isn't invoked by a finishing task
+		 */
+		private void scheduleNext(SerialTask finished)
+		{
+			List<SerialTask> rejected = new ArrayList<>();
+			synchronized(this)
+			{
+				//only the finishing task or a submit when there is no active task may execute the next task
+				if(active != finished)
+				{
+					return;
+				}
+				while((active = tasks.poll()) != null)
+				{
+					try
+					{
+						executor.execute(active);
+						break;
+					} catch(RejectedExecutionException e)
+					{
+						active.rejection = e;
+						rejected.add(active);
+					}
+				}
+			}
+			for(SerialTask task : rejected)
+			{
+				task.future.completeExceptionally(task.rejection);
+			}
+		}
+		
+		/**
+		 * A task of a {@link SerialExecutor}
+		 */
+		private class SerialTask implements Runnable
+		{
+			/**
+			 * The task to run
+			 */
+			private final Runnable task;
+			/**
+			 * The future of the task
+			 */
+			private final CompletableFuture<?> future;
+			/**
+			 * Why the executor rejected this task or {@code null} if it wasn't rejected
+			 */
+			private RejectedExecutionException rejection;
+			
+			/**
+			 * Constructs a new {@link SerialTask}.
+			 *
+			 * @param task to run
+			 * @param future of the task
+			 */
+			private SerialTask(Runnable task, CompletableFuture<?> future)
+			{
+				this.task = task;
+				this.future = future;
+			}
+			
+			/**
+			 * Runs the task then executes the next task.
+			 */
+			@Override
+			public void run()
+			{
+				try
+				{
+					task.run();
+				} finally
+				{
+					scheduleNext(this);
+				}
+			}
+		}
+	}
+}
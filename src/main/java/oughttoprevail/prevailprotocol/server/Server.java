@@ -25,17 +25,23 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
+import oughttoprevail.prevailprotocol.asymmetriccryptography.AsymmetricCryptography;
+import oughttoprevail.prevailprotocol.asymmetriccryptography.SignedMessage;
+import oughttoprevail.prevailprotocol.keys.ClaimedDataBundle;
 import oughttoprevail.prevailprotocol.keys.IdentifiableKey;
 import oughttoprevail.prevailprotocol.keys.ServerDataBundle;
 import oughttoprevail.prevailprotocol.nonce.NonceGenerator;
 import oughttoprevail.prevailprotocol.nonce.ServerNonceGenerator;
 import oughttoprevail.prevailprotocol.settings.Settings;
 import oughttoprevail.prevailprotocol.storage.Directory;
+import oughttoprevail.prevailprotocol.storage.MailboxMessage;
 import oughttoprevail.prevailprotocol.storage.MailboxStorage;
 import oughttoprevail.prevailprotocol.storage.Storage;
-import oughttoprevail.prevailprotocol.storage.SynchronizedMailboxStorage;
+import oughttoprevail.prevailprotocol.storage.fields.CounterField;
 import oughttoprevail.prevailprotocol.storage.fields.Field;
+import oughttoprevail.prevailprotocol.storage.fields.IntField;
 import oughttoprevail.prevailprotocol.storage.fields.JavaSerDes;
 import oughttoprevail.prevailprotocol.uid.UID;
 import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
@@ -78,6 +84,14 @@ public class Server
 		this.serverUserStorageMap = multithreaded ? new ConcurrentHashMap<>() : new HashMap<>();
 	}
 	
+	/**
+	 * @return whether this server is multi-threading compatible
+	 */
+	public boolean isMultithreaded()
+	{
+		return multithreaded;
+	}
+	
 	/**
 	 * Registers the specified parameters as a user's device.
 	 *
@@ -98,10 +112,8 @@ public class Server
 		{
 			return false;
 		}
-		ServerUserStorage serverUserStorage = getUserStorage(userDeviceUID.getUserId());
-		serverUserStorage.deviceUIDs.add(userDeviceUID.getDeviceId());
-		serverUserStorage.userStorage.flush();
-		serverUserStorage.initializeDevice(userDeviceUID.getDeviceId()).init(identityKey, signedPreKey, preKeySignature, oneTimePreKeys);
+		ServerDevice device = getUserStorage(userDeviceUID.getUserId()).getOrCreateDevice(userDeviceUID.getDeviceId());
+		device.getServerDataBundle().init(identityKey, signedPreKey, preKeySignature, oneTimePreKeys);
 		return true;
 	}
 	
@@ -120,6 +132,42 @@ public class Server
 		return list;
 	}
 	
+	/**
+	 * Claims a data bundle for every registered device of every specified user, each claim atomically takes one of the device's one time pre keys
+	 * and flushes the device storage at most once.
+	 * If this server is multithreaded the users are claimed concurrently.
+	 *
+	 * @param userIds to claim data bundles for
+	 * @return the claimed data bundles of all the devices of the specified userIds
+	 */
+	public List<ClaimedDataBundle> getDataBundles(Collection<UID> userIds)
+	{
+		if(multithreaded)
+		{
+			return userIds.parallelStream().flatMap(userId -> claimDataBundles(userId).stream()).collect(Collectors.toList());
+		}
+		List<ClaimedDataBundle> list = new ArrayList<>();
+		for(UID userId : userIds)
+		{
+			list.addAll(claimDataBundles(userId));
+		}
+		return list;
+	}
+	
+	/**
+	 * @param userId to claim data bundles for
+	 * @return the claimed data bundles of all the devices of the specified userId
+	 */
+	private List<ClaimedDataBundle> claimDataBundles(UID userId)
+	{
+		List<ClaimedDataBundle> list = new ArrayList<>();
+		for(ServerDevice serverDevice : getUserStorage(userId).getDevices())
+		{
+			list.add(serverDevice.getServerDataBundle().claim(userId));
+		}
+		return list;
+	}
+	
 	/**
 	 * @param userDeviceUID of the data bundle
 	 * @return whether a data bundle is registered for the specified userId and specified deviceId
@@ -192,14 +240,17 @@ public class Server
 	 *
 	 * @param userDeviceUID identifier of the mailbox
 	 * @param message to add to the mailbox
+	 * @return the identifier given to the message, identifiers are monotonically increasing per mailbox, or {@code -1} if a device with the
+	 * specified userDeviceUID doesn't exist
 	 */
-	public void addMessage(UserDeviceUID userDeviceUID, byte[] message)
+	public long addMessage(UserDeviceUID userDeviceUID, byte[] message)
 	{
 		ServerDevice device = getDevice(userDeviceUID);
 		if(device != null)
 		{
-			device.getMailbox().addMessage(message);
+			return device.getMailbox().addMessage(message);
 		}
+		return -1;
 	}
 	
 	/**
@@ -216,12 +267,63 @@ public class Server
 		return Collections.emptyList();
 	}
 	
+	/**
+	 * Retrieves a page of the mailbox, to retrieve the next page invoke this again with the identifier of the last returned message as the
+	 * specified afterId.
+	 *
+	 * @param userDeviceUID identifier of the mailbox
+	 * @param afterId only messages with an identifier larger then this are returned ({@code -1} for the start of the mailbox)
+	 * @param maxCount max amount of messages to return
+	 * @param maxBytes max amount of message bytes to return, a single message larger then this is still returned by itself
+	 * @return the messages which have yet to be acknowledged after the specified afterId ordered by their identifier
+	 */
+	public List<MailboxMessage> retrieveMessages(UserDeviceUID userDeviceUID, long afterId, int maxCount, int maxBytes)
+	{
+		ServerDevice device = getDevice(userDeviceUID);
+		if(device != null)
+		{
+			return device.getMailbox().getMessages(afterId, maxCount, maxBytes);
+		}
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Acknowledges (removes) the message with the specified id from the mailbox.
+	 *
+	 * @param userDeviceUID identifier of the mailbox
+	 * @param id of the message to acknowledge
+	 * @return whether the message was found
+	 */
+	public boolean acknowledgeMessage(UserDeviceUID userDeviceUID, long id)
+	{
+		ServerDevice device = getDevice(userDeviceUID);
+		return device != null && device.getMailbox().acknowledge(id);
+	}
+	
+	/**
+	 * Acknowledges (removes) all the messages with an identifier smaller or equal to the specified id from the mailbox.
+	 *
+	 * @param userDeviceUID identifier of the mailbox
+	 * @param id of the last message to acknowledge
+	 */
+	public void ackUpTo(UserDeviceUID userDeviceUID, long id)
+	{
+		ServerDevice device = getDevice(userDeviceUID);
+		if(device != null)
+		{
+			device.getMailbox().acknowledgeUpTo(id);
+		}
+	}
+	
 	/**
 	 * Removes the specified message from the mailbox.
 	 *
 	 * @param userDeviceUID identifier of the mailbox
 	 * @param message to remove from the mailbox
+	 * @deprecated this scans the mailbox for a message with equal content, use {@link #acknowledgeMessage(UserDeviceUID, long)} or
+	 * {@link #ackUpTo(UserDeviceUID, long)} instead
 	 */
+	@Deprecated
 	public void removeMessage(UserDeviceUID userDeviceUID, byte[] message)
 	{
 		ServerDevice device = getDevice(userDeviceUID);
@@ -276,17 +378,48 @@ public class Server
 	}
 	
 	/**
+	 * Verifies the nonce signatures of many devices at once (see {@link #verifyNonceSignature(UserDeviceUID, byte[])}), the signatures are
+	 * verified using {@link AsymmetricCryptography#verifyBatch(List)}.
+	 *
+	 * @param userDeviceUIDs to verify signatures for
+	 * @param nonceSignatures to verify, the nonce signature of every userDeviceUID is at the same index as the userDeviceUID
+	 * @return for every userDeviceUID whether it's nonce signature was verified
+	 */
+	public boolean[] verifyNonceSignatures(List<UserDeviceUID> userDeviceUIDs, List<byte[]> nonceSignatures)
+	{
+		int size = userDeviceUIDs.size();
+		boolean[] found = new boolean[size];
+		List<SignedMessage> signedMessages = new ArrayList<>(size);
+		for(int i = 0; i < size; i++)
+		{
+			UserDeviceUID userDeviceUID = userDeviceUIDs.get(i);
+			ServerDevice device = getUserStorage(userDeviceUID.getUserId()).getDevice(userDeviceUID.getDeviceId());
+			byte[] nonce;
+			if(device == null || (nonce = device.getNonce().remove()) == null)
+			{
+				continue;
+			}
+			found[i] = true;
+			signedMessages.add(new SignedMessage(nonceSignatures.get(i), nonce, device.getServerDataBundle().getIdentityKey()));
+		}
+		boolean[] batchVerified = settings.getAsymmetricCryptography().verifyBatch(signedMessages);
+		boolean[] verified = new boolean[size];
+		for(int i = 0, batchIndex = 0; i < size; i++)
+		{
+			verified[i] = found[i] && batchVerified[batchIndex++];
+		}
+		return verified;
+	}
+	
+	/**
+	 * Creating a {@link ServerUserStorage} doesn't open anything, so no file is read while the map is computing it.
+	 *
 	 * @param userId to get storage for
 	 * @return the user storage for the specified userId
 	 */
 	private ServerUserStorage getUserStorage(UID userId)
 	{
-		ServerUserStorage serverUserStorage = serverUserStorageMap.get(userId);
-		if(serverUserStorage == null)
-		{
-			serverUserStorageMap.put(userId, serverUserStorage = new ServerUserStorage(userId));
-		}
-		return serverUserStorage;
+		return serverUserStorageMap.computeIfAbsent(userId, ServerUserStorage::new);
 	}
 	
 	/**
@@ -304,71 +437,98 @@ public class Server
 	private class ServerUserStorage
 	{
 		/**
-		 * Device storage name
+		 * Identifier of the user
 		 */
-		private static final String DEVICE_STORAGE = "Device";
-		
+		private final UID userId;
+		/**
+		 * Map to access server device
+		 */
+		private final Map<UID, ServerDevice> deviceMap;
 		/**
 		 * Directory to save all user data in
 		 */
-		private final Directory userDirectory;
+		private Directory userDirectory;
 		/**
 		 * User specific information storage
 		 */
-		private final Storage userStorage;
+		private Storage userStorage;
 		/**
 		 * List of devices belonging to this user
 		 */
-		private final List<UID> deviceUIDs;
+		private List<UID> deviceUIDs;
 		/**
-		 * Map to access server device
+		 * Whether the user storage was loaded, see {@link #load()}
 		 */
-		private final Map<UID, ServerDevice> deviceMap;
+		private volatile boolean loaded;
 		
 		/**
 		 * Constructs a new {@link ServerUserStorage}.
+		 * Nothing is opened here, the user storage is loaded once it's first used and each device opens it's storages once they are first used.
 		 *
 		 * @param userId of the user
 		 */
 		private ServerUserStorage(UID userId)
 		{
-			String userIdString = userId.toString();
-			userDirectory = directory.directory(userIdString);
-			userStorage = userDirectory.storage(userIdString);
-			
-			List<UID> deviceUIDsList = userStorage.getFieldList(settings.getUIDFactory());
-			deviceUIDs = multithreaded ? Collections.synchronizedList(deviceUIDsList) : deviceUIDsList;
+			this.userId = userId;
 			this.deviceMap = multithreaded ? new ConcurrentHashMap<>() : new HashMap<>();
-			for(UID deviceId : deviceUIDs)
+		}
+		
+		/**
+		 * Loads the user storage and the devices saved in it if it wasn't loaded yet.
+		 */
+		private void load()
+		{
+			if(loaded)
 			{
-				initializeDevice(deviceId);
+				return;
+			}
+			synchronized(this)
+			{
+				if(loaded)
+				{
+					return;
+				}
+				String userIdString = userId.toString();
+				userDirectory = directory.directory(userIdString);
+				userStorage = userDirectory.storage(userIdString);
+				
+				List<UID> deviceUIDsList = userStorage.getFieldList(settings.getUIDFactory());
+				deviceUIDs = multithreaded ? Collections.synchronizedList(deviceUIDsList) : deviceUIDsList;
+				for(UID deviceId : deviceUIDs)
+				{
+					deviceMap.put(deviceId, new ServerDevice(userDirectory, deviceId, true));
+				}
+				loaded = true;
 			}
 		}
 		
 		/**
-		 * Initializes a stored {@link ServerDevice} for the specified deviceId.
+		 * Gets the device with the specified deviceId, if there is no such device it's created and saved as one of this user's devices.
 		 *
-		 * @param deviceId to initialize
-		 * @return the {@link ServerDataBundle} for the specified deviceId
-		 */
-		private ServerDataBundle initializeDevice(UID deviceId)
-		{
-			Directory deviceDirectory = userDirectory.directory(deviceId.toString());
-			Storage deviceStorage = deviceDirectory.storage(DEVICE_STORAGE);
-			Field<byte[]> identityKeyField = deviceStorage.getField(JavaSerDes.BYTE_ARRAY_SER_DES);
-			Field<IdentifiableKey> signedPreKeyField = deviceStorage.getField(IdentifiableKey.SER_DES);
-			Field<byte[]> preKeySignatureField = deviceStorage.getField(JavaSerDes.BYTE_ARRAY_SER_DES);
-			Queue<IdentifiableKey> oneTimePreKeysFields = deviceStorage.getFieldQueue(IdentifiableKey.SER_DES);
-			ServerDataBundle serverDataBundle = new ServerDataBundle(deviceId,
-					identityKeyField,
-					signedPreKeyField,
-					preKeySignatureField,
-					oneTimePreKeysFields,
-					deviceStorage);
-			MailboxStorage mailbox = multithreaded ? new SynchronizedMailboxStorage(deviceDirectory) : new MailboxStorage(deviceDirectory);
-			Nonce nonce = multithreaded ? new SynchronizedNonce(deviceStorage, settings) : new Nonce(deviceStorage, settings);
-			deviceMap.put(deviceId, new ServerDevice(serverDataBundle, mailbox, nonce));
-			return serverDataBundle;
+		 * @param deviceId of the device
+		 * @return the device with the specified deviceId
+		 */
+		private ServerDevice getOrCreateDevice(UID deviceId)
+		{
+			load();
+			ServerDevice device = deviceMap.get(deviceId);
+			if(device != null)
+			{
+				return device;
+			}
+			//creating a ServerDevice doesn't open anything so it's fine if we lose the race
+			ServerDevice created = new ServerDevice(userDirectory, deviceId, false);
+			if((device = deviceMap.putIfAbsent(deviceId, created)) != null)
+			{
+				return device;
+			}
+			//only the thread which added the device saves it
+			synchronized(deviceUIDs)
+			{
+				deviceUIDs.add(deviceId);
+				userStorage.flush();
+			}
+			return created;
 		}
 		
 		/**
@@ -377,6 +537,7 @@ public class Server
 		 */
 		private ServerDevice getDevice(UID deviceId)
 		{
+			load();
 			return deviceMap.get(deviceId);
 		}
 		
@@ -385,10 +546,186 @@ public class Server
 		 */
 		private Collection<ServerDevice> getDevices()
 		{
+			load();
 			return deviceMap.values();
 		}
 	}
 	
+	/**
+	 * A server device manager, every part of the device is opened lazily once it's first used.
+	 */
+	private class ServerDevice
+	{
+		/**
+		 * Device data bundle storage name
+		 */
+		private static final String DATA_BUNDLE_STORAGE = "DataBundle";
+		/**
+		 * Name of the storage devices were saved in before the nonce had it's own storage
+		 */
+		private static final String LEGACY_DEVICE_STORAGE = "Device";
+		/**
+		 * Nonce storage name
+		 */
+		private static final String NONCE_STORAGE = "Nonce";
+		
+		/**
+		 * Identifier of the device
+		 */
+		private final UID deviceId;
+		/**
+		 * Directory of the device
+		 */
+		private final Directory deviceDirectory;
+		/**
+		 * Whether the device was saved before this server was started, only a saved device may have to be migrated from the
+		 * {@link ServerDevice#LEGACY_DEVICE_STORAGE}
+		 */
+		private final boolean saved;
+		/**
+		 * Device public data bundle
+		 */
+		private volatile ServerDataBundle serverDataBundle;
+		/**
+		 * Mailbox of the device, pending messages which need to be sent to it will go here
+		 */
+		private volatile MailboxStorage mailbox;
+		/**
+		 * Nonce manager of this device
+		 */
+		private volatile Nonce nonce;
+		
+		/**
+		 * Constructs a new {@link ServerDevice}.
+		 *
+		 * @param userDirectory directory of the user who owns the device
+		 * @param deviceId of the device
+		 * @param saved whether the device was saved before this server was started
+		 */
+		private ServerDevice(Directory userDirectory, UID deviceId, boolean saved)
+		{
+			this.deviceId = deviceId;
+			this.deviceDirectory = userDirectory.directory(deviceId.toString());
+			this.saved = saved;
+		}
+		
+		private ServerDataBundle getServerDataBundle()
+		{
+			ServerDataBundle serverDataBundle = this.serverDataBundle;
+			if(serverDataBundle == null)
+			{
+				synchronized(this)
+				{
+					if((serverDataBundle = this.serverDataBundle) == null)
+					{
+						Storage deviceStorage = deviceDirectory.storage(DATA_BUNDLE_STORAGE);
+						Field<byte[]> identityKeyField = deviceStorage.getField(JavaSerDes.BYTE_ARRAY_SER_DES);
+						Field<IdentifiableKey> signedPreKeyField = deviceStorage.getField(IdentifiableKey.SER_DES);
+						Field<byte[]> preKeySignatureField = deviceStorage.getField(JavaSerDes.BYTE_ARRAY_SER_DES);
+						Queue<IdentifiableKey> oneTimePreKeysFields = deviceStorage.getFieldQueue(IdentifiableKey.SER_DES);
+						serverDataBundle = new ServerDataBundle(deviceId,
+								identityKeyField,
+								signedPreKeyField,
+								preKeySignatureField,
+								oneTimePreKeysFields,
+								deviceStorage);
+						if(saved && identityKeyField.get() == null)
+						{
+							migrateLegacyDevice(serverDataBundle);
+						}
+						this.serverDataBundle = serverDataBundle;
+					}
+				}
+			}
+			return serverDataBundle;
+		}
+		
+		private MailboxStorage getMailbox()
+		{
+			MailboxStorage mailbox = this.mailbox;
+			if(mailbox == null)
+			{
+				synchronized(this)
+				{
+					if((mailbox = this.mailbox) == null)
+					{
+						this.mailbox = mailbox = new MailboxStorage(deviceDirectory, settings);
+					}
+				}
+			}
+			return mailbox;
+		}
+		
+		private Nonce getNonce()
+		{
+			Nonce nonce = this.nonce;
+			if(nonce == null)
+			{
+				synchronized(this)
+				{
+					//opening the data bundle migrates a legacy device which may also set the nonce
+					getServerDataBundle();
+					if((nonce = this.nonce) == null)
+					{
+						this.nonce = nonce = createNonce();
+					}
+				}
+			}
+			return nonce;
+		}
+		
+		/**
+		 * @return a new {@link Nonce} stored in it's own storage because the data bundle storage ends with the one time pre keys queue
+		 */
+		private Nonce createNonce()
+		{
+			Storage nonceStorage = deviceDirectory.storage(NONCE_STORAGE);
+			return multithreaded ? new SynchronizedNonce(nonceStorage, settings) : new Nonce(nonceStorage, settings);
+		}
+		
+		/**
+		 * Moves a device saved in the {@link ServerDevice#LEGACY_DEVICE_STORAGE} into the specified serverDataBundle and the nonce storage.
+		 * In the legacy storage the nonce fields were created before the initial one time pre keys were added, so the pending nonce and the
+		 * nonce counter are right after the one time pre keys count and the one time pre keys are after them.
+		 * Once moved the legacy identity key is cleared so the device isn't migrated again.
+		 *
+		 * @param serverDataBundle to move the legacy data bundle into
+		 */
+		private void migrateLegacyDevice(ServerDataBundle serverDataBundle)
+		{
+			Storage legacyStorage = deviceDirectory.storage(LEGACY_DEVICE_STORAGE);
+			Field<byte[]> identityKeyField = legacyStorage.getField(JavaSerDes.BYTE_ARRAY_SER_DES);
+			Field<IdentifiableKey> signedPreKeyField = legacyStorage.getField(IdentifiableKey.SER_DES);
+			Field<byte[]> preKeySignatureField = legacyStorage.getField(JavaSerDes.BYTE_ARRAY_SER_DES);
+			IntField oneTimePreKeysCount = legacyStorage.getIntField();
+			Field<byte[]> pendingNonceField = legacyStorage.getField(JavaSerDes.BYTE_ARRAY_SER_DES);
+			IntField nonceCounter = legacyStorage.getIntField();
+			byte[] identityKey = identityKeyField.get();
+			if(identityKey == null)
+			{
+				return;
+			}
+			List<IdentifiableKey> oneTimePreKeys = new ArrayList<>();
+			for(int i = oneTimePreKeysCount.get(); i > 0; i--)
+			{
+				IdentifiableKey oneTimePreKey = legacyStorage.getField(IdentifiableKey.SER_DES).get();
+				if(oneTimePreKey != null)
+				{
+					oneTimePreKeys.add(oneTimePreKey);
+				}
+			}
+			serverDataBundle.init(identityKey,
+					signedPreKeyField.get(),
+					preKeySignatureField.get(),
+					oneTimePreKeys.toArray(new IdentifiableKey[0]));
+			Nonce nonce = createNonce();
+			nonce.restore(pendingNonceField.get(), nonceCounter.get());
+			this.nonce = nonce;
+			identityKeyField.set(null);
+			legacyStorage.flush();
+		}
+	}
+	
 	/**
 	 * Nonce manager
 	 */
@@ -398,6 +735,10 @@ public class Server
 		 * A pending verification nonce
 		 */
 		private final Field<byte[]> pendingNonce;
+		/**
+		 * The counter of the {@link Nonce#generator}
+		 */
+		private final IntField nonceCounter;
 		/**
 		 * The storage to store the nonce in
 		 */
@@ -416,8 +757,21 @@ public class Server
 		private Nonce(Storage deviceStorage, Settings settings)
 		{
 			this.pendingNonce = deviceStorage.getField(JavaSerDes.BYTE_ARRAY_SER_DES);
+			this.nonceCounter = deviceStorage.getIntField();
 			this.deviceStorage = deviceStorage;
-			this.generator = new ServerNonceGenerator(deviceStorage, settings);
+			this.generator = new ServerNonceGenerator(new CounterField(nonceCounter), settings);
+		}
+		
+		/**
+		 * Sets the pending nonce and the nonce counter to values which were saved elsewhere then saves them.
+		 *
+		 * @param pendingNonce to set
+		 * @param counter to set
+		 */
+		void restore(byte[] pendingNonce, int counter)
+		{
+			nonceCounter.set(counter);
+			set(pendingNonce);
 		}
 		
 		/**
@@ -504,48 +858,4 @@ public class Server
 			return super.remove();
 		}
 	}
-	
-	/**
-	 * A server device manager
-	 */
-	private static class ServerDevice
-	{
-		/**
-		 * Device public data bundle
-		 */
-		private final ServerDataBundle serverDataBundle;
-		/**
-		 * Mailbox of the device, pending messages which need to be sent to it will go here
-		 */
-		private final MailboxStorage mailbox;
-		/**
-		 * Nonce manager of this device
-		 */
-		private final Nonce nonce;
-		
-		/**
-		 * Constructs a new {@link ServerDevice}.
-		 */
-		private ServerDevice(ServerDataBundle serverDataBundle, MailboxStorage mailbox, Nonce nonce)
-		{
-			this.mailbox = mailbox;
-			this.serverDataBundle = serverDataBundle;
-			this.nonce = nonce;
-		}
-		
-		private ServerDataBundle getServerDataBundle()
-		{
-			return serverDataBundle;
-		}
-		
-		private MailboxStorage getMailbox()
-		{
-			return mailbox;
-		}
-		
-		private Nonce getNonce()
-		{
-			return nonce;
-		}
-	}
 }
\ No newline at end of file
@@ -115,6 +115,10 @@ public class Session
 	 * Messenger to encrypt and decrypt messages with
 	 */
 	private Messenger messenger;
+	/**
+	 * Lock held while the ratchets of this session are used, see {@link #getLock()}
+	 */
+	private final Object lock = new Object();
 	
 	/**
 	 * Constructs a new {@link Session}.
@@ -250,6 +254,17 @@ public class Session
 		deviceDirectory.delete();
 	}
 	
+	/**
+	 * Cancels the scheduled tasks of this session, the session's data stays stored
+	 */
+	void close()
+	{
+		if(skippedKeysStorage != null)
+		{
+			skippedKeysStorage.cancelExpirations();
+		}
+	}
+	
 	public KDF getKDF()
 	{
 		return kdf;
@@ -260,6 +275,16 @@ public class Session
 		return skippedKeysStorage;
 	}
 	
+	/**
+	 * The ratchets of a session aren't thread safe, every encryption and decryption with this session is done while holding this lock.
+	 *
+	 * @return lock for using the ratchets of this session
+	 */
+	public Object getLock()
+	{
+		return lock;
+	}
+	
 	public SymmetricKeyRatchet getSendingRatchet()
 	{
 		return sendingRatchet;
@@ -83,6 +83,17 @@ public class SessionsManager
 		return false;
 	}
 	
+	/**
+	 * Closes all the sessions, the sessions' data stays stored.
+	 */
+	public void close()
+	{
+		for(Session session : sessions.values())
+		{
+			session.close();
+		}
+	}
+	
 	/**
 	 * @param deviceId to get session for
 	 * @return the session for this deviceId or {@code null} if there isn't a session for the specified deviceId
@@ -21,11 +21,15 @@ import java.io.File;
 import java.nio.charset.Charset;
 import java.security.Provider;
 import java.security.Security;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import oughttoprevail.prevailprotocol.SignedPreKeyRotation;
 import oughttoprevail.prevailprotocol.asymmetriccryptography.AsymmetricCryptography;
+import oughttoprevail.prevailprotocol.asymmetriccryptography.KeyPairPool;
 import oughttoprevail.prevailprotocol.asymmetriccryptography.X25519;
 import oughttoprevail.prevailprotocol.kdf.HKDFFactory;
 import oughttoprevail.prevailprotocol.kdf.KDFFactory;
@@ -54,18 +58,21 @@ public class Settings
 		FiledDirectory filedDirectory = new FiledDirectory(System.getProperty("user.home") + File.separatorChar + "PrevailProtocolData",
 				256,
 				Throwable::printStackTrace);
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "DefaultSettings - Scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		Executor executor = ForkJoinPool.commonPool();
 		DEFAULT_SETTINGS = new Settings().asymmetricCryptography(new X25519())
 										 .random(new SecureRandomBytesGenerator())
 										 .kdfFactory(new HKDFFactory())
 										 .initialDirectory(filedDirectory)
 										 .uidFactory(new TimedUIDFactory())
 										 .userIdFactory(new StringWrapperFactory(stringCharset))
-										 .scheduler(Executors.newSingleThreadScheduledExecutor(runnable ->
-										 {
-											 Thread thread = new Thread(runnable, "DefaultSettings - Scheduler");
-											 thread.setDaemon(true);
-											 return thread;
-										 }))
+										 .scheduler(scheduler)
+										 .executor(executor)
 										 .provider(null)
 										 .macAlgorithm("HMacSHA256")
 										 .symmetricAlgorithm("AES")
@@ -80,12 +87,21 @@ public class Settings
 										 .messageMacSize(16)
 										 .nonceSize(32)
 										 .defaultTotalOneTimePreKeys(100)
+										 .initialOneTimePreKeys(100)
+										 .oneTimePreKeyReplenishThreshold(20)
+										 .oneTimePreKeyReplenishInterval(TimeUnit.MINUTES.toMillis(1))
+										 .keyPairPoolLowWaterMark(4)
 										 .maxSkipKeys(100)
 										 .maxStoredSkippedKeys(500)
+										 .maxStoredGroupSkippedKeys(500)
 										 .maxDevices(2)
+										 .mailboxSegmentSize(64)
 										 .signedPreKeyKeepAlive(TimeUnit.DAYS.toMillis(2))
 										 .skippedKeyKeepAlive(TimeUnit.DAYS.toMillis(1))
 										 .groupSessionDeletionKeepAlive(TimeUnit.DAYS.toMillis(1))
+										 .snapshotInterval(TimeUnit.MINUTES.toMillis(10))
+										 .userIdleTimeout(TimeUnit.MINUTES.toMillis(10))
+										 .userSweepInterval(TimeUnit.MINUTES.toMillis(1))
 										 .dhRatchetInfo("DHRatchet".getBytes(stringCharset))
 										 .symmetricRatchetInfo("SymmetricRatchet".getBytes(stringCharset))
 										 .headerKeyInfo("HeaderKey".getBytes(stringCharset))
@@ -128,6 +144,19 @@ public class Settings
 	 * Task schedueler
 	 */
 	private ScheduledExecutorService scheduler;
+	/**
+	 * Executor for work which can be done in parallel, such as encrypting a new group sender key to all the group members
+	 */
+	private Executor executor;
+	/**
+	 * Changes the signed pre keys of all the users with these settings when they expire, it should use the same {@link #scheduler} and
+	 * {@link #executor}, if it isn't set it's created from them on first use
+	 */
+	private volatile SignedPreKeyRotation signedPreKeyRotation;
+	/**
+	 * Pool of key pairs generated in the background, created on first use from these settings (not copied from a parent)
+	 */
+	private volatile KeyPairPool keyPairPool;
 	
 	/**
 	 * The java security provider or {@code null} if all providers available providers should be used
@@ -195,6 +224,26 @@ public class Settings
 	 * This basically means the amount of one time pre keys to be generated when the data bundle is first generating.
 	 */
 	private int defaultTotalOneTimePreKeys;
+	/**
+	 * Amount of one time pre keys generated with a new data bundle, the rest (up to {@link #defaultTotalOneTimePreKeys}) can be generated later
+	 * by a {@link oughttoprevail.prevailprotocol.keys.OneTimePreKeyReplenisher}
+	 */
+	private int initialOneTimePreKeys;
+	/**
+	 * Once the server has less one time pre keys than this a {@link oughttoprevail.prevailprotocol.keys.OneTimePreKeyReplenisher} publishes
+	 * more
+	 */
+	private int oneTimePreKeyReplenishThreshold;
+	/**
+	 * Milliseconds between every time a {@link oughttoprevail.prevailprotocol.keys.OneTimePreKeyReplenisher} checks the amount of one time pre
+	 * keys the server has
+	 */
+	private long oneTimePreKeyReplenishInterval;
+	/**
+	 * Once the {@link KeyPairPool} has less key pairs than this it's refilled in the background up to twice this amount, {@code 0} disables
+	 * pooling so every key pair is generated when it's needed
+	 */
+	private int keyPairPoolLowWaterMark;
 	
 	//max
 	/**
@@ -202,14 +251,24 @@ public class Settings
 	 */
 	private int maxSkipKeys;
 	/**
-	 * Max amount of skipped keys to be skipped per session if {@link oughttoprevail.prevailprotocol.session.Session} or per group if using
-	 * {@link oughttoprevail.prevailprotocol.group.Group}
+	 * Max amount of skipped keys to be stored per {@link oughttoprevail.prevailprotocol.session.Session}
 	 */
 	private int maxStoredSkippedKeys;
+	/**
+	 * Max amount of skipped keys to be stored per sender of a {@link oughttoprevail.prevailprotocol.group.Group}, every sender has it's own
+	 * budget so a sender who skips many keys can't evict the skipped keys of other senders.
+	 * When the budget is full the oldest skipped key of the sender is evicted
+	 */
+	private int maxStoredGroupSkippedKeys;
 	/**
 	 * Max amount of devices per user
 	 */
 	private int maxDevices;
+	/**
+	 * Max amount of entries in a single {@link oughttoprevail.prevailprotocol.storage.MailboxStorage} segment, once a segment is full a new one is
+	 * started
+	 */
+	private int mailboxSegmentSize;
 	
 	//keep alive - when to delete
 	/**
@@ -224,6 +283,20 @@ public class Settings
 	 * How long should a group session stay after it has been requested to be deleted, once this time has ran out the session will be deleted
 	 */
 	private long groupSessionDeletionKeepAlive;
+	/**
+	 * How often a {@link oughttoprevail.prevailprotocol.User} writes a snapshot of it's directory (see
+	 * {@link oughttoprevail.prevailprotocol.storage.Directory#writeSnapshot()}) in milliseconds, 0 to never write snapshots
+	 */
+	private long snapshotInterval;
+	/**
+	 * How long a {@link oughttoprevail.prevailprotocol.User} can stay unused in a {@link oughttoprevail.prevailprotocol.UserManager} before it's
+	 * closed and evicted in milliseconds
+	 */
+	private long userIdleTimeout;
+	/**
+	 * How often a {@link oughttoprevail.prevailprotocol.UserManager} evicts idle users in milliseconds
+	 */
+	private long userSweepInterval;
 	
 	//info
 	/**
@@ -289,6 +362,8 @@ public class Settings
 																  .uidFactory(parent.getUIDFactory())
 																  .userIdFactory(parent.getUserIdFactory())
 																  .scheduler(parent.getScheduler())
+																  .executor(parent.getExecutor())
+																  .signedPreKeyRotation(parent.getSignedPreKeyRotation())
 																  .macAlgorithm(parent.getMacAlgorithm())
 																  .symmetricAlgorithm(parent.getSymmetricAlgorithm())
 																  .cipherAlgorithm(parent.getCipherAlgorithm())
@@ -302,12 +377,21 @@ public class Settings
 																  .messageMacSize(parent.getMessageMacSize())
 																  .nonceSize(parent.getNonceSize())
 																  .defaultTotalOneTimePreKeys(parent.getDefaultTotalOneTimePreKeys())
+																  .initialOneTimePreKeys(parent.getInitialOneTimePreKeys())
+																  .oneTimePreKeyReplenishThreshold(parent.getOneTimePreKeyReplenishThreshold())
+																  .oneTimePreKeyReplenishInterval(parent.getOneTimePreKeyReplenishInterval())
+																  .keyPairPoolLowWaterMark(parent.getKeyPairPoolLowWaterMark())
 																  .maxSkipKeys(parent.getMaxSkipKeys())
 																  .maxStoredSkippedKeys(parent.getMaxStoredSkippedKeys())
+																  .maxStoredGroupSkippedKeys(parent.getMaxStoredGroupSkippedKeys())
 																  .maxDevices(parent.getMaxDevices())
+																  .mailboxSegmentSize(parent.getMailboxSegmentSize())
 																  .signedPreKeyKeepAlive(parent.getSignedPreKeyKeepAlive())
 																  .skippedKeyKeepAlive(parent.getSkippedKeyKeepAlive())
 																  .groupSessionDeletionKeepAlive(parent.getGroupSessionDeletionKeepAlive())
+																  .snapshotInterval(parent.getSnapshotInterval())
+																  .userIdleTimeout(parent.getUserIdleTimeout())
+																  .userSweepInterval(parent.getUserSweepInterval())
 																  .dhRatchetInfo(parent.getDHRatchetInfo())
 																  .symmetricRatchetInfo(parent.getSymmetricRatchetInfo())
 																  .headerKeyInfo(parent.getHeaderKeyInfo())
@@ -358,6 +442,18 @@ public class Settings
 		return this;
 	}
 	
+	public Settings executor(Executor executor)
+	{
+		this.executor = executor;
+		return this;
+	}
+	
+	public Settings signedPreKeyRotation(SignedPreKeyRotation signedPreKeyRotation)
+	{
+		this.signedPreKeyRotation = signedPreKeyRotation;
+		return this;
+	}
+	
 	public Settings provider(String provider)
 	{
 		if(provider == null)
@@ -453,6 +549,30 @@ public class Settings
 		return this;
 	}
 	
+	public Settings initialOneTimePreKeys(int initialOneTimePreKeys)
+	{
+		this.initialOneTimePreKeys = initialOneTimePreKeys;
+		return this;
+	}
+	
+	public Settings oneTimePreKeyReplenishThreshold(int oneTimePreKeyReplenishThreshold)
+	{
+		this.oneTimePreKeyReplenishThreshold = oneTimePreKeyReplenishThreshold;
+		return this;
+	}
+	
+	public Settings oneTimePreKeyReplenishInterval(long oneTimePreKeyReplenishInterval)
+	{
+		this.oneTimePreKeyReplenishInterval = oneTimePreKeyReplenishInterval;
+		return this;
+	}
+	
+	public Settings keyPairPoolLowWaterMark(int keyPairPoolLowWaterMark)
+	{
+		this.keyPairPoolLowWaterMark = keyPairPoolLowWaterMark;
+		return this;
+	}
+	
 	public Settings maxSkipKeys(int maxSkipKeys)
 	{
 		this.maxSkipKeys = maxSkipKeys;
@@ -465,12 +585,24 @@ public class Settings
 		return this;
 	}
 	
+	public Settings maxStoredGroupSkippedKeys(int maxStoredGroupSkippedKeys)
+	{
+		this.maxStoredGroupSkippedKeys = maxStoredGroupSkippedKeys;
+		return this;
+	}
+	
 	public Settings maxDevices(int maxDevices)
 	{
 		this.maxDevices = maxDevices;
 		return this;
 	}
 	
+	public Settings mailboxSegmentSize(int mailboxSegmentSize)
+	{
+		this.mailboxSegmentSize = mailboxSegmentSize;
+		return this;
+	}
+	
 	public Settings signedPreKeyKeepAlive(long signedPreKeyKeepAlive)
 	{
 		this.signedPreKeyKeepAlive = signedPreKeyKeepAlive;
@@ -489,6 +621,24 @@ public class Settings
 		return this;
 	}
 	
+	public Settings snapshotInterval(long snapshotInterval)
+	{
+		this.snapshotInterval = snapshotInterval;
+		return this;
+	}
+	
+	public Settings userIdleTimeout(long userIdleTimeout)
+	{
+		this.userIdleTimeout = userIdleTimeout;
+		return this;
+	}
+	
+	public Settings userSweepInterval(long userSweepInterval)
+	{
+		this.userSweepInterval = userSweepInterval;
+		return this;
+	}
+	
 	public Settings dhRatchetInfo(byte[] dhRatchetInfo)
 	{
 		this.dhRatchetInfo = dhRatchetInfo;
@@ -554,6 +704,43 @@ public class Settings
 		return scheduler;
 	}
 	
+	public Executor getExecutor()
+	{
+		return executor;
+	}
+	
+	public SignedPreKeyRotation getSignedPreKeyRotation()
+	{
+		SignedPreKeyRotation signedPreKeyRotation = this.signedPreKeyRotation;
+		if(signedPreKeyRotation == null)
+		{
+			synchronized(this)
+			{
+				if((signedPreKeyRotation = this.signedPreKeyRotation) == null)
+				{
+					this.signedPreKeyRotation = signedPreKeyRotation = new SignedPreKeyRotation(scheduler, executor);
+				}
+			}
+		}
+		return signedPreKeyRotation;
+	}
+	
+	public KeyPairPool getKeyPairPool()
+	{
+		KeyPairPool keyPairPool = this.keyPairPool;
+		if(keyPairPool == null)
+		{
+			synchronized(this)
+			{
+				if((keyPairPool = this.keyPairPool) == null)
+				{
+					this.keyPairPool = keyPairPool = new KeyPairPool(this);
+				}
+			}
+		}
+		return keyPairPool;
+	}
+	
 	public Provider getProvider()
 	{
 		return provider;
@@ -624,6 +811,26 @@ public class Settings
 		return defaultTotalOneTimePreKeys;
 	}
 	
+	public int getInitialOneTimePreKeys()
+	{
+		return initialOneTimePreKeys;
+	}
+	
+	public int getOneTimePreKeyReplenishThreshold()
+	{
+		return oneTimePreKeyReplenishThreshold;
+	}
+	
+	public long getOneTimePreKeyReplenishInterval()
+	{
+		return oneTimePreKeyReplenishInterval;
+	}
+	
+	public int getKeyPairPoolLowWaterMark()
+	{
+		return keyPairPoolLowWaterMark;
+	}
+	
 	public int getMaxSkipKeys()
 	{
 		return maxSkipKeys;
@@ -634,11 +841,21 @@ public class Settings
 		return maxStoredSkippedKeys;
 	}
 	
+	public int getMaxStoredGroupSkippedKeys()
+	{
+		return maxStoredGroupSkippedKeys;
+	}
+	
 	public int getMaxDevices()
 	{
 		return maxDevices;
 	}
 	
+	public int getMailboxSegmentSize()
+	{
+		return mailboxSegmentSize;
+	}
+	
 	public long getSignedPreKeyKeepAlive()
 	{
 		return signedPreKeyKeepAlive;
@@ -654,6 +871,21 @@ public class Settings
 		return groupSessionDeletionKeepAlive;
 	}
 	
+	public long getSnapshotInterval()
+	{
+		return snapshotInterval;
+	}
+	
+	public long getUserIdleTimeout()
+	{
+		return userIdleTimeout;
+	}
+	
+	public long getUserSweepInterval()
+	{
+		return userSweepInterval;
+	}
+	
 	public byte[] getDHRatchetInfo()
 	{
 		return dhRatchetInfo;
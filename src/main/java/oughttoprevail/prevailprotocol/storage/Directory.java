@@ -41,12 +41,43 @@ public interface Directory
 	 */
 	Storage storage(String storageName);
 	
+	/**
+	 * @param storageName to be the new packed storage name (identifier name of this packed storage in this directory)
+	 * @param recordSize the maximum amount of bytes the fields of a single record take
+	 * @return a new {@link PackedStorage} with the specified storageName, by default every record is a {@link #storage(String)} in a directory
+	 * with the specified storageName
+	 */
+	default PackedStorage packedStorage(String storageName, int recordSize)
+	{
+		Directory directory = directory(storageName);
+		return index -> directory.storage(String.valueOf(index));
+	}
+	
 	/**
 	 * @param directoryName for the new directory
 	 * @return a new {@link Directory} with the specified directoryName
 	 */
 	Directory directory(String directoryName);
 	
+	/**
+	 * Writes a snapshot of this directory and all underlying directories and storages in the background, the snapshot can later be loaded with
+	 * {@link #loadSnapshot()} so the storages are read with a single sequential read instead of one read per storage.
+	 * By default this does nothing.
+	 */
+	default void writeSnapshot()
+	{
+	}
+	
+	/**
+	 * Loads the snapshot written by {@link #writeSnapshot()} (if there is one) so storages of this directory and all underlying directories which
+	 * are created afterwards are read from it.
+	 * A snapshot never replaces newer data, a storage is only read from the snapshot if it wasn't modified after the snapshot was written.
+	 * By default this does nothing.
+	 */
+	default void loadSnapshot()
+	{
+	}
+	
 	/**
 	 * Deletes this directory and all underlying directories and storages.
 	 *
@@ -54,6 +85,16 @@ public interface Directory
 	 */
 	void delete();
 	
+	/**
+	 * Closes all the storages of this directory and all underlying directories without deleting them, a storage which is created again afterwards
+	 * is read again.
+	 * This should be used when the storages of this directory won't be used for a while so their resources are released.
+	 * By default this does nothing.
+	 */
+	default void close()
+	{
+	}
+	
 	/**
 	 * Finishes the use of this directory.
 	 *
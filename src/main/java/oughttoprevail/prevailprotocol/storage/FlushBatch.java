@@ -0,0 +1,96 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import oughttoprevail.prevailprotocol.storage.files.FiledStorage;
+
+/**
+ * Groups the flushes of many storages so they are written together.
+ * While a task is ran with {@link #run(Runnable)}, a {@link FiledStorage} which is flushed on that thread is added to this batch instead of
+ * being flushed, once the batch is {@link #commit() committed} all the added storages are written by a single flush.
+ * A batch may be ran on multiple threads at once.
+ */
+public class FlushBatch
+{
+	/**
+	 * The batch ran by the current thread
+	 */
+	private static final ThreadLocal<FlushBatch> CURRENT = new ThreadLocal<>();
+	
+	/**
+	 * The storages which were flushed while this batch was running
+	 */
+	private final Set<FiledStorage> storages = ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * @return the batch ran by the current thread or {@code null} if there isn't one
+	 */
+	public static FlushBatch current()
+	{
+		return CURRENT.get();
+	}
+	
+	/**
+	 * Runs the specified task on the current thread with this batch collecting the flushes.
+	 *
+	 * @param task to run
+	 */
+	public void run(Runnable task)
+	{
+		FlushBatch previous = CURRENT.get();
+		CURRENT.set(this);
+		try
+		{
+			task.run();
+		} finally
+		{
+			if(previous == null)
+			{
+				CURRENT.remove();
+			} else
+			{
+				CURRENT.set(previous);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the specified storage to be flushed once this batch is committed.
+	 *
+	 * @param storage to add
+	 */
+	public void add(FiledStorage storage)
+	{
+		storages.add(storage);
+	}
+	
+	/**
+	 * Flushes all the storages which were added to this batch with a single flush.
+	 */
+	public void commit()
+	{
+		List<FiledStorage> storages = new ArrayList<>(this.storages);
+		this.storages.removeAll(storages);
+		FiledStorage.flush(storages);
+	}
+}
@@ -0,0 +1,86 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.storage;
+
+import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.storage.fields.FieldInputStream;
+import oughttoprevail.prevailprotocol.storage.fields.FieldOutputStream;
+import oughttoprevail.prevailprotocol.storage.fields.SerDes;
+
+/**
+ * A {@link MailboxMessage} is a message stored in a {@link MailboxStorage} along with it's identifier.
+ */
+public class MailboxMessage
+{
+	public static final SerDes<MailboxMessage> SER_DES = new SerDes<MailboxMessage>()
+	{
+		@Override
+		public void serialize(MailboxMessage mailboxMessage, FieldOutputStream out, Settings settings)
+		{
+			out.writeLong(mailboxMessage.getId());
+			out.writeBoolean(mailboxMessage.getMessage() != null);
+			if(mailboxMessage.getMessage() != null)
+			{
+				out.writeBytes(mailboxMessage.getMessage());
+			}
+		}
+		
+		@Override
+		public MailboxMessage deserialize(FieldInputStream in, Settings settings)
+		{
+			return new MailboxMessage(in.readLong(), in.readBoolean() ? in.readBytes() : null);
+		}
+	};
+	
+	/**
+	 * Identifier of the message, identifiers are given in a monotonically increasing order per mailbox
+	 */
+	private final long id;
+	/**
+	 * The message or {@code null} if this is an acknowledgement of the message with {@link #id}
+	 */
+	private final byte[] message;
+	
+	/**
+	 * Constructs a new {@link MailboxMessage}.
+	 *
+	 * @param id of the message
+	 * @param message content or {@code null} if this is an acknowledgement
+	 */
+	public MailboxMessage(long id, byte[] message)
+	{
+		this.id = id;
+		this.message = message;
+	}
+	
+	/**
+	 * @return the identifier of the message
+	 */
+	public long getId()
+	{
+		return id;
+	}
+	
+	/**
+	 * @return the message content
+	 */
+	public byte[] getMessage()
+	{
+		return message;
+	}
+}
@@ -17,66 +17,579 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 */
 package oughttoprevail.prevailprotocol.storage;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+import oughttoprevail.prevailprotocol.settings.Settings;
 import oughttoprevail.prevailprotocol.storage.fields.JavaSerDes;
+import oughttoprevail.prevailprotocol.storage.fields.LongField;
 
 /**
  * Storage for messages which are represented as a {@code byte[]}.
+ * Messages are kept in an append-only log which is split into segments of at most {@link Settings#getMailboxSegmentSize()} entries, every segment
+ * is it's own storage so an append only rewrites the last segment and a segment whose messages were all acknowledged is deleted as a whole.
+ * Acknowledgements are appended to the log as well (as a {@link MailboxMessage} without a message) which means no segment is ever modified after
+ * it's full, acknowledging all messages up to an identifier only moves a watermark stored in the header.
+ * Appends and acknowledgements are queued in a lock-free queue and written by a single drainer at a time, so concurrent producers are batched
+ * into a single flush instead of contending on the mailbox, a producer who finds another drainer writing only waits for it's own write.
+ * Messages stored before the mailbox was a log (a single list of messages) are moved into the log when the mailbox is loaded.
+ * This class is thread-safe.
  */
 public class MailboxStorage
 {
 	/**
-	 * Messages storage name
+	 * Mailbox directory name
 	 */
-	private static final String MESSAGES_STORAGE = "Messages";
+	private static final String MAILBOX_DIRECTORY = "Mailbox";
+	/**
+	 * Header storage name
+	 */
+	private static final String HEADER_STORAGE = "Header";
+	/**
+	 * Segment storage name
+	 */
+	private static final String SEGMENT_STORAGE = "Segment";
+	/**
+	 * Storage name of the messages stored before the mailbox was a log
+	 */
+	private static final String LEGACY_MESSAGES_STORAGE = "Messages";
 	
 	/**
-	 * Storage to store messages in
+	 * Directory containing the header and all the segments
+	 */
+	private final Directory mailboxDirectory;
+	/**
+	 * Storage of the header (segment range and the next identifier)
+	 */
+	private final Storage headerStorage;
+	/**
+	 * Index of the oldest segment which hasn't been deleted
+	 */
+	private final LongField firstSegment;
+	/**
+	 * Index of the newest segment
+	 */
+	private final LongField lastSegment;
+	/**
+	 * The next identifier at the time the newest segment was started
 	 */
-	private final Storage storage;
+	private final LongField segmentStartId;
 	/**
-	 * List of {@code byte[]} and each {@code byte[]} will be a message
+	 * All messages with an identifier smaller or equal to this were acknowledged
 	 */
-	private final List<byte[]> messages;
+	private final LongField acknowledgedUpTo;
+	/**
+	 * Max amount of entries in a segment
+	 */
+	private final int segmentSize;
+	/**
+	 * The loaded segments ordered from oldest to newest, only accessed by the drainer
+	 */
+	private final Deque<Segment> segments;
+	/**
+	 * Index of message identifier to all the messages which have yet to be acknowledged
+	 */
+	private final ConcurrentSkipListMap<Long, Entry> index;
+	/**
+	 * Appends and acknowledgements which have yet to be written to the log
+	 */
+	private final Queue<Pending> pending;
+	/**
+	 * Lock held by the current drainer
+	 */
+	private final ReentrantLock drainLock;
+	/**
+	 * The identifier the next appended message will get, only accessed by the drainer
+	 */
+	private long nextId;
 	
 	/**
-	 * Constructs a new {@link MailboxStorage} with the specified userDirectory.
+	 * Constructs a new {@link MailboxStorage} with the specified deviceDirectory using the default settings.
 	 *
-	 * @param userDirectory in which the new storage should be created
+	 * @param deviceDirectory in which the mailbox directory should be created
 	 */
-	public MailboxStorage(Directory userDirectory)
+	public MailboxStorage(Directory deviceDirectory)
 	{
-		this.storage = userDirectory.storage(MESSAGES_STORAGE);
-		this.messages = storage.getFieldList(JavaSerDes.BYTE_ARRAY_SER_DES);
+		this(deviceDirectory, Settings.getDefaultSettings());
 	}
 	
 	/**
-	 * Adds the specified message to the messages list.
+	 * Constructs a new {@link MailboxStorage} with the specified deviceDirectory.
 	 *
-	 * @param message to add to the messages list
+	 * @param deviceDirectory in which the mailbox directory should be created
+	 * @param settings to use
 	 */
-	public void addMessage(byte[] message)
+	public MailboxStorage(Directory deviceDirectory, Settings settings)
 	{
-		messages.add(message);
-		storage.flush();
+		this.mailboxDirectory = deviceDirectory.directory(MAILBOX_DIRECTORY);
+		this.headerStorage = mailboxDirectory.storage(HEADER_STORAGE);
+		this.firstSegment = headerStorage.getLongField();
+		this.lastSegment = headerStorage.getLongField();
+		this.segmentStartId = headerStorage.getLongField();
+		this.acknowledgedUpTo = headerStorage.getLongField();
+		this.segmentSize = settings.getMailboxSegmentSize();
+		this.segments = new ArrayDeque<>();
+		this.index = new ConcurrentSkipListMap<>();
+		this.pending = new ConcurrentLinkedQueue<>();
+		this.drainLock = new ReentrantLock();
+		if(!firstSegment.isPresent())
+		{
+			firstSegment.set(0L);
+			lastSegment.set(0L);
+			segmentStartId.set(0L);
+		}
+		if(!acknowledgedUpTo.isPresent())
+		{
+			acknowledgedUpTo.set(-1L);
+		}
+		load();
+		migrateLegacyMessages(deviceDirectory);
 	}
 	
 	/**
-	 * Removes the specified message.
+	 * Moves the messages stored before the mailbox was a log into the log.
+	 * The messages are removed from the old storage only after they were written to the log, so a crash in between delivers them twice instead
+	 * of losing them.
+	 *
+	 * @param deviceDirectory which contains the old storage
+	 */
+	private void migrateLegacyMessages(Directory deviceDirectory)
+	{
+		Storage legacyStorage = deviceDirectory.storage(LEGACY_MESSAGES_STORAGE);
+		List<byte[]> legacyMessages = legacyStorage.getFieldList(JavaSerDes.BYTE_ARRAY_SER_DES);
+		if(legacyMessages.isEmpty())
+		{
+			return;
+		}
+		Pending last = null;
+		for(byte[] message : legacyMessages)
+		{
+			pending.offer(last = new Pending(PendingType.APPEND, message, null, -1));
+		}
+		write(last);
+		legacyMessages.clear();
+		legacyStorage.flush();
+	}
+	
+	/**
+	 * Loads all the segments and replays them into the index.
+	 */
+	private void load()
+	{
+		long nextId = segmentStartId.get();
+		for(long i = firstSegment.get(); i <= lastSegment.get(); i++)
+		{
+			Segment segment = new Segment(i);
+			for(MailboxMessage mailboxMessage : segment.entries)
+			{
+				nextId = Math.max(nextId, mailboxMessage.getId() + 1);
+				if(mailboxMessage.getMessage() == null)
+				{
+					Entry acknowledged = index.remove(mailboxMessage.getId());
+					if(acknowledged != null)
+					{
+						acknowledged.segment.live--;
+					}
+				} else if(mailboxMessage.getId() > acknowledgedUpTo.get())
+				{
+					index.put(mailboxMessage.getId(), new Entry(mailboxMessage, segment));
+					segment.live++;
+				}
+			}
+			segments.add(segment);
+		}
+		this.nextId = nextId;
+	}
+	
+	/**
+	 * Adds the specified message to the mailbox.
+	 *
+	 * @param message to add to the mailbox
+	 * @return the identifier given to the message
+	 */
+	public long addMessage(byte[] message)
+	{
+		Pending append = new Pending(PendingType.APPEND, message, null, -1);
+		pending.offer(append);
+		write(append);
+		return append.id;
+	}
+	
+	/**
+	 * Acknowledges (removes) the message with the specified id.
+	 *
+	 * The acknowledgement is written to the log before this returns.
+	 *
+	 * @param id of the message to acknowledge
+	 * @return whether a message with the specified id was found, {@code false} is returned for a negative id
+	 */
+	public boolean acknowledge(long id)
+	{
+		if(id < 0)
+		{
+			return false;
+		}
+		Entry entry = index.remove(id);
+		if(entry == null)
+		{
+			return false;
+		}
+		Pending acknowledgement = new Pending(PendingType.ACKNOWLEDGE, null, entry, -1);
+		pending.offer(acknowledgement);
+		write(acknowledgement);
+		return true;
+	}
+	
+	/**
+	 * Acknowledges (removes) all the messages with an identifier smaller or equal to the specified id.
+	 * Unlike {@link #acknowledge(long)} this doesn't append anything to the log, it moves a watermark and deletes the segments which are left
+	 * without messages so the cost for each acknowledged message is O(1) amortised.
+	 * The acknowledgement is written before this returns.
+	 *
+	 * @param id of the last message to acknowledge, a negative id acknowledges nothing and an id which wasn't given yet only acknowledges up to
+	 * the newest message so messages added later aren't acknowledged
+	 */
+	public void acknowledgeUpTo(long id)
+	{
+		if(id < 0)
+		{
+			return;
+		}
+		Pending acknowledgement = new Pending(PendingType.ACKNOWLEDGE_UP_TO, null, null, id);
+		pending.offer(acknowledgement);
+		write(acknowledgement);
+	}
+	
+	/**
+	 * Removes the first message whose content equals to the specified message.
+	 * This is an O(n) scan, if the identifier of the message is known {@link #acknowledge(long)} should be used instead.
 	 *
 	 * @param message to remove
 	 */
 	public void removeMessage(byte[] message)
 	{
-		messages.remove(message);
+		for(Entry entry : index.values())
+		{
+			if(Arrays.equals(entry.mailboxMessage.getMessage(), message) && acknowledge(entry.mailboxMessage.getId()))
+			{
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * @param afterId cursor of the messages, only messages with an identifier larger then this are returned ({@code -1} for the first message)
+	 * @param maxCount max amount of messages to return
+	 * @return a list of up to the specified maxCount messages which have yet to be acknowledged ordered by their identifier
+	 */
+	public List<MailboxMessage> getMessages(long afterId, int maxCount)
+	{
+		return getMessages(afterId, maxCount, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * @param afterId cursor of the messages, only messages with an identifier larger then this are returned ({@code -1} for the first message)
+	 * @param maxCount max amount of messages to return
+	 * @param maxBytes max amount of message bytes to return, the first message is always returned even if it's larger then this so a large
+	 * message can't block the mailbox
+	 * @return a list of up to the specified maxCount messages which have yet to be acknowledged ordered by their identifier
+	 */
+	public List<MailboxMessage> getMessages(long afterId, int maxCount, int maxBytes)
+	{
+		List<MailboxMessage> messages = new ArrayList<>();
+		long totalBytes = 0;
+		for(Entry entry : index.tailMap(afterId, false).values())
+		{
+			totalBytes += entry.mailboxMessage.getMessage().length;
+			if(messages.size() >= maxCount || (totalBytes > maxBytes && !messages.isEmpty()))
+			{
+				break;
+			}
+			messages.add(entry.mailboxMessage);
+		}
+		return messages;
 	}
 	
 	/**
-	 * @return a list of messages (each {@code byte[]} in the list is a message)
+	 * @return a list of all messages which have yet to be acknowledged (each {@code byte[]} in the list is a message)
 	 */
 	public List<byte[]> getMessages()
 	{
+		List<byte[]> messages = new ArrayList<>();
+		for(Entry entry : index.values())
+		{
+			messages.add(entry.mailboxMessage.getMessage());
+		}
 		return messages;
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Waits for the specified write (which was already offered to the pending queue) to be written.
+	 * If there is no drainer this becomes the drainer, else this only waits for the drainer to write it.
+	 *
+	 * @param write to wait for
+	 */
+	private void write(Pending write)
+	{
+		drain();
+		write.written.join();
+	}
+	
+	/**
+	 * Drains the pending queue if there isn't a drainer already, the current drainer (if any) writes everything offered before it released the
+	 * lock.
+	 * After the lock is released the queue is checked again since a producer may have offered after we have finished polling but before we have
+	 * released the lock, in that case the producer failed to become the drainer and is waiting for us to write it.
+	 */
+	private void drain()
+	{
+		while(!pending.isEmpty() && drainLock.tryLock())
+		{
+			try
+			{
+				drainPending();
+			} finally
+			{
+				drainLock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Writes all the pending appends and acknowledgements to the log, then deletes the segments that are no longer needed.
+	 * Every written {@link Pending} is completed once it's flush was submitted, if writing fails they are completed with the exception.
+	 * Must only be invoked while holding {@link #drainLock}.
+	 */
+	private void drainPending()
+	{
+		List<Pending> drained = new ArrayList<>();
+		try
+		{
+			drainPending(drained);
+		} catch(RuntimeException e)
+		{
+			for(Pending write : drained)
+			{
+				write.written.completeExceptionally(e);
+			}
+			throw e;
+		}
+		for(Pending write : drained)
+		{
+			write.written.complete(null);
+		}
+	}
+	
+	/**
+	 * Writes all the pending appends and acknowledgements to the log, then deletes the segments that are no longer needed.
+	 * Must only be invoked while holding {@link #drainLock}.
+	 *
+	 * @param drained to add every polled {@link Pending} to
+	 */
+	private void drainPending(List<Pending> drained)
+	{
+		Segment tail = segments.peekLast();
+		boolean tailChanged = false;
+		boolean headerChanged = false;
+		Pending next;
+		while((next = pending.poll()) != null)
+		{
+			drained.add(next);
+			if(next.type == PendingType.ACKNOWLEDGE_UP_TO)
+			{
+				//messages which haven't arrived yet can't be acknowledged, otherwise they would be dropped when the log is loaded again
+				long upTo = Math.min(next.upTo, nextId - 1);
+				if(upTo > acknowledgedUpTo.get())
+				{
+					Map.Entry<Long, Entry> first;
+					while((first = index.firstEntry()) != null && first.getKey() <= upTo)
+					{
+						//the entry may have been acknowledged by another thread after firstEntry
+						if(index.remove(first.getKey(), first.getValue()))
+						{
+							first.getValue().segment.live--;
+						}
+					}
+					acknowledgedUpTo.set(upTo);
+					headerChanged = true;
+				}
+				continue;
+			}
+			if(tail.entries.size() >= segmentSize)
+			{
+				if(tailChanged)
+				{
+					tail.storage.flush();
+				}
+				tail = new Segment(tail.segmentIndex + 1);
+				segments.add(tail);
+				lastSegment.set(tail.segmentIndex);
+				segmentStartId.set(nextId);
+				headerChanged = true;
+			}
+			if(next.type == PendingType.APPEND)
+			{
+				MailboxMessage mailboxMessage = new MailboxMessage(nextId++, next.message);
+				tail.entries.add(mailboxMessage);
+				tail.live++;
+				index.put(mailboxMessage.getId(), new Entry(mailboxMessage, tail));
+				next.id = mailboxMessage.getId();
+			} else
+			{
+				tail.entries.add(new MailboxMessage(next.acknowledged.mailboxMessage.getId(), null));
+				next.acknowledged.segment.live--;
+			}
+			tailChanged = true;
+		}
+		if(tailChanged)
+		{
+			tail.storage.flush();
+		}
+		//the newest segment is never deleted so the next identifier is always recoverable
+		while(segments.size() > 1 && segments.peekFirst().live == 0)
+		{
+			Segment head = segments.pollFirst();
+			head.directory.delete();
+			firstSegment.set(head.segmentIndex + 1);
+			headerChanged = true;
+		}
+		if(headerChanged)
+		{
+			headerStorage.flush();
+		}
+	}
+	
+	/**
+	 * A segment of the log
+	 */
+	private class Segment
+	{
+		/**
+		 * Index of this segment
+		 */
+		private final long segmentIndex;
+		/**
+		 * Directory of this segment
+		 */
+		private final Directory directory;
+		/**
+		 * Storage of this segment
+		 */
+		private final Storage storage;
+		/**
+		 * Entries of this segment
+		 */
+		private final List<MailboxMessage> entries;
+		/**
+		 * Amount of messages in this segment which have yet to be acknowledged
+		 */
+		private int live;
+		
+		/**
+		 * Constructs a new {@link Segment} and loads it's entries.
+		 *
+		 * @param segmentIndex of the segment
+		 */
+		private Segment(long segmentIndex)
+		{
+			this.segmentIndex = segmentIndex;
+			this.directory = mailboxDirectory.directory(Long.toString(segmentIndex));
+			this.storage = directory.storage(SEGMENT_STORAGE);
+			this.entries = storage.getFieldList(MailboxMessage.SER_DES);
+		}
+	}
+	
+	/**
+	 * An index entry of a message which has yet to be acknowledged
+	 */
+	private static class Entry
+	{
+		/**
+		 * The message
+		 */
+		private final MailboxMessage mailboxMessage;
+		/**
+		 * The segment the message was appended to
+		 */
+		private final Segment segment;
+		
+		/**
+		 * Constructs a new {@link Entry}.
+		 */
+		private Entry(MailboxMessage mailboxMessage, Segment segment)
+		{
+			this.mailboxMessage = mailboxMessage;
+			this.segment = segment;
+		}
+	}
+	
+	/**
+	 * Type of a {@link Pending}
+	 */
+	private enum PendingType
+	{
+		/**
+		 * Append of a message
+		 */
+		APPEND,
+		/**
+		 * Acknowledgement of a single message
+		 */
+		ACKNOWLEDGE,
+		/**
+		 * Acknowledgement of all the messages up to an identifier
+		 */
+		ACKNOWLEDGE_UP_TO
+	}
+	
+	/**
+	 * An append or acknowledgement which has yet to be written
+	 */
+	private static class Pending
+	{
+		/**
+		 * What this pending operation is
+		 */
+		private final PendingType type;
+		/**
+		 * Message to append or {@code null} if this is an acknowledgement
+		 */
+		private final byte[] message;
+		/**
+		 * The acknowledged entry or {@code null} if this is an append
+		 */
+		private final Entry acknowledged;
+		/**
+		 * Identifier up to which all messages are acknowledged or {@code -1} if this isn't a {@link PendingType#ACKNOWLEDGE_UP_TO}
+		 */
+		private final long upTo;
+		/**
+		 * Completed once this was written to the log
+		 */
+		private final CompletableFuture<Void> written = new CompletableFuture<>();
+		/**
+		 * Identifier given to the appended message, it's visible to the producer since it's set before {@link #written} is completed
+		 */
+		private long id;
+		
+		/**
+		 * Constructs a new {@link Pending}.
+		 */
+		private Pending(PendingType type, byte[] message, Entry acknowledged, long upTo)
+		{
+			this.type = type;
+			this.message = message;
+			this.acknowledged = acknowledged;
+			this.upTo = upTo;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.storage;
+
+/**
+ * A {@link PackedStorage} stores many records of the same size together, every record acts as it's own {@link Storage} and is updated in place
+ * when it's flushed.
+ * This is useful when there are lots of small storages, such as a storage for every member of a group.
+ */
+public interface PackedStorage
+{
+	/**
+	 * @param index of the record
+	 * @return a {@link Storage} for the record at the specified index
+	 */
+	Storage record(int index);
+}
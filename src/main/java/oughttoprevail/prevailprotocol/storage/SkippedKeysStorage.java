@@ -17,10 +17,16 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 */
 package oughttoprevail.prevailprotocol.storage;
 
-import java.security.MessageDigest;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 import oughttoprevail.prevailprotocol.exception.CounterTooLargeException;
 import oughttoprevail.prevailprotocol.keys.SkippedKey;
@@ -49,27 +55,52 @@ public class SkippedKeysStorage
 	 * List of stored skipped keys
 	 */
 	private final List<SkippedKey> skippedKeys;
+	/**
+	 * Map of skipped key identifier to the skipped keys with that identifier from oldest to newest.
+	 * Every identifier belongs to a single sender (a ratchet key in a session or a signature key in a group) so lookups only go through the
+	 * skipped keys of the sender
+	 */
+	private final Map<ByteBuffer, Deque<SkippedKey>> skippedKeysByKey;
+	/**
+	 * Max amount of skipped keys to store
+	 */
+	private final int maxStoredSkippedKeys;
 	/**
 	 * Lock for changing the {@link #skippedKeys}
 	 */
 	private final Object lock = new Object();
 	
 	/**
-	 * Constructs a new {@link SkippedKeysStorage}.
+	 * Constructs a new {@link SkippedKeysStorage} which stores up to {@link Settings#getMaxStoredSkippedKeys()} skipped keys.
 	 *
 	 * @param directory to create skipped keys storage in
 	 * @param settings to use
 	 */
 	public SkippedKeysStorage(Directory directory, Settings settings)
+	{
+		this(directory, settings.getMaxStoredSkippedKeys(), settings);
+	}
+	
+	/**
+	 * Constructs a new {@link SkippedKeysStorage}.
+	 *
+	 * @param directory to create skipped keys storage in
+	 * @param maxStoredSkippedKeys is the max amount of skipped keys to store
+	 * @param settings to use
+	 */
+	public SkippedKeysStorage(Directory directory, int maxStoredSkippedKeys, Settings settings)
 	{
 		storage = directory.storage(SKIPPED_KEYS_STORAGE);
 		this.settings = settings;
 		this.skippedKeys = storage.getFieldList(SkippedKey.SER_DES);
+		this.skippedKeysByKey = new HashMap<>();
+		this.maxStoredSkippedKeys = maxStoredSkippedKeys;
 		//load and schedule
 		synchronized(lock)
 		{
 			for(SkippedKey storedMessageKeys : skippedKeys)
 			{
+				index(storedMessageKeys);
 				putAndSchedule(storedMessageKeys, storedMessageKeys.getExpirationTime() - System.currentTimeMillis());
 			}
 		}
@@ -124,18 +155,64 @@ public class SkippedKeysStorage
 		long skippedKeyKeepAlive = settings.getSkippedKeyKeepAlive();
 		synchronized(lock)
 		{
-			SkippedKey skippedKey = new SkippedKey(counter,
-					key,
-					authKey,
-					System.currentTimeMillis() + settings.getSkippedKeyKeepAlive(),
-					messageKeys);
-			if(skippedKeys.size() >= settings.getMaxStoredSkippedKeys())
+			add(new SkippedKey(counter, key, authKey, System.currentTimeMillis() + skippedKeyKeepAlive, messageKeys), skippedKeyKeepAlive);
+			storage.flush();
+		}
+	}
+	
+	/**
+	 * Adds the specified skippedKey evicting a skipped key if this is full, then schedules it's removal.
+	 * Must be invoked while holding the {@link #lock}.
+	 *
+	 * @param skippedKey to add
+	 * @param time is in how much time to remove the skipped key
+	 */
+	private void add(SkippedKey skippedKey, long time)
+	{
+		if(skippedKeys.size() >= maxStoredSkippedKeys)
+		{
+			evict();
+		}
+		skippedKeys.add(skippedKey);
+		index(skippedKey);
+		putAndSchedule(skippedKey, time);
+	}
+	
+	/**
+	 * Moves the skipped keys whose key matches the specified keyFilter to the specified target, the moved skipped keys keep their expiration
+	 * time.
+	 *
+	 * @param target to move the skipped keys to
+	 * @param keyFilter to test the keys of the skipped keys with
+	 */
+	public void moveTo(SkippedKeysStorage target, Predicate<byte[]> keyFilter)
+	{
+		synchronized(lock)
+		{
+			List<SkippedKey> moved = new ArrayList<>();
+			for(SkippedKey skippedKey : skippedKeys)
+			{
+				if(keyFilter.test(skippedKey.getKey()))
+				{
+					moved.add(skippedKey);
+				}
+			}
+			if(moved.isEmpty())
+			{
+				return;
+			}
+			long now = System.currentTimeMillis();
+			synchronized(target.lock)
 			{
-				skippedKeys.remove(0);
+				for(SkippedKey skippedKey : moved)
+				{
+					remove(skippedKey);
+					skippedKey.cancelThenGetMessageKeys();
+					target.add(skippedKey, skippedKey.getExpirationTime() - now);
+				}
 			}
-			skippedKeys.add(skippedKey);
+			target.flush();
 			storage.flush();
-			putAndSchedule(skippedKey, skippedKeyKeepAlive);
 		}
 	}
 	
@@ -146,18 +223,113 @@ public class SkippedKeysStorage
 	 */
 	public MessageKeys getSkippedMessageKeys(byte[] key, int counter)
 	{
-		Iterator<SkippedKey> iterator = skippedKeys.iterator();
-		while(iterator.hasNext())
+		//the skipped keys may be shared by messages from different senders which are decrypted concurrently
+		synchronized(lock)
+		{
+			Deque<SkippedKey> keySkippedKeys = skippedKeysByKey.get(ByteBuffer.wrap(key));
+			if(keySkippedKeys == null)
+			{
+				return null;
+			}
+			Iterator<SkippedKey> iterator = keySkippedKeys.iterator();
+			while(iterator.hasNext())
+			{
+				SkippedKey skippedKey = iterator.next();
+				if(skippedKey.getCounter() == counter)
+				{
+					iterator.remove();
+					if(keySkippedKeys.isEmpty())
+					{
+						skippedKeysByKey.remove(ByteBuffer.wrap(key));
+					}
+					skippedKeys.remove(skippedKey);
+					storage.flush();
+					return skippedKey.cancelThenGetMessageKeys();
+				}
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * Removes the specified skippedKey, this should be used instead of removing from {@link #getSkippedKeys()} directly.
+	 * Must be invoked while holding the {@link #getLock()}.
+	 *
+	 * @param skippedKey to remove
+	 */
+	public void remove(SkippedKey skippedKey)
+	{
+		if(skippedKeys.remove(skippedKey))
+		{
+			unindex(skippedKey);
+		}
+	}
+	
+	/**
+	 * Evicts a single skipped key to make room for a new one.
+	 * The oldest skipped key of the identifier with the most skipped keys is evicted, a sender who caused many keys to be skipped is the least
+	 * likely to deliver all of them so it's keys are evicted before the keys of other senders.
+	 * Must be invoked while holding the {@link #lock}.
+	 */
+	private void evict()
+	{
+		Deque<SkippedKey> largest = null;
+		for(Deque<SkippedKey> keySkippedKeys : skippedKeysByKey.values())
+		{
+			if(largest == null || keySkippedKeys.size() > largest.size())
+			{
+				largest = keySkippedKeys;
+			}
+		}
+		if(largest == null)
+		{
+			return;
+		}
+		SkippedKey evicted = largest.peekFirst();
+		remove(evicted);
+		evicted.cancelThenGetMessageKeys();
+	}
+	
+	/**
+	 * Adds the specified skippedKey to the {@link #skippedKeysByKey}.
+	 * Must be invoked while holding the {@link #lock}.
+	 *
+	 * @param skippedKey to add
+	 */
+	private void index(SkippedKey skippedKey)
+	{
+		skippedKeysByKey.computeIfAbsent(ByteBuffer.wrap(skippedKey.getKey()), key -> new ArrayDeque<>()).addLast(skippedKey);
+	}
+	
+	/**
+	 * Removes the specified skippedKey from the {@link #skippedKeysByKey}.
+	 * Must be invoked while holding the {@link #lock}.
+	 *
+	 * @param skippedKey to remove
+	 */
+	private void unindex(SkippedKey skippedKey)
+	{
+		ByteBuffer key = ByteBuffer.wrap(skippedKey.getKey());
+		Deque<SkippedKey> keySkippedKeys = skippedKeysByKey.get(key);
+		if(keySkippedKeys != null && keySkippedKeys.remove(skippedKey) && keySkippedKeys.isEmpty())
+		{
+			skippedKeysByKey.remove(key);
+		}
+	}
+	
+	/**
+	 * Cancels the scheduled removals of all the skipped keys, the skipped keys stay stored and their removals are scheduled again when they are
+	 * loaded again.
+	 */
+	public void cancelExpirations()
+	{
+		synchronized(lock)
 		{
-			SkippedKey skippedKey = iterator.next();
-			if(skippedKey.getCounter() == counter && MessageDigest.isEqual(key, skippedKey.getKey()))
+			for(SkippedKey skippedKey : skippedKeys)
 			{
-				iterator.remove();
-				storage.flush();
-				return skippedKey.cancelThenGetMessageKeys();
+				skippedKey.cancelThenGetMessageKeys();
 			}
 		}
-		return null;
 	}
 	
 	/**
@@ -196,7 +368,7 @@ public class SkippedKeysStorage
 		{
 			synchronized(lock)
 			{
-				this.skippedKeys.remove(skippedKey);
+				remove(skippedKey);
 			}
 			storage.flush();
 		}, time, TimeUnit.MILLISECONDS));
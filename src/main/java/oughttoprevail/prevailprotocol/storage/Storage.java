@@ -24,6 +24,9 @@ import java.util.Queue;
 import oughttoprevail.prevailprotocol.storage.collection.FieldList;
 import oughttoprevail.prevailprotocol.storage.collection.FieldQueue;
 import oughttoprevail.prevailprotocol.storage.fields.Field;
+import oughttoprevail.prevailprotocol.storage.fields.IntField;
+import oughttoprevail.prevailprotocol.storage.fields.JavaSerDes;
+import oughttoprevail.prevailprotocol.storage.fields.LongField;
 import oughttoprevail.prevailprotocol.storage.fields.SerDes;
 
 /**
@@ -38,6 +41,72 @@ public interface Storage extends Flushable
 	 */
 	<T> Field<T> getField(SerDes<T> serDes);
 	
+	/**
+	 * The default implementation wraps a {@link Field} of {@link JavaSerDes#INTEGER_SER_DES} so it still boxes on every set, implementations
+	 * should override this to store the primitive directly.
+	 *
+	 * @return a single {@link IntField} which is stored like a {@link Field} of {@link JavaSerDes#INTEGER_SER_DES}
+	 */
+	default IntField getIntField()
+	{
+		Field<Integer> field = getField(JavaSerDes.INTEGER_SER_DES);
+		Integer initialValue = field.get();
+		IntField intField = new IntField()
+		{
+			@Override
+			public void set(int value)
+			{
+				super.set(value);
+				field.set(value);
+			}
+			
+			@Override
+			public void clear()
+			{
+				super.clear();
+				field.set(null);
+			}
+		};
+		if(initialValue != null)
+		{
+			intField.set(initialValue);
+		}
+		return intField;
+	}
+	
+	/**
+	 * The default implementation wraps a {@link Field} of {@link JavaSerDes#LONG_SER_DES} so it still boxes on every set, implementations
+	 * should override this to store the primitive directly.
+	 *
+	 * @return a single {@link LongField} which is stored like a {@link Field} of {@link JavaSerDes#LONG_SER_DES}
+	 */
+	default LongField getLongField()
+	{
+		Field<Long> field = getField(JavaSerDes.LONG_SER_DES);
+		Long initialValue = field.get();
+		LongField longField = new LongField()
+		{
+			@Override
+			public void set(long value)
+			{
+				super.set(value);
+				field.set(value);
+			}
+			
+			@Override
+			public void clear()
+			{
+				super.clear();
+				field.set(null);
+			}
+		};
+		if(initialValue != null)
+		{
+			longField.set(initialValue);
+		}
+		return longField;
+	}
+	
 	/*
 	NOTE: There is only one or no list/queue per storage and it's always at the end
 	 */
@@ -17,33 +17,23 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 */
 package oughttoprevail.prevailprotocol.storage;
 
-import java.util.List;
+import oughttoprevail.prevailprotocol.settings.Settings;
 
 /**
- * A {@code synchronized} version of {@link MailboxStorage}.
+ * A thread-safe version of {@link MailboxStorage}.
+ *
+ * @deprecated {@link MailboxStorage} is thread-safe on it's own, this is kept so existing code still compiles
  */
+@Deprecated
 public class SynchronizedMailboxStorage extends MailboxStorage
 {
-	public SynchronizedMailboxStorage(Directory userDirectory)
+	public SynchronizedMailboxStorage(Directory deviceDirectory)
 	{
-		super(userDirectory);
+		super(deviceDirectory);
 	}
 	
-	@Override
-	public synchronized void addMessage(byte[] message)
+	public SynchronizedMailboxStorage(Directory deviceDirectory, Settings settings)
 	{
-		super.addMessage(message);
+		super(deviceDirectory, settings);
 	}
-	
-	@Override
-	public synchronized void removeMessage(byte[] message)
-	{
-		super.removeMessage(message);
-	}
-	
-	@Override
-	public synchronized List<byte[]> getMessages()
-	{
-		return super.getMessages();
-	}
-}
\ No newline at end of file
+}
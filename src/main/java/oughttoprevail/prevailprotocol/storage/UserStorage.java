@@ -41,6 +41,10 @@ public class UserStorage
 	 * User data bundles storage name
 	 */
 	private static final String USER_DATA_BUNDLES_STORAGE = "UserDataBundles";
+	/**
+	 * User temporary data bundle storage name
+	 */
+	private static final String USER_TEMP_DATA_BUNDLE_STORAGE = "UserTempDataBundle";
 	
 	/**
 	 * Directory of user storage
@@ -54,6 +58,10 @@ public class UserStorage
 	 * Data bundle storage of this user
 	 */
 	private final Storage dataBundleStorage;
+	/**
+	 * Temporary data bundle storage of this user
+	 */
+	private final Storage tempDataBundleStorage;
 	/**
 	 * Device identifier of this user
 	 */
@@ -67,6 +75,11 @@ public class UserStorage
 	 * used
 	 */
 	private final Field<DataBundle> dataBundle;
+	/**
+	 * The full data bundle stored before the one time pre key count was stored, it can't be read with {@link DataBundle#SER_DES} so it's read
+	 * from it's old field until it's replaced
+	 */
+	private final Field<DataBundle> legacyDataBundle;
 	/**
 	 * The saved data bundle
 	 */
@@ -86,8 +99,10 @@ public class UserStorage
 		this.recipientUsers = storage.getFieldList(RecipientUser.SER_DES);
 		dataBundleStorage = directory.storage(USER_DATA_BUNDLES_STORAGE);
 		//create a saved data bundle, there all the fields are
-		this.dataBundle = dataBundleStorage.getField(DataBundle.SER_DES);
+		this.legacyDataBundle = dataBundleStorage.getField(DataBundle.LEGACY_SER_DES);
 		this.savedDataBundle = new SavedDataBundle(dataBundleStorage);
+		tempDataBundleStorage = directory.storage(USER_TEMP_DATA_BUNDLE_STORAGE);
+		this.dataBundle = tempDataBundleStorage.getField(DataBundle.SER_DES);
 	}
 	
 	/**
@@ -179,6 +194,9 @@ public class UserStorage
 	public void setDataBundle(DataBundle dataBundle)
 	{
 		this.dataBundle.set(dataBundle);
+		tempDataBundleStorage.flush();
+		//the legacy data bundle is replaced, the saved data bundle may have changed too
+		legacyDataBundle.set(null);
 		dataBundleStorage.flush();
 	}
 	
@@ -187,7 +205,8 @@ public class UserStorage
 	 */
 	public DataBundle getDataBundle()
 	{
-		return dataBundle.get();
+		DataBundle dataBundle = this.dataBundle.get();
+		return dataBundle == null ? legacyDataBundle.get() : dataBundle;
 	}
 	
 	/**
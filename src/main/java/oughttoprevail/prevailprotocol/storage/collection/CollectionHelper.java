@@ -17,13 +17,15 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 */
 package oughttoprevail.prevailprotocol.storage.collection;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 
 import oughttoprevail.prevailprotocol.storage.Storage;
 import oughttoprevail.prevailprotocol.storage.fields.CounterField;
 import oughttoprevail.prevailprotocol.storage.fields.Field;
-import oughttoprevail.prevailprotocol.storage.fields.JavaSerDes;
 import oughttoprevail.prevailprotocol.storage.fields.SerDes;
 
 /**
@@ -45,6 +47,11 @@ class CollectionHelper<E>
 	 * Size of the list
 	 */
 	private final CounterField size;
+	/**
+	 * Fields which were emptied by a removal, they are stored after all the used fields so they are reused before new fields are created, else
+	 * the storage would have an empty field in the middle of the collection
+	 */
+	private final Deque<Field<E>> freeFields;
 	
 	/**
 	 * Constructs a new {@link CollectionHelper} using the specified parameters.
@@ -57,8 +64,8 @@ class CollectionHelper<E>
 	{
 		this.serDes = serDes;
 		this.storage = storage;
-		Field<Integer> sizeField = storage.getField(JavaSerDes.INTEGER_SER_DES);
-		this.size = new CounterField(sizeField);
+		this.size = new CounterField(storage);
+		this.freeFields = new ArrayDeque<>();
 		//load all fields
 		int size = this.size.get();
 		for(int i = 0; i < size; i++)
@@ -69,13 +76,13 @@ class CollectionHelper<E>
 	}
 	
 	/**
-	 * Creates a {@link Field} then sets it's value to the specified value and increments the size.
+	 * Reuses a free {@link Field} or creates a new one then sets it's value to the specified value and increments the size.
 	 *
 	 * @return a new {@link Field} with the specified value
 	 */
 	Field<E> getField(E value)
 	{
-		Field<E> field = createField();
+		Field<E> field = freeFields.isEmpty() ? createField() : freeFields.pop();
 		field.set(value);
 		size.increment();
 		return field;
@@ -106,9 +113,26 @@ class CollectionHelper<E>
 		}
 		current.set(null);
 		iterator.remove();
+		freeFields.push(current);
 		decrementSize();
 	}
 	
+	/**
+	 * Frees the specified emptiedFields and decrements the size by their amount, the emptiedFields must be the last used fields ordered by the
+	 * order they were created in.
+	 *
+	 * @param emptiedFields fields which were emptied
+	 */
+	void freed(List<Field<E>> emptiedFields)
+	{
+		//the field created first is reused first
+		for(int i = emptiedFields.size() - 1; i >= 0; i--)
+		{
+			freeFields.push(emptiedFields.get(i));
+			decrementSize();
+		}
+	}
+	
 	/**
 	 * Decrements the stored size
 	 */
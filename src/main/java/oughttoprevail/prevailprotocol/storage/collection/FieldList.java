@@ -78,6 +78,18 @@ public class FieldList<E> extends AbstractList<E>
 		return backingList.get(index).get();
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public E set(int index, E element)
+	{
+		Field<E> field = backingList.get(index);
+		E previousValue = field.get();
+		field.set(element);
+		return previousValue;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -18,9 +18,9 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 package oughttoprevail.prevailprotocol.storage.collection;
 
 import java.util.AbstractQueue;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
 
 import oughttoprevail.prevailprotocol.storage.Storage;
@@ -29,6 +29,9 @@ import oughttoprevail.prevailprotocol.storage.fields.SerDes;
 
 /**
  * A {@link Queue} of type E backed by a {@link Field} for each element in the list.
+ * Fields are stored from the oldest element to the newest, polling empties the oldest field and moves the head forward so a poll never
+ * rewrites the other fields. The emptied fields at the start of the storage are how the head is persisted, once they are at least as many as
+ * the elements the elements are moved to the start so the cost of polling is O(1) amortised.
  *
  * @param <E> type of object to store in the list
  */
@@ -40,9 +43,13 @@ public class FieldQueue<E> extends AbstractQueue<E>
 	private final CollectionHelper<E> collectionHelper;
 	
 	/**
-	 * A backing field queue
+	 * The backing fields ordered from the oldest to the newest, the fields before the {@link #head} were emptied by polls
 	 */
-	private final Deque<Field<E>> backingQueue = new ArrayDeque<>();
+	private final List<Field<E>> backingList = new ArrayList<>();
+	/**
+	 * Index of the oldest element in the {@link #backingList}
+	 */
+	private int head;
 	
 	/**
 	 * Constructs a new {@link FieldQueue}.
@@ -52,7 +59,11 @@ public class FieldQueue<E> extends AbstractQueue<E>
 	 */
 	public FieldQueue(Storage storage, SerDes<E> serDes)
 	{
-		collectionHelper = new CollectionHelper<>(storage, serDes, backingQueue);
+		collectionHelper = new CollectionHelper<>(storage, serDes, backingList);
+		while(head < backingList.size() && backingList.get(head).get() == null)
+		{
+			head++;
+		}
 	}
 	
 	/**
@@ -61,29 +72,28 @@ public class FieldQueue<E> extends AbstractQueue<E>
 	@Override
 	public Iterator<E> iterator()
 	{
-		Iterator<Field<E>> backingIterator = backingQueue.descendingIterator();
+		List<Field<E>> elements = backingList.subList(head, backingList.size());
 		return new Iterator<E>()
 		{
-			private Field<E> current;
+			private int index;
 			
 			@Override
 			public boolean hasNext()
 			{
-				return backingIterator.hasNext();
+				return index < elements.size();
 			}
 			
 			@Override
 			public E next()
 			{
-				current = backingIterator.next();
-				return current.get();
+				return elements.get(index++).get();
 			}
 			
 			@Override
 			public void remove()
 			{
-				collectionHelper.removed(backingIterator);
-				current = null;
+				index--;
+				collectionHelper.removed(elements.subList(index, elements.size()).iterator());
 			}
 		};
 	}
@@ -94,7 +104,7 @@ public class FieldQueue<E> extends AbstractQueue<E>
 	@Override
 	public int size()
 	{
-		return backingQueue.size();
+		return backingList.size() - head;
 	}
 	
 	/**
@@ -104,7 +114,7 @@ public class FieldQueue<E> extends AbstractQueue<E>
 	public boolean offer(E e)
 	{
 		Field<E> field = collectionHelper.getField(e);
-		backingQueue.offerFirst(field);
+		backingList.add(field);
 		return true;
 	}
 	
@@ -114,24 +124,44 @@ public class FieldQueue<E> extends AbstractQueue<E>
 	@Override
 	public E poll()
 	{
-		Field<E> field = backingQueue.pollLast();
-		if(field == null)
+		if(head == backingList.size())
 		{
 			return null;
 		}
+		Field<E> field = backingList.get(head++);
 		E element = field.get();
 		field.set(null);
-		collectionHelper.decrementSize();
+		if(head >= size())
+		{
+			compact();
+		}
 		return element;
 	}
 	
+	/**
+	 * Moves the elements to the first fields and frees the fields after them.
+	 */
+	private void compact()
+	{
+		int size = size();
+		for(int i = 0; i < size; i++)
+		{
+			Field<E> field = backingList.get(head + i);
+			backingList.get(i).set(field.get());
+			field.set(null);
+		}
+		List<Field<E>> emptiedFields = backingList.subList(size, backingList.size());
+		collectionHelper.freed(emptiedFields);
+		emptiedFields.clear();
+		head = 0;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public E peek()
 	{
-		Field<E> field = backingQueue.peekLast();
-		return field == null ? null : field.get();
+		return head == backingList.size() ? null : backingList.get(head).get();
 	}
-}
\ No newline at end of file
+}
@@ -21,42 +21,34 @@ import oughttoprevail.prevailprotocol.storage.Storage;
 import oughttoprevail.prevailprotocol.util.Util;
 
 /**
- * A counter wrapper for {@link Field}.
+ * A counter wrapper for {@link IntField}.
  */
 public class CounterField
 {
 	/**
-	 * A backing {@link Field} which controls the actual storage
+	 * A backing {@link IntField} which controls the actual storage, a missing value is a {@code 0} counter
 	 */
-	private final Field<Integer> backingField;
-	/**
-	 * A primitive value to increase performance (instead of unboxing a primitive value will be used here)
-	 */
-	private int value;
+	private final IntField backingField;
 	
 	/**
 	 * Constructs a new {@link CounterField} to wrap around the specified backingField.
 	 *
 	 * @param backingField to store the counter in
 	 */
-	public CounterField(Field<Integer> backingField)
+	public CounterField(IntField backingField)
 	{
 		this.backingField = backingField;
-		Integer value = backingField.get();
-		if(value != null)
-		{
-			this.value = value;
-		}
 	}
 	
 	/**
-	 * Constructs a new {@link CounterField} which creates a {@link Field} using the specified parameters then invokes {@link #CounterField(Field)}
+	 * Constructs a new {@link CounterField} which creates an {@link IntField} using the specified storage then invokes
+	 * {@link #CounterField(IntField)}
 	 *
 	 * @param storage to create field with
 	 */
 	public CounterField(Storage storage)
 	{
-		this(storage.getField(JavaSerDes.INTEGER_SER_DES));
+		this(storage.getIntField());
 	}
 	
 	/**
@@ -64,7 +56,7 @@ public class CounterField
 	 */
 	public void increment()
 	{
-		backingField.set(++value);
+		backingField.set(backingField.get() + 1);
 	}
 	
 	/**
@@ -72,21 +64,15 @@ public class CounterField
 	 */
 	public void decrement()
 	{
-		backingField.set(--value);
+		backingField.set(backingField.get() - 1);
 	}
 	
-	/**
-	 * A zero boxed {@link Integer} value.
-	 */
-	private static final Integer ZERO = 0;
-	
 	/**
 	 * Resets the counter value to {@code 0}.
 	 */
 	public void reset()
 	{
-		backingField.set(ZERO);
-		value = 0;
+		backingField.set(0);
 	}
 	
 	/**
@@ -94,7 +80,7 @@ public class CounterField
 	 */
 	public int get()
 	{
-		return value;
+		return backingField.get();
 	}
 	
 	/**
@@ -42,6 +42,18 @@ public interface FieldInputStream
 	 */
 	byte[] readBytes();
 	
+	/**
+	 * Reads bytes written by {@link FieldOutputStream#writeFixedBytes(byte[])}.
+	 * By default this is the same as {@link #readBytes()}.
+	 *
+	 * @param length of the bytes, this must be the length of the written bytes
+	 * @return read bytes
+	 */
+	default byte[] readFixedBytes(int length)
+	{
+		return readBytes();
+	}
+	
 	/**
 	 * @return read short
 	 */
@@ -36,6 +36,18 @@ public interface FieldOutputStream
 	 */
 	void writeBytes(byte[] bytes);
 	
+	/**
+	 * Writes the specified bytes, the length of the specified bytes must be known to the reader (usually because it's a key size in
+	 * {@link oughttoprevail.prevailprotocol.settings.Settings}) so implementations may omit it.
+	 * By default this is the same as {@link #writeBytes(byte[])}.
+	 *
+	 * @param bytes to write
+	 */
+	default void writeFixedBytes(byte[] bytes)
+	{
+		writeBytes(bytes);
+	}
+	
 	/**
 	 * Writes the specified b.
 	 *
@@ -41,6 +41,23 @@ public interface JavaSerDes
 			return in.readBytes();
 		}
 	};
+	/**
+	 * A {@link SerDes} which serializes and deserializes {@link Boolean}
+	 */
+	SerDes<Boolean> BOOLEAN_SER_DES = new SerDes<Boolean>()
+	{
+		@Override
+		public void serialize(Boolean aBoolean, FieldOutputStream out, Settings settings)
+		{
+			out.writeBoolean(aBoolean);
+		}
+		
+		@Override
+		public Boolean deserialize(FieldInputStream in, Settings settings)
+		{
+			return in.readBoolean();
+		}
+	};
 	/**
 	 * A {@link SerDes} which serializes and deserializes {@link Integer}
 	 */
@@ -0,0 +1,88 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.storage.fields;
+
+/**
+ * A {@link Field} like class which controls a single primitive {@code long} so setting it doesn't box.
+ * Like a {@link Field} which has a {@code null} value, an {@link LongField} can have no value (see {@link #isPresent()}).
+ */
+public class LongField
+{
+	/**
+	 * The value of the field, {@code 0} if there is no value
+	 */
+	private long value;
+	/**
+	 * Whether the field has a value
+	 */
+	private boolean present;
+	
+	/**
+	 * Constructs a new {@link LongField} without a value.
+	 */
+	public LongField()
+	{
+	}
+	
+	/**
+	 * Constructs a new {@link LongField} with the specified initialValue to be set as the value.
+	 *
+	 * @param initialValue to be set as the value
+	 */
+	public LongField(long initialValue)
+	{
+		this.value = initialValue;
+		this.present = true;
+	}
+	
+	/**
+	 * Sets the specified value as the current value.
+	 *
+	 * @param value to set as the current value
+	 */
+	public void set(long value)
+	{
+		this.value = value;
+		this.present = true;
+	}
+	
+	/**
+	 * Removes the current value.
+	 */
+	public void clear()
+	{
+		this.value = 0;
+		this.present = false;
+	}
+	
+	/**
+	 * @return the current value or {@code 0} if no value is set
+	 */
+	public long get()
+	{
+		return value;
+	}
+	
+	/**
+	 * @return whether a value is set
+	 */
+	public boolean isPresent()
+	{
+		return present;
+	}
+}
@@ -17,17 +17,28 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 */
 package oughttoprevail.prevailprotocol.storage.files;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import oughttoprevail.prevailprotocol.exception.NotMainDirectoryException;
 import oughttoprevail.prevailprotocol.settings.Settings;
 import oughttoprevail.prevailprotocol.storage.Directory;
+import oughttoprevail.prevailprotocol.storage.PackedStorage;
 import oughttoprevail.prevailprotocol.storage.Storage;
 import oughttoprevail.prevailprotocol.util.Consumer;
 
@@ -36,12 +47,41 @@ import oughttoprevail.prevailprotocol.util.Consumer;
  */
 public class FiledDirectory implements Directory
 {
+	/**
+	 * Extension of snapshot files, the snapshot of a directory is stored next to it
+	 */
+	static final String SNAPSHOT_EXTENSION = ".snapshot";
+	/**
+	 * First int of a snapshot file
+	 */
+	private static final int SNAPSHOT_MAGIC = 0x50505331;
+	/**
+	 * Files modified less than this many milliseconds before a snapshot is written aren't in the snapshot, this is longer than the modification
+	 * time granularity of common file systems so a modification after the snapshot always changes the modification time
+	 */
+	static final long SNAPSHOT_SETTLE_TIME = 2000;
+	
 	/**
 	 * Map of path to storage.
-	 * This map helps to guarantee that we wont be loading a file twice and close file channels at bulk.
+	 * This map helps to guarantee that we wont be loading a file twice (even when storages are created concurrently) and close file channels at
+	 * bulk.
 	 * To clear this map {@link #finish()} should be invoked
 	 */
 	private final Map<String, FiledStorage> storageMap;
+	/**
+	 * Map of path to packed storage, same as {@link #storageMap} but for {@link FiledPackedStorage}
+	 */
+	private final Map<String, FiledPackedStorage> packedStorageMap;
+	/**
+	 * Map of path to the loaded snapshot entry of the storage, an entry is removed once it's storage is created or once the next snapshot is
+	 * written (a storage which wasn't created by then is read from it's file)
+	 */
+	private final Map<String, SnapshotEntry> snapshotEntries;
+	/**
+	 * Map of snapshot path to the last modification time of every storage file which was checked when that snapshot was last written, used to
+	 * only read the storage files which changed since then
+	 */
+	private final Map<String, Map<String, Long>> writtenSnapshots;
 	/**
 	 * File path to this directory
 	 */
@@ -54,15 +94,10 @@ public class FiledDirectory implements Directory
 	 */
 	private final String storagePath;
 	
-	//I need to use 2 buffers because writing will happen in the executor while reading will happen in this thread
 	/**
-	 * Writing buffer
+	 * Writing buffer, writing only happens in the executor so a single buffer is shared
 	 */
 	private final ByteBuffer writeByteBuffer;
-	/**
-	 * Read buffer
-	 */
-	private final ByteBuffer readByteBuffer;
 	/**
 	 * An {@link IOException} {@link Consumer} taking exceptions when occurred
 	 */
@@ -87,11 +122,13 @@ public class FiledDirectory implements Directory
 	 */
 	public FiledDirectory(String path, int bufferSize, Consumer<IOException> exceptionCatcher)
 	{
-		this(new HashMap<>(),
+		this(new ConcurrentHashMap<>(),
+				new ConcurrentHashMap<>(),
+				new ConcurrentHashMap<>(),
+				new ConcurrentHashMap<>(),
 				path,
 				"",
 				ByteBuffer.allocateDirect(bufferSize),
-				ByteBuffer.allocateDirect(bufferSize),
 				exceptionCatcher,
 				true,
 				Executors.newSingleThreadExecutor(r -> new Thread(r, "Storage-Executor")),
@@ -99,23 +136,27 @@ public class FiledDirectory implements Directory
 	}
 	
 	/**
-	 * Constructs a new {@link FiledDirectory} with the specified storageMap and specified path.
+	 * Constructs a new {@link FiledDirectory} with the specified storageMap, packedStorageMap, snapshotEntries, writtenSnapshots and specified path.
 	 */
 	private FiledDirectory(Map<String, FiledStorage> storageMap,
+						   Map<String, FiledPackedStorage> packedStorageMap,
+						   Map<String, SnapshotEntry> snapshotEntries,
+						   Map<String, Map<String, Long>> writtenSnapshots,
 						   String path,
 						   String storagePath,
 						   ByteBuffer writeByteBuffer,
-						   ByteBuffer readByteBuffer,
 						   Consumer<IOException> exceptionCatcher,
 						   boolean mainDirectory,
 						   ExecutorService executor,
 						   Settings settings)
 	{
 		this.storageMap = storageMap;
+		this.packedStorageMap = packedStorageMap;
+		this.snapshotEntries = snapshotEntries;
+		this.writtenSnapshots = writtenSnapshots;
 		this.path = path;
 		this.storagePath = storagePath;
 		this.writeByteBuffer = writeByteBuffer;
-		this.readByteBuffer = readByteBuffer;
 		this.exceptionCatcher = exceptionCatcher;
 		this.mainDirectory = mainDirectory;
 		this.executor = executor;
@@ -133,15 +174,23 @@ public class FiledDirectory implements Directory
 	@Override
 	public Storage storage(String storageName)
 	{
-		String newStoragePath = combine(storagePath, storageName);
-		FiledStorage storage;
-		if((storage = storageMap.get(newStoragePath)) != null)
-		{
-			return storage;
-		}
-		storage = new FiledStorage(combine(path, storageName), writeByteBuffer, readByteBuffer, exceptionCatcher, executor, settings);
-		storageMap.put(newStoragePath, storage);
-		return storage;
+		return storageMap.computeIfAbsent(combine(storagePath, storageName),
+				newStoragePath -> new FiledStorage(combine(path, storageName),
+						writeByteBuffer,
+						exceptionCatcher,
+						executor,
+						settings,
+						snapshotEntries.remove(newStoragePath)));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public PackedStorage packedStorage(String storageName, int recordSize)
+	{
+		return packedStorageMap.computeIfAbsent(combine(storagePath, storageName),
+				newStoragePath -> new FiledPackedStorage(combine(path, storageName), recordSize, exceptionCatcher, executor, settings));
 	}
 	
 	/**
@@ -151,16 +200,212 @@ public class FiledDirectory implements Directory
 	public Directory directory(String directoryName)
 	{
 		return new FiledDirectory(storageMap,
+				packedStorageMap,
+				snapshotEntries,
+				writtenSnapshots,
 				combine(path, directoryName),
 				combine(storagePath, directoryName),
 				writeByteBuffer,
-				readByteBuffer,
 				exceptionCatcher,
 				false,
 				executor,
 				settings);
 	}
 	
+	/**
+	 * Writes the snapshot in {@link #executor} so it's written after all the pending flushes.
+	 * The snapshot contains every storage file in the compact format which wasn't modified in the last {@link #SNAPSHOT_SETTLE_TIME}
+	 * milliseconds, it's first written to a temporary file which then replaces the previous snapshot.
+	 * Only the storage files which changed since the previous snapshot are read, the rest are copied from the previous snapshot, and if no
+	 * storage file changed the snapshot isn't written at all.
+	 * The loaded snapshot entries of storages which weren't created since the snapshot was loaded are dropped.
+	 */
+	@Override
+	public void writeSnapshot()
+	{
+		if(executor.isShutdown())
+		{
+			return;
+		}
+		executor.execute(() ->
+		{
+			snapshotEntries.keySet().removeIf(this::isUnderlying);
+			File snapshotFile = new File(path + SNAPSHOT_EXTENSION);
+			File temporaryFile = new File(path + SNAPSHOT_EXTENSION + ".tmp");
+			long settledBefore = System.currentTimeMillis() - SNAPSHOT_SETTLE_TIME;
+			Map<String, File> files = new LinkedHashMap<>();
+			collectSnapshotFiles(new File(path), storagePath, settledBefore, files);
+			Map<String, Long> lastModified = new HashMap<>();
+			for(Map.Entry<String, File> entry : files.entrySet())
+			{
+				lastModified.put(entry.getKey(), entry.getValue().lastModified());
+			}
+			Map<String, Long> written = writtenSnapshots.get(path);
+			if(lastModified.equals(written) && snapshotFile.isFile())
+			{
+				return;
+			}
+			Map<String, SnapshotEntry> previous = new HashMap<>();
+			if(written != null && !readSnapshot(snapshotFile, previous))
+			{
+				//without the previous snapshot every file has to be read again
+				written = null;
+			}
+			try
+			{
+				try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile))))
+				{
+					out.writeInt(SNAPSHOT_MAGIC);
+					for(Map.Entry<String, File> entry : files.entrySet())
+					{
+						String entryStoragePath = entry.getKey();
+						File file = entry.getValue();
+						SnapshotEntry previousEntry = previous.get(entryStoragePath);
+						byte[] content;
+						if(previousEntry != null && previousEntry.matches(file))
+						{
+							content = previousEntry.getContent();
+						} else if(written != null && lastModified.get(entryStoragePath).equals(written.get(entryStoragePath)))
+						{
+							//the file didn't change and it wasn't in the previous snapshot, so it's still not in the compact format
+							continue;
+						} else
+						{
+							content = new byte[(int) file.length()];
+							try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r"))
+							{
+								randomAccessFile.readFully(content);
+							}
+						}
+						//packed storages and storages which weren't flushed since the compact format was added are read from their files
+						if(content.length == 0 || content[0] != FiledStorage.COMPACT_FORMAT)
+						{
+							continue;
+						}
+						out.writeBoolean(true);
+						out.writeUTF(entryStoragePath);
+						out.writeLong(lastModified.get(entryStoragePath));
+						out.writeInt(content.length);
+						out.write(content);
+					}
+					out.writeBoolean(false);
+				}
+				if(!temporaryFile.renameTo(snapshotFile))
+				{
+					throw new IOException("Failed to rename " + temporaryFile.getAbsolutePath() + " to " + snapshotFile.getAbsolutePath() + "!");
+				}
+				writtenSnapshots.put(path, lastModified);
+			} catch(IOException e)
+			{
+				exceptionCatcher.accept(e);
+			}
+		});
+	}
+	
+	/**
+	 * Puts the specified file into the specified files if it's a storage file which settled before the specified settledBefore, if the specified
+	 * file is a directory this method is invoked again with all the directory's files.
+	 *
+	 * @param file to collect
+	 * @param storagePath of the file to collect
+	 * @param settledBefore the latest modification time of files to collect
+	 * @param files to put the storage path (without the extension) and file of every collected file in
+	 */
+	private void collectSnapshotFiles(File file, String storagePath, long settledBefore, Map<String, File> files)
+	{
+		File[] children = file.listFiles();
+		if(children != null)
+		{
+			for(File child : children)
+			{
+				collectSnapshotFiles(child, combine(storagePath, child.getName()), settledBefore, files);
+			}
+			return;
+		}
+		long length = file.length();
+		if(!storagePath.endsWith(FiledStorage.EXTENSION) || file.lastModified() > settledBefore || length == 0 || length > Integer.MAX_VALUE)
+		{
+			return;
+		}
+		files.put(storagePath.substring(0, storagePath.length() - FiledStorage.EXTENSION.length()), file);
+	}
+	
+	/**
+	 * Reads all the entries of the specified snapshotFile into the specified entries.
+	 *
+	 * @param snapshotFile to read
+	 * @param entries to put every entry in
+	 * @return whether the whole snapshot was read
+	 */
+	private boolean readSnapshot(File snapshotFile, Map<String, SnapshotEntry> entries)
+	{
+		if(!snapshotFile.isFile())
+		{
+			return false;
+		}
+		try
+		{
+			byte[] snapshot;
+			try(RandomAccessFile randomAccessFile = new RandomAccessFile(snapshotFile, "r"))
+			{
+				snapshot = new byte[(int) randomAccessFile.length()];
+				randomAccessFile.readFully(snapshot);
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+			if(in.readInt() != SNAPSHOT_MAGIC)
+			{
+				throw new IOException(snapshotFile.getAbsolutePath() + " isn't a snapshot!");
+			}
+			while(in.readBoolean())
+			{
+				String entryStoragePath = in.readUTF();
+				long lastModified = in.readLong();
+				byte[] content = new byte[in.readInt()];
+				in.readFully(content);
+				entries.put(entryStoragePath, new SnapshotEntry(lastModified, content));
+			}
+			return true;
+		} catch(EOFException e)
+		{
+			//the entries read so far are still valid since every entry is checked against it's file
+			exceptionCatcher.accept(new IOException(snapshotFile.getAbsolutePath() + " is truncated!", e));
+		} catch(IOException e)
+		{
+			exceptionCatcher.accept(e);
+		}
+		return false;
+	}
+	
+	/**
+	 * Reads the whole snapshot with a single read in {@link #executor} so a snapshot which is still being written is finished first.
+	 */
+	@Override
+	public void loadSnapshot()
+	{
+		try
+		{
+			executor.submit(() ->
+			{
+				Map<String, SnapshotEntry> entries = new HashMap<>();
+				readSnapshot(new File(path + SNAPSHOT_EXTENSION), entries);
+				for(Map.Entry<String, SnapshotEntry> entry : entries.entrySet())
+				{
+					//storages which were already created are read from their files
+					if(!storageMap.containsKey(entry.getKey()))
+					{
+						snapshotEntries.put(entry.getKey(), entry.getValue());
+					}
+				}
+			}).get();
+		} catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		} catch(ExecutionException e)
+		{
+			exceptionCatcher.accept(new IOException("Failed to load the snapshot of " + path + "!", e.getCause()));
+		}
+	}
+	
 	/**
 	 * @param path the path to combine with the name
 	 * @param name to combine with the specified path
@@ -180,6 +425,49 @@ public class FiledDirectory implements Directory
 	{
 		//we have to delete the path in the same thread because we are possibly going to remove from the storage map
 		delete(new File(path), storagePath);
+		File snapshotFile = new File(path + SNAPSHOT_EXTENSION);
+		if(snapshotFile.exists() && !snapshotFile.delete())
+		{
+			exceptionCatcher.accept(new IOException("Failed to delete " + snapshotFile.getAbsolutePath() + "!"));
+		}
+		snapshotEntries.keySet().removeIf(this::isUnderlying);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * The storages are closed after their pending flushes have finished.
+	 */
+	@Override
+	public void close()
+	{
+		storageMap.entrySet().removeIf(entry ->
+		{
+			if(!isUnderlying(entry.getKey()))
+			{
+				return false;
+			}
+			entry.getValue().close();
+			return true;
+		});
+		packedStorageMap.entrySet().removeIf(entry ->
+		{
+			if(!isUnderlying(entry.getKey()))
+			{
+				return false;
+			}
+			entry.getValue().close();
+			return true;
+		});
+		snapshotEntries.keySet().removeIf(this::isUnderlying);
+	}
+	
+	/**
+	 * @param entryStoragePath storage path of a storage
+	 * @return whether the storage with the specified entryStoragePath is in this directory or an underlying directory
+	 */
+	private boolean isUnderlying(String entryStoragePath)
+	{
+		return storagePath.isEmpty() || entryStoragePath.startsWith(storagePath + File.separatorChar);
 	}
 	
 	/**
@@ -194,11 +482,21 @@ public class FiledDirectory implements Directory
 		File[] children = file.listFiles();
 		if(children == null)
 		{
+			//storages are mapped without the file extension
+			if(storagePath.endsWith(FiledStorage.EXTENSION))
+			{
+				storagePath = storagePath.substring(0, storagePath.length() - FiledStorage.EXTENSION.length());
+			}
 			FiledStorage filedStorage = storageMap.remove(storagePath);
 			if(filedStorage != null)
 			{
 				filedStorage.close();
 			}
+			FiledPackedStorage filedPackedStorage = packedStorageMap.remove(storagePath);
+			if(filedPackedStorage != null)
+			{
+				filedPackedStorage.close();
+			}
 		} else
 		{
 			for(File child : children)
@@ -206,7 +504,8 @@ public class FiledDirectory implements Directory
 				delete(child, combine(storagePath, child.getName()));
 			}
 		}
-		if(!file.delete())
+		//a file which doesn't exist (such as a directory whose storages were never flushed) has nothing to delete
+		if(!file.delete() && file.exists())
 		{
 			Throwable cause = detectReasonDeletionFailed(file);
 			exceptionCatcher.accept(new IOException("Failed to delete " + file.getAbsolutePath() + "!", cause));
@@ -259,6 +558,12 @@ public class FiledDirectory implements Directory
 			storage.close();
 		}
 		storageMap.clear();
+		for(FiledPackedStorage packedStorage : packedStorageMap.values())
+		{
+			packedStorage.close();
+		}
+		packedStorageMap.clear();
+		snapshotEntries.clear();
 		executor.shutdown();
 	}
 }
\ No newline at end of file
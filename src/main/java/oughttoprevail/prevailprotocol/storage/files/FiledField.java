@@ -27,7 +27,7 @@ import oughttoprevail.prevailprotocol.storage.fields.SerDes;
  *
  * @param <T> type of field
  */
-class FiledField<T> extends Field<T>
+class FiledField<T> extends Field<T> implements FiledValue
 {
 	/**
 	 * The field serializer and deserializer
@@ -63,4 +63,32 @@ class FiledField<T> extends Field<T>
 		out.writeBoolean(true);
 		serDes.serialize(value, out, settings);
 	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object snapshot()
+	{
+		return get();
+	}
+	
+	/**
+	 * Writes the specified snapshot without a presence boolean.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public void write(Object snapshot, ByteBufferOutput out, Settings settings)
+	{
+		serDes.serialize((T) snapshot, out, settings);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void clear()
+	{
+		set(null);
+	}
 }
\ No newline at end of file
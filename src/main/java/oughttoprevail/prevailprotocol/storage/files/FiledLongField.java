@@ -0,0 +1,48 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.storage.files;
+
+import oughttoprevail.prevailprotocol.rw.ByteBufferOutput;
+import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.storage.fields.LongField;
+
+/**
+ * A file writable {@link LongField}, it's stored the same way as a {@link FiledField} of
+ * {@link oughttoprevail.prevailprotocol.storage.fields.JavaSerDes#LONG_SER_DES}.
+ */
+class FiledLongField extends LongField implements FiledValue
+{
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Object snapshot()
+	{
+		//the field itself marks a present value so flushing doesn't box
+		return isPresent() ? this : null;
+	}
+	
+	/**
+	 * Writes the current value.
+	 */
+	@Override
+	public void write(Object snapshot, ByteBufferOutput out, Settings settings)
+	{
+		out.writeLong(get());
+	}
+}
@@ -0,0 +1,316 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.storage.files;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import oughttoprevail.prevailprotocol.exception.NotEnoughBytesException;
+import oughttoprevail.prevailprotocol.rw.ByteBufferInput;
+import oughttoprevail.prevailprotocol.rw.ByteBufferOutput;
+import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.storage.PackedStorage;
+import oughttoprevail.prevailprotocol.storage.Storage;
+import oughttoprevail.prevailprotocol.storage.fields.Field;
+import oughttoprevail.prevailprotocol.storage.fields.SerDes;
+import oughttoprevail.prevailprotocol.util.Consumer;
+
+/**
+ * A file base implementation of {@link PackedStorage}.
+ * All records are stored in a single file, every record has a fixed size slot in the file so when a record is flushed only it's slot is
+ * written.
+ */
+public class FiledPackedStorage implements PackedStorage
+{
+	/**
+	 * The {@link ExecutorService} to perform flush operations with
+	 */
+	private final ExecutorService flushExecutor;
+	/**
+	 * Settings to use
+	 */
+	private final Settings settings;
+	/**
+	 * An {@link IOException} {@link Consumer} taking exceptions when occurred
+	 */
+	private final Consumer<IOException> exceptionCatcher;
+	/**
+	 * FileChannel to be used for reading and writing
+	 */
+	private final FileChannel fileChannel;
+	/**
+	 * Size of every record's slot in bytes
+	 */
+	private final int recordSize;
+	/**
+	 * The content of the file when this storage was opened, records read their fields from it
+	 */
+	private final ByteBuffer initialRecords;
+	/**
+	 * Writing buffer of a single record, writing only happens in the executor so a single buffer is shared by all records
+	 */
+	private final ByteBuffer writeByteBuffer;
+	/**
+	 * The record output (writer)
+	 */
+	private final ByteBufferOutput out;
+	/**
+	 * Whether this storage has been closed
+	 */
+	private volatile boolean closed;
+	
+	/**
+	 * Constructs a new {@link FiledPackedStorage} with the specified parameters.
+	 *
+	 * @param path for the file
+	 * @param recordSize the maximum amount of bytes the fields of a single record take
+	 * @param exceptionCatcher to take {@link IOException} exceptions
+	 * @param flushExecutor to perform flush operations with
+	 * @param settings to use
+	 */
+	public FiledPackedStorage(String path,
+							  int recordSize,
+							  Consumer<IOException> exceptionCatcher,
+							  ExecutorService flushExecutor,
+							  Settings settings)
+	{
+		this.recordSize = recordSize;
+		this.exceptionCatcher = exceptionCatcher;
+		this.flushExecutor = flushExecutor;
+		this.settings = settings;
+		try
+		{
+			File file = new File(path + FiledStorage.EXTENSION);
+			//make sure the parent file is created since you can't create the file if the parent file is missing
+			File parentFile = file.getParentFile();
+			if(parentFile != null)
+			{
+				parentFile.mkdirs();
+			}
+			file.createNewFile();
+			fileChannel = new RandomAccessFile(file, FiledStorage.MODE).getChannel();
+			//records are small so all of them are read at once instead of seeking for every record
+			initialRecords = ByteBuffer.allocate((int) fileChannel.size());
+			while(initialRecords.hasRemaining() && fileChannel.read(initialRecords) != -1)
+			{
+				//keep reading until the buffer is full
+			}
+			initialRecords.clear();
+		} catch(IOException e)
+		{
+			exceptionCatcher.accept(e);
+			throw new IllegalStateException("IOException thrown when creating FiledPackedStorage", e);
+		}
+		writeByteBuffer = ByteBuffer.allocate(recordSize);
+		out = new ByteBufferOutput(writeByteBuffer, settings)
+		{
+			@Override
+			protected void write(int bytes)
+			{
+				if(getWriteByteBuffer().remaining() < bytes)
+				{
+					throw new BufferOverflowException();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Storage record(int index)
+	{
+		long position = (long) index * recordSize;
+		ByteBuffer slot = null;
+		if(position + recordSize <= initialRecords.capacity())
+		{
+			slot = initialRecords.duplicate();
+			slot.position((int) position);
+			slot.limit((int) position + recordSize);
+			slot = slot.slice();
+		}
+		return new FiledRecord(position, slot);
+	}
+	
+	/**
+	 * Writes the specified record's fields into it's slot in the file.
+	 *
+	 * @param record to write
+	 */
+	private void write(FiledRecord record)
+	{
+		//clear the slot leftovers so fields which are no longer written are read as missing
+		Arrays.fill(writeByteBuffer.array(), (byte) 0);
+		writeByteBuffer.clear();
+		try
+		{
+			for(FiledField<?> filedField : record.fields)
+			{
+				filedField.write(out, settings);
+			}
+		} catch(BufferOverflowException e)
+		{
+			exceptionCatcher.accept(new IOException("Record at " + record.position + " is larger than " + recordSize + " bytes!", e));
+			return;
+		}
+		writeByteBuffer.clear();
+		long position = record.position;
+		try
+		{
+			while(writeByteBuffer.hasRemaining())
+			{
+				position += fileChannel.write(writeByteBuffer, position);
+			}
+		} catch(IOException e)
+		{
+			exceptionCatcher.accept(e);
+		}
+	}
+	
+	/**
+	 * Closes the underlying file channel if it wasn't already closed after all pending flushes have finished
+	 */
+	void close()
+	{
+		//if this is already closed we shouldn't closed again
+		if(closed)
+		{
+			return;
+		}
+		closed = true;
+		try
+		{
+			//the executor runs tasks in order so the channel is closed after all the pending flushes
+			flushExecutor.submit(() ->
+			{
+				try
+				{
+					fileChannel.close();
+				} catch(IOException e)
+				{
+					exceptionCatcher.accept(e);
+				}
+			}).get();
+		} catch(InterruptedException ignored)
+		{
+			Thread.currentThread().interrupt();
+		} catch(ExecutionException | RejectedExecutionException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * A single record of a {@link FiledPackedStorage}.
+	 */
+	private class FiledRecord implements Storage
+	{
+		/**
+		 * Position of this record's slot in the file
+		 */
+		private final long position;
+		/**
+		 * Input of the record's slot when the storage was opened or {@code null} if the record didn't exist
+		 */
+		private final ByteBufferInput in;
+		/**
+		 * List of fields in this record
+		 */
+		private final List<FiledField<?>> fields;
+		/**
+		 * The current flush future
+		 */
+		private Future<?> currentFlush;
+		
+		/**
+		 * Constructs a new {@link FiledRecord}.
+		 *
+		 * @param position of this record's slot in the file
+		 * @param slot content of the record's slot when the storage was opened or {@code null} if the record didn't exist
+		 */
+		private FiledRecord(long position, ByteBuffer slot)
+		{
+			this.position = position;
+			this.in = slot == null ? null : new ByteBufferInput(slot, settings)
+			{
+				@Override
+				protected void read(ByteBuffer byteBuffer, int bytes)
+				{
+					if(byteBuffer.remaining() < bytes)
+					{
+						throw new NotEnoughBytesException();
+					}
+				}
+			};
+			this.fields = new CopyOnWriteArrayList<>();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public <T> Field<T> getField(SerDes<T> serDes)
+		{
+			//try to get value from input
+			T value = null;
+			if(in != null && in.hasNext())
+			{
+				try
+				{
+					value = serDes.deserialize(in, settings);
+				} catch(NotEnoughBytesException ignored)
+				{
+				}
+			}
+			FiledField<T> filedField = new FiledField<>(serDes, value);
+			fields.add(filedField);
+			return filedField;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public synchronized void flush()
+		{
+			//if the storage is closed we can't flush anymore
+			if(closed)
+			{
+				return;
+			}
+			//try to cancel the last flush if it's has still yet to run
+			if(currentFlush != null && !currentFlush.isDone())
+			{
+				currentFlush.cancel(false);
+			}
+			currentFlush = flushExecutor.submit(() -> write(this));
+		}
+	}
+}
@@ -22,7 +22,11 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -30,8 +34,11 @@ import java.util.concurrent.Future;
 
 import oughttoprevail.prevailprotocol.exception.NotEnoughBytesException;
 import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.storage.FlushBatch;
 import oughttoprevail.prevailprotocol.storage.Storage;
 import oughttoprevail.prevailprotocol.storage.fields.Field;
+import oughttoprevail.prevailprotocol.storage.fields.IntField;
+import oughttoprevail.prevailprotocol.storage.fields.LongField;
 import oughttoprevail.prevailprotocol.storage.fields.SerDes;
 import oughttoprevail.prevailprotocol.storage.files.rw.StorageFileInput;
 import oughttoprevail.prevailprotocol.storage.files.rw.StorageFileOutput;
@@ -45,11 +52,20 @@ public class FiledStorage implements Storage
 	/**
 	 * Extension for files created here
 	 */
-	private static final String EXTENSION = ".dat";
+	static final String EXTENSION = ".dat";
 	/**
 	 * The mode {@link RandomAccessFile} should use
 	 */
-	private static final String MODE = "rw";
+	static final String MODE = "rw";
+	/**
+	 * First byte of a file in the compact format.
+	 * A compact file is this byte, a varint amount of fields, a presence bitmap of the fields and then the non {@code null} fields where every
+	 * {@code byte[]} has a varint length except key material (see {@link oughttoprevail.prevailprotocol.storage.fields.FieldOutputStream#writeFixedBytes})
+	 * which has no length.
+	 * Files written before the compact format start with a presence boolean ({@code 0} or {@code 1}), they are still read and are rewritten in
+	 * the compact format on the next flush.
+	 */
+	public static final byte COMPACT_FORMAT = 0x50;
 	
 	/**
 	 * The {@link ExecutorService} to perform flush operations with
@@ -72,17 +88,21 @@ public class FiledStorage implements Storage
 	 */
 	private final StorageFileOutput out;
 	/**
-	 * The file input (reader)
+	 * The file input (reader) or {@code null} once all the fields in the file were read so the file content isn't kept
 	 */
-	private final StorageFileInput in;
+	private StorageFileInput in;
 	/**
 	 * List of fields in this storage
 	 */
-	private final List<FiledField> fields;
+	private final List<FiledValue> fields;
 	/**
 	 * The current flush future
 	 */
 	private Future<?> currentFlush;
+	/**
+	 * Whether the {@link #currentFlush} also flushes other storages (see {@link #flush(Collection)}), if so it mustn't be cancelled
+	 */
+	private boolean sharedFlush;
 	/**
 	 * Whether this storage has been closed
 	 */
@@ -93,17 +113,36 @@ public class FiledStorage implements Storage
 	 *
 	 * @param path for the file
 	 * @param writeByteBuffer to write with
-	 * @param readByteBuffer to read with
 	 * @param exceptionCatcher to take {@link IOException} exceptions
 	 * @param flushExecutor to perform flush operations with
 	 * @param settings to use
 	 */
 	public FiledStorage(String path,
 						ByteBuffer writeByteBuffer,
-						ByteBuffer readByteBuffer,
 						Consumer<IOException> exceptionCatcher,
 						ExecutorService flushExecutor,
 						Settings settings)
+	{
+		this(path, writeByteBuffer, exceptionCatcher, flushExecutor, settings, null);
+	}
+	
+	/**
+	 * Constructs a new {@link FiledStorage} with the specified parameters which is read from the specified snapshotEntry if the file wasn't
+	 * modified since the snapshot was written.
+	 *
+	 * @param path for the file
+	 * @param writeByteBuffer to write with
+	 * @param exceptionCatcher to take {@link IOException} exceptions
+	 * @param flushExecutor to perform flush operations with
+	 * @param settings to use
+	 * @param snapshotEntry of the file or {@code null} if there isn't one
+	 */
+	FiledStorage(String path,
+				 ByteBuffer writeByteBuffer,
+				 Consumer<IOException> exceptionCatcher,
+				 ExecutorService flushExecutor,
+				 Settings settings,
+				 SnapshotEntry snapshotEntry)
 	{
 		this.exceptionCatcher = exceptionCatcher;
 		this.flushExecutor = flushExecutor;
@@ -124,7 +163,18 @@ public class FiledStorage implements Storage
 			fileChannel = new RandomAccessFile(file, MODE).getChannel();
 			
 			out = new StorageFileOutput(fileChannel, writeByteBuffer, exceptionCatcher, settings);
-			in = new StorageFileInput(fileChannel, readByteBuffer, exceptionCatcher, settings);
+			byte[] content;
+			if(snapshotEntry != null && snapshotEntry.matches(file))
+			{
+				//the whole file is in the snapshot so the channel is only needed for writing
+				fileChannel.position(fileChannel.size());
+				content = snapshotEntry.getContent();
+			} else
+			{
+				content = readContent(fileChannel);
+			}
+			in = new StorageFileInput(fileChannel, content, exceptionCatcher, settings);
+			releaseInputIfFinished();
 			//create a thread-safe list
 			fields = new CopyOnWriteArrayList<>();
 		} catch(IOException e)
@@ -134,6 +184,49 @@ public class FiledStorage implements Storage
 		}
 	}
 	
+	/**
+	 * Reads the whole file with a single read into an array of the file's size, so the memory used for reading is only held while the fields are
+	 * read instead of every open storage holding a read buffer.
+	 *
+	 * @param fileChannel to read, after this it's positioned at the end of the file
+	 * @return the content of the file
+	 */
+	private static byte[] readContent(FileChannel fileChannel) throws IOException
+	{
+		long size = fileChannel.size();
+		if(size > Integer.MAX_VALUE)
+		{
+			throw new IOException("File is too large to be a storage! (Size: " + size + ")");
+		}
+		byte[] content = new byte[(int) size];
+		ByteBuffer contentBuffer = ByteBuffer.wrap(content);
+		while(contentBuffer.hasRemaining() && fileChannel.read(contentBuffer) != -1)
+		{
+		}
+		return content;
+	}
+	
+	/**
+	 * @return whether there is a next field value to read
+	 */
+	private boolean hasNext()
+	{
+		StorageFileInput in = this.in;
+		return in != null && in.hasNext();
+	}
+	
+	/**
+	 * Drops the {@link #in} once every field in the file was read.
+	 */
+	private void releaseInputIfFinished()
+	{
+		StorageFileInput in = this.in;
+		if(in != null && in.isFinished())
+		{
+			this.in = null;
+		}
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -142,7 +235,7 @@ public class FiledStorage implements Storage
 	{
 		//try to get value from input
 		T value = null;
-		if(in.hasNext())
+		if(hasNext())
 		{
 			try
 			{
@@ -151,11 +244,54 @@ public class FiledStorage implements Storage
 			{
 			}
 		}
+		releaseInputIfFinished();
 		FiledField<T> filedField = new FiledField<>(serDes, value);
 		fields.add(filedField);
 		return filedField;
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IntField getIntField()
+	{
+		FiledIntField filedIntField = new FiledIntField();
+		if(hasNext())
+		{
+			try
+			{
+				filedIntField.set(in.readInt());
+			} catch(NotEnoughBytesException ignored)
+			{
+			}
+		}
+		releaseInputIfFinished();
+		fields.add(filedIntField);
+		return filedIntField;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public LongField getLongField()
+	{
+		FiledLongField filedLongField = new FiledLongField();
+		if(hasNext())
+		{
+			try
+			{
+				filedLongField.set(in.readLong());
+			} catch(NotEnoughBytesException ignored)
+			{
+			}
+		}
+		releaseInputIfFinished();
+		fields.add(filedLongField);
+		return filedLongField;
+	}
+	
 	/**
 	 * Closes the underlying file channel if it wasn't already closed after the pending flush (if any) has finished
 	 */
@@ -189,9 +325,9 @@ public class FiledStorage implements Storage
 		{
 			exceptionCatcher.accept(e);
 		}
-		for(FiledField<?> field : fields)
+		for(FiledValue field : fields)
 		{
-			field.set(null);
+			field.clear();
 		}
 		fields.clear();
 	}
@@ -207,28 +343,101 @@ public class FiledStorage implements Storage
 		{
 			return;
 		}
-		//try to cancel the last flush if it's has still yet to run
-		if(hasFlushNotRan())
+		//a running batch flushes this with the rest of it's storages once it's committed
+		FlushBatch batch = FlushBatch.current();
+		if(batch != null)
 		{
-			currentFlush.cancel(false);
+			batch.add(this);
+			return;
 		}
+		cancelFlush();
 		//submit a flush to the queue
-		currentFlush = flushExecutor.submit(() ->
+		currentFlush = flushExecutor.submit(this::write);
+	}
+	
+	/**
+	 * Flushes all the specified storages, the storages which share a flush executor are written by a single flush.
+	 *
+	 * @param storages to flush
+	 */
+	public static void flush(Collection<FiledStorage> storages)
+	{
+		Map<ExecutorService, List<FiledStorage>> byExecutor = new HashMap<>();
+		for(FiledStorage storage : storages)
 		{
-			try
+			if(!storage.closed)
 			{
-				fileChannel.truncate(0);
-			} catch(IOException e)
+				byExecutor.computeIfAbsent(storage.flushExecutor, flushExecutor -> new ArrayList<>()).add(storage);
+			}
+		}
+		for(Map.Entry<ExecutorService, List<FiledStorage>> entry : byExecutor.entrySet())
+		{
+			List<FiledStorage> executorStorages = entry.getValue();
+			for(FiledStorage storage : executorStorages)
 			{
-				exceptionCatcher.accept(e);
-				return;
+				storage.cancelFlush();
 			}
-			for(FiledField filedField : fields)
+			Future<?> flush = entry.getKey().submit(() ->
 			{
-				filedField.write(out, settings);
+				for(FiledStorage storage : executorStorages)
+				{
+					storage.write();
+				}
+			});
+			for(FiledStorage storage : executorStorages)
+			{
+				storage.currentFlush = flush;
+				storage.sharedFlush = true;
 			}
-			out.flushIfRemaining();
-		});
+		}
+	}
+	
+	/**
+	 * Cancels the last flush if it has still yet to run and it doesn't flush other storages.
+	 */
+	private void cancelFlush()
+	{
+		if(hasFlushNotRan() && !sharedFlush)
+		{
+			currentFlush.cancel(false);
+		}
+		sharedFlush = false;
+	}
+	
+	/**
+	 * Writes all the fields of this storage into the file.
+	 */
+	private void write()
+	{
+		try
+		{
+			fileChannel.truncate(0);
+		} catch(IOException e)
+		{
+			exceptionCatcher.accept(e);
+			return;
+		}
+		//take the values first so the presence bitmap matches what's written
+		FiledValue[] fields = this.fields.toArray(new FiledValue[0]);
+		Object[] values = new Object[fields.length];
+		byte[] presence = new byte[(fields.length + 7) >>> 3];
+		for(int i = 0; i < fields.length; i++)
+		{
+			values[i] = fields[i].snapshot();
+			if(values[i] != null)
+			{
+				presence[i >>> 3] |= 1 << (i & 7);
+			}
+		}
+		out.writeHeader(fields.length, presence);
+		for(int i = 0; i < fields.length; i++)
+		{
+			if(values[i] != null)
+			{
+				fields[i].write(values[i], out, settings);
+			}
+		}
+		out.flushIfRemaining();
 	}
 	
 	/**
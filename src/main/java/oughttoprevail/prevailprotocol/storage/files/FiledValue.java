@@ -0,0 +1,48 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.storage.files;
+
+import oughttoprevail.prevailprotocol.rw.ByteBufferOutput;
+import oughttoprevail.prevailprotocol.settings.Settings;
+
+/**
+ * A value of a {@link FiledStorage}, either an object {@link FiledField} or a primitive field.
+ */
+interface FiledValue
+{
+	/**
+	 * The snapshot is taken before the presence bitmap is written so a value which is removed while flushing is still written.
+	 *
+	 * @return the value to pass to {@link #write(Object, ByteBufferOutput, Settings)} or {@code null} if there is no value
+	 */
+	Object snapshot();
+	
+	/**
+	 * Writes the specified snapshot to the specified out.
+	 *
+	 * @param snapshot which was returned by {@link #snapshot()}, must not be {@code null}
+	 * @param out to write the value to
+	 * @param settings to use
+	 */
+	void write(Object snapshot, ByteBufferOutput out, Settings settings);
+	
+	/**
+	 * Removes the value.
+	 */
+	void clear();
+}
@@ -0,0 +1,67 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.storage.files;
+
+import java.io.File;
+
+/**
+ * The content of a single storage file in a snapshot written by {@link FiledDirectory#writeSnapshot()}.
+ */
+class SnapshotEntry
+{
+	/**
+	 * Last modification time of the file when the snapshot was written
+	 */
+	private final long lastModified;
+	/**
+	 * Content of the file when the snapshot was written
+	 */
+	private final byte[] content;
+	
+	/**
+	 * Constructs a new {@link SnapshotEntry}.
+	 *
+	 * @param lastModified last modification time of the file when the snapshot was written
+	 * @param content of the file when the snapshot was written
+	 */
+	SnapshotEntry(long lastModified, byte[] content)
+	{
+		this.lastModified = lastModified;
+		this.content = content;
+	}
+	
+	/**
+	 * A snapshot only contains files which weren't modified for a while before it was written (see {@link FiledDirectory#SNAPSHOT_SETTLE_TIME})
+	 * so any later modification changes the last modification time.
+	 *
+	 * @param file to check
+	 * @return whether the specified file wasn't modified since the snapshot was written
+	 */
+	boolean matches(File file)
+	{
+		return file.lastModified() == lastModified && file.length() == content.length;
+	}
+	
+	/**
+	 * @return content of the file when the snapshot was written
+	 */
+	byte[] getContent()
+	{
+		return content;
+	}
+}
@@ -40,22 +40,61 @@ public class StorageFileInput extends ByteBufferInput
 	 * The {@link IOException} catcher
 	 */
 	private final Consumer<IOException> exceptionCatcher;
+	/**
+	 * Whether the file is in the compact format (see {@link FiledStorage#COMPACT_FORMAT}), if it isn't every field starts with a presence boolean
+	 * and every {@code byte[]} with an int length
+	 */
+	private boolean compact;
+	/**
+	 * Amount of fields in the file, only used in the compact format
+	 */
+	private int fieldCount;
+	/**
+	 * Presence bitmap of the fields in the file, bit {@code i} is set if field {@code i} isn't {@code null}, only used in the compact format
+	 */
+	private byte[] presence;
+	/**
+	 * Index of the next field, only used in the compact format
+	 */
+	private int nextField;
 	
 	/**
-	 * Constructs a new {@link StorageFileInput}.
+	 * Constructs a new {@link StorageFileInput} which reads the specified content instead of reading the file channel.
 	 *
-	 * @param fileChannel to read data from (must be a readable {@link FileChannel})
+	 * @param fileChannel of the file, it must be positioned at the end of the file
+	 * @param content of the whole file
 	 * @param exceptionCatcher to invoke when {@link IOException}s occur
 	 * @param settings to use
 	 */
-	public StorageFileInput(FileChannel fileChannel, ByteBuffer readByteBuffer, Consumer<IOException> exceptionCatcher, Settings settings)
+	public StorageFileInput(FileChannel fileChannel, byte[] content, Consumer<IOException> exceptionCatcher, Settings settings)
 	{
-		super(readByteBuffer, settings);
-		//set the position to capacity so read() will know the buffer is empty
-		readByteBuffer.limit(readByteBuffer.capacity());
-		readByteBuffer.position(readByteBuffer.capacity());
+		super(ByteBuffer.wrap(content), settings);
 		this.fileChannel = fileChannel;
 		this.exceptionCatcher = exceptionCatcher;
+		readFormat();
+	}
+	
+	/**
+	 * Detects whether the file is in the compact format and if it is reads the header.
+	 * Files written before the compact format start with the presence boolean of the first field so the first byte is left to be read.
+	 */
+	private void readFormat()
+	{
+		try
+		{
+			if(readByte() != FiledStorage.COMPACT_FORMAT)
+			{
+				ByteBuffer readByteBuffer = getReadByteBuffer();
+				readByteBuffer.position(readByteBuffer.position() - 1);
+				return;
+			}
+			compact = true;
+			fieldCount = readVarInt();
+			presence = readRawBytes((fieldCount + 7) >>> 3);
+		} catch(NotEnoughBytesException ignored)
+		{
+			//empty file
+		}
 	}
 	
 	/**
@@ -63,6 +102,14 @@ public class StorageFileInput extends ByteBufferInput
 	 */
 	private boolean eof;
 	
+	/**
+	 * @return whether all the fields in the file were read
+	 */
+	public boolean isFinished()
+	{
+		return eof || (compact ? nextField >= fieldCount : !getReadByteBuffer().hasRemaining());
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -73,9 +120,56 @@ public class StorageFileInput extends ByteBufferInput
 		{
 			return false;
 		}
+		if(compact)
+		{
+			if(nextField >= fieldCount)
+			{
+				return false;
+			}
+			int field = nextField++;
+			return (presence[field >>> 3] & (1 << (field & 7))) != 0;
+		}
 		return super.hasNext();
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] readBytes()
+	{
+		return compact ? readRawBytes(readVarInt()) : super.readBytes();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] readFixedBytes(int length)
+	{
+		return compact ? readRawBytes(length) : super.readBytes();
+	}
+	
+	/**
+	 * Reads a varint written by {@link StorageFileOutput}.
+	 *
+	 * @return the read varint
+	 */
+	private int readVarInt()
+	{
+		int value = 0;
+		for(int shift = 0; shift < Integer.SIZE; shift += 7)
+		{
+			byte b = readByte();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0)
+			{
+				return value;
+			}
+		}
+		throw new IllegalStateException("Malformed varint!");
+	}
+	
 	/**
 	 * If the remaining bytes in the specified byteBuffer are less than the specified bytes more bytes are read from the channel, if there is still
 	 * not enough then a {@link NotEnoughBytesException} is thrown
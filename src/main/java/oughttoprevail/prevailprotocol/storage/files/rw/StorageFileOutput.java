@@ -55,6 +55,53 @@ public class StorageFileOutput extends ByteBufferOutput
 		this.exceptionCatcher = exceptionCatcher;
 	}
 	
+	/**
+	 * Writes the compact format header (see {@link FiledStorage#COMPACT_FORMAT}).
+	 *
+	 * @param fieldCount amount of fields
+	 * @param presence bitmap of the fields, bit {@code i} is set if field {@code i} isn't {@code null}
+	 */
+	public void writeHeader(int fieldCount, byte[] presence)
+	{
+		writeByte(FiledStorage.COMPACT_FORMAT);
+		writeVarInt(fieldCount);
+		writeRawBytes(presence);
+	}
+	
+	/**
+	 * Writes the specified bytes with a varint length.
+	 */
+	@Override
+	public void writeBytes(byte[] b)
+	{
+		writeVarInt(b.length);
+		writeRawBytes(b);
+	}
+	
+	/**
+	 * Writes the specified bytes without a length.
+	 */
+	@Override
+	public void writeFixedBytes(byte[] bytes)
+	{
+		writeRawBytes(bytes);
+	}
+	
+	/**
+	 * Writes the specified non negative value with 7 bits per byte, the high bit of every byte but the last is set.
+	 *
+	 * @param value to write
+	 */
+	private void writeVarInt(int value)
+	{
+		while((value & ~0x7F) != 0)
+		{
+			writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		writeByte(value);
+	}
+	
 	/**
 	 * Flushes the byteBuffer if there isn't enough space for the specified amount of bytes.
 	 */
@@ -24,6 +24,8 @@ import java.util.Queue;
 
 import oughttoprevail.prevailprotocol.storage.Storage;
 import oughttoprevail.prevailprotocol.storage.fields.Field;
+import oughttoprevail.prevailprotocol.storage.fields.IntField;
+import oughttoprevail.prevailprotocol.storage.fields.LongField;
 import oughttoprevail.prevailprotocol.storage.fields.SerDes;
 
 /**
@@ -42,6 +44,24 @@ public class InMemoryStorage implements Storage
 		return new Field<>(null);
 	}
 	
+	/**
+	 * @return a new {@link IntField} without a value
+	 */
+	@Override
+	public IntField getIntField()
+	{
+		return new IntField();
+	}
+	
+	/**
+	 * @return a new {@link LongField} without a value
+	 */
+	@Override
+	public LongField getLongField()
+	{
+		return new LongField();
+	}
+	
 	/**
 	 * @param serDes this parameter doesn't matter
 	 * @param <T> type of {@link ArrayList}
@@ -110,13 +110,16 @@ public class RecipientUser
 	}
 	
 	/**
-	 * Adds the specified deviceId to the deviceIds list.
+	 * Adds the specified deviceId to the deviceIds list if it isn't already in it.
 	 *
 	 * @param deviceId to add
 	 */
 	private void add(UID deviceId)
 	{
-		deviceIds.add(deviceId);
+		if(!deviceIds.contains(deviceId))
+		{
+			deviceIds.add(deviceId);
+		}
 	}
 	
 	/**
@@ -17,6 +17,10 @@ along with this program.  If not, see <https://www.gnu.org/licenses/>.
 */
 package oughttoprevail.prevailprotocol.uid;
 
+import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.storage.fields.FieldInputStream;
+import oughttoprevail.prevailprotocol.storage.fields.FieldOutputStream;
+import oughttoprevail.prevailprotocol.storage.fields.SerDes;
 import oughttoprevail.prevailprotocol.util.Util;
 
 /**
@@ -24,6 +28,24 @@ import oughttoprevail.prevailprotocol.util.Util;
  */
 public class UserDeviceUID
 {
+	public static final SerDes<UserDeviceUID> SER_DES = new SerDes<UserDeviceUID>()
+	{
+		@Override
+		public void serialize(UserDeviceUID userDeviceUID, FieldOutputStream out, Settings settings)
+		{
+			out.writeObject(userDeviceUID.getUserId(), settings.getUserIdFactory());
+			out.writeObject(userDeviceUID.getDeviceId(), settings.getUIDFactory());
+		}
+		
+		@Override
+		public UserDeviceUID deserialize(FieldInputStream in, Settings settings)
+		{
+			UID userId = in.readObject(settings.getUserIdFactory());
+			UID deviceId = in.readObject(settings.getUIDFactory());
+			return new UserDeviceUID(userId, deviceId);
+		}
+	};
+	
 	/**
 	 * User identifier
 	 */
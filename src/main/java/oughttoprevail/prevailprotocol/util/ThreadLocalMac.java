@@ -0,0 +1,65 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol.util;
+
+import javax.crypto.Mac;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A {@link ThreadLocal} {@link Mac}, a {@link Mac} isn't thread-safe so every thread gets it's own copy of the prototype {@link Mac}.
+ */
+public class ThreadLocalMac extends ThreadLocal<Mac>
+{
+	/**
+	 * Mac every thread's {@link Mac} is copied from, the prototype itself is never used
+	 */
+	private final Mac prototype;
+	
+	/**
+	 * Constructs a new {@link ThreadLocalMac}.
+	 *
+	 * @param prototype to copy for every thread
+	 */
+	public ThreadLocalMac(Mac prototype)
+	{
+		this.prototype = prototype;
+	}
+	
+	/**
+	 * @return a copy of the {@link #prototype}, if the {@link #prototype} can't be cloned a new {@link Mac} with the same algorithm and provider is
+	 * returned
+	 */
+	@Override
+	protected Mac initialValue()
+	{
+		try
+		{
+			return (Mac) prototype.clone();
+		} catch(CloneNotSupportedException e)
+		{
+			try
+			{
+				return Mac.getInstance(prototype.getAlgorithm(), prototype.getProvider());
+			} catch(NoSuchAlgorithmException impossible)
+			{
+				//the prototype was created with this algorithm and provider
+				throw new IllegalStateException(impossible);
+			}
+		}
+	}
+}
@@ -72,7 +72,7 @@ public class X3DHKeyExchange
 				asymmetricCryptography.keyExchange(bobIdentityKey, ephemeralKey),
 				asymmetricCryptography.keyExchange(bobSignedPreKey, ephemeralKey),
 				bobOneTimePreKey == null ? null : asymmetricCryptography.keyExchange(bobOneTimePreKey, ephemeralKey));
-		KeyPair aliceRatchetKeypair = asymmetricCryptography.generateKeyPair();
+		KeyPair aliceRatchetKeypair = settings.getKeyPairPool().take();
 		KDF kdf = session.getKDF();
 		byte[][] keys = deriveRootAndChainKeys(sharedSecret, kdf, settings);
 		byte[] rootKey = keys[0];
@@ -0,0 +1,94 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import oughttoprevail.prevailprotocol.asymmetriccryptography.AsymmetricCryptography;
+import oughttoprevail.prevailprotocol.asymmetriccryptography.JCAX25519;
+import oughttoprevail.prevailprotocol.asymmetriccryptography.X25519;
+import oughttoprevail.prevailprotocol.keys.KeyPair;
+
+/**
+ * Benchmarks the {@link AsymmetricCryptography} implementations against each other.
+ */
+@State(Scope.Benchmark)
+public class AsymmetricCryptographyBenchmark
+{
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(AsymmetricCryptographyBenchmark.class.getSimpleName())
+									   .verbosity(VerboseMode.EXTRA)
+									   .warmupIterations(5)
+									   .measurementIterations(3)
+									   .forks(1)
+									   .build()).run();
+	}
+	
+	private static final byte[] MESSAGE = new byte[128];
+	
+	@Param({"X25519", "JCAX25519"})
+	private String implementation;
+	
+	private AsymmetricCryptography asymmetricCryptography;
+	private KeyPair keyPair;
+	private KeyPair otherKeyPair;
+	private byte[] signature;
+	
+	@Setup
+	public void setup()
+	{
+		asymmetricCryptography = implementation.equals("JCAX25519") ? new JCAX25519() : new X25519();
+		keyPair = asymmetricCryptography.generateKeyPair();
+		otherKeyPair = asymmetricCryptography.generateKeyPair();
+		signature = asymmetricCryptography.sign(MESSAGE, keyPair.getPrivateKey());
+	}
+	
+	@Benchmark
+	public void generateKeyPair(Blackhole blackhole)
+	{
+		blackhole.consume(asymmetricCryptography.generateKeyPair());
+	}
+	
+	@Benchmark
+	public void keyExchange(Blackhole blackhole)
+	{
+		blackhole.consume(asymmetricCryptography.keyExchange(otherKeyPair.getPublicKey(), keyPair.getPrivateKey()));
+	}
+	
+	@Benchmark
+	public void sign(Blackhole blackhole)
+	{
+		blackhole.consume(asymmetricCryptography.sign(MESSAGE, keyPair.getPrivateKey()));
+	}
+	
+	@Benchmark
+	public void verify(Blackhole blackhole)
+	{
+		blackhole.consume(asymmetricCryptography.verify(signature, MESSAGE, keyPair.getPublicKey()));
+	}
+}
@@ -0,0 +1,80 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import oughttoprevail.prevailprotocol.random.BufferedRandomBytesGenerator;
+import oughttoprevail.prevailprotocol.random.RandomBytesGenerator;
+import oughttoprevail.prevailprotocol.random.SecureRandomBytesGenerator;
+
+/**
+ * Benchmarks the {@link RandomBytesGenerator} implementations against each other with the request sizes the protocol uses (nonce randoms and
+ * symmetric keys), both from a single thread and from multiple threads sharing the generator.
+ */
+@State(Scope.Benchmark)
+public class RandomBytesGeneratorBenchmark
+{
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(RandomBytesGeneratorBenchmark.class.getSimpleName())
+									   .verbosity(VerboseMode.EXTRA)
+									   .warmupIterations(5)
+									   .measurementIterations(3)
+									   .forks(1)
+									   .build()).run();
+	}
+	
+	@Param({"SecureRandomBytesGenerator", "BufferedRandomBytesGenerator"})
+	private String implementation;
+	
+	@Param({"28", "32"})
+	private int length;
+	
+	private RandomBytesGenerator randomBytesGenerator;
+	
+	@Setup
+	public void setup()
+	{
+		randomBytesGenerator = implementation.equals("BufferedRandomBytesGenerator")
+							   ? new BufferedRandomBytesGenerator()
+							   : new SecureRandomBytesGenerator();
+	}
+	
+	@Benchmark
+	public byte[] nextBytes()
+	{
+		return randomBytesGenerator.nextBytes(length);
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public byte[] nextBytesContended()
+	{
+		return randomBytesGenerator.nextBytes(length);
+	}
+}
@@ -0,0 +1,105 @@
+/*
+PrevailProtocol.
+Copyright (C) 2019  https://github.com/OughtToPrevail
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <https://www.gnu.org/licenses/>.
+*/
+package oughttoprevail.prevailprotocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import oughttoprevail.prevailprotocol.asymmetriccryptography.AsymmetricCryptography;
+import oughttoprevail.prevailprotocol.keys.IdentifiableKey;
+import oughttoprevail.prevailprotocol.keys.KeyPair;
+import oughttoprevail.prevailprotocol.server.Server;
+import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.storage.Directory;
+import oughttoprevail.prevailprotocol.uid.StringWrapper;
+import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
+
+/**
+ * Benchmarks many threads using the {@link Server} for an overlapping set of users.
+ */
+@State(Scope.Benchmark)
+public class ServerBenchmark
+{
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(ServerBenchmark.class.getSimpleName())
+									   .verbosity(VerboseMode.EXTRA)
+									   .warmupIterations(5)
+									   .measurementIterations(3)
+									   .forks(1)
+									   .build()).run();
+	}
+	
+	private static final int USERS = 16;
+	
+	private Server server;
+	private UserDeviceUID[] devices;
+	
+	@Setup
+	public void setup()
+	{
+		Settings settings = Settings.create().initialDirectory(Directory.newInMemoryDirectory());
+		server = new Server(settings, true);
+		devices = new UserDeviceUID[USERS];
+		AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
+		for(int i = 0; i < USERS; i++)
+		{
+			devices[i] = new UserDeviceUID(new StringWrapper("User" + i), new StringWrapper("Device"));
+			KeyPair identityKeyPair = asymmetricCryptography.generateKeyPair();
+			KeyPair signedPreKeyPair = asymmetricCryptography.generateKeyPair();
+			byte[] preKeySignature = asymmetricCryptography.sign(signedPreKeyPair.getPublicKey(), identityKeyPair.getPrivateKey());
+			server.registerUserDevice(devices[i],
+					identityKeyPair.getPublicKey(),
+					new IdentifiableKey(new StringWrapper("SignedPreKey"), signedPreKeyPair.getPublicKey()),
+					preKeySignature,
+					new IdentifiableKey[0]);
+		}
+	}
+	
+	private UserDeviceUID randomDevice()
+	{
+		return devices[ThreadLocalRandom.current().nextInt(USERS)];
+	}
+	
+	@Benchmark
+	@Threads(8)
+	public void addMessage(Blackhole blackhole)
+	{
+		UserDeviceUID device = randomDevice();
+		long id = server.addMessage(device, new byte[64]);
+		server.ackUpTo(device, id);
+		blackhole.consume(id);
+	}
+	
+	@Benchmark
+	@Threads(8)
+	public void getOrCreateNonce(Blackhole blackhole)
+	{
+		blackhole.consume(server.getOrCreateNonce(randomDevice()));
+	}
+}
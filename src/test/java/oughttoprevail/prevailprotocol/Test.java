@@ -21,24 +21,74 @@ import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 
+import javax.crypto.BadPaddingException;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import oughttoprevail.prevailprotocol.asymmetriccryptography.AsymmetricCryptography;
+import oughttoprevail.prevailprotocol.asymmetriccryptography.KeyPairPool;
+import oughttoprevail.prevailprotocol.asymmetriccryptography.X25519;
+import oughttoprevail.prevailprotocol.asymmetriccryptography.SignedMessage;
 import oughttoprevail.prevailprotocol.exception.NotMainDirectoryException;
+import oughttoprevail.prevailprotocol.exception.VerificationFailedException;
 import oughttoprevail.prevailprotocol.fingerprint.FingerprintHandler;
 import oughttoprevail.prevailprotocol.group.EncryptedGroupMessage;
 import oughttoprevail.prevailprotocol.group.Group;
+import oughttoprevail.prevailprotocol.group.GroupMessage;
+import oughttoprevail.prevailprotocol.group.TreeCommit;
+import oughttoprevail.prevailprotocol.group.TreeGroup;
+import oughttoprevail.prevailprotocol.kdf.KDF;
+import oughttoprevail.prevailprotocol.keys.ClaimedDataBundle;
 import oughttoprevail.prevailprotocol.keys.DataBundle;
 import oughttoprevail.prevailprotocol.keys.IdentifiableKey;
 import oughttoprevail.prevailprotocol.keys.IdentifiableKeyPair;
+import oughttoprevail.prevailprotocol.keys.KeyPair;
+import oughttoprevail.prevailprotocol.keys.OneTimePreKeyReplenisher;
 import oughttoprevail.prevailprotocol.keys.ServerDataBundle;
 import oughttoprevail.prevailprotocol.keys.SignedPreKey;
 import oughttoprevail.prevailprotocol.messenger.EncryptedMessage;
 import oughttoprevail.prevailprotocol.messenger.Messenger;
+import oughttoprevail.prevailprotocol.rw.ByteArrayOutput;
+import oughttoprevail.prevailprotocol.server.AsyncServer;
 import oughttoprevail.prevailprotocol.server.Server;
 import oughttoprevail.prevailprotocol.settings.Settings;
+import oughttoprevail.prevailprotocol.storage.Directory;
+import oughttoprevail.prevailprotocol.storage.FlushBatch;
+import oughttoprevail.prevailprotocol.storage.MailboxMessage;
+import oughttoprevail.prevailprotocol.storage.MailboxStorage;
+import oughttoprevail.prevailprotocol.storage.PackedStorage;
+import oughttoprevail.prevailprotocol.storage.Storage;
+import oughttoprevail.prevailprotocol.storage.UserStorage;
+import oughttoprevail.prevailprotocol.storage.fields.JavaSerDes;
+import oughttoprevail.prevailprotocol.storage.fields.SerDes;
+import oughttoprevail.prevailprotocol.storage.files.FiledDirectory;
+import oughttoprevail.prevailprotocol.storage.files.FiledStorage;
+import oughttoprevail.prevailprotocol.uid.RecipientUser;
 import oughttoprevail.prevailprotocol.uid.StringWrapper;
 import oughttoprevail.prevailprotocol.uid.UID;
 import oughttoprevail.prevailprotocol.uid.UserDeviceUID;
@@ -55,8 +105,10 @@ public class Test
 	private static Server server;
 	private static User alice;
 	private static User bob;
+	private static User grace;
 	private static UserDeviceUID aliceId;
 	private static UserDeviceUID bobId;
+	private static UserDeviceUID graceId;
 	private static UID groupId;
 	
 	@BeforeClass
@@ -73,12 +125,16 @@ public class Test
 		bob = new User(bobUserId, settings);
 		bobId = bob.getUserDeviceUID();
 		
+		grace = new User(new StringWrapper("Grace"), settings);
+		graceId = grace.getUserDeviceUID();
+		
 		groupId = new StringWrapper("GroupId");
 		
 		server = new Server(settings, false);
 		
 		registerOrVerify(alice);
 		registerOrVerify(bob);
+		registerOrVerify(grace);
 		
 		//X3DH
 		boolean aliceRegister = !alice.hasSession(bobId);
@@ -98,9 +154,25 @@ public class Test
 						bobDataBundle.pickOneTimePreKey());
 			}
 		}
+		if(!alice.hasSession(graceId))
+		{
+			for(ServerDataBundle graceDataBundle : server.getDataBundles(graceId.getUserId()))
+			{
+				alice.aliceRegister(graceId,
+						graceDataBundle.getIdentityKey(),
+						graceDataBundle.getSignedPreKey(),
+						graceDataBundle.getPreKeySignature(),
+						graceDataBundle.pickOneTimePreKey());
+			}
+		}
 	}
 	
 	private static void registerOrVerify(User user)
+	{
+		registerOrVerify(server, user);
+	}
+	
+	private static void registerOrVerify(Server server, User user)
 	{
 		if(user.isNewDevice())
 		{
@@ -272,6 +344,334 @@ public class Test
 		}
 	}
 	
+	@org.junit.Test
+	public void batchGroupTest() throws Exception
+	{
+		Group senderGroup = alice.getOrCreateGroup(groupId);
+		Group receiverGroup = bob.getOrCreateGroup(groupId);
+		
+		maybeJoinMember(alice, bob, senderGroup, receiverGroup);
+		maybeJoinMember(bob, alice, receiverGroup, senderGroup);
+		
+		List<byte[]> messages = new ArrayList<>();
+		for(int i = 0; i < 10; i++)
+		{
+			messages.add(senderGroup.encryptMessage(MESSAGE_BYTES).getCiphertext());
+		}
+		//tamper with a single message, only it should fail verification
+		byte[] tampered = messages.get(5).clone();
+		tampered[tampered.length - 1] ^= 1;
+		messages.set(5, tampered);
+		List<byte[]> decryptedMessages = receiverGroup.decryptMessages(alice.getUserDeviceUID(), messages);
+		for(int i = 0; i < decryptedMessages.size(); i++)
+		{
+			if(i == 5)
+			{
+				Assert.assertNull(decryptedMessages.get(i));
+			} else
+			{
+				Assert.assertArrayEquals(MESSAGE_BYTES, decryptedMessages.get(i));
+			}
+		}
+		//a message without the format byte and the epoch is read as a message from before epochs, it can't be verified with a sender key that has
+		//an epoch
+		byte[] message = senderGroup.encryptMessage(MESSAGE_BYTES).getCiphertext();
+		byte[] legacyMessage = new byte[message.length - 5];
+		System.arraycopy(message, 1, legacyMessage, 0, 4);
+		System.arraycopy(message, 9, legacyMessage, 4, legacyMessage.length - 4);
+		Assert.assertNull(receiverGroup.decryptMessage(alice.getUserDeviceUID(), legacyMessage));
+		Assert.assertArrayEquals(MESSAGE_BYTES, receiverGroup.decryptMessage(alice.getUserDeviceUID(), message));
+	}
+		
+	@org.junit.Test
+	public void parallelGroupDecryptionTest() throws Exception
+	{
+		Group senderGroup = alice.getOrCreateGroup(groupId);
+		Group receiverGroup = bob.getOrCreateGroup(groupId);
+		
+		maybeJoinMember(alice, bob, senderGroup, receiverGroup);
+		maybeJoinMember(bob, alice, receiverGroup, senderGroup);
+		
+		List<GroupMessage> messages = new ArrayList<>();
+		for(int i = 0; i < 10; i++)
+		{
+			messages.add(new GroupMessage(aliceId, senderGroup.encryptMessage(new byte[]{(byte) i}).getCiphertext()));
+		}
+		Queue<byte[]> decryptedMessages = new ConcurrentLinkedQueue<>();
+		receiverGroup.decryptMessages(messages,
+				(message, plaintext) -> decryptedMessages.add(plaintext),
+				(message, throwable) -> Assert.fail(throwable.toString())).get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(messages.size(), decryptedMessages.size());
+		int i = 0;
+		//messages of the same sender are decrypted in order
+		for(byte[] decryptedMessage : decryptedMessages)
+		{
+			Assert.assertArrayEquals(new byte[]{(byte) i++}, decryptedMessage);
+		}
+	}
+	
+	@org.junit.Test
+	public void malformedGroupMessageTest() throws Exception
+	{
+		Group senderGroup = alice.getOrCreateGroup(groupId);
+		Group receiverGroup = bob.getOrCreateGroup(groupId);
+		
+		maybeJoinMember(alice, bob, senderGroup, receiverGroup);
+		maybeJoinMember(bob, alice, receiverGroup, senderGroup);
+		
+		byte[] first = senderGroup.encryptMessage(new byte[]{0}).getCiphertext();
+		byte[] second = senderGroup.encryptMessage(new byte[]{1}).getCiphertext();
+		GroupMessage malformed = new GroupMessage(aliceId, Arrays.copyOf(second, 6));
+		List<GroupMessage> messages = Arrays.asList(new GroupMessage(aliceId, first), malformed, new GroupMessage(aliceId, second));
+		Queue<byte[]> decryptedMessages = new ConcurrentLinkedQueue<>();
+		Queue<GroupMessage> failedMessages = new ConcurrentLinkedQueue<>();
+		UserDeviceUID nobodyId = new UserDeviceUID(new StringWrapper("Nobody"), new StringWrapper("Device"));
+		receiverGroup.decryptMessages(messages, (message, plaintext) ->
+		{
+			//the consumers are invoked without the group's lock, so they may change the group
+			Assert.assertNull(receiverGroup.memberLeftCoalesced(nobodyId));
+			decryptedMessages.add(plaintext);
+		}, (message, throwable) -> failedMessages.add(message)).get(5, TimeUnit.SECONDS);
+		//only the malformed message fails, the rest of the partition is still decrypted
+		Assert.assertEquals(Collections.singletonList(malformed), new ArrayList<>(failedMessages));
+		Assert.assertEquals(2, decryptedMessages.size());
+		Assert.assertArrayEquals(new byte[]{0}, decryptedMessages.poll());
+		Assert.assertArrayEquals(new byte[]{1}, decryptedMessages.poll());
+	}
+	
+	@org.junit.Test
+	public void groupMemberLeftTest() throws Exception
+	{
+		UID leaveGroupId = new StringWrapper("LeaveGroupId");
+		Group aliceGroup = alice.getOrCreateGroup(leaveGroupId);
+		Group bobGroup = bob.getOrCreateGroup(leaveGroupId);
+		
+		maybeJoinMember(bob, alice, bobGroup, aliceGroup);
+		maybeJoinMember(alice, bob, aliceGroup, bobGroup);
+		Assert.assertArrayEquals(MESSAGE_BYTES,
+				bobGroup.decryptMessage(aliceId, aliceGroup.encryptMessage(MESSAGE_BYTES).getCiphertext()));
+		
+		Assert.assertNotNull(aliceGroup.memberLeft(bobId));
+		Assert.assertFalse(aliceGroup.hasMember(bobId));
+		Assert.assertNull(aliceGroup.memberLeft(bobId));
+		
+		//bob rejoins and receives alice's new sender key
+		maybeJoinMember(bob, alice, bobGroup, aliceGroup);
+		byte[] senderKey = bob.getMessenger(aliceId).decryptMessage(aliceGroup.encryptSenderKey(bobId));
+		bobGroup.memberJoined(aliceId, senderKey);
+		Assert.assertArrayEquals(MESSAGE_BYTES,
+				bobGroup.decryptMessage(aliceId, aliceGroup.encryptMessage(MESSAGE_BYTES).getCiphertext()));
+	}
+		
+	@org.junit.Test
+	public void groupCoalescedRekeyTest() throws Exception
+	{
+		//sender keys are sent through the pairwise sessions
+		pairwiseTest(1, false);
+		encryptThenDecrypt(alice, grace, 1, false);
+		encryptThenDecrypt(grace, alice, 1, false);
+		UID coalescedGroupId = new StringWrapper("CoalescedGroupId");
+		Group aliceGroup = alice.getOrCreateGroup(coalescedGroupId);
+		Group bobGroup = bob.getOrCreateGroup(coalescedGroupId);
+		Group graceGroup = grace.getOrCreateGroup(coalescedGroupId);
+		
+		maybeJoinMember(bob, alice, bobGroup, aliceGroup);
+		maybeJoinMember(alice, bob, aliceGroup, bobGroup);
+		maybeJoinMember(grace, alice, graceGroup, aliceGroup);
+		maybeJoinMember(alice, grace, aliceGroup, graceGroup);
+		
+		CompletableFuture<EncryptedMessage[]> rekey = aliceGroup.memberLeftCoalesced(bobId);
+		Assert.assertNotNull(rekey);
+		Assert.assertNull(aliceGroup.memberLeftCoalesced(bobId));
+		//the rekey is done by the thread encrypting the next message, so it's completed once the message is encrypted
+		EncryptedGroupMessage message = aliceGroup.encryptMessage(MESSAGE_BYTES);
+		Assert.assertFalse(message.getDestinations().contains(bobId));
+		Assert.assertNull(aliceGroup.getPendingRekey());
+		Assert.assertTrue(rekey.isDone());
+		
+		EncryptedMessage[] senderKeys = rekey.get();
+		Assert.assertEquals(1, senderKeys.length);
+		Assert.assertEquals(graceId, senderKeys[0].getDestination());
+		graceGroup.memberJoined(aliceId, grace.getMessenger(aliceId).decryptMessage(senderKeys[0].getEncryptedMessage()));
+		Assert.assertArrayEquals(MESSAGE_BYTES, graceGroup.decryptMessage(aliceId, message.getCiphertext()));
+		Assert.assertNull(bobGroup.decryptMessage(aliceId, message.getCiphertext()));
+	}
+	
+	@org.junit.Test
+	public void groupSenderKeyFanOutTest() throws Exception
+	{
+		//sender keys are sent through the pairwise sessions
+		pairwiseTest(1, false);
+		encryptThenDecrypt(alice, grace, 1, false);
+		encryptThenDecrypt(grace, alice, 1, false);
+		UID fanOutGroupId = new StringWrapper("FanOutGroupId");
+		Group aliceGroup = alice.getOrCreateGroup(fanOutGroupId);
+		Group bobGroup = bob.getOrCreateGroup(fanOutGroupId);
+		Group graceGroup = grace.getOrCreateGroup(fanOutGroupId);
+		
+		maybeJoinMember(bob, alice, bobGroup, aliceGroup);
+		maybeJoinMember(alice, bob, aliceGroup, bobGroup);
+		maybeJoinMember(grace, alice, graceGroup, aliceGroup);
+		maybeJoinMember(alice, grace, aliceGroup, graceGroup);
+		//a member without a pairwise session who leaves, so the new sender key is encrypted to both bob and grace
+		UserDeviceUID leavingId = new UserDeviceUID(new StringWrapper("Leaving"), new StringWrapper("Device"));
+		aliceGroup.memberJoined(leavingId, alice.getMessenger(bobId).decryptMessage(bobGroup.encryptSenderKey(aliceId)));
+		
+		Thread testThread = Thread.currentThread();
+		Queue<EncryptedMessage> senderKeys = new ConcurrentLinkedQueue<>();
+		Queue<Boolean> batched = new ConcurrentLinkedQueue<>();
+		List<byte[]> pairwiseMessages = new ArrayList<>();
+		CompletableFuture<Void> future;
+		//the application is using the pairwise session with bob while the sender keys are encrypted
+		synchronized(alice.getSession(bobId).getLock())
+		{
+			future = aliceGroup.memberLeft(leavingId, encryptedMessage ->
+			{
+				//the sender keys are encrypted by the executor inside the batch which collects the flushes of the sessions
+				batched.add(Thread.currentThread() != testThread && FlushBatch.current() != null);
+				senderKeys.add(encryptedMessage);
+			});
+			//grace's sender key is encrypted in parallel while bob's waits for the application to be done with the session
+			long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+			while(senderKeys.isEmpty() && System.currentTimeMillis() < deadline)
+			{
+				Thread.sleep(10);
+			}
+			Thread.sleep(100);
+			Assert.assertEquals(1, senderKeys.size());
+			Assert.assertEquals(graceId, senderKeys.peek().getDestination());
+			Assert.assertFalse(future.isDone());
+			pairwiseMessages.add(alice.getMessenger(bobId).encryptMessage(MESSAGE_BYTES));
+		}
+		pairwiseMessages.add(alice.getMessenger(bobId).encryptMessage(MESSAGE_BYTES));
+		future.get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(2, senderKeys.size());
+		Assert.assertEquals(Arrays.asList(true, true), new ArrayList<>(batched));
+		for(EncryptedMessage senderKey : senderKeys)
+		{
+			User recipient = senderKey.getDestination().equals(bobId) ? bob : grace;
+			Group recipientGroup = recipient == bob ? bobGroup : graceGroup;
+			recipientGroup.memberJoined(aliceId, recipient.getMessenger(aliceId).decryptMessage(senderKey.getEncryptedMessage()));
+		}
+		//the messages of the application and the sender key were each encrypted with a key of their own
+		Messenger bobMessenger = bob.getMessenger(aliceId);
+		for(byte[] pairwiseMessage : pairwiseMessages)
+		{
+			Assert.assertArrayEquals(MESSAGE_BYTES, bobMessenger.decryptMessage(pairwiseMessage));
+		}
+		EncryptedGroupMessage message = aliceGroup.encryptMessage(MESSAGE_BYTES);
+		Assert.assertArrayEquals(MESSAGE_BYTES, bobGroup.decryptMessage(aliceId, message.getCiphertext()));
+		Assert.assertArrayEquals(MESSAGE_BYTES, graceGroup.decryptMessage(aliceId, message.getCiphertext()));
+	}
+	
+	@org.junit.Test
+	public void treeGroupTest() throws Exception
+	{
+		//key packages and welcomes are sent through the pairwise sessions
+		pairwiseTest(1, false);
+		UID treeGroupId = new StringWrapper("TreeGroupId");
+		TreeGroup aliceGroup = alice.getOrCreateTreeGroup(treeGroupId);
+		TreeGroup bobGroup = bob.getOrCreateTreeGroup(treeGroupId);
+		if(!aliceGroup.isMember())
+		{
+			aliceGroup.create();
+		}
+		
+		byte[] keyPackage = alice.getMessenger(bobId).decryptMessage(bobGroup.encryptKeyPackage(aliceId));
+		TreeCommit commit = aliceGroup.add(bobId, keyPackage);
+		Assert.assertNotNull(commit);
+		bobGroup.join(bob.getMessenger(aliceId).decryptMessage(commit.getWelcome()));
+		Assert.assertEquals(aliceGroup.getEpoch(), bobGroup.getEpoch());
+		Assert.assertArrayEquals(MESSAGE_BYTES, bobGroup.decryptMessage(aliceGroup.encryptMessage(MESSAGE_BYTES)));
+		Assert.assertArrayEquals(MESSAGE_BYTES, aliceGroup.decryptMessage(bobGroup.encryptMessage(MESSAGE_BYTES)));
+		
+		aliceGroup.processCommit(bobGroup.update());
+		Assert.assertEquals(bobId, aliceGroup.getSender(bobGroup.encryptMessage(MESSAGE_BYTES)));
+		Assert.assertArrayEquals(MESSAGE_BYTES, bobGroup.decryptMessage(aliceGroup.encryptMessage(MESSAGE_BYTES)));
+		
+		byte[] removeCommit = aliceGroup.remove(bobId);
+		Assert.assertNotNull(removeCommit);
+		Assert.assertFalse(aliceGroup.hasMember(bobId));
+		byte[] message = aliceGroup.encryptMessage(MESSAGE_BYTES);
+		bobGroup.processCommit(removeCommit);
+		Assert.assertFalse(bobGroup.isMember());
+		Assert.assertNull(bobGroup.decryptMessage(message));
+	}
+	
+	@org.junit.Test
+	public void treeGroupRemoveTest() throws Exception
+	{
+		pairwiseTest(1, false);
+		encryptThenDecrypt(alice, grace, 1, false);
+		encryptThenDecrypt(grace, alice, 1, false);
+		UID treeGroupId = new StringWrapper("TreeGroupRemoveId");
+		TreeGroup aliceGroup = alice.getOrCreateTreeGroup(treeGroupId);
+		TreeGroup bobGroup = bob.getOrCreateTreeGroup(treeGroupId);
+		TreeGroup graceGroup = grace.getOrCreateTreeGroup(treeGroupId);
+		if(!aliceGroup.isMember())
+		{
+			aliceGroup.create();
+		}
+		
+		TreeCommit bobCommit = aliceGroup.add(bobId, alice.getMessenger(bobId).decryptMessage(bobGroup.encryptKeyPackage(aliceId)));
+		bobGroup.join(bob.getMessenger(aliceId).decryptMessage(bobCommit.getWelcome()));
+		TreeCommit graceCommit = aliceGroup.add(graceId, alice.getMessenger(graceId).decryptMessage(graceGroup.encryptKeyPackage(aliceId)));
+		bobGroup.processCommit(graceCommit.getCommit());
+		graceGroup.join(grace.getMessenger(aliceId).decryptMessage(graceCommit.getWelcome()));
+		Assert.assertEquals(aliceGroup.getEpoch(), bobGroup.getEpoch());
+		Assert.assertEquals(aliceGroup.getEpoch(), graceGroup.getEpoch());
+		byte[] message = bobGroup.encryptMessage(MESSAGE_BYTES);
+		Assert.assertArrayEquals(MESSAGE_BYTES, aliceGroup.decryptMessage(message));
+		Assert.assertArrayEquals(MESSAGE_BYTES, graceGroup.decryptMessage(message));
+		//a message can only be decrypted once
+		Assert.assertNull(graceGroup.decryptMessage(message));
+		
+		byte[] removeCommit = aliceGroup.remove(bobId);
+		Integer epoch = graceGroup.getEpoch();
+		graceGroup.processCommit(removeCommit);
+		Assert.assertFalse(graceGroup.hasMember(bobId));
+		//a commit which was already processed is rejected without changing the group
+		try
+		{
+			graceGroup.processCommit(removeCommit);
+			Assert.fail("Processed a commit of a previous epoch!");
+		} catch(VerificationFailedException e)
+		{
+			Assert.assertEquals(Integer.valueOf(epoch + 1), graceGroup.getEpoch());
+		}
+		bobGroup.processCommit(removeCommit);
+		Assert.assertFalse(bobGroup.isMember());
+		message = aliceGroup.encryptMessage(MESSAGE_BYTES);
+		Assert.assertArrayEquals(MESSAGE_BYTES, graceGroup.decryptMessage(message));
+		Assert.assertNull(bobGroup.decryptMessage(message));
+		Assert.assertArrayEquals(MESSAGE_BYTES, aliceGroup.decryptMessage(graceGroup.encryptMessage(MESSAGE_BYTES)));
+		
+		//leave only alice so the next run starts from the same members
+		graceGroup.processCommit(aliceGroup.remove(graceId));
+		Assert.assertFalse(graceGroup.isMember());
+	}
+	
+	@org.junit.Test
+	public void batchVerificationTest()
+	{
+		AsymmetricCryptography asymmetricCryptography = Settings.getDefaultSettings().getAsymmetricCryptography();
+		KeyPair keyPair = asymmetricCryptography.generateKeyPair();
+		List<SignedMessage> signedMessages = new ArrayList<>();
+		for(int i = 0; i < 20; i++)
+		{
+			byte[] message = {(byte) i};
+			signedMessages.add(new SignedMessage(asymmetricCryptography.sign(message, keyPair.getPrivateKey()), message, keyPair.getPublicKey()));
+		}
+		//a signature of another message must fail
+		SignedMessage signedMessage = signedMessages.get(7);
+		signedMessages.set(7, new SignedMessage(signedMessage.getSignature(), MESSAGE_BYTES, signedMessage.getPublicKey()));
+		boolean[] verified = asymmetricCryptography.verifyBatch(signedMessages);
+		for(int i = 0; i < verified.length; i++)
+		{
+			Assert.assertEquals(i != 7, verified[i]);
+		}
+	}
+	
 	private void maybeJoinMember(User joining, User user, Group joiningGroup, Group group) throws Exception
 	{
 		UserDeviceUID userDeviceUID = user.getUserDeviceUID();
@@ -286,6 +686,614 @@ public class Test
 		}
 	}
 	
+	@org.junit.Test
+	public void mailboxPagingTest()
+	{
+		//clear whatever is left from a previous run
+		List<MailboxMessage> leftover = server.retrieveMessages(bobId, -1, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		if(!leftover.isEmpty())
+		{
+			server.ackUpTo(bobId, leftover.get(leftover.size() - 1).getId());
+		}
+		
+		long[] ids = new long[10];
+		for(int i = 0; i < ids.length; i++)
+		{
+			ids[i] = server.addMessage(bobId, new byte[]{(byte) i});
+			if(i > 0)
+			{
+				Assert.assertTrue(ids[i] > ids[i - 1]);
+			}
+		}
+		
+		List<MailboxMessage> received = new ArrayList<>();
+		long cursor = -1;
+		List<MailboxMessage> page;
+		while(!(page = server.retrieveMessages(bobId, cursor, 3, Integer.MAX_VALUE)).isEmpty())
+		{
+			Assert.assertTrue(page.size() <= 3);
+			received.addAll(page);
+			cursor = page.get(page.size() - 1).getId();
+		}
+		Assert.assertEquals(ids.length, received.size());
+		for(int i = 0; i < ids.length; i++)
+		{
+			Assert.assertEquals(ids[i], received.get(i).getId());
+			Assert.assertArrayEquals(new byte[]{(byte) i}, received.get(i).getMessage());
+		}
+		Assert.assertEquals(2, server.retrieveMessages(bobId, -1, Integer.MAX_VALUE, 2).size());
+		
+		//negative identifiers acknowledge nothing
+		server.ackUpTo(bobId, -1);
+		Assert.assertFalse(server.acknowledgeMessage(bobId, -1));
+		Assert.assertEquals(ids.length, server.retrieveMessages(bobId, -1, Integer.MAX_VALUE, Integer.MAX_VALUE).size());
+		
+		server.ackUpTo(bobId, ids[4]);
+		Assert.assertTrue(server.acknowledgeMessage(bobId, ids[7]));
+		List<MailboxMessage> remaining = server.retrieveMessages(bobId, -1, Integer.MAX_VALUE, Integer.MAX_VALUE);
+		Assert.assertEquals(4, remaining.size());
+		Assert.assertEquals(ids[5], remaining.get(0).getId());
+		server.ackUpTo(bobId, ids[ids.length - 1]);
+		Assert.assertTrue(server.retrieveMessages(bobId, -1, Integer.MAX_VALUE, Integer.MAX_VALUE).isEmpty());
+	}
+	
+	@org.junit.Test
+	public void mailboxAcknowledgePastTailTest() throws Exception
+	{
+		Settings settings = Settings.create();
+		File root = Files.createTempDirectory("PrevailProtocol").toFile();
+		FiledDirectory directory = newTemporaryDirectory(root, settings);
+		try
+		{
+			MailboxStorage mailboxStorage = new MailboxStorage(directory, settings);
+			long id = mailboxStorage.addMessage(new byte[]{1});
+			//acknowledging past the newest message only acknowledges up to it
+			mailboxStorage.acknowledgeUpTo(id + 10);
+			long nextId = mailboxStorage.addMessage(new byte[]{2});
+			Assert.assertEquals(1, mailboxStorage.getMessages(-1, Integer.MAX_VALUE).size());
+			directory.close();
+			
+			List<MailboxMessage> messages = new MailboxStorage(directory, settings).getMessages(-1, Integer.MAX_VALUE);
+			Assert.assertEquals(1, messages.size());
+			Assert.assertEquals(nextId, messages.get(0).getId());
+			Assert.assertArrayEquals(new byte[]{2}, messages.get(0).getMessage());
+			directory.close();
+		} finally
+		{
+			directory.delete();
+			directory.finish();
+		}
+	}
+	
+	@org.junit.Test
+	public void mailboxLogTest() throws Exception
+	{
+		Settings settings = Settings.create().mailboxSegmentSize(2);
+		File root = Files.createTempDirectory("PrevailProtocol").toFile();
+		FiledDirectory directory = newTemporaryDirectory(root, settings);
+		try
+		{
+			//messages stored before the mailbox was a log
+			Storage legacyStorage = directory.storage("Messages");
+			List<byte[]> legacyMessages = legacyStorage.getFieldList(JavaSerDes.BYTE_ARRAY_SER_DES);
+			legacyMessages.add(new byte[]{0});
+			legacyMessages.add(new byte[]{1});
+			legacyStorage.flush();
+			directory.close();
+			
+			MailboxStorage mailboxStorage = new MailboxStorage(directory, settings);
+			List<MailboxMessage> migrated = mailboxStorage.getMessages(-1, Integer.MAX_VALUE);
+			Assert.assertEquals(2, migrated.size());
+			Assert.assertArrayEquals(new byte[]{0}, migrated.get(0).getMessage());
+			Assert.assertArrayEquals(new byte[]{1}, migrated.get(1).getMessage());
+			Assert.assertTrue(directory.storage("Messages").getFieldList(JavaSerDes.BYTE_ARRAY_SER_DES).isEmpty());
+			
+			//concurrent producers each get their own identifier
+			List<CompletableFuture<Long>> appends = new ArrayList<>();
+			for(int i = 2; i < 22; i++)
+			{
+				byte[] message = {(byte) i};
+				appends.add(CompletableFuture.supplyAsync(() -> mailboxStorage.addMessage(message), ForkJoinPool.commonPool()));
+			}
+			Set<Long> ids = new HashSet<>();
+			for(CompletableFuture<Long> append : appends)
+			{
+				ids.add(append.get(5, TimeUnit.SECONDS));
+			}
+			Assert.assertEquals(appends.size(), ids.size());
+			Assert.assertEquals(22, mailboxStorage.getMessages().size());
+			
+			//segments whose messages were all acknowledged are deleted
+			Assert.assertTrue(mailboxStorage.acknowledge(0));
+			Assert.assertFalse(mailboxStorage.acknowledge(0));
+			mailboxStorage.acknowledgeUpTo(10);
+			File mailboxFolder = new File(root, "Mailbox");
+			Assert.assertFalse(new File(mailboxFolder, "0").exists());
+			Assert.assertFalse(new File(mailboxFolder, "4").exists());
+			Assert.assertTrue(new File(mailboxFolder, "5").exists());
+			List<MailboxMessage> messages = mailboxStorage.getMessages(-1, Integer.MAX_VALUE);
+			Assert.assertEquals(11, messages.size());
+			Assert.assertEquals(11, messages.get(0).getId());
+			directory.close();
+			
+			//the log is replayed when it's loaded again
+			List<MailboxMessage> loaded = new MailboxStorage(directory, settings).getMessages(-1, Integer.MAX_VALUE);
+			Assert.assertEquals(messages.size(), loaded.size());
+			for(int i = 0; i < messages.size(); i++)
+			{
+				Assert.assertEquals(messages.get(i).getId(), loaded.get(i).getId());
+				Assert.assertArrayEquals(messages.get(i).getMessage(), loaded.get(i).getMessage());
+			}
+		} finally
+		{
+			directory.delete();
+			directory.finish();
+		}
+	}
+	
+	@org.junit.Test
+	public void asyncServerTest() throws Exception
+	{
+		Settings settings = Settings.create();
+		File root = Files.createTempDirectory("PrevailProtocol").toFile();
+		FiledDirectory directory = newTemporaryDirectory(root, settings);
+		settings.initialDirectory(directory);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			Server server = new Server(settings, true);
+			AsymmetricCryptography asymmetricCryptography = settings.getAsymmetricCryptography();
+			UserDeviceUID[] devices = new UserDeviceUID[2];
+			for(int i = 0; i < devices.length; i++)
+			{
+				devices[i] = new UserDeviceUID(new StringWrapper("AsyncUser" + i), new StringWrapper("Device"));
+				KeyPair identityKeyPair = asymmetricCryptography.generateKeyPair();
+				KeyPair signedPreKeyPair = asymmetricCryptography.generateKeyPair();
+				Assert.assertTrue(server.registerUserDevice(devices[i],
+						identityKeyPair.getPublicKey(),
+						new IdentifiableKey(new StringWrapper("SignedPreKey"), signedPreKeyPair.getPublicKey()),
+						asymmetricCryptography.sign(signedPreKeyPair.getPublicKey(), identityKeyPair.getPrivateKey()),
+						new IdentifiableKey[0]));
+			}
+			
+			//operations of the same user are executed in the order they were invoked
+			AsyncServer asyncServer = new AsyncServer(server, executor);
+			List<CompletableFuture<Long>> appends = new ArrayList<>();
+			for(int i = 0; i < 20; i++)
+			{
+				appends.add(asyncServer.addMessage(devices[0], new byte[]{(byte) i}));
+			}
+			long previousId = -1;
+			for(CompletableFuture<Long> append : appends)
+			{
+				long id = append.get(5, TimeUnit.SECONDS);
+				Assert.assertTrue(id > previousId);
+				previousId = id;
+			}
+			
+			//operations of different users run in parallel, each waits until the other one has started
+			CountDownLatch started = new CountDownLatch(2);
+			AsyncServer parallelServer = new AsyncServer(server, command -> executor.execute(() ->
+			{
+				started.countDown();
+				try
+				{
+					if(!started.await(5, TimeUnit.SECONDS))
+					{
+						throw new IllegalStateException("Operations of different users aren't parallel!");
+					}
+				} catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				command.run();
+			}), 2);
+			CompletableFuture<Integer> first = parallelServer.getNeededOneTimePreKeys(devices[0]);
+			CompletableFuture<Integer> second = parallelServer.getNeededOneTimePreKeys(devices[1]);
+			first.get(10, TimeUnit.SECONDS);
+			second.get(10, TimeUnit.SECONDS);
+			Assert.assertEquals(0, started.getCount());
+			
+			//an exception thrown by an operation completes it's future
+			UserDeviceUID missing = new UserDeviceUID(new StringWrapper("AsyncUserMissing"), new StringWrapper("Device"));
+			try
+			{
+				asyncServer.changeSignedPreKey(missing, new byte[0], new StringWrapper("SignedPreKey"), new byte[0]).get(5, TimeUnit.SECONDS);
+				Assert.fail();
+			} catch(ExecutionException e)
+			{
+				Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+			}
+			
+			//a rejected operation completes it's future and the operations after it are still executed
+			AtomicBoolean reject = new AtomicBoolean(true);
+			AsyncServer rejectingServer = new AsyncServer(server, command ->
+			{
+				if(reject.getAndSet(false))
+				{
+					throw new RejectedExecutionException();
+				}
+				executor.execute(command);
+			}, 1);
+			try
+			{
+				rejectingServer.hasDataBundle(devices[0]).get(5, TimeUnit.SECONDS);
+				Assert.fail();
+			} catch(ExecutionException e)
+			{
+				Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+			Assert.assertTrue(rejectingServer.hasDataBundle(devices[0]).get(5, TimeUnit.SECONDS));
+		} finally
+		{
+			executor.shutdown();
+			directory.delete();
+			directory.finish();
+		}
+	}
+	
+	/**
+	 * @return a new directory in the specified root so the test doesn't write into the data of the default directory
+	 */
+	private static FiledDirectory newTemporaryDirectory(File root, Settings settings)
+	{
+		FiledDirectory directory = new FiledDirectory(root.getPath(), 256, Throwable::printStackTrace);
+		directory.initSettings(settings);
+		return directory;
+	}
+	
+	@org.junit.Test
+	public void bulkDataBundlesTest()
+	{
+		int aliceNeeded = server.getNeededOneTimePreKeys(aliceId);
+		List<ClaimedDataBundle> claimed = server.getDataBundles(Arrays.asList(aliceId.getUserId(), bobId.getUserId()));
+		Assert.assertEquals(2, claimed.size());
+		for(ClaimedDataBundle claimedDataBundle : claimed)
+		{
+			UserDeviceUID userDeviceUID = claimedDataBundle.getUserDeviceUID();
+			Assert.assertTrue(userDeviceUID.equals(aliceId) || userDeviceUID.equals(bobId));
+			Assert.assertNotNull(claimedDataBundle.getIdentityKey());
+			Assert.assertNotNull(claimedDataBundle.getSignedPreKey());
+			if(claimedDataBundle.getOneTimePreKey() != null)
+			{
+				//give the one time pre key back so repeated runs don't run out
+				server.addOneTimePreKeys(userDeviceUID, Collections.singletonList(claimedDataBundle.getOneTimePreKey()));
+			}
+		}
+		Assert.assertEquals(aliceNeeded, server.getNeededOneTimePreKeys(aliceId));
+	}
+	
+	@org.junit.Test
+	public void legacyServerDeviceMigrationTest() throws Exception
+	{
+		Settings settings = Settings.create();
+		File root = Files.createTempDirectory("PrevailProtocol").toFile();
+		FiledDirectory directory = newTemporaryDirectory(root, settings);
+		settings.initialDirectory(directory);
+		try
+		{
+			UID erinUserId = new StringWrapper("Erin");
+			UID deviceId = settings.getUIDFactory().generateUID();
+			File erinFolder = new File(new File(root, "Server"), erinUserId.toString());
+			//the files are written in the format used before the compact format, every field starts with a presence boolean, every byte[] has an
+			//int length and every count is an Integer field
+			ByteArrayOutput userOut = new ByteArrayOutput(ByteBuffer.allocate(256), settings);
+			writeLegacyField(userOut, 1, JavaSerDes.INTEGER_SER_DES);
+			writeLegacyField(userOut, deviceId, settings.getUIDFactory());
+			writeLegacyFile(new File(erinFolder, erinUserId + ".dat"), userOut);
+			//the layout a device was saved with when the nonce was in the device storage
+			byte[] identityKey = alice.getIdentityPublicKey();
+			IdentifiableKey signedPreKey = new IdentifiableKey(settings.getUIDFactory().generateUID(), new byte[32]);
+			IdentifiableKey oneTimePreKey = new IdentifiableKey(settings.getUIDFactory().generateUID(), new byte[32]);
+			byte[] pendingNonce = "Pending nonce".getBytes();
+			ByteArrayOutput deviceOut = new ByteArrayOutput(ByteBuffer.allocate(256), settings);
+			writeLegacyField(deviceOut, identityKey, JavaSerDes.BYTE_ARRAY_SER_DES);
+			writeLegacyField(deviceOut, signedPreKey, IdentifiableKey.SER_DES);
+			writeLegacyField(deviceOut, new byte[64], JavaSerDes.BYTE_ARRAY_SER_DES);
+			writeLegacyField(deviceOut, 1, JavaSerDes.INTEGER_SER_DES);
+			writeLegacyField(deviceOut, pendingNonce, JavaSerDes.BYTE_ARRAY_SER_DES);
+			writeLegacyField(deviceOut, 5, JavaSerDes.INTEGER_SER_DES);
+			writeLegacyField(deviceOut, oneTimePreKey, IdentifiableKey.SER_DES);
+			writeLegacyFile(new File(new File(erinFolder, deviceId.toString()), "Device.dat"), deviceOut);
+			
+			Server migratingServer = new Server(settings, false);
+			UserDeviceUID erinId = new UserDeviceUID(erinUserId, deviceId);
+			Assert.assertArrayEquals(pendingNonce, migratingServer.getOrCreateNonce(erinId));
+			ServerDataBundle serverDataBundle = migratingServer.getDataBundles(erinUserId).get(0);
+			Assert.assertArrayEquals(identityKey, serverDataBundle.getIdentityKey());
+			Assert.assertEquals(signedPreKey.getUID(), serverDataBundle.getSignedPreKey().getUID());
+			Assert.assertEquals(1, serverDataBundle.getTotalOneTimePreKeys());
+			Assert.assertEquals(oneTimePreKey.getUID(), serverDataBundle.pickOneTimePreKey().getUID());
+		} finally
+		{
+			directory.delete();
+			directory.finish();
+		}
+	}
+	
+	private static <T> void writeLegacyField(ByteArrayOutput out, T value, SerDes<T> serDes)
+	{
+		out.writeBoolean(true);
+		out.writeObject(value, serDes);
+	}
+	
+	private static void writeLegacyFile(File file, ByteArrayOutput out) throws IOException
+	{
+		Assert.assertTrue(file.getParentFile().mkdirs());
+		Files.write(file.toPath(), out.toByteArray());
+	}
+	
+	@org.junit.Test
+	public void legacyDataBundleTest() throws Exception
+	{
+		Settings settings = Settings.create();
+		File root = Files.createTempDirectory("PrevailProtocol").toFile();
+		FiledDirectory directory = newTemporaryDirectory(root, settings);
+		try
+		{
+			//a legacy data bundle always has the default total one time pre keys
+			DataBundle dataBundle = DataBundle.newBundle(new Settings(settings).initialOneTimePreKeys(settings.getDefaultTotalOneTimePreKeys()));
+			Storage legacyStorage = directory.storage("UserDataBundles");
+			legacyStorage.getField(DataBundle.LEGACY_SER_DES).set(dataBundle);
+			legacyStorage.flush();
+			directory.close();
+			
+			UserStorage userStorage = new UserStorage(directory, settings);
+			DataBundle legacyDataBundle = userStorage.getDataBundle();
+			Assert.assertEquals(dataBundle.getIdentityKeys().getUID(), legacyDataBundle.getIdentityKeys().getUID());
+			Assert.assertEquals(dataBundle.getOneTimePreKeys().length, legacyDataBundle.getOneTimePreKeys().length);
+			//once it's set again it's stored with the one time pre key count
+			userStorage.setDataBundle(legacyDataBundle);
+			directory.close();
+			
+			DataBundle storedDataBundle = new UserStorage(directory, settings).getDataBundle();
+			Assert.assertEquals(dataBundle.getIdentityKeys().getUID(), storedDataBundle.getIdentityKeys().getUID());
+			Assert.assertEquals(dataBundle.getOneTimePreKeys().length, storedDataBundle.getOneTimePreKeys().length);
+		} finally
+		{
+			directory.delete();
+			directory.finish();
+		}
+	}
+	
+	@org.junit.Test
+	public void snapshotTest() throws Exception
+	{
+		Settings settings = Settings.create();
+		File root = Files.createTempDirectory("PrevailProtocol").toFile();
+		List<IOException> exceptions = new CopyOnWriteArrayList<>();
+		FiledDirectory rootDirectory = new FiledDirectory(root.getPath(), 256, exceptions::add);
+		rootDirectory.initSettings(settings);
+		Directory directory = rootDirectory.directory("Snapshot");
+		try
+		{
+			directory.storage("Storage").getIntField().set(1);
+			directory.storage("Storage").flush();
+			directory.storage("Other").getIntField().set(2);
+			directory.storage("Other").flush();
+			directory.close();
+			//loading a snapshot waits for the pending flushes
+			directory.loadSnapshot();
+			File directoryFile = new File(root, "Snapshot");
+			File storageFile = new File(directoryFile, "Storage.dat");
+			File snapshotFile = new File(directoryFile.getPath() + ".snapshot");
+			//only files which settled are in the snapshot
+			long settledTime = (System.currentTimeMillis() / 1000 - 10) * 1000;
+			Assert.assertTrue(storageFile.setLastModified(settledTime));
+			directory.writeSnapshot();
+			directory.loadSnapshot();
+			Assert.assertTrue(snapshotFile.isFile());
+			directory.close();
+			
+			//the snapshot isn't rewritten when no storage file changed since it was written
+			Assert.assertTrue(snapshotFile.setLastModified(settledTime));
+			directory.writeSnapshot();
+			directory.loadSnapshot();
+			Assert.assertEquals(settledTime, snapshotFile.lastModified());
+			directory.close();
+			
+			//same length and modification time, so only the snapshot has the value 1
+			Files.write(storageFile.toPath(), Files.readAllBytes(new File(directoryFile, "Other.dat").toPath()));
+			Assert.assertTrue(storageFile.setLastModified(settledTime));
+			directory.loadSnapshot();
+			Assert.assertEquals(1, (int) directory.storage("Storage").getIntField().get());
+			directory.close();
+			
+			//a modified file is read from itself
+			Assert.assertTrue(storageFile.setLastModified(settledTime + 1000));
+			directory.loadSnapshot();
+			Assert.assertEquals(2, (int) directory.storage("Storage").getIntField().get());
+			directory.close();
+			
+			//a corrupt snapshot is ignored
+			Assert.assertTrue(storageFile.setLastModified(settledTime));
+			Files.write(snapshotFile.toPath(), "Not a snapshot".getBytes());
+			directory.loadSnapshot();
+			Assert.assertEquals(1, exceptions.size());
+			Assert.assertEquals(2, (int) directory.storage("Storage").getIntField().get());
+			directory.close();
+		} finally
+		{
+			rootDirectory.delete();
+			rootDirectory.finish();
+		}
+	}
+	
+	@org.junit.Test
+	public void parallelRestoreTest() throws Exception
+	{
+		Settings settings = Settings.getDefaultSettings();
+		//sessions are only restored in parallel with a fork join executor
+		Assert.assertTrue(settings.getExecutor() instanceof ForkJoinPool);
+		UID frankUserId = new StringWrapper("Frank");
+		User frank = new User(frankUserId, settings);
+		registerOrVerify(frank);
+		UserDeviceUID frankId = frank.getUserDeviceUID();
+		User[] recipients = {bob, grace};
+		for(User recipient : recipients)
+		{
+			UserDeviceUID recipientId = recipient.getUserDeviceUID();
+			if(!frank.hasSession(recipientId))
+			{
+				for(ServerDataBundle dataBundle : server.getDataBundles(recipientId.getUserId()))
+				{
+					frank.aliceRegister(recipientId,
+							dataBundle.getIdentityKey(),
+							dataBundle.getSignedPreKey(),
+							dataBundle.getPreKeySignature(),
+							dataBundle.pickOneTimePreKey());
+				}
+				encryptThenDecrypt(frank, recipient, 1, false);
+			}
+		}
+		frank.close();
+		
+		User restoredFrank = new User(frankUserId, settings);
+		Assert.assertEquals(frankId, restoredFrank.getUserDeviceUID());
+		for(User recipient : recipients)
+		{
+			Assert.assertTrue(restoredFrank.hasSession(recipient.getUserDeviceUID()));
+			encryptThenDecrypt(restoredFrank, recipient, 2, true);
+			encryptThenDecrypt(recipient, restoredFrank, 2, true);
+		}
+		restoredFrank.close();
+	}
+	
+	@org.junit.Test
+	public void oneTimePreKeyReplenishTest() throws Exception
+	{
+		Settings settings = new Settings(Settings.getDefaultSettings());
+		settings.oneTimePreKeyReplenishThreshold(settings.getDefaultTotalOneTimePreKeys());
+		//take a one time pre key so the server is below the threshold
+		server.getDataBundles(aliceId.getUserId()).get(0).pickOneTimePreKey();
+		Assert.assertTrue(server.getNeededOneTimePreKeys(aliceId) > 0);
+		CompletableFuture<List<IdentifiableKey>> published = new CompletableFuture<>();
+		OneTimePreKeyReplenisher replenisher = new OneTimePreKeyReplenisher(alice,
+				() -> server.getNeededOneTimePreKeys(aliceId),
+				oneTimePreKeys ->
+				{
+					server.addOneTimePreKeys(aliceId, oneTimePreKeys);
+					published.complete(oneTimePreKeys);
+				},
+				settings);
+		replenisher.check();
+		Assert.assertFalse(published.get(10, TimeUnit.SECONDS).isEmpty());
+		Assert.assertEquals(0, server.getNeededOneTimePreKeys(aliceId));
+	}
+	
+	@org.junit.Test
+	public void userManagerTest() throws Exception
+	{
+		UserManager userManager = new UserManager(Settings.getDefaultSettings());
+		UID carolUserId = new StringWrapper("Carol");
+		User carol = userManager.getUser(carolUserId);
+		Assert.assertSame(carol, userManager.getUser(carolUserId));
+		if(carol.isNewDevice())
+		{
+			carol.removeTempDataBundle();
+		}
+		UserDeviceUID carolId = carol.getUserDeviceUID();
+		byte[] carolIdentityKey = carol.getIdentityPublicKey();
+		//a leased user isn't evicted until it's lease is released
+		UserManager.Lease lease = userManager.acquire(carolUserId);
+		Assert.assertSame(carol, lease.getUser());
+		Assert.assertFalse(userManager.evict(carolUserId));
+		lease.close();
+		Assert.assertTrue(userManager.evict(carolUserId));
+		Assert.assertEquals(0, userManager.size());
+		try
+		{
+			carol.getOrCreateGroup(groupId);
+			Assert.fail("A closed user was used");
+		} catch(IllegalStateException ignored)
+		{
+		}
+		User loadedCarol = userManager.getUser(carolUserId);
+		Assert.assertNotSame(carol, loadedCarol);
+		Assert.assertFalse(loadedCarol.isNewDevice());
+		Assert.assertEquals(carolId, loadedCarol.getUserDeviceUID());
+		Assert.assertArrayEquals(carolIdentityKey, loadedCarol.getIdentityPublicKey());
+		//a user leased when the manager is closed is closed once it's released
+		try(UserManager.Lease closingLease = userManager.acquire(carolUserId))
+		{
+			userManager.close();
+			Assert.assertEquals(1, userManager.size());
+			closingLease.getUser().ensureOpen();
+		}
+		Assert.assertEquals(0, userManager.size());
+	}
+	
+	@org.junit.Test
+	public void signedPreKeyRotationTest() throws Exception
+	{
+		Settings settings = new Settings(Settings.getDefaultSettings());
+		//block the only thread of the scheduler so the scheduled collections never run, the test collects the expired signed pre keys itself
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		CountDownLatch schedulerBlocked = new CountDownLatch(1);
+		scheduler.execute(() ->
+		{
+			try
+			{
+				schedulerBlocked.await();
+			} catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		});
+		AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+		Queue<Throwable> exceptions = new ConcurrentLinkedQueue<>();
+		SignedPreKeyRotation rotation = new SignedPreKeyRotation(scheduler, Runnable::run, exceptions::add, clock::get);
+		settings.signedPreKeyRotation(rotation);
+		User dave = new User(new StringWrapper("Dave"), settings);
+		if(dave.isNewDevice())
+		{
+			dave.removeTempDataBundle();
+		}
+		//the constructor adds the user to the rotation, adding it again does nothing
+		Assert.assertEquals(1, rotation.size());
+		dave.startSignedPreKeyRotation();
+		Assert.assertEquals(1, rotation.size());
+		Queue<SignedPreKey> signedPreKeys = new ConcurrentLinkedQueue<>();
+		dave.onSignedPreKeyChange(signedPreKeys::add);
+		
+		long expirationTime = dave.getSignedPreKeyExpirationTime();
+		clock.set(expirationTime - 1);
+		rotation.rotateExpired();
+		Assert.assertTrue(signedPreKeys.isEmpty());
+		clock.set(expirationTime);
+		rotation.rotateExpired();
+		Assert.assertEquals(1, signedPreKeys.size());
+		Assert.assertEquals(signedPreKeys.peek().getExpirationTime(), dave.getSignedPreKeyExpirationTime());
+		//the new signed pre key is only changed once it expires too
+		rotation.rotateExpired();
+		Assert.assertEquals(1, signedPreKeys.size());
+		
+		//a failed change is reported and retried
+		dave.onSignedPreKeyChange(signedPreKey ->
+		{
+			if(exceptions.isEmpty())
+			{
+				throw new IllegalStateException("Failed change");
+			}
+		});
+		clock.set(dave.getSignedPreKeyExpirationTime());
+		rotation.rotateExpired();
+		Assert.assertEquals(1, exceptions.size());
+		Assert.assertEquals(1, rotation.size());
+		long failedTime = clock.get();
+		clock.set(failedTime + SignedPreKeyRotation.RETRY_DELAY - 1);
+		rotation.rotateExpired();
+		Assert.assertEquals(2, signedPreKeys.size());
+		clock.set(failedTime + SignedPreKeyRotation.RETRY_DELAY);
+		rotation.rotateExpired();
+		Assert.assertEquals(3, signedPreKeys.size());
+		Assert.assertEquals(1, exceptions.size());
+		dave.close();
+		Assert.assertEquals(0, rotation.size());
+		schedulerBlocked.countDown();
+		scheduler.shutdown();
+	}
+	
 	@org.junit.Test
 	public void fingerprintTest() throws Exception
 	{
@@ -319,5 +1327,375 @@ public class Test
 		
 		Assert.assertTrue(aliceFingerprintHandler.compareFingerprints(bobUserId, bobFingerprint, whatBobThinksIsAliceFingerprint));
 		Assert.assertTrue(bobFingerprintHandler.compareFingerprints(aliceUserId, aliceFingerprint, whatAliceThinksIsBobFingerprint));
+	}	
+	@org.junit.Test
+	public void hkdfTest() throws Exception
+	{
+		Settings settings = Settings.getDefaultSettings();
+		KDF kdf = settings.getKDFFactory().newKDF(Mac.getInstance(settings.getMacAlgorithm()), settings);
+		byte[] salt = "Salt".getBytes();
+		byte[] inputKey = "Input key".getBytes();
+		byte[] info = "Info".getBytes();
+		int hashSize = settings.getOutputHashSize();
+		for(int outputSize : new int[]{1, hashSize - 1, hashSize, hashSize + 1, hashSize * 3 + 5})
+		{
+			byte[] expected = previousHKDF(settings, salt, inputKey, info, outputSize);
+			Assert.assertArrayEquals(expected, kdf.deriveKey(salt, inputKey, info, outputSize));
+			Assert.assertArrayEquals(previousHKDF(settings, new byte[hashSize], inputKey, info, outputSize), kdf.deriveKey(inputKey, info, outputSize));
+			//deriving into an offset of a larger buffer doesn't touch the rest of it
+			byte[] out = new byte[outputSize + 2];
+			kdf.deriveKey(salt, inputKey, info, out, 1, outputSize);
+			Assert.assertEquals(0, out[0]);
+			Assert.assertEquals(0, out[outputSize + 1]);
+			Assert.assertArrayEquals(expected, Arrays.copyOfRange(out, 1, outputSize + 1));
+		}
+	}
+	
+	/**
+	 * @return the key derived by the {@link oughttoprevail.prevailprotocol.kdf.HKDF} implementation which allocated a new array for every block
+	 */
+	private static byte[] previousHKDF(Settings settings, byte[] salt, byte[] inputKey, byte[] info, int outputLength) throws Exception
+	{
+		Mac mac = Mac.getInstance(settings.getMacAlgorithm());
+		mac.init(new SecretKeySpec(salt, settings.getMacAlgorithm()));
+		byte[] key = mac.doFinal(inputKey);
+		mac.init(new SecretKeySpec(key, settings.getMacAlgorithm()));
+		int iterations = (int) Math.ceil((double) outputLength / settings.getOutputHashSize());
+		byte[] lastHash = null;
+		byte[] result = new byte[outputLength];
+		int resultIndex = 0;
+		for(int i = 0; i < iterations; i++)
+		{
+			mac.update(lastHash);
+			mac.update(info);
+			mac.update((byte) i);
+			byte[] newHash = mac.doFinal();
+			int length = newHash.length;
+			System.arraycopy(newHash, 0, result, resultIndex, Math.min(length, outputLength - resultIndex));
+			resultIndex += length;
+			lastHash = newHash;
+		}
+		return result;
+	}	
+	@org.junit.Test
+	public void keyPairPoolTest()
+	{
+		List<KeyPair> generated = new ArrayList<>();
+		X25519 asymmetricCryptography = new X25519()
+		{
+			@Override
+			public KeyPair generateKeyPair(byte[] seed)
+			{
+				KeyPair keyPair = super.generateKeyPair(seed);
+				generated.add(keyPair);
+				return keyPair;
+			}
+		};
+		Queue<Runnable> refills = new ConcurrentLinkedQueue<>();
+		Settings settings = Settings.create().asymmetricCryptography(asymmetricCryptography).executor(refills::add).keyPairPoolLowWaterMark(2);
+		KeyPairPool keyPairPool = new KeyPairPool(settings);
+		//the pool is filled up to twice the low water mark in the background
+		Assert.assertEquals(0, keyPairPool.size());
+		Assert.assertEquals(1, refills.size());
+		refills.poll().run();
+		Assert.assertEquals(4, keyPairPool.size());
+		Assert.assertEquals(4, generated.size());
+		
+		for(int i = 0; i < 4; i++)
+		{
+			KeyPair pooled = generated.get(i);
+			byte[] pooledPrivateKey = pooled.getPrivateKey().clone();
+			KeyPair keyPair = keyPairPool.take();
+			Assert.assertArrayEquals(pooled.getPublicKey(), keyPair.getPublicKey());
+			Assert.assertArrayEquals(pooledPrivateKey, keyPair.getPrivateKey());
+			//the pool doesn't keep the private key it handed out
+			Assert.assertArrayEquals(new byte[pooledPrivateKey.length], pooled.getPrivateKey());
+		}
+		//a single refill was submitted once the pool went below the low water mark
+		Assert.assertEquals(0, keyPairPool.size());
+		Assert.assertEquals(1, refills.size());
+		
+		//an empty pool generates the key pair itself
+		KeyPair keyPair = keyPairPool.take();
+		Assert.assertEquals(5, generated.size());
+		Assert.assertSame(generated.get(4), keyPair);
+		refills.poll().run();
+		Assert.assertEquals(4, keyPairPool.size());
+		Assert.assertTrue(refills.isEmpty());
+	}	
+	@org.junit.Test
+	public void compactFormatMigrationTest() throws Exception
+	{
+		Settings settings = Settings.create();
+		File root = Files.createTempDirectory("PrevailProtocol").toFile();
+		FiledDirectory directory = newTemporaryDirectory(root, settings);
+		try
+		{
+			byte[] bytes = "Legacy".getBytes();
+			ByteArrayOutput out = new ByteArrayOutput(ByteBuffer.allocate(256), settings);
+			writeLegacyField(out, 7, JavaSerDes.INTEGER_SER_DES);
+			writeLegacyField(out, bytes, JavaSerDes.BYTE_ARRAY_SER_DES);
+			out.writeBoolean(false);
+			writeLegacyField(out, 9L, JavaSerDes.LONG_SER_DES);
+			File file = new File(root, "Legacy.dat");
+			Files.write(file.toPath(), out.toByteArray());
+			long legacyLength = file.length();
+			
+			for(int i = 0; i < 2; i++)
+			{
+				Storage storage = directory.storage("Legacy");
+				Assert.assertEquals(7, (int) storage.getIntField().get());
+				Assert.assertArrayEquals(bytes, storage.getField(JavaSerDes.BYTE_ARRAY_SER_DES).get());
+				Assert.assertNull(storage.getField(JavaSerDes.INTEGER_SER_DES).get());
+				Assert.assertEquals(9L, (long) storage.getLongField().get());
+				//the first flush rewrites the file in the compact format which is read by the second iteration
+				storage.flush();
+				directory.close();
+				byte[] content = Files.readAllBytes(file.toPath());
+				Assert.assertEquals(FiledStorage.COMPACT_FORMAT, content[0]);
+				Assert.assertTrue(content.length < legacyLength);
+			}
+		} finally
+		{
+			directory.delete();
+			directory.finish();
+		}
+	}	
+	/**
+	 * @return new users with the specified names which are registered to a new server in the initial directory of the specified settings, every
+	 * user has a session with every other user
+	 */
+	private User[] newTemporaryUsers(Settings settings, String... names) throws Exception
+	{
+		Server temporaryServer = new Server(settings, false);
+		User[] users = new User[names.length];
+		for(int i = 0; i < names.length; i++)
+		{
+			users[i] = new User(new StringWrapper(names[i]), settings);
+			registerOrVerify(temporaryServer, users[i]);
+		}
+		for(int i = 0; i < users.length; i++)
+		{
+			for(int j = i + 1; j < users.length; j++)
+			{
+				UserDeviceUID recipientId = users[j].getUserDeviceUID();
+				for(ServerDataBundle dataBundle : temporaryServer.getDataBundles(recipientId.getUserId()))
+				{
+					users[i].aliceRegister(recipientId,
+							dataBundle.getIdentityKey(),
+							dataBundle.getSignedPreKey(),
+							dataBundle.getPreKeySignature(),
+							dataBundle.pickOneTimePreKey());
+				}
+				encryptThenDecrypt(users[i], users[j], 1, false);
+			}
+		}
+		return users;
+	}
+	
+	@org.junit.Test
+	public void packedStorageTest() throws Exception
+	{
+		Settings settings = Settings.create();
+		File root = Files.createTempDirectory("PrevailProtocol").toFile();
+		FiledDirectory directory = newTemporaryDirectory(root, settings);
+		try
+		{
+			int recordSize = 16;
+			PackedStorage packedStorage = directory.packedStorage("Packed", recordSize);
+			for(int i = 0; i < 3; i++)
+			{
+				Storage record = packedStorage.record(i);
+				record.getIntField().set(i);
+				record.getField(JavaSerDes.BYTE_ARRAY_SER_DES).set(new byte[]{(byte) i});
+				record.flush();
+			}
+			directory.close();
+			File file = new File(root, "Packed.dat");
+			Assert.assertEquals(3 * recordSize, file.length());
+			
+			//a flushed record only rewrites it's own slot
+			Storage updatedRecord = directory.packedStorage("Packed", recordSize).record(1);
+			updatedRecord.getIntField().set(10);
+			Assert.assertArrayEquals(new byte[]{1}, updatedRecord.getField(JavaSerDes.BYTE_ARRAY_SER_DES).get());
+			updatedRecord.flush();
+			directory.close();
+			Assert.assertEquals(3 * recordSize, file.length());
+			
+			packedStorage = directory.packedStorage("Packed", recordSize);
+			for(int i = 0; i < 3; i++)
+			{
+				Storage record = packedStorage.record(i);
+				Assert.assertEquals(i == 1 ? 10 : i, (int) record.getIntField().get());
+				Assert.assertArrayEquals(new byte[]{(byte) i}, record.getField(JavaSerDes.BYTE_ARRAY_SER_DES).get());
+			}
+			//a record past the end of the file has no values
+			Assert.assertNull(packedStorage.record(3).getField(JavaSerDes.INTEGER_SER_DES).get());
+			directory.close();
+		} finally
+		{
+			directory.delete();
+			directory.finish();
+		}
+	}
+	
+	@org.junit.Test
+	public void groupSessionPackedStorageTest() throws Exception
+	{
+		Settings settings = Settings.create();
+		File root = Files.createTempDirectory("PrevailProtocol").toFile();
+		FiledDirectory directory = newTemporaryDirectory(root, settings);
+		settings.initialDirectory(directory);
+		try
+		{
+			User[] users = newTemporaryUsers(settings, "Heidi", "Ivan");
+			User heidi = users[0];
+			User ivan = users[1];
+			UserDeviceUID heidiId = heidi.getUserDeviceUID();
+			UID ivanUserId = ivan.getUserDeviceUID().getUserId();
+			File ivanGroups = new File(new File(new File(root, "Users"), ivanUserId.toString()), "Groups");
+			
+			//a new session keeps the receiving ratchets of all the members in a single packed file
+			UID packedGroupId = new StringWrapper("Packed");
+			Group heidiGroup = heidi.getOrCreateGroup(packedGroupId);
+			Group ivanGroup = ivan.getOrCreateGroup(packedGroupId);
+			maybeJoinMember(heidi, ivan, heidiGroup, ivanGroup);
+			byte[] message = heidiGroup.encryptMessage(MESSAGE_BYTES).getCiphertext();
+			Assert.assertArrayEquals(MESSAGE_BYTES, ivanGroup.decryptMessage(heidiId, message));
+			ivan.close();
+			File packedSession = new File(new File(ivanGroups, packedGroupId.toString()), "Session0");
+			File receivingRatchets = new File(packedSession, "ReceivingRatchets.dat");
+			long length = receivingRatchets.length();
+			Assert.assertTrue(length > 0);
+			Assert.assertFalse(new File(packedSession, heidiId.getUserId().toString()).exists());
+			
+			//the ratchet is reloaded from it's record and stepped in place
+			ivan = new User(ivanUserId, settings);
+			ivanGroup = ivan.getOrCreateGroup(packedGroupId);
+			for(int i = 0; i < 3; i++)
+			{
+				message = heidiGroup.encryptMessage(MESSAGE_BYTES).getCiphertext();
+				Assert.assertArrayEquals(MESSAGE_BYTES, ivanGroup.decryptMessage(heidiId, message));
+			}
+			ivan.close();
+			Assert.assertEquals(length, receivingRatchets.length());
+			
+			//a session stored before the packed storage was added has no packed field and keeps every member in it's own storage
+			UID legacyGroupId = new StringWrapper("Legacy");
+			Directory legacyGroupDirectory = directory.directory("Users")
+													  .directory(ivanUserId.toString())
+													  .directory("Groups")
+													  .directory(legacyGroupId.toString());
+			Storage groupStorage = legacyGroupDirectory.storage("Group");
+			groupStorage.getIntField().set(1);
+			RecipientUser.add(groupStorage, groupStorage.getFieldList(RecipientUser.SER_DES), heidiId);
+			Storage sessionStorage = legacyGroupDirectory.directory("Session0").storage("GroupSession");
+			sessionStorage.getField(JavaSerDes.BYTE_ARRAY_SER_DES).set(settings.getRandom().nextBytes(settings.getSymmetricKeySize()));
+			sessionStorage.getIntField().set(0);
+			sessionStorage.getField(KeyPair.SER_DES).set(settings.getAsymmetricCryptography().generateKeyPair());
+			sessionStorage.flush();
+			legacyGroupDirectory.close();
+			
+			ivan = new User(ivanUserId, settings);
+			Group heidiLegacyGroup = heidi.getOrCreateGroup(legacyGroupId);
+			ivanGroup = ivan.getOrCreateGroup(legacyGroupId);
+			byte[] senderKey = heidiLegacyGroup.encryptSenderKey(ivan.getUserDeviceUID());
+			ivanGroup.memberJoined(heidiId, ivan.getMessenger(heidiId).decryptMessage(senderKey));
+			message = heidiLegacyGroup.encryptMessage(MESSAGE_BYTES).getCiphertext();
+			Assert.assertArrayEquals(MESSAGE_BYTES, ivanGroup.decryptMessage(heidiId, message));
+			ivan.close();
+			File legacySession = new File(new File(ivanGroups, legacyGroupId.toString()), "Session0");
+			Assert.assertTrue(new File(new File(legacySession, heidiId.getUserId().toString()), heidiId.getDeviceId() + ".dat").isFile());
+			Assert.assertFalse(new File(legacySession, "ReceivingRatchets.dat").exists());
+			
+			ivan = new User(ivanUserId, settings);
+			ivanGroup = ivan.getOrCreateGroup(legacyGroupId);
+			message = heidiLegacyGroup.encryptMessage(MESSAGE_BYTES).getCiphertext();
+			Assert.assertArrayEquals(MESSAGE_BYTES, ivanGroup.decryptMessage(heidiId, message));
+			ivan.close();
+			heidi.close();
+		} finally
+		{
+			directory.delete();
+			directory.finish();
+		}
+	}	
+	@org.junit.Test
+	public void groupSkippedKeysTest() throws Exception
+	{
+		Settings settings = Settings.create().maxStoredGroupSkippedKeys(2);
+		File root = Files.createTempDirectory("PrevailProtocol").toFile();
+		FiledDirectory directory = newTemporaryDirectory(root, settings);
+		settings.initialDirectory(directory);
+		try
+		{
+			User[] users = newTemporaryUsers(settings, "Heidi", "Ivan", "Judy");
+			User heidi = users[0];
+			User ivan = users[1];
+			User judy = users[2];
+			UserDeviceUID heidiId = heidi.getUserDeviceUID();
+			UserDeviceUID judyId = judy.getUserDeviceUID();
+			UID ivanUserId = ivan.getUserDeviceUID().getUserId();
+			UID skippedGroupId = new StringWrapper("Skipped");
+			Group heidiGroup = heidi.getOrCreateGroup(skippedGroupId);
+			Group judyGroup = judy.getOrCreateGroup(skippedGroupId);
+			Group ivanGroup = ivan.getOrCreateGroup(skippedGroupId);
+			maybeJoinMember(heidi, ivan, heidiGroup, ivanGroup);
+			maybeJoinMember(judy, ivan, judyGroup, ivanGroup);
+			
+			byte[][] heidiMessages = new byte[8][];
+			for(int i = 0; i < 4; i++)
+			{
+				heidiMessages[i] = heidiGroup.encryptMessage(new byte[]{(byte) i}).getCiphertext();
+			}
+			byte[][] judyMessages = new byte[3][];
+			for(int i = 0; i < judyMessages.length; i++)
+			{
+				judyMessages[i] = judyGroup.encryptMessage(new byte[]{(byte) i}).getCiphertext();
+			}
+			//three of heidi's keys are skipped but only two are stored, the oldest is evicted
+			Assert.assertArrayEquals(new byte[]{3}, ivanGroup.decryptMessage(heidiId, heidiMessages[3]));
+			//judy's skipped keys have their own budget so they don't evict heidi's
+			Assert.assertArrayEquals(new byte[]{2}, ivanGroup.decryptMessage(judyId, judyMessages[2]));
+			Assert.assertArrayEquals(new byte[]{1}, ivanGroup.decryptMessage(heidiId, heidiMessages[1]));
+			Assert.assertArrayEquals(new byte[]{2}, ivanGroup.decryptMessage(heidiId, heidiMessages[2]));
+			Assert.assertArrayEquals(new byte[]{0}, ivanGroup.decryptMessage(judyId, judyMessages[0]));
+			Assert.assertArrayEquals(new byte[]{1}, ivanGroup.decryptMessage(judyId, judyMessages[1]));
+			
+			File ivanFolder = new File(new File(root, "Users"), ivanUserId.toString());
+			File groupFolder = new File(new File(ivanFolder, "Groups"), skippedGroupId.toString());
+			File heidiSkippedKeys = new File(new File(new File(new File(groupFolder, "SenderSkippedKeys"), heidiId.getUserId().toString()),
+					heidiId.getDeviceId().toString()), "SkippedKeys.dat");
+			Assert.assertTrue(heidiSkippedKeys.isFile());
+			//skipped keys which were stored in the storage shared by the group's senders are moved to the storage of their sender
+			File[] legacyFiles = {new File(groupFolder, "SkippedKeys.dat"), new File(ivanFolder, "SkippedKeys.dat")};
+			for(int i = 0; i < legacyFiles.length; i++)
+			{
+				int skipped = 4 + i * 2;
+				heidiMessages[skipped] = heidiGroup.encryptMessage(new byte[]{(byte) skipped}).getCiphertext();
+				heidiMessages[skipped + 1] = heidiGroup.encryptMessage(new byte[]{(byte) (skipped + 1)}).getCiphertext();
+				Assert.assertArrayEquals(new byte[]{(byte) (skipped + 1)}, ivanGroup.decryptMessage(heidiId, heidiMessages[skipped + 1]));
+				ivan.close();
+				Files.move(heidiSkippedKeys.toPath(), legacyFiles[i].toPath(), StandardCopyOption.REPLACE_EXISTING);
+				
+				ivan = new User(ivanUserId, settings);
+				ivanGroup = ivan.getOrCreateGroup(skippedGroupId);
+				Assert.assertArrayEquals(new byte[]{(byte) skipped}, ivanGroup.decryptMessage(heidiId, heidiMessages[skipped]));
+			}
+			//the evicted key is gone so heidi's first message is decrypted with the wrong key (this steps heidi's ratchet so it's checked last)
+			try
+			{
+				Assert.assertFalse(Arrays.equals(new byte[]{0}, ivanGroup.decryptMessage(heidiId, heidiMessages[0])));
+			} catch(BadPaddingException ignored)
+			{
+			}
+			ivan.close();
+			heidi.close();
+			judy.close();
+		} finally
+		{
+			directory.delete();
+			directory.finish();
+		}
 	}
 }
\ No newline at end of file